@@ -0,0 +1,464 @@
+import java.util.Random;
+
+import tester.*;
+
+
+// represents the planes of a board as bitboards: one bit per cell, 64 cells to a long,
+// each row starting on a new word, so that the cells above and below a word are a row of
+// words away and the cells beside it are a shift away
+// whole-board questions become a popcount per word, and a flood becomes a dilation of
+// whole words: a frontier spread along its rows with shifts and carries, then onto the rows
+// around it, masked by the cells it may reach, until nothing new is reached
+// the planes are loaded from a Board eight cells at a time, and kept up to date by uncover;
+// planes that watch a board are loaded once and then follow each cell it changes, so the
+// whole-board questions MineSweeper asks every frame never walk the cells
+class BitBoard implements ICellObserver {
+  // the board these planes follow, if they watch one
+  Board board;
+  int width;
+  int height;
+  int rowWords;
+  // the cells of the last word of each row that are on the board
+  long lastMask;
+  long[] mines;
+  long[] covered;
+  long[] flagged;
+  // the safe cells with no mines around them
+  long[] empty;
+
+  // scratch space for uncover, made on first use: the empty cells uncovered in this step,
+  // them spread along their rows, the cells reached for the next step, and the rows
+  // touched and still flooding, stamped with the step that touched them
+  long[] frontier;
+  long[] spread;
+  long[] next;
+  int[] stamps;
+  int step;
+  IntList touched;
+  IntList active;
+
+  BitBoard(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.rowWords = (width + 63) >>> 6;
+    this.lastMask = -1L >>> (this.rowWords * 64 - width);
+    int words = this.rowWords * height;
+    this.mines = new long[words];
+    this.covered = new long[words];
+    this.flagged = new long[words];
+    this.empty = new long[words];
+  }
+
+  // returns the planes of the given board
+  static BitBoard of(Board board) {
+    BitBoard bits = new BitBoard(board.width, board.height);
+    bits.load(board);
+    return bits;
+  }
+
+  // returns the planes of the given board, which follow every change it makes from now on
+  static BitBoard watch(Board board) {
+    BitBoard bits = of(board);
+    bits.board = board;
+    board.addObserver(bits);
+    return bits;
+  }
+
+  // Effect: sets the bits of the changed cell from its state on the watched board
+  public void cellChanged(int idx) {
+    int w = this.word(idx);
+    long bit = this.bit(idx);
+    int state = this.board.cells[idx];
+    this.mines[w] = (state & Board.MINE) != 0 ? this.mines[w] | bit : this.mines[w] & ~bit;
+    this.covered[w] = (state & Board.COVERED) != 0
+        ? this.covered[w] | bit : this.covered[w] & ~bit;
+    this.flagged[w] = (state & Board.FLAGGED) != 0
+        ? this.flagged[w] | bit : this.flagged[w] & ~bit;
+    this.empty[w] = (state & (Board.MINE | Board.VALUE_MASK)) == 0
+        ? this.empty[w] | bit : this.empty[w] & ~bit;
+  }
+
+  // Effect: sets every plane from the given board, which must be the same size
+  void load(Board board) {
+    byte[] cells = board.cells;
+    for (int row = 0; row < this.height; row++) {
+      for (int w = 0; w < this.rowWords; w++) {
+        int first = row * this.width + (w << 6);
+        int count = Math.min(64, this.width - (w << 6));
+        long mine = 0;
+        long cover = 0;
+        long flag = 0;
+        long zero = 0;
+        if (count == 64) {
+          for (int k = 0; k < 8; k++) {
+            long eight = (long) Snapshot.EIGHT_CELLS.get(cells, first + (k << 3));
+            mine |= Snapshot.gather(eight, 4) << (k << 3);
+            cover |= Snapshot.gather(eight, 5) << (k << 3);
+            flag |= Snapshot.gather(eight, 6) << (k << 3);
+            // the top bit of a byte is set when its mine and value bits are all clear:
+            // adding 0x7F to a byte of at most 0x1F sets it otherwise, and never carries
+            long low = eight & 0x1F1F1F1F1F1F1F1FL;
+            long zeros = ~(low + 0x7F7F7F7F7F7F7F7FL) & 0x8080808080808080L;
+            zero |= Snapshot.gather(zeros, 7) << (k << 3);
+          }
+        } else {
+          for (int j = 0; j < count; j++) {
+            int state = cells[first + j];
+            mine |= (long) (state >>> 4 & 1) << j;
+            cover |= (long) (state >>> 5 & 1) << j;
+            flag |= (long) (state >>> 6 & 1) << j;
+            if ((state & (Board.MINE | Board.VALUE_MASK)) == 0) {
+              zero |= 1L << j;
+            }
+          }
+        }
+        int i = row * this.rowWords + w;
+        this.mines[i] = mine;
+        this.covered[i] = cover;
+        this.flagged[i] = flag;
+        this.empty[i] = zero;
+      }
+    }
+  }
+
+  // returns the word holding the given cell of a board
+  int word(int idx) {
+    int row = idx / this.width;
+    return row * this.rowWords + ((idx - row * this.width) >>> 6);
+  }
+
+  // returns the bit of its word the given cell of a board is
+  long bit(int idx) {
+    return 1L << ((idx % this.width) & 63);
+  }
+
+  // returns the number of cells set in the given plane
+  static int count(long[] plane) {
+    int count = 0;
+    for (long word : plane) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+
+  // counts the mines
+  int countMines() {
+    return count(this.mines);
+  }
+
+  // counts the flags
+  int countFlags() {
+    return count(this.flagged);
+  }
+
+  // counts the uncovered mines
+  int countMinesRevealed() {
+    int count = 0;
+    for (int i = 0; i < this.mines.length; i++) {
+      count += Long.bitCount(this.mines[i] & ~this.covered[i]);
+    }
+    return count;
+  }
+
+  // counts the covered safe cells
+  int countCoveredSafe() {
+    int count = 0;
+    for (int i = 0; i < this.mines.length; i++) {
+      count += Long.bitCount(this.covered[i] & ~this.mines[i]);
+    }
+    return count;
+  }
+
+  // returns the state of the game these planes hold, counted from the planes
+  GameStatus status() {
+    return new GameStatus(this.width, this.height, this.countMines(),
+        this.countCoveredSafe(), this.countMinesRevealed(), this.countFlags());
+  }
+
+  // has a mine been uncovered? stops at the first word with one
+  boolean isMineRevealed() {
+    for (int i = 0; i < this.mines.length; i++) {
+      if ((this.mines[i] & ~this.covered[i]) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // has every safe cell been uncovered? stops at the first word with a covered one
+  boolean allSafeRevealed() {
+    for (int i = 0; i < this.mines.length; i++) {
+      if ((this.covered[i] & ~this.mines[i]) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Effect: writes into spread the given row of from, spread one cell left and right,
+  // carrying across the words of the row
+  void spreadRow(long[] from, int row) {
+    int start = row * this.rowWords;
+    for (int w = 0; w < this.rowWords; w++) {
+      long x = from[start + w];
+      long s = x | x << 1 | x >>> 1;
+      if (w > 0) {
+        s |= from[start + w - 1] >>> 63;
+      }
+      if (w < this.rowWords - 1) {
+        s |= from[start + w + 1] << 63;
+      } else {
+        s &= this.lastMask;
+      }
+      this.spread[start + w] = s;
+    }
+  }
+
+  // Effect: writes into frontier the given row's covered empty cells that join up along
+  // the row with the seeds in next, whole runs at a time
+  // adding a seed to the run of ones it sits in clears the run from the seed up and sets
+  // the bit above it, so (run + seed) ^ run, with the seed, is the run from the seed up;
+  // the same on the words reversed fills from the seeds down, and a run that reaches the
+  // end of a word carries into the next
+  void fillRow(int row) {
+    int start = row * this.rowWords;
+    long carry = 0;
+    for (int w = 0; w < this.rowWords; w++) {
+      int i = start + w;
+      long m = this.empty[i] & this.covered[i];
+      long t = (this.next[i] | carry) & m;
+      long up = ((m + t) ^ m | t) & m;
+      this.frontier[i] = up;
+      carry = up >>> 63;
+    }
+    carry = 0;
+    for (int w = this.rowWords - 1; w >= 0; w--) {
+      int i = start + w;
+      long m = Long.reverse(this.empty[i] & this.covered[i]);
+      long t = Long.reverse(this.frontier[i]) | carry & m;
+      long down = Long.reverse(((m + t) ^ m | t) & m);
+      this.frontier[i] |= down;
+      carry = down & 1;
+    }
+  }
+
+  // Effect: uncovers the given cell of the given board, whose planes these are, flooding
+  // through empty cells, and keeps these planes up to date
+  // each step fills the empty cells reached along their rows, uncovers them and the cells
+  // beside them, then reaches into the rows above and below; only the rows the flood is
+  // in are worked on, so a step costs the words of those rows
+  // uncovers the same cells Board.uncover does, a row at a time, in board order within it
+  // returns how many cells were uncovered
+  int uncover(Board board, int idx) {
+    int seedWord = this.word(idx);
+    long seedBit = this.bit(idx);
+    if ((this.covered[seedWord] & seedBit) == 0) {
+      return 0;
+    }
+    if ((this.empty[seedWord] & seedBit) == 0) {
+      return this.open(board, seedWord, seedBit);
+    }
+    if (this.frontier == null) {
+      this.frontier = new long[this.mines.length];
+      this.spread = new long[this.mines.length];
+      this.next = new long[this.mines.length];
+      this.stamps = new int[this.height];
+      this.touched = new IntList();
+      this.active = new IntList();
+    }
+    int revealed = 0;
+    this.next[seedWord] = seedBit;
+    this.touched.clear();
+    this.touched.add(idx / this.width);
+    this.stamps[idx / this.width] = ++this.step;
+    while (this.touched.size() > 0) {
+      // uncover what was reached in each touched row, and the runs of empty cells it joins
+      this.active.clear();
+      for (int k = 0; k < this.touched.size(); k++) {
+        int row = this.touched.get(k);
+        int start = row * this.rowWords;
+        this.fillRow(row);
+        this.spreadRow(this.frontier, row);
+        boolean more = false;
+        for (int i = start; i < start + this.rowWords; i++) {
+          long opened = (this.next[i] | this.spread[i]) & this.covered[i] & ~this.mines[i];
+          this.next[i] = 0;
+          if (opened != 0) {
+            revealed += this.open(board, i, opened);
+          }
+          more |= this.frontier[i] != 0;
+          this.frontier[i] = 0;
+        }
+        if (more) {
+          this.active.add(row);
+        }
+      }
+      // the empty cells just uncovered reach into the rows around them
+      this.touched.clear();
+      this.step++;
+      for (int k = 0; k < this.active.size(); k++) {
+        int row = this.active.get(k);
+        for (int to = Math.max(0, row - 1); to <= Math.min(this.height - 1, row + 1); to++) {
+          if (this.stamps[to] != this.step) {
+            this.stamps[to] = this.step;
+            this.touched.add(to);
+          }
+          int from = row * this.rowWords;
+          int into = to * this.rowWords;
+          for (int w = 0; w < this.rowWords; w++) {
+            this.next[into + w] |= this.spread[from + w];
+          }
+        }
+      }
+    }
+    return revealed;
+  }
+
+  // Effect: uncovers the given cells of the given word, on the board and in these planes
+  // returns how many cells were uncovered
+  int open(Board board, int word, long cells) {
+    this.covered[word] &= ~cells;
+    this.flagged[word] &= ~cells;
+    int row = word / this.rowWords;
+    int first = row * this.width + ((word - row * this.rowWords) << 6);
+    int count = 0;
+    while (cells != 0) {
+      board.reveal(first + Long.numberOfTrailingZeros(cells));
+      cells &= cells - 1;
+      count++;
+    }
+    return count;
+  }
+}
+
+
+class ExamplesBitBoard {
+
+  // returns a board of the given size with the given density of mines, its values set
+  Board board(int width, int height, double density, long seed) {
+    Board board = new Board(width, height);
+    new ReservoirLayout().placeMines(board, (int) (board.size * density), new Random(seed),
+        new int[0]);
+    board.updateValues();
+    return board;
+  }
+
+  // checks every plane holds what the board does, cell by cell
+  void checkPlanes(Tester t, BitBoard bits, Board board) {
+    for (int i = 0; i < board.size; i++) {
+      long bit = bits.bit(i);
+      int w = bits.word(i);
+      t.checkExpect((bits.mines[w] & bit) != 0, board.isMine(i));
+      t.checkExpect((bits.covered[w] & bit) != 0, board.isCovered(i));
+      t.checkExpect((bits.flagged[w] & bit) != 0, board.isFlagged(i));
+      t.checkExpect((bits.empty[w] & bit) != 0, board.getValue(i) == 0);
+    }
+    t.checkExpect(bits.status(), board.status());
+  }
+
+  void testLoad(Tester t) {
+    int[] widths = {1, 7, 63, 64, 65, 130};
+    for (int width : widths) {
+      Board board = board(width, 5, 0.2, width);
+      board.flag(1);
+      board.uncover(board.size - 1);
+      checkPlanes(t, BitBoard.of(board), board);
+    }
+    BitBoard bits = new BitBoard(65, 2);
+    t.checkExpect(bits.rowWords, 2);
+    t.checkExpect(bits.lastMask, 1L);
+    t.checkExpect(bits.word(66), 2);
+    t.checkExpect(bits.bit(66), 2L);
+  }
+
+  void testQueries(Tester t) {
+    Board board = board(100, 50, 0.15, 1);
+    BitBoard bits = BitBoard.of(board);
+    t.checkExpect(bits.countMines(), 750);
+    t.checkExpect(bits.isMineRevealed(), false);
+    t.checkExpect(bits.allSafeRevealed(), false);
+    Board clear = new Board(70, 3);
+    clear.uncover(0);
+    t.checkExpect(BitBoard.of(clear).allSafeRevealed(), true);
+    int mine = 0;
+    while (!board.isMine(mine)) {
+      mine++;
+    }
+    board.uncover(mine);
+    t.checkExpect(BitBoard.of(board).isMineRevealed(), true);
+  }
+
+  void testUncover(Tester t) {
+    // floods by dilation uncover just what the queue based flood does
+    Random rand = new Random(4);
+    int[][] shapes = {{1, 40}, {40, 1}, {64, 64}, {100, 37}, {129, 20}};
+    for (int[] shape : shapes) {
+      for (int game = 0; game < 5; game++) {
+        Board queue = board(shape[0], shape[1], 0.1 + game * 0.03, rand.nextLong());
+        queue.flag(rand.nextInt(queue.size));
+        Board words = new Board(shape[0], shape[1]);
+        System.arraycopy(queue.cells, 0, words.cells, 0, queue.size);
+        words.recount();
+        BitBoard bits = BitBoard.of(words);
+        for (int move = 0; move < 10; move++) {
+          int idx = rand.nextInt(queue.size);
+          t.checkExpect(bits.uncover(words, idx), queue.uncover(idx));
+        }
+        t.checkExpect(words.cells, queue.cells);
+        t.checkExpect(words.status(), queue.status());
+        checkPlanes(t, bits, words);
+      }
+    }
+  }
+
+  void testWatch(Tester t) {
+    // planes that watch a board follow moves, undos, moved mines and values made again
+    Board board = board(70, 30, 0.15, 3);
+    BitBoard bits = BitBoard.watch(board);
+    GameEngine engine = new GameEngine(board, new Random(3), false);
+    engine.enableUndo(100);
+    Random rand = new Random(5);
+    for (int move = 0; move < 40 && !board.isOver(); move++) {
+      int idx = rand.nextInt(board.size);
+      if (board.isMine(idx)) {
+        engine.flagAt(idx);
+      } else {
+        engine.revealAt(idx);
+      }
+    }
+    checkPlanes(t, bits, board);
+    engine.undo();
+    engine.undo();
+    checkPlanes(t, bits, board);
+    int mine = 0;
+    while (!board.isMine(mine)) {
+      mine++;
+    }
+    int safe = 0;
+    while (board.isMine(safe) || !board.isCovered(safe)) {
+      safe++;
+    }
+    board.moveMine(mine, safe);
+    checkPlanes(t, bits, board);
+    board.uncover(mine);
+    checkPlanes(t, bits, board);
+  }
+
+  void testUncoverOrder(Tester t) {
+    // the cells of a flood are reported a row at a time, in board order within it
+    Board board = new Board(3, 3);
+    board.placeMine(8);
+    board.updateValues();
+    IntQueue seen = new IntQueue();
+    board.addObserver(new QueueChanges(seen));
+    BitBoard bits = BitBoard.of(board);
+    t.checkExpect(bits.uncover(board, 0), 8);
+    t.checkExpect(seen.remove(), 0);
+    t.checkExpect(seen.remove(), 1);
+    t.checkExpect(seen.remove(), 2);
+    t.checkExpect(seen.remove(), 3);
+    t.checkExpect(bits.uncover(board, 0), 0);
+    t.checkExpect(bits.uncover(board, 8), 1);
+    t.checkExpect(bits.isMineRevealed(), true);
+  }
+}
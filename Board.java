@@ -0,0 +1,1386 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import tester.*;
+import javalib.worldimages.*;
+
+
+// represents the state of every cell of a minesweeper board, packed one byte per cell
+// the low four bits hold the number of adjacent mines, the high bits hold the flags below
+class Board implements IBoard {
+  static final int VALUE_MASK = 0x0F;
+  static final int MINE = 0x10;
+  static final int COVERED = 0x20;
+  static final int FLAGGED = 0x40;
+
+  int width;
+  int height;
+  int size;
+  byte[] cells;
+  // which cells touch, and where they are drawn
+  ATopology topology;
+
+  // live counters, kept up to date by every change to the board so that the state of the
+  // game can be read without walking the cells
+  int numMines;
+  int coveredSafe;
+  int minesRevealed;
+  int flagsPlaced;
+
+  // told about every cell that changes
+  ICellObserver[] observers = new ICellObserver[0];
+  // told the state of every cell about to be uncovered, flagged or unflagged, or null
+  MoveHistory history;
+
+  // scratch space for flood fill, kept so that a reveal does not allocate per cell
+  int[] around;
+  IntQueue work = new IntQueue();
+  // scratch space for updateValues, made on first use
+  int[] columnSums;
+  byte[] mineCounts;
+
+  // default constructor, a square grid where every cell starts covered and safe
+  Board(int width, int height) {
+    this(new GridTopology(width, height));
+  }
+
+  // topology constructor, every cell of the given topology starts covered and safe
+  Board(ATopology topology) {
+    this.topology = topology;
+    this.width = topology.width;
+    this.height = topology.height;
+    this.size = topology.size;
+    this.around = new int[topology.maxDegree()];
+    this.cells = new byte[this.size];
+    for (int i = 0; i < this.size; i++) {
+      this.cells[i] = COVERED;
+    }
+    this.coveredSafe = this.size;
+  }
+
+  // copies the state of the given cells, laid out row by row, into a new board
+  Board(ArrayList<Cell> cells, int width, int height) {
+    this.topology = new GridTopology(width, height);
+    this.width = width;
+    this.height = height;
+    this.size = width * height;
+    this.around = new int[8];
+    this.cells = new byte[this.size];
+    for (int i = 0; i < this.size; i++) {
+      Cell c = cells.get(i);
+      int state = 0;
+      if (c.isMine()) {
+        state = MINE;
+      } else {
+        state = c.getValue() & VALUE_MASK;
+      }
+      if (c.isCovered()) {
+        state |= COVERED;
+      }
+      if (c.isFlagged()) {
+        state |= FLAGGED;
+      }
+      this.cells[i] = (byte) state;
+    }
+    this.recount();
+  }
+
+  // Effect: recomputes every counter of this board from its cells
+  void recount() {
+    this.numMines = 0;
+    this.coveredSafe = 0;
+    this.minesRevealed = 0;
+    this.flagsPlaced = 0;
+    for (int i = 0; i < this.size; i++) {
+      this.count(this.cells[i], 1);
+    }
+  }
+
+  // Effect: covers every cell and takes away every mine, flag and value, so that the board
+  // can be used for a new game without allocating; observers are kept but not told
+  void clear() {
+    Arrays.fill(this.cells, (byte) COVERED);
+    this.numMines = 0;
+    this.coveredSafe = this.size;
+    this.minesRevealed = 0;
+    this.flagsPlaced = 0;
+  }
+
+  // Effect: adds the given observer, which is told about every cell that changes from now on
+  void addObserver(ICellObserver observer) {
+    ICellObserver[] more = Arrays.copyOf(this.observers, this.observers.length + 1);
+    more[this.observers.length] = observer;
+    this.observers = more;
+  }
+
+  // Effect: removes the given observer, if it was added
+  void removeObserver(ICellObserver observer) {
+    for (int i = 0; i < this.observers.length; i++) {
+      if (this.observers[i] == observer) {
+        ICellObserver[] fewer = new ICellObserver[this.observers.length - 1];
+        System.arraycopy(this.observers, 0, fewer, 0, i);
+        System.arraycopy(this.observers, i + 1, fewer, i, fewer.length - i);
+        this.observers = fewer;
+        return;
+      }
+    }
+  }
+
+  // Effect: tells every observer that the cell at the given index changed
+  void changed(int idx) {
+    for (ICellObserver observer : this.observers) {
+      observer.cellChanged(idx);
+    }
+  }
+
+  // is the game on this board over, because a mine or the last safe cell was uncovered?
+  boolean isOver() {
+    return this.minesRevealed > 0 || this.coveredSafe == 0;
+  }
+
+  // returns a snapshot of the counters of this board
+  GameStatus status() {
+    return new GameStatus(this.width, this.height, this.numMines, this.coveredSafe,
+        this.minesRevealed, this.flagsPlaced);
+  }
+
+  // returns the index of the cell at the given row and column
+  int index(int row, int column) {
+    return row * this.width + column;
+  }
+
+  // is the given index inside this board?
+  boolean inBounds(int idx) {
+    return idx >= 0 && idx < this.size;
+  }
+
+  // is the cell at the given index a mine?
+  boolean isMine(int idx) {
+    return (this.cells[idx] & MINE) != 0;
+  }
+
+  // is the cell at the given index covered?
+  boolean isCovered(int idx) {
+    return (this.cells[idx] & COVERED) != 0;
+  }
+
+  // is the cell at the given index flagged?
+  boolean isFlagged(int idx) {
+    return (this.cells[idx] & FLAGGED) != 0;
+  }
+
+  // returns the number of mines around the given cell, mines return 10 like Mine.getValue
+  int getValue(int idx) {
+    if (this.isMine(idx)) {
+      return 10;
+    }
+    return this.cells[idx] & VALUE_MASK;
+  }
+
+  // Effect: turns the cell at the given index into a mine, values are not updated
+  // a mine keeps no value, so its old one is cleared
+  void placeMine(int idx) {
+    if (!this.isMine(idx)) {
+      this.cells[idx] = (byte) ((this.cells[idx] & ~VALUE_MASK) | MINE);
+      this.numMines++;
+      if (this.isCovered(idx)) {
+        this.coveredSafe--;
+      } else {
+        this.minesRevealed++;
+      }
+      this.changed(idx);
+    }
+  }
+
+  // Effect: turns the mine at the given index into a safe cell, values are not updated
+  void removeMine(int idx) {
+    if (this.isMine(idx)) {
+      this.cells[idx] &= ~MINE;
+      this.numMines--;
+      if (this.isCovered(idx)) {
+        this.coveredSafe++;
+      } else {
+        this.minesRevealed--;
+      }
+      this.changed(idx);
+    }
+  }
+
+  // Effect: moves the mine at from to the safe cell at to, and updates the values around both
+  // values must be up to date: on the grid, the safe cells next to to but not to from count
+  // one more mine, the ones next to from but not to count one less, and only from is counted
+  // again; on other topologies, every cell around the two is counted again
+  void moveMine(int from, int to) {
+    this.removeMine(from);
+    this.placeMine(to);
+    if (this.topology.isGrid()) {
+      this.addToValuesAround(to, from, 1);
+      this.addToValuesAround(from, to, -1);
+    } else {
+      this.updateValuesAround(to);
+      this.updateValuesAround(from);
+    }
+    this.updateValue(from);
+  }
+
+  // Effect: recomputes the values of the cells around the given cell
+  void updateValuesAround(int idx) {
+    int[] near = new int[this.topology.maxDegree()];
+    int count = this.neighbors(idx, near);
+    for (int i = 0; i < count; i++) {
+      this.updateValue(near[i]);
+    }
+  }
+
+  // Effect: adds the given amount to the values of the safe cells around center, but not
+  // to center itself, nor to other or the cells around it
+  void addToValuesAround(int center, int other, int amount) {
+    int row = center / this.width;
+    int column = center - row * this.width;
+    int otherRow = other / this.width;
+    int otherColumn = other - otherRow * this.width;
+    for (int r = Math.max(0, row - 1); r <= Math.min(this.height - 1, row + 1); r++) {
+      for (int c = Math.max(0, column - 1); c <= Math.min(this.width - 1, column + 1); c++) {
+        int n = r * this.width + c;
+        boolean nearOther = Math.abs(r - otherRow) <= 1 && Math.abs(c - otherColumn) <= 1;
+        if (n != center && !nearOther && (this.cells[n] & MINE) == 0) {
+          this.cells[n] = (byte) (this.cells[n] + amount);
+          this.changed(n);
+        }
+      }
+    }
+  }
+
+  // returns the sorted indices of the given cell and its neighbors, the 3x3 zone centered
+  // on it on the grid
+  int[] zoneAround(int idx) {
+    if (!this.topology.isGrid()) {
+      int[] near = new int[this.topology.maxDegree() + 1];
+      int count = this.neighbors(idx, near);
+      near[count] = idx;
+      int[] zone = Arrays.copyOf(near, count + 1);
+      Arrays.sort(zone);
+      return zone;
+    }
+    int row = idx / this.width;
+    int column = idx - row * this.width;
+    int top = Math.max(0, row - 1);
+    int bottom = Math.min(this.height - 1, row + 1);
+    int left = Math.max(0, column - 1);
+    int right = Math.min(this.width - 1, column + 1);
+    int[] zone = new int[(bottom - top + 1) * (right - left + 1)];
+    int next = 0;
+    for (int r = top; r <= bottom; r++) {
+      for (int c = left; c <= right; c++) {
+        zone[next++] = r * this.width + c;
+      }
+    }
+    return zone;
+  }
+
+  // Effect: moves every mine in the 3x3 zone around the given cell to a random safe cell
+  // outside of it, so a first click is always safe without making a new layout
+  // mines stay put once there is no room left outside the zone
+  // returns how many mines were moved
+  int clearZone(int idx, Random rand) {
+    int[] zone = this.zoneAround(idx);
+    int inZone = 0;
+    for (int z : zone) {
+      if (this.isMine(z)) {
+        inZone++;
+      }
+    }
+    int room = this.size - zone.length - (this.numMines - inZone);
+
+    int moved = 0;
+    for (int z : zone) {
+      if (this.isMine(z) && room > 0) {
+        int to = rand.nextInt(this.size);
+        while (this.isMine(to) || Arrays.binarySearch(zone, to) >= 0) {
+          to = rand.nextInt(this.size);
+        }
+        this.moveMine(z, to);
+        room--;
+        moved++;
+      }
+    }
+    return moved;
+  }
+
+  // Effect: flags or unflags the cell at the given index, uncovered cells are never flagged
+  void flag(int idx) {
+    Metrics.FLAGS.increment();
+    if (this.history != null && this.isCovered(idx)) {
+      this.history.saw(idx, this.cells[idx]);
+    }
+    if (!this.isFlagged(idx) && this.isCovered(idx)) {
+      this.cells[idx] |= FLAGGED;
+      this.flagsPlaced++;
+      this.changed(idx);
+    } else if (this.isFlagged(idx)) {
+      this.cells[idx] &= ~FLAGGED;
+      this.flagsPlaced--;
+      this.changed(idx);
+    }
+  }
+
+  // Effect: uncovers the cell at the given index and floods through empty cells
+  // returns how many cells were uncovered
+  // the covered bits double as the visited set: a cell is uncovered as it is queued,
+  // so it is never queued twice and only empty cells ever enter the queue
+  int uncover(int idx) {
+    if (!this.isCovered(idx)) {
+      return 0;
+    }
+    long start = Metrics.start();
+    this.work.clear();
+    this.open(idx);
+    int revealed = 1 + this.flood();
+    Metrics.uncovered(start, revealed, this.isMine(idx));
+    return revealed;
+  }
+
+  // Effect: uncovers the given cells in order, flooding through empty cells from each, so
+  // openings they share are walked only once; stops at the cell that ends the game, and
+  // drops the cells after it from the list
+  // returns how many cells were uncovered
+  int uncoverAll(IntList seeds) {
+    long start = Metrics.start();
+    int revealed = 0;
+    boolean mine = false;
+    this.work.clear();
+    for (int i = 0; i < seeds.size(); i++) {
+      int idx = seeds.get(i);
+      if (this.isCovered(idx)) {
+        this.open(idx);
+        revealed += 1 + this.flood();
+        mine |= this.isMine(idx);
+      }
+      if (this.isOver()) {
+        seeds.count = i + 1;
+      }
+    }
+    Metrics.uncovered(start, revealed, mine);
+    return revealed;
+  }
+
+  // Effect: uncovers the given covered cell, and queues it to flood from if it is empty
+  void open(int idx) {
+    this.reveal(idx);
+    if ((this.cells[idx] & (MINE | VALUE_MASK)) == 0) {
+      this.work.add(idx);
+    }
+  }
+
+  // Effect: uncovers every cell reachable from the queued empty cells through empty cells,
+  // and the numbers around them
+  // returns how many cells were uncovered
+  int flood() {
+    int revealed = 0;
+    while (!this.work.isEmpty()) {
+      int count = this.neighbors(this.work.remove(), this.around);
+      for (int i = 0; i < count; i++) {
+        int next = this.around[i];
+        if ((this.cells[next] & (COVERED | MINE)) == COVERED) {
+          this.reveal(next);
+          revealed++;
+          if ((this.cells[next] & VALUE_MASK) == 0) {
+            this.work.add(next);
+          }
+        }
+      }
+    }
+    return revealed;
+  }
+
+  // Effect: uncovers every covered, unflagged neighbor of the given uncovered number, if as
+  // many of its neighbors are flagged as it has mines around it
+  // returns how many cells were uncovered
+  int chord(int idx) {
+    if (this.isCovered(idx) || this.isMine(idx)) {
+      return 0;
+    }
+    int[] zone = this.zoneAround(idx);
+    int flags = 0;
+    for (int z : zone) {
+      if (this.isFlagged(z)) {
+        flags++;
+      }
+    }
+    if (flags != this.getValue(idx) || flags == 0) {
+      return 0;
+    }
+    int revealed = 0;
+    for (int z : zone) {
+      if (this.isCovered(z) && !this.isFlagged(z)) {
+        revealed += this.uncover(z);
+      }
+    }
+    return revealed;
+  }
+
+  // Effect: uncovers and unflags the given covered cell, keeping the counters in step
+  void reveal(int idx) {
+    int state = this.cells[idx];
+    if (this.history != null) {
+      this.history.saw(idx, state);
+    }
+    if ((state & FLAGGED) != 0) {
+      this.flagsPlaced--;
+    }
+    if ((state & MINE) != 0) {
+      this.minesRevealed++;
+    } else {
+      this.coveredSafe--;
+    }
+    this.cells[idx] = (byte) (state & ~(COVERED | FLAGGED));
+    this.changed(idx);
+  }
+
+  // Effect: sets the covered and flagged bits of the given cell to the given bits, keeping
+  // the counters in step, so that a move can be taken back or made again
+  void restore(int idx, int bits) {
+    int state = this.cells[idx];
+    if ((state & FLAGGED) != 0) {
+      this.flagsPlaced--;
+    }
+    if ((bits & FLAGGED) != 0) {
+      this.flagsPlaced++;
+    }
+    if ((state & COVERED) != (bits & COVERED)) {
+      int covering = (bits & COVERED) != 0 ? 1 : -1;
+      if ((state & MINE) != 0) {
+        this.minesRevealed -= covering;
+      } else {
+        this.coveredSafe += covering;
+      }
+    }
+    this.cells[idx] = (byte) ((state & ~(COVERED | FLAGGED)) | (bits & (COVERED | FLAGGED)));
+    this.changed(idx);
+  }
+
+  // Effect: sets the whole state byte of the given cell, keeping the counters in step, so a
+  // copy of a board can follow changes made to it
+  void setState(int idx, byte state) {
+    this.count(this.cells[idx], -1);
+    this.count(state, 1);
+    this.cells[idx] = state;
+    this.changed(idx);
+  }
+
+  // Effect: adds the given cell state to the counters the given number of times
+  void count(int state, int times) {
+    if ((state & MINE) != 0) {
+      this.numMines += times;
+      if ((state & COVERED) == 0) {
+        this.minesRevealed += times;
+      }
+    } else if ((state & COVERED) != 0) {
+      this.coveredSafe += times;
+    }
+    if ((state & FLAGGED) != 0) {
+      this.flagsPlaced += times;
+    }
+  }
+
+  // Effect: writes the indices of the cells around the given cell into out
+  // returns how many neighbors were written, at most the topology's maxDegree
+  int neighbors(int idx, int[] out) {
+    return this.topology.neighbors(idx, out);
+  }
+
+  // counts the mines around the given cell
+  int countAdjacentMines(int idx) {
+    return this.topology.countAround(this.cells, idx, MINE);
+  }
+
+  // Effect: recomputes the number of adjacent mines of the given cell, if it is safe
+  void updateValue(int idx) {
+    if (!this.isMine(idx)) {
+      int value = this.countAdjacentMines(idx);
+      if ((this.cells[idx] & VALUE_MASK) != value) {
+        this.cells[idx] = (byte) ((this.cells[idx] & ~VALUE_MASK) | value);
+        this.changed(idx);
+      }
+    }
+  }
+
+  // Effect: recomputes the number of adjacent mines of every safe cell, in one pass
+  // the grid rolls box sums down the board, other topologies count each cell's neighbors
+  void updateValues() {
+    if (!this.topology.isGrid()) {
+      this.scatterValues();
+      return;
+    }
+    if (this.columnSums == null) {
+      // padded with a column of zeros on each side
+      this.columnSums = new int[this.width + 2];
+    }
+    this.updateValues(0, this.height, this.columnSums);
+  }
+
+  // Effect: recomputes the number of adjacent mines of every safe cell in the rows from
+  // first up to but not including last, reading the mines of the rows just outside them
+  // the mines of each column of three rows are kept in sums, which roll down the board a
+  // row at a time: the row below is added and the row above is taken away
+  // a cell's value is the sum of the three columns around it, kept as a window sliding
+  // along the row, so every cell is read three times, all in board order
+  // sums must have room for a column of zeros on each side of the board, which must be a grid
+  void updateValues(int first, int last, int[] sums) {
+    Arrays.fill(sums, 0);
+    for (int row = Math.max(0, first - 1); row <= Math.min(this.height - 1, first + 1);
+        row++) {
+      this.addRowMines(sums, row, 1);
+    }
+    for (int row = first; row < last; row++) {
+      int start = row * this.width;
+      int box = sums[0] + sums[1];
+      for (int c = 0; c < this.width; c++) {
+        box += sums[c + 2];
+        int i = start + c;
+        int cell = this.cells[i];
+        // a safe cell adds nothing to its own box
+        if ((cell & MINE) == 0 && (cell & VALUE_MASK) != box) {
+          this.cells[i] = (byte) ((cell & ~VALUE_MASK) | box);
+          this.changed(i);
+        }
+        box -= sums[c];
+      }
+      if (row + 2 < this.height) {
+        this.addRowMines(sums, row + 2, 1);
+      }
+      if (row > 0) {
+        this.addRowMines(sums, row - 1, -1);
+      }
+    }
+  }
+
+  // Effect: recomputes the number of adjacent mines of every safe cell by having every mine
+  // add one to each of its neighbors, so only the neighbors of mines are ever looked up
+  void scatterValues() {
+    if (this.mineCounts == null) {
+      this.mineCounts = new byte[this.size];
+    } else {
+      Arrays.fill(this.mineCounts, (byte) 0);
+    }
+    for (int i = 0; i < this.size; i++) {
+      if ((this.cells[i] & MINE) != 0) {
+        int count = this.neighbors(i, this.around);
+        for (int k = 0; k < count; k++) {
+          this.mineCounts[this.around[k]]++;
+        }
+      }
+    }
+    for (int i = 0; i < this.size; i++) {
+      int cell = this.cells[i];
+      if ((cell & MINE) == 0 && (cell & VALUE_MASK) != this.mineCounts[i]) {
+        this.cells[i] = (byte) ((cell & ~VALUE_MASK) | this.mineCounts[i]);
+        this.changed(i);
+      }
+    }
+  }
+
+  // Effect: adds the mines of the given row, times the given sign, to the column sums
+  void addRowMines(int[] sums, int row, int sign) {
+    int start = row * this.width;
+    for (int c = 0; c < this.width; c++) {
+      sums[c + 1] += sign * ((this.cells[start + c] & MINE) / MINE);
+    }
+  }
+
+  // counts the mines on this board
+  int countMines() {
+    int count = 0;
+    for (int i = 0; i < this.size; i++) {
+      if (this.isMine(i)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // returns the number of columns of this board
+  public int columns() {
+    return this.width;
+  }
+
+  // returns the number of rows of this board
+  public int rows() {
+    return this.height;
+  }
+
+  // returns the number of cells of this board
+  public long cellCount() {
+    return this.size;
+  }
+
+  // returns the mine, covered and flagged bits of the cell at the given index
+  public int cellState(long idx) {
+    return this.cells[(int) idx] & (MINE | COVERED | FLAGGED);
+  }
+
+  // returns the number of mines around the given cell, mines return 10
+  public int cellValue(long idx) {
+    return this.getValue((int) idx);
+  }
+
+  // Effect: uncovers and unflags the given covered cell, keeping the counters in step
+  public void uncoverCell(long idx) {
+    this.reveal((int) idx);
+  }
+
+  // Effect: flags or unflags the cell at the given index
+  public void toggleFlag(long idx) {
+    this.flag((int) idx);
+  }
+
+  // Effect: writes the indices of the cells around the given cell into out
+  // returns how many neighbors were written
+  public int cellNeighbors(long idx, long[] out) {
+    int count = this.neighbors((int) idx, this.around);
+    for (int i = 0; i < count; i++) {
+      out[i] = this.around[i];
+    }
+    return count;
+  }
+
+  // returns how many mines this board holds
+  public long mineCount() {
+    return this.numMines;
+  }
+
+  // returns how many safe cells are still covered
+  public long coveredSafeCount() {
+    return this.coveredSafe;
+  }
+
+  // returns how many mines have been uncovered
+  public long minesRevealedCount() {
+    return this.minesRevealed;
+  }
+
+  // returns how many cells are flagged
+  public long flagCount() {
+    return this.flagsPlaced;
+  }
+}
+
+
+// represents a board whose cells are indexed by longs, so that a board may hold more cells
+// than fit in an array; the algorithms of BoardUtils work on any board through this, while
+// each board keeps its own faster int paths for the game
+// cell states use the MINE, COVERED and FLAGGED bits of Board
+interface IBoard {
+  // returns the number of columns of this board
+  int columns();
+
+  // returns the number of rows of this board
+  int rows();
+
+  // returns the number of cells of this board
+  long cellCount();
+
+  // returns the mine, covered and flagged bits of the cell at the given index
+  int cellState(long idx);
+
+  // returns the number of mines around the given cell, mines return 10
+  int cellValue(long idx);
+
+  // Effect: uncovers and unflags the given covered cell, keeping the counters in step
+  void uncoverCell(long idx);
+
+  // Effect: flags or unflags the cell at the given index
+  void toggleFlag(long idx);
+
+  // Effect: writes the indices of the cells around the given cell into out, which has room
+  // for Board.VALUE_MASK of them, the most any topology allows
+  // returns how many neighbors were written
+  int cellNeighbors(long idx, long[] out);
+
+  // returns how many mines this board holds
+  long mineCount();
+
+  // returns how many safe cells are still covered
+  long coveredSafeCount();
+
+  // returns how many mines have been uncovered
+  long minesRevealedCount();
+
+  // returns how many cells are flagged
+  long flagCount();
+}
+
+
+// represents something that wants to know whenever a cell of a board changes
+interface ICellObserver {
+  // Effect: reacts to a change of the cell at the given index
+  void cellChanged(int idx);
+}
+
+
+// represents the state of a game at one moment, read from the counters of a board
+class GameStatus {
+  int width;
+  int height;
+  int numMines;
+  int coveredSafe;
+  int minesRevealed;
+  int flagsPlaced;
+
+  GameStatus(int width, int height, int numMines, int coveredSafe, int minesRevealed,
+      int flagsPlaced) {
+    this.width = width;
+    this.height = height;
+    this.numMines = numMines;
+    this.coveredSafe = coveredSafe;
+    this.minesRevealed = minesRevealed;
+    this.flagsPlaced = flagsPlaced;
+  }
+
+  // has a mine been uncovered?
+  boolean isLost() {
+    return this.minesRevealed > 0;
+  }
+
+  // has every safe cell been uncovered without uncovering a mine?
+  boolean isWon() {
+    return !this.isLost() && this.coveredSafe == 0;
+  }
+
+  // is the game over?
+  boolean isOver() {
+    return this.isLost() || this.coveredSafe == 0;
+  }
+
+  // returns how many safe cells have been uncovered
+  int safeRevealed() {
+    return this.width * this.height - this.numMines - this.coveredSafe;
+  }
+
+  // returns the number of mines that have not been flagged, as a mine counter shows it
+  int minesLeft() {
+    return this.numMines - this.flagsPlaced;
+  }
+}
+
+
+// represents a first in first out queue of ints, backed by a growable ring buffer
+class IntQueue {
+  int[] items;
+  int head;
+  int count;
+
+  IntQueue() {
+    this.items = new int[64];
+  }
+
+  // is this queue empty?
+  boolean isEmpty() {
+    return this.count == 0;
+  }
+
+  // returns how many ints are queued
+  int size() {
+    return this.count;
+  }
+
+  // Effect: adds the given int to the back of this queue
+  void add(int value) {
+    if (this.count == this.items.length) {
+      int[] bigger = new int[this.items.length * 2];
+      int firstPart = this.items.length - this.head;
+      System.arraycopy(this.items, this.head, bigger, 0, firstPart);
+      System.arraycopy(this.items, 0, bigger, firstPart, this.head);
+      this.items = bigger;
+      this.head = 0;
+    }
+    this.items[(this.head + this.count) & (this.items.length - 1)] = value;
+    this.count++;
+  }
+
+  // Effect: removes the int at the front of this queue
+  // returns the removed int
+  int remove() {
+    if (this.count == 0) {
+      throw new IllegalStateException("Cannot remove from an empty queue");
+    }
+    int value = this.items[this.head];
+    this.head = (this.head + 1) & (this.items.length - 1);
+    this.count--;
+    return value;
+  }
+
+  // Effect: empties this queue, keeping its buffer
+  void clear() {
+    this.head = 0;
+    this.count = 0;
+  }
+}
+
+
+// represents a growable list of ints
+class IntList {
+  int[] items;
+  int count;
+
+  IntList() {
+    this.items = new int[16];
+  }
+
+  // returns how many ints are in this list
+  int size() {
+    return this.count;
+  }
+
+  // returns the int at the given position
+  int get(int i) {
+    if (i < 0 || i >= this.count) {
+      throw new IndexOutOfBoundsException("No int at position " + i);
+    }
+    return this.items[i];
+  }
+
+  // Effect: adds the given int to the end of this list
+  void add(int value) {
+    if (this.count == this.items.length) {
+      this.items = Arrays.copyOf(this.items, this.items.length * 2);
+    }
+    this.items[this.count++] = value;
+  }
+
+  // Effect: empties this list, keeping its buffer
+  void clear() {
+    this.count = 0;
+  }
+
+  // returns a copy of the ints in this list
+  int[] toArray() {
+    return Arrays.copyOf(this.items, this.count);
+  }
+}
+
+
+// represents a cell of a board, reads and writes straight through to the board
+// a view keeps no state of its own: its covered, flagged and neighbors fields are left
+// empty, so it must be asked through isCovered, isFlagged and the board
+class BoardCell extends Cell {
+  static final List<Cell> NO_NEIGHBORS = Collections.emptyList();
+
+  Board board;
+  int index;
+
+  BoardCell(Board board, int index) {
+    super(NO_NEIGHBORS, false, false);
+    this.board = board;
+    this.index = index;
+  }
+
+  // is the underlying cell a mine?
+  boolean isMine() {
+    return this.board.isMine(this.index);
+  }
+
+  // is the underlying cell covered?
+  boolean isCovered() {
+    return this.board.isCovered(this.index);
+  }
+
+  // is the underlying cell flagged?
+  boolean isFlagged() {
+    return this.board.isFlagged(this.index);
+  }
+
+  // draws the underlying cell
+  WorldImage drawCell() {
+    return CellSprites.SHARED.cell(this.board, this.index);
+  }
+
+  // Effect: recomputes the number of mines around the underlying cell
+  void updateValue() {
+    this.board.updateValue(this.index);
+  }
+
+  // returns the value of the underlying cell, mines return 10
+  int getValue() {
+    return this.board.getValue(this.index);
+  }
+
+  // Effect: flags or unflags the underlying cell
+  public void flag() {
+    this.board.flag(this.index);
+  }
+
+  // Effect: uncovers the underlying cell and floods through the board
+  public void uncover() {
+    this.board.uncover(this.index);
+  }
+
+  // Effect: chords the underlying cell
+  public void chord() {
+    this.board.chord(this.index);
+  }
+}
+
+
+// represents the cells of a board as a list, each cell is made only when it is asked for
+class BoardCells extends AbstractList<Cell> {
+  Board board;
+
+  BoardCells(Board board) {
+    this.board = board;
+  }
+
+  // returns a view of the cell at the given index
+  public Cell get(int index) {
+    if (!this.board.inBounds(index)) {
+      throw new IndexOutOfBoundsException("No cell at index " + index);
+    }
+    return new BoardCell(this.board, index);
+  }
+
+  // returns the number of cells on the board
+  public int size() {
+    return this.board.size;
+  }
+}
+
+
+// remembers every changed cell in a queue, for testing observers
+class QueueChanges implements ICellObserver {
+  IntQueue changes;
+
+  QueueChanges(IntQueue changes) {
+    this.changes = changes;
+  }
+
+  // Effect: adds the changed cell to the queue
+  public void cellChanged(int idx) {
+    this.changes.add(idx);
+  }
+}
+
+
+class ExamplesBoard {
+  Board b3;
+  Board game;
+
+  // makes a 3x3 board with mines in the top left and bottom right corners
+  void initBoards() {
+    b3 = new Board(3, 3);
+    b3.placeMine(0);
+    b3.placeMine(8);
+    b3.updateValues();
+
+    game = new Board(5, 5);
+    new InsertionLayout().placeMines(game, 5, new Random(1), new int[0]);
+    game.updateValues();
+  }
+
+  void testConstructor(Tester t) {
+    Board empty = new Board(4, 2);
+    t.checkExpect(empty.size, 8);
+    t.checkExpect(empty.isCovered(7), true);
+    t.checkExpect(empty.isFlagged(7), false);
+    t.checkExpect(empty.countMines(), 0);
+
+    ArrayList<Cell> row = new ArrayList<Cell>();
+    row.add(new Mine(new ArrayList<Cell>(), true, true));
+    row.add(new Safe(new ArrayList<Cell>(), false, false, 1));
+    Board copy = new Board(row, 2, 1);
+    t.checkExpect(copy.isMine(0), true);
+    t.checkExpect(copy.isFlagged(0), true);
+    t.checkExpect(copy.isCovered(1), false);
+    t.checkExpect(copy.getValue(1), 1);
+  }
+
+  void testNeighbors(Tester t) {
+    initBoards();
+    int[] out = new int[8];
+    t.checkExpect(b3.neighbors(0, out), 3);
+    t.checkExpect(Arrays.copyOf(out, 3), new int[] {1, 3, 4});
+    t.checkExpect(b3.neighbors(4, out), 8);
+    t.checkExpect(b3.neighbors(5, out), 5);
+    t.checkExpect(new Board(1, 1).neighbors(0, out), 0);
+  }
+
+  void testValues(Tester t) {
+    initBoards();
+    t.checkExpect(b3.getValue(0), 10);
+    t.checkExpect(b3.getValue(1), 1);
+    t.checkExpect(b3.getValue(4), 2);
+    t.checkExpect(b3.getValue(6), 0);
+    t.checkExpect(b3.countAdjacentMines(4), 2);
+  }
+
+  void testUpdateValuesSweep(Tester t) {
+    // the sweep agrees with counting around every cell, on every shape of board
+    Random rand = new Random(5);
+    int[][] shapes = {{1, 1}, {1, 7}, {7, 1}, {2, 2}, {3, 2}, {37, 23}, {64, 3}};
+    for (int[] shape : shapes) {
+      Board board = new Board(shape[0], shape[1]);
+      new ReservoirLayout().placeMines(board, board.size / 3, rand, new int[0]);
+      board.updateValues();
+      for (int i = 0; i < board.size; i++) {
+        if (!board.isMine(i)) {
+          t.checkExpect(board.getValue(i), board.countAdjacentMines(i));
+        }
+      }
+    }
+    // only cells whose value changes are reported
+    initBoards();
+    IntQueue seen = new IntQueue();
+    b3.addObserver(new QueueChanges(seen));
+    b3.updateValues();
+    t.checkExpect(seen.size(), 0);
+    b3.placeMine(2);
+    b3.updateValues();
+    // the new mine, then 1, 4 and 5 around it
+    t.checkExpect(seen.size(), 4);
+  }
+
+  void testMoveMineValues(Tester t) {
+    // moving mines around keeps every value what a full recount gives
+    Random rand = new Random(8);
+    Board board = new Board(12, 9);
+    new ReservoirLayout().placeMines(board, 30, rand, new int[0]);
+    board.updateValues();
+    IntQueue seen = new IntQueue();
+    board.addObserver(new QueueChanges(seen));
+    for (int move = 0; move < 200; move++) {
+      int from = rand.nextInt(board.size);
+      int to = rand.nextInt(board.size);
+      if (board.isMine(from) && !board.isMine(to)) {
+        byte[] before = board.cells.clone();
+        seen.clear();
+        board.moveMine(from, to);
+        for (int i = 0; i < board.size; i++) {
+          if (!board.isMine(i)) {
+            t.checkExpect(board.getValue(i), board.countAdjacentMines(i));
+          }
+        }
+        // every changed cell is reported, and nothing else
+        int reported = 0;
+        while (!seen.isEmpty()) {
+          int idx = seen.remove();
+          t.checkExpect(before[idx] != board.cells[idx], true);
+          reported++;
+        }
+        int differ = 0;
+        for (int i = 0; i < board.size; i++) {
+          if (before[i] != board.cells[i]) {
+            differ++;
+          }
+        }
+        t.checkExpect(reported >= differ, true);
+      }
+    }
+  }
+
+  void testPlaceMines(Tester t) {
+    initBoards();
+    t.checkExpect(game.countMines(), 5);
+    t.checkExpect(game.numMines, 5);
+    // the same layout the list based MineSweeper made from this seed
+    t.checkExpect(game.getValue(0), 1);
+    t.checkExpect(game.getValue(6), 10);
+    t.checkExpect(game.getValue(24), 0);
+    game.placeMine(6);
+    t.checkExpect(game.numMines, 5);
+    game.removeMine(6);
+    game.removeMine(6);
+    t.checkExpect(game.numMines, 4);
+    t.checkExpect(game.isMine(6), false);
+  }
+
+  void testZoneAround(Tester t) {
+    initBoards();
+    t.checkExpect(b3.zoneAround(4), new int[] {0, 1, 2, 3, 4, 5, 6, 7, 8});
+    t.checkExpect(b3.zoneAround(0), new int[] {0, 1, 3, 4});
+    t.checkExpect(game.zoneAround(9), new int[] {3, 4, 8, 9, 13, 14});
+  }
+
+  void testMoveMine(Tester t) {
+    initBoards();
+    b3.moveMine(0, 2);
+    t.checkExpect(b3.isMine(0), false);
+    t.checkExpect(b3.isMine(2), true);
+    t.checkExpect(b3.getValue(0), 0);
+    t.checkExpect(b3.getValue(1), 1);
+    t.checkExpect(b3.getValue(5), 2);
+    t.checkExpect(b3.numMines, 2);
+  }
+
+  void testClearZone(Tester t) {
+    initBoards();
+    t.checkExpect(game.clearZone(0, new Random(2)), 1);
+    t.checkExpect(game.numMines, 5);
+    t.checkExpect(game.countMines(), 5);
+    t.checkExpect(game.getValue(0), 0);
+    for (int z : game.zoneAround(0)) {
+      t.checkExpect(game.isMine(z), false);
+    }
+    // every value still matches the mines around it
+    for (int i = 0; i < 25; i++) {
+      if (!game.isMine(i)) {
+        t.checkExpect(game.getValue(i), game.countAdjacentMines(i));
+      }
+    }
+    // a full board has nowhere to move its mines
+    Board full = new Board(3, 3);
+    new InsertionLayout().placeMines(full, 9, new Random(1), new int[0]);
+    t.checkExpect(full.clearZone(4, new Random(1)), 0);
+  }
+
+  void testFlag(Tester t) {
+    initBoards();
+    b3.flag(1);
+    t.checkExpect(b3.isFlagged(1), true);
+    b3.flag(1);
+    t.checkExpect(b3.isFlagged(1), false);
+    b3.uncover(1);
+    b3.flag(1);
+    t.checkExpect(b3.isFlagged(1), false);
+  }
+
+  void testUncover(Tester t) {
+    initBoards();
+    b3.flag(6);
+    b3.uncover(6);
+    t.checkExpect(b3.isCovered(6), false);
+    t.checkExpect(b3.isFlagged(6), false);
+    t.checkExpect(b3.isCovered(3), false);
+    t.checkExpect(b3.isCovered(7), false);
+    t.checkExpect(b3.isCovered(4), false);
+    t.checkExpect(b3.isCovered(0), true);
+    t.checkExpect(b3.isCovered(2), true);
+    b3.uncover(0);
+    t.checkExpect(b3.isCovered(0), false);
+  }
+
+  void testUncoverCount(Tester t) {
+    initBoards();
+    t.checkExpect(b3.uncover(1), 1);
+    t.checkExpect(b3.uncover(1), 0);
+    t.checkExpect(b3.uncover(6), 4);
+    t.checkExpect(b3.uncover(8), 1);
+  }
+
+  void testUncoverHugeEmptyBoard(Tester t) {
+    Board huge = new Board(2000, 2000);
+    t.checkExpect(huge.uncover(huge.index(1000, 1000)), 4000000);
+    t.checkExpect(huge.isCovered(0), false);
+    t.checkExpect(huge.isCovered(3999999), false);
+    t.checkExpect(huge.work.isEmpty(), true);
+  }
+
+  void testIntQueue(Tester t) {
+    IntQueue q = new IntQueue();
+    t.checkExpect(q.isEmpty(), true);
+    for (int i = 0; i < 50; i++) {
+      q.add(i);
+    }
+    for (int i = 0; i < 40; i++) {
+      q.remove();
+    }
+    // wraps around the end of the buffer, then grows while wrapped
+    for (int i = 50; i < 150; i++) {
+      q.add(i);
+    }
+    t.checkExpect(q.size(), 110);
+    t.checkExpect(q.remove(), 40);
+    t.checkExpect(q.items.length, 128);
+    for (int i = 41; i < 150; i++) {
+      q.remove();
+    }
+    t.checkExpect(q.isEmpty(), true);
+    t.checkException(new IllegalStateException("Cannot remove from an empty queue"), q, "remove");
+    q.add(7);
+    q.clear();
+    t.checkExpect(q.isEmpty(), true);
+  }
+
+  // Effect: checks that the live counters of the board match a fresh count of its cells
+  void checkCounters(Tester t, Board board) {
+    GameStatus live = board.status();
+    board.recount();
+    t.checkExpect(live, board.status());
+  }
+
+  void testCounters(Tester t) {
+    initBoards();
+    t.checkExpect(b3.status(), new GameStatus(3, 3, 2, 7, 0, 0));
+    b3.flag(1);
+    b3.flag(6);
+    b3.flag(0);
+    t.checkExpect(b3.flagsPlaced, 3);
+    checkCounters(t, b3);
+    b3.uncover(6);
+    t.checkExpect(b3.status(), new GameStatus(3, 3, 2, 3, 0, 2));
+    checkCounters(t, b3);
+    b3.flag(6);
+    t.checkExpect(b3.flagsPlaced, 2);
+    b3.moveMine(8, 2);
+    checkCounters(t, b3);
+    b3.removeMine(0);
+    b3.placeMine(4);
+    checkCounters(t, b3);
+    b3.uncover(0);
+    checkCounters(t, b3);
+    b3.uncover(4);
+    t.checkExpect(b3.minesRevealed, 1);
+    checkCounters(t, b3);
+
+    game.clearZone(0, new Random(2));
+    game.uncover(0);
+    checkCounters(t, game);
+
+    game.clear();
+    t.checkExpect(game.status(), new GameStatus(5, 5, 0, 25, 0, 0));
+    t.checkExpect(game.countMines(), 0);
+    t.checkExpect(game.isCovered(0), true);
+    checkCounters(t, game);
+  }
+
+  void testSetState(Tester t) {
+    Board board = new Board(3, 3);
+    QueueChanges seen = new QueueChanges(new IntQueue());
+    board.addObserver(seen);
+    board.setState(0, (byte) (Board.MINE | Board.COVERED | Board.FLAGGED));
+    board.setState(4, (byte) 2);
+    board.setState(8, (byte) Board.MINE);
+    checkCounters(t, board);
+    t.checkExpect(board.status(), new GameStatus(3, 3, 2, 6, 1, 1));
+    board.setState(8, (byte) (Board.COVERED | 1));
+    checkCounters(t, board);
+    t.checkExpect(board.getValue(8), 1);
+    t.checkExpect(seen.changes.size(), 4);
+  }
+
+  void testGameStatus(Tester t) {
+    GameStatus playing = new GameStatus(3, 3, 2, 3, 0, 1);
+    GameStatus won = new GameStatus(3, 3, 2, 0, 0, 2);
+    GameStatus lost = new GameStatus(3, 3, 2, 3, 1, 0);
+    t.checkExpect(playing.isOver(), false);
+    t.checkExpect(playing.isWon(), false);
+    t.checkExpect(playing.safeRevealed(), 4);
+    t.checkExpect(playing.minesLeft(), 1);
+    t.checkExpect(won.isWon(), true);
+    t.checkExpect(won.isOver(), true);
+    t.checkExpect(lost.isLost(), true);
+    t.checkExpect(lost.isWon(), false);
+    t.checkExpect(lost.isOver(), true);
+  }
+
+  void testObservers(Tester t) {
+    initBoards();
+    IntQueue seen = new IntQueue();
+    ICellObserver watcher = new QueueChanges(seen);
+    b3.addObserver(watcher);
+    b3.flag(1);
+    b3.uncover(6);
+    b3.moveMine(8, 2);
+    t.checkExpect(seen.size(), 9);
+    t.checkExpect(seen.remove(), 1);
+    t.checkExpect(seen.remove(), 6);
+    b3.removeObserver(watcher);
+    b3.removeObserver(watcher);
+    b3.flag(2);
+    t.checkExpect(seen.size(), 7);
+    t.checkExpect(b3.observers.length, 0);
+  }
+
+  void testChord(Tester t) {
+    initBoards();
+    b3.uncover(1);
+    t.checkExpect(b3.chord(1), 0);
+    b3.flag(0);
+    t.checkExpect(b3.chord(1), 4);
+    t.checkExpect(b3.isCovered(2), false);
+    t.checkExpect(b3.isCovered(5), false);
+    t.checkExpect(b3.isCovered(0), true);
+    t.checkExpect(b3.chord(0), 0);
+    t.checkExpect(b3.chord(7), 0);
+    // chording a cell with no mines around it does nothing
+    Board empty = new Board(3, 3);
+    empty.uncover(8);
+    empty.flag(0);
+    t.checkExpect(empty.chord(0), 0);
+  }
+
+  void testUncoverAll(Tester t) {
+    initBoards();
+    IntList seeds = new IntList();
+    seeds.add(6);
+    seeds.add(7);
+    seeds.add(1);
+    seeds.add(6);
+    // 6 and 7 share one opening, which is walked once
+    t.checkExpect(b3.uncoverAll(seeds), 5);
+    t.checkExpect(b3.isCovered(2), true);
+    t.checkExpect(b3.isCovered(4), false);
+    t.checkExpect(b3.uncoverAll(seeds), 0);
+    seeds.add(0);
+    t.checkExpect(b3.uncoverAll(seeds), 1);
+    t.checkExpect(b3.minesRevealed, 1);
+    checkCounters(t, b3);
+
+    Board huge = new Board(1000, 1000);
+    IntList corners = new IntList();
+    corners.add(0);
+    corners.add(999999);
+    // the first corner wins the game, so the second is dropped
+    t.checkExpect(huge.uncoverAll(corners), 1000000);
+    t.checkExpect(corners.size(), 1);
+  }
+
+  void testIntList(Tester t) {
+    IntList list = new IntList();
+    for (int i = 0; i < 40; i++) {
+      list.add(i * 2);
+    }
+    t.checkExpect(list.size(), 40);
+    t.checkExpect(list.get(39), 78);
+    t.checkExpect(list.toArray().length, 40);
+    t.checkException(new IndexOutOfBoundsException("No int at position 40"), list, "get", 40);
+    list.clear();
+    t.checkExpect(list.toArray(), new int[0]);
+  }
+
+  void testBoardCells(Tester t) {
+    initBoards();
+    BoardCells cells = new BoardCells(b3);
+    t.checkExpect(cells.size(), 9);
+    t.checkExpect(cells.get(0).isMine(), true);
+    t.checkExpect(cells.get(1).getValue(), 1);
+    cells.get(1).flag();
+    t.checkExpect(b3.isFlagged(1), true);
+    t.checkExpect(cells.get(1).isFlagged(), true);
+    cells.get(6).uncover();
+    t.checkExpect(cells.get(3).isCovered(), false);
+    t.checkExpect(cells.get(3).drawCell(), new Safe(new ArrayList<Cell>(), false, false, 1)
+        .drawCell());
+    t.checkExpect(cells.get(0).drawCell(), new Mine(new ArrayList<Cell>(), true, false)
+        .drawCell());
+    cells.get(0).flag();
+    cells.get(1).flag();
+    // 4 has two mines around it and only one flag
+    cells.get(4).chord();
+    t.checkExpect(b3.isCovered(5), true);
+    cells.get(3).chord();
+    t.checkExpect(b3.isCovered(1), false);
+    // views share one empty neighbor list, and the list helpers read them through the board
+    t.checkExpect(cells.get(2).neighbors == cells.get(7).neighbors, true);
+    Utils u = new Utils();
+    t.checkExpect(u.isMineRevealed(new ArrayList<Cell>(cells)), false);
+    t.checkExpect(u.allSafeRevealed(new ArrayList<Cell>(cells)), false);
+    cells.get(2).uncover();
+    cells.get(5).uncover();
+    t.checkExpect(u.allSafeRevealed(new ArrayList<Cell>(cells)), true);
+    cells.get(8).uncover();
+    t.checkExpect(u.isMineRevealed(new ArrayList<Cell>(cells)), true);
+  }
+}
@@ -0,0 +1,664 @@
+import java.awt.Color;
+
+import tester.*;
+import javalib.impworld.*;
+import javalib.worldimages.*;
+
+
+// represents the images of every look a cell can have, made once and shared by every board
+// a cell's look depends only on its packed state, so images are looked up by state byte
+class CellSprites {
+  static final CellSprites SHARED = new CellSprites();
+
+  WorldImage cover;
+  WorldImage flagged;
+  WorldImage mine;
+  WorldImage[] numbers;
+  // the image of each state byte, and the same image on a white 20x20 slot for tiles
+  WorldImage[] byState;
+  WorldImage[] slotByState;
+
+  CellSprites() {
+    this.cover = new RectangleImage(18, 18, OutlineMode.SOLID, Color.lightGray);
+    this.flagged = new OverlayImage(
+        new EquilateralTriangleImage(10, OutlineMode.SOLID, Color.orange), this.cover);
+    this.mine = new OverlayImage(new CircleImage(6, OutlineMode.SOLID, Color.black),
+        new RectangleImage(18, 18, OutlineMode.SOLID, Color.red));
+    this.numbers = new WorldImage[Board.VALUE_MASK + 1];
+    for (int value = 0; value <= Board.VALUE_MASK; value++) {
+      this.numbers[value] = this.makeNumber(value);
+    }
+
+    WorldImage slot = new RectangleImage(20, 20, OutlineMode.SOLID, Color.white);
+    this.byState = new WorldImage[0x80];
+    this.slotByState = new WorldImage[0x80];
+    for (int state = 0; state < 0x80; state++) {
+      this.byState[state] = this.lookOf(state);
+      this.slotByState[state] = new OverlayImage(this.byState[state], slot);
+    }
+  }
+
+  // makes the image of an uncovered safe cell with the given number of mines around it
+  WorldImage makeNumber(int value) {
+    WorldImage cellBackground = new RectangleImage(18, 18, OutlineMode.SOLID, Color.gray);
+    if (value == 0) {
+      return cellBackground;
+    } else if (value == 1) {
+      return new OverlayImage(new TextImage("1", 12, Color.cyan), cellBackground);
+    } else if (value == 2) {
+      return new OverlayImage(new TextImage("2", 12, Color.magenta), cellBackground);
+    } else if (value == 3) {
+      return new OverlayImage(new TextImage("3", 12, Color.red), cellBackground);
+    } else if (value == 4) {
+      return new OverlayImage(new TextImage("4", 12, Color.yellow), cellBackground);
+    } else if (value == 5) {
+      return new OverlayImage(new TextImage("5", 12, Color.green), cellBackground);
+    } else if (value == 6) {
+      return new OverlayImage(new TextImage("6", 12, Color.black), cellBackground);
+    } else if (value == 7) {
+      return new OverlayImage(new TextImage("7", 12, Color.magenta), cellBackground);
+    } else if (value == 8) {
+      return new OverlayImage(new TextImage("8", 12, Color.blue), cellBackground);
+    } else {
+      return new OverlayImage(new TextImage(String.valueOf(value), 12, Color.cyan),
+          cellBackground);
+    }
+  }
+
+  // returns the shared image for a cell with the given packed state
+  WorldImage lookOf(int state) {
+    if ((state & Board.FLAGGED) != 0) {
+      return this.flagged;
+    } else if ((state & Board.COVERED) != 0) {
+      return this.cover;
+    } else if ((state & Board.MINE) != 0) {
+      return this.mine;
+    } else {
+      return this.numbers[state & Board.VALUE_MASK];
+    }
+  }
+
+  // returns the image of a safe cell
+  // values too big for a cell's state are drawn fresh
+  WorldImage safe(boolean flagged, boolean covered, int value) {
+    if (flagged) {
+      return this.flagged;
+    } else if (covered) {
+      return this.cover;
+    } else if (value >= 0 && value <= Board.VALUE_MASK) {
+      return this.numbers[value];
+    } else {
+      return this.makeNumber(value);
+    }
+  }
+
+  // returns the image of a mine cell
+  WorldImage mine(boolean flagged, boolean covered) {
+    if (flagged) {
+      return this.flagged;
+    } else if (covered) {
+      return this.cover;
+    } else {
+      return this.mine;
+    }
+  }
+
+  // returns the image of the cell at the given index of the board
+  WorldImage cell(Board board, int idx) {
+    return this.byState[board.cells[idx] & 0x7F];
+  }
+
+  // returns the image of the cell at the given index of the board, on its 20x20 slot
+  WorldImage slot(Board board, int idx) {
+    return this.slotByState[board.cells[idx] & 0x7F];
+  }
+}
+
+
+// represents a drawing of a board that a world shows every frame
+interface IBoardRenderer {
+  // returns the scene for this frame
+  WorldScene render();
+
+  // returns a new scene of the board, for overlays that must not end up in the scene that
+  // is reused between frames
+  WorldScene freshScene();
+}
+
+
+// represents a drawing of a board as square tiles of cells, each tile is one cached image
+// that is drawn again only after one of its cells has changed
+abstract class ATileRenderer implements IBoardRenderer, ICellObserver {
+  static final int TILE = 16;
+
+  Board board;
+  CellSprites sprites;
+  int tilesAcross;
+  int tilesDown;
+  WorldImage[] tiles;
+  long[] dirty;
+
+  ATileRenderer(Board board) {
+    this.board = board;
+    this.sprites = CellSprites.SHARED;
+    this.tilesAcross = (board.width + TILE - 1) / TILE;
+    this.tilesDown = (board.height + TILE - 1) / TILE;
+    int numTiles = this.tilesAcross * this.tilesDown;
+    this.tiles = new WorldImage[numTiles];
+    this.dirty = new long[(numTiles + 63) / 64];
+    board.addObserver(this);
+  }
+
+  // returns the tile holding the cell at the given index
+  int tileOf(int idx) {
+    int row = idx / this.board.width;
+    int column = idx - row * this.board.width;
+    return (row / TILE) * this.tilesAcross + column / TILE;
+  }
+
+  // is the given tile waiting to be drawn again?
+  boolean isDirty(int tile) {
+    return (this.dirty[tile >>> 6] & (1L << tile)) != 0;
+  }
+
+  // Effect: marks the given tile as drawn
+  void clearDirty(int tile) {
+    this.dirty[tile >>> 6] &= ~(1L << tile);
+  }
+
+  // returns the cached image of the given tile, drawing it first if it is dirty
+  WorldImage tileImage(int tile) {
+    if (this.tiles[tile] == null || this.isDirty(tile)) {
+      this.tiles[tile] = this.drawTile(tile);
+      this.clearDirty(tile);
+    }
+    return this.tiles[tile];
+  }
+
+  // returns how many cells across the given tile is, edge tiles can be narrower
+  int tileColumns(int tile) {
+    return Math.min(TILE, this.board.width - (tile % this.tilesAcross) * TILE);
+  }
+
+  // returns how many cells down the given tile is, edge tiles can be shorter
+  int tileRows(int tile) {
+    return Math.min(TILE, this.board.height - (tile / this.tilesAcross) * TILE);
+  }
+
+  // draws the cells of the given tile as rows of slots
+  WorldImage drawTile(int tile) {
+    int top = (tile / this.tilesAcross) * TILE;
+    int left = (tile % this.tilesAcross) * TILE;
+    int columns = this.tileColumns(tile);
+    int rows = this.tileRows(tile);
+
+    WorldImage[] rowImages = new WorldImage[rows];
+    WorldImage[] rest = new WorldImage[columns - 1];
+    for (int r = 0; r < rows; r++) {
+      int start = this.board.index(top + r, left);
+      for (int c = 1; c < columns; c++) {
+        rest[c - 1] = this.sprites.slot(this.board, start + c);
+      }
+      rowImages[r] = new BesideImage(this.sprites.slot(this.board, start), rest);
+    }
+    WorldImage[] below = new WorldImage[rows - 1];
+    System.arraycopy(rowImages, 1, below, 0, rows - 1);
+    return new AboveImage(rowImages[0], below);
+  }
+}
+
+
+// draws a whole board that fits on the screen
+// cells that change mark their tile dirty; a frame redraws only the dirty tiles and places
+// them over the last scene, so a frame costs as much as what changed, not the board's area
+// once the scene has piled up as many patches as it has tiles it is rebuilt from the cache
+class BoardRenderer extends ATileRenderer {
+  int[] dirtyList;
+  int dirtyCount;
+
+  WorldScene scene;
+  int patches;
+  int screenWidth;
+  int screenHeight;
+
+  BoardRenderer(Board board, int screenWidth, int screenHeight) {
+    super(board);
+    this.screenWidth = screenWidth;
+    this.screenHeight = screenHeight;
+    this.dirtyList = new int[this.tiles.length];
+    this.invalidateAll();
+  }
+
+  // Effect: marks the tile holding the changed cell as dirty
+  public void cellChanged(int idx) {
+    this.markDirty(this.tileOf(idx));
+  }
+
+  // Effect: marks the given tile as dirty, once
+  void markDirty(int tile) {
+    if (!this.isDirty(tile)) {
+      this.dirty[tile >>> 6] |= 1L << tile;
+      this.dirtyList[this.dirtyCount++] = tile;
+    }
+  }
+
+  // Effect: marks every tile as dirty and drops the last scene
+  void invalidateAll() {
+    for (int tile = 0; tile < this.tiles.length; tile++) {
+      this.markDirty(tile);
+    }
+    this.scene = null;
+  }
+
+  // returns the scene for this frame, reusing the last one when nothing has changed
+  public WorldScene render() {
+    if (this.scene == null || this.patches + this.dirtyCount > this.tiles.length) {
+      this.redrawDirtyTiles();
+      this.scene = this.freshScene();
+      this.patches = 0;
+    } else if (this.dirtyCount > 0) {
+      int count = this.dirtyCount;
+      this.redrawDirtyTiles();
+      for (int i = 0; i < count; i++) {
+        this.placeTile(this.scene, this.dirtyList[i]);
+      }
+      this.patches += count;
+    }
+    return this.scene;
+  }
+
+  // returns a new scene with every cached tile placed on it
+  public WorldScene freshScene() {
+    this.redrawDirtyTiles();
+    WorldScene ws = new WorldScene(this.screenWidth, this.screenHeight);
+    for (int tile = 0; tile < this.tiles.length; tile++) {
+      this.placeTile(ws, tile);
+    }
+    return ws;
+  }
+
+  // Effect: remakes the image of every dirty tile and clears the dirty marks
+  void redrawDirtyTiles() {
+    for (int i = 0; i < this.dirtyCount; i++) {
+      this.tileImage(this.dirtyList[i]);
+    }
+    this.dirtyCount = 0;
+  }
+
+  // Effect: places the cached image of the given tile on the scene, lined up with the cells
+  // Utils.drawCells places one by one
+  void placeTile(WorldScene ws, int tile) {
+    int tileRow = tile / this.tilesAcross;
+    int tileColumn = tile - tileRow * this.tilesAcross;
+    ws.placeImageXY(this.tiles[tile], tileColumn * TILE * 20 + this.tileColumns(tile) * 10 + 1,
+        tileRow * TILE * 20 + this.tileRows(tile) * 10 + 1);
+  }
+}
+
+
+// represents the part of a board that is on the screen: how big its cells are drawn, and
+// how far the screen has scrolled from the top left corner of the board, in pixels
+class Viewport {
+  static final int MIN_CELL = 5;
+  static final int MAX_CELL = 40;
+
+  int boardWidth;
+  int boardHeight;
+  int screenWidth;
+  int screenHeight;
+  int cellSize;
+  int offsetX;
+  int offsetY;
+  boolean zoomable;
+  // goes up every time the view moves, so a renderer knows when its scene is stale
+  int version;
+
+  Viewport(int boardWidth, int boardHeight, int screenWidth, int screenHeight,
+      boolean zoomable) {
+    this.boardWidth = boardWidth;
+    this.boardHeight = boardHeight;
+    this.screenWidth = screenWidth;
+    this.screenHeight = screenHeight;
+    this.cellSize = 20;
+    this.zoomable = zoomable;
+  }
+
+  // returns the index of the board cell under the given screen position,
+  // or -1 if there is no cell there
+  int cellAt(int x, int y) {
+    if (x < 0 || y < 0) {
+      return -1;
+    }
+    int column = (x + this.offsetX) / this.cellSize;
+    int row = (y + this.offsetY) / this.cellSize;
+    if (column >= this.boardWidth || row >= this.boardHeight) {
+      return -1;
+    }
+    return row * this.boardWidth + column;
+  }
+
+  // Effect: scrolls the view by the given number of pixels, staying on the board
+  void pan(int dx, int dy) {
+    this.offsetX += dx;
+    this.offsetY += dy;
+    this.clamp();
+  }
+
+  // Effect: draws cells twice as big, keeping the middle of the screen in place
+  void zoomIn() {
+    if (this.zoomable && this.cellSize < MAX_CELL) {
+      this.zoomTo(this.cellSize * 2);
+    }
+  }
+
+  // Effect: draws cells half as big, keeping the middle of the screen in place
+  void zoomOut() {
+    if (this.zoomable && this.cellSize > MIN_CELL) {
+      this.zoomTo(Math.max(MIN_CELL, this.cellSize / 2));
+    }
+  }
+
+  // Effect: changes the size of the cells, keeping the middle of the screen in place
+  void zoomTo(int size) {
+    long middleX = (long) (this.offsetX + this.screenWidth / 2) * size / this.cellSize;
+    long middleY = (long) (this.offsetY + this.screenHeight / 2) * size / this.cellSize;
+    this.cellSize = size;
+    this.offsetX = (int) middleX - this.screenWidth / 2;
+    this.offsetY = (int) middleY - this.screenHeight / 2;
+    this.clamp();
+  }
+
+  // Effect: keeps the view on the board
+  void clamp() {
+    int maxX = Math.max(0, this.boardWidth * this.cellSize - this.screenWidth);
+    int maxY = Math.max(0, this.boardHeight * this.cellSize - this.screenHeight);
+    this.offsetX = Math.max(0, Math.min(this.offsetX, maxX));
+    this.offsetY = Math.max(0, Math.min(this.offsetY, maxY));
+    this.version++;
+  }
+
+  // Effect: scrolls or zooms for the given key, returns whether the key was used
+  boolean onKey(String key) {
+    int step = this.cellSize * 4;
+    if (key.equals("left")) {
+      this.pan(-step, 0);
+    } else if (key.equals("right")) {
+      this.pan(step, 0);
+    } else if (key.equals("up")) {
+      this.pan(0, -step);
+    } else if (key.equals("down")) {
+      this.pan(0, step);
+    } else if (key.equals("+") || key.equals("=")) {
+      this.zoomIn();
+    } else if (key.equals("-")) {
+      this.zoomOut();
+    } else {
+      return false;
+    }
+    return true;
+  }
+}
+
+
+// draws only the tiles of a board that are inside a viewport, so a frame costs as much as
+// the screen no matter how big the board is
+// tiles are drawn the first time they are seen and cached until one of their cells changes,
+// and the scene is reused while the view stays put and nothing changes
+class ViewportRenderer extends ATileRenderer {
+  Viewport view;
+  WorldScene scene;
+  int drawnVersion;
+  int changes;
+
+  ViewportRenderer(Board board, Viewport view) {
+    super(board);
+    this.view = view;
+  }
+
+  // Effect: marks the tile holding the changed cell as dirty, and asks for a new scene
+  // only if that tile is inside the viewport; an off-screen tile is redrawn when the
+  // view moves over it
+  public void cellChanged(int idx) {
+    int tile = this.tileOf(idx);
+    this.dirty[tile >>> 6] |= 1L << tile;
+    int tileRow = tile / this.tilesAcross;
+    int tileColumn = tile - tileRow * this.tilesAcross;
+    if (tileColumn >= this.firstColumn() && tileColumn <= this.lastColumn()
+        && tileRow >= this.firstRow() && tileRow <= this.lastRow()) {
+      this.changes++;
+    }
+  }
+
+  // returns the column of the leftmost tile inside the viewport
+  int firstColumn() {
+    return this.view.offsetX / (TILE * this.view.cellSize);
+  }
+
+  // returns the column of the rightmost tile inside the viewport
+  int lastColumn() {
+    return Math.min(this.tilesAcross - 1,
+        (this.view.offsetX + this.view.screenWidth - 1) / (TILE * this.view.cellSize));
+  }
+
+  // returns the row of the topmost tile inside the viewport
+  int firstRow() {
+    return this.view.offsetY / (TILE * this.view.cellSize);
+  }
+
+  // returns the row of the bottommost tile inside the viewport
+  int lastRow() {
+    return Math.min(this.tilesDown - 1,
+        (this.view.offsetY + this.view.screenHeight - 1) / (TILE * this.view.cellSize));
+  }
+
+  // returns the scene for this frame
+  public WorldScene render() {
+    if (this.scene == null || this.changes > 0 || this.drawnVersion != this.view.version) {
+      this.scene = this.freshScene();
+      this.changes = 0;
+      this.drawnVersion = this.view.version;
+    }
+    return this.scene;
+  }
+
+  // returns a new scene with the tiles inside the viewport placed on it
+  public WorldScene freshScene() {
+    WorldScene ws = new WorldScene(this.view.screenWidth, this.view.screenHeight);
+    int tilePixels = TILE * this.view.cellSize;
+    int firstColumn = this.firstColumn();
+    int lastColumn = this.lastColumn();
+    int firstRow = this.firstRow();
+    int lastRow = this.lastRow();
+    double scale = this.view.cellSize / 20.0;
+
+    for (int tileRow = firstRow; tileRow <= lastRow; tileRow++) {
+      for (int tileColumn = firstColumn; tileColumn <= lastColumn; tileColumn++) {
+        int tile = tileRow * this.tilesAcross + tileColumn;
+        WorldImage image = this.tileImage(tile);
+        if (this.view.cellSize != 20) {
+          image = new ScaleImage(image, scale);
+        }
+        double x = tileColumn * tilePixels + this.tileColumns(tile) * this.view.cellSize / 2.0
+            + scale - this.view.offsetX;
+        double y = tileRow * tilePixels + this.tileRows(tile) * this.view.cellSize / 2.0
+            + scale - this.view.offsetY;
+        ws.placeImageXY(image, (int) Math.round(x), (int) Math.round(y));
+      }
+    }
+    return ws;
+  }
+}
+
+
+class ExamplesBoardRenderer {
+  Board board;
+  BoardRenderer renderer;
+  CellSprites sprites = CellSprites.SHARED;
+
+  // makes a 20x18 board, so its tiles are 2 across and 2 down with partial edges
+  void initRenderer() {
+    board = new Board(20, 18);
+    board.placeMine(0);
+    board.placeMine(359);
+    board.updateValues();
+    renderer = new BoardRenderer(board, 400, 360);
+  }
+
+  void testSprites(Tester t) {
+    t.checkExpect(sprites.safe(false, false, 3), new Safe(new java.util.ArrayList<Cell>(),
+        false, false, 3).drawCell());
+    t.checkExpect(sprites.safe(false, false, 3) == sprites.safe(false, false, 3), true);
+    t.checkExpect(sprites.safe(false, false, 20), new OverlayImage(
+        new TextImage("20", 12, Color.cyan),
+        new RectangleImage(18, 18, OutlineMode.SOLID, Color.gray)));
+    t.checkExpect(sprites.mine(false, false), new OverlayImage(
+        new CircleImage(6, OutlineMode.SOLID, Color.black),
+        new RectangleImage(18, 18, OutlineMode.SOLID, Color.red)));
+    t.checkExpect(sprites.lookOf(Board.MINE | Board.COVERED | Board.FLAGGED), sprites.flagged);
+    t.checkExpect(sprites.lookOf(Board.MINE | Board.COVERED), sprites.cover);
+    t.checkExpect(sprites.lookOf(Board.MINE), sprites.mine);
+    t.checkExpect(sprites.lookOf(5), sprites.numbers[5]);
+  }
+
+  void testTiles(Tester t) {
+    initRenderer();
+    t.checkExpect(renderer.tiles.length, 4);
+    t.checkExpect(renderer.dirtyCount, 4);
+    WorldScene first = renderer.render();
+    t.checkExpect(renderer.dirtyCount, 0);
+    t.checkExpect(renderer.render() == first, true);
+    t.checkExpect(renderer.patches, 0);
+
+    // the bottom right tile is 4 cells across and 2 down
+    WorldImage slot = sprites.slotByState[Board.COVERED];
+    WorldImage row = new BesideImage(slot, slot, slot, slot);
+    t.checkExpect(renderer.tiles[3], new AboveImage(row, row));
+  }
+
+  void testDirtyTiles(Tester t) {
+    initRenderer();
+    WorldScene first = renderer.render();
+    board.flag(board.index(17, 19));
+    board.flag(board.index(16, 16));
+    t.checkExpect(renderer.dirtyCount, 1);
+    t.checkExpect(renderer.dirtyList[0], 3);
+    WorldScene second = renderer.render();
+    t.checkExpect(second == first, true);
+    t.checkExpect(renderer.patches, 1);
+    WorldImage covered = sprites.slotByState[Board.COVERED];
+    WorldImage flagged = sprites.slotByState[Board.COVERED | Board.FLAGGED];
+    WorldImage mine = sprites.slotByState[Board.COVERED | Board.FLAGGED | Board.MINE];
+    t.checkExpect(renderer.tiles[3], new AboveImage(
+        new BesideImage(flagged, covered, covered, covered),
+        new BesideImage(covered, covered, covered, mine)));
+
+    // a big reveal patches more tiles than the scene holds, so the scene is rebuilt
+    board.uncover(board.index(10, 10));
+    WorldScene third = renderer.render();
+    t.checkExpect(third == first, false);
+    t.checkExpect(renderer.patches, 0);
+    board.flag(board.index(17, 19));
+    board.flag(board.index(0, 0));
+    t.checkExpect(renderer.render() == third, true);
+    t.checkExpect(renderer.patches, 2);
+    t.checkExpect(renderer.freshScene(), new BoardRenderer(board, 400, 360).render());
+  }
+
+  void testFreshScene(Tester t) {
+    initRenderer();
+    WorldScene ws = renderer.render();
+    t.checkExpect(renderer.freshScene(), ws);
+    t.checkExpect(renderer.freshScene() == ws, false);
+  }
+
+  void testViewportMapping(Tester t) {
+    Viewport view = new Viewport(100, 50, 400, 300, true);
+    t.checkExpect(view.cellAt(5, 5), 0);
+    t.checkExpect(view.cellAt(45, 25), 102);
+    view.pan(30, 20);
+    t.checkExpect(view.cellAt(5, 5), 101);
+    view.pan(-100, 5000);
+    t.checkExpect(view.offsetX, 0);
+    t.checkExpect(view.offsetY, 700);
+    t.checkExpect(view.cellAt(0, 299), 49 * 100);
+    t.checkExpect(view.cellAt(-1, 0), -1);
+
+    Viewport small = new Viewport(3, 3, 60, 60, false);
+    t.checkExpect(small.cellAt(61, 10), -1);
+    small.zoomIn();
+    small.pan(10, 10);
+    t.checkExpect(small.cellSize, 20);
+    t.checkExpect(small.offsetX, 0);
+  }
+
+  void testViewportZoom(Tester t) {
+    Viewport view = new Viewport(100, 100, 400, 400, true);
+    view.pan(800, 800);
+    int middle = view.cellAt(200, 200);
+    view.zoomIn();
+    t.checkExpect(view.cellSize, 40);
+    t.checkExpect(view.cellAt(200, 200), middle);
+    view.zoomIn();
+    t.checkExpect(view.cellSize, 40);
+    view.zoomOut();
+    view.zoomOut();
+    view.zoomOut();
+    t.checkExpect(view.cellSize, 5);
+    t.checkExpect(view.offsetX, 50);
+    view.zoomOut();
+    t.checkExpect(view.cellSize, 5);
+    t.checkExpect(view.onKey("left"), true);
+    t.checkExpect(view.offsetX, 30);
+    t.checkExpect(view.onKey("down"), true);
+    t.checkExpect(view.offsetY, 70);
+    t.checkExpect(view.onKey("="), true);
+    t.checkExpect(view.cellSize, 10);
+    t.checkExpect(view.onKey("x"), false);
+  }
+
+  void testViewportRenderer(Tester t) {
+    Board huge = new Board(2000, 2000);
+    Viewport view = new Viewport(2000, 2000, 400, 300, true);
+    ViewportRenderer vr = new ViewportRenderer(huge, view);
+    WorldScene first = vr.render();
+    t.checkExpect(vr.render() == first, true);
+    // only the 2x1 visible tiles have been drawn
+    int drawn = 0;
+    for (WorldImage tile : vr.tiles) {
+      if (tile != null) {
+        drawn++;
+      }
+    }
+    t.checkExpect(drawn, 2);
+    t.checkExpect(first, vr.freshScene());
+
+    view.pan(320, 0);
+    WorldScene moved = vr.render();
+    t.checkExpect(moved == first, false);
+    WorldScene expected = new WorldScene(400, 300);
+    expected.placeImageXY(vr.tiles[1], 161, 161);
+    expected.placeImageXY(vr.tiles[2], 481, 161);
+    t.checkExpect(moved, expected);
+
+    huge.flag(huge.index(0, 20));
+    t.checkExpect(vr.isDirty(1), true);
+    WorldScene flagged = vr.render();
+    t.checkExpect(flagged == moved, false);
+    t.checkExpect(vr.isDirty(1), false);
+    huge.flag(huge.index(1999, 1999));
+    t.checkExpect(vr.isDirty(vr.tiles.length - 1), true);
+    // a change off screen keeps the same scene
+    t.checkExpect(vr.changes, 0);
+    t.checkExpect(vr.render() == flagged, true);
+    t.checkExpect(vr.isDirty(vr.tiles.length - 1), true);
+    huge.flag(huge.index(0, 20));
+    t.checkExpect(vr.changes, 1);
+    flagged = vr.render();
+
+    view.zoomOut();
+    WorldScene zoomed = vr.render();
+    t.checkExpect(view.offsetX, 60);
+    t.checkExpect(zoomed == flagged, false);
+    t.checkExpect(zoomed, vr.freshScene());
+  }
+}
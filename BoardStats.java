@@ -0,0 +1,585 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import tester.*;
+
+
+// represents how hard a board is to clear
+// 3BV is the fewest clicks that clear the board without flags: one per opening, a connected
+// group of empty safe cells, which a click floods open, and one per safe number that no
+// opening uncovers; those numbers form islands, connected groups of numbers cut off from
+// every opening
+class BoardStats {
+  int width;
+  int height;
+  long mines;
+  long threeBV;
+  long openings;
+  // how many empty cells the openings hold, and how many the largest holds
+  long openingCells;
+  long largestOpening;
+  long islands;
+  // how many numbers the islands hold, and how many the largest holds
+  long islandCells;
+  long largestIsland;
+
+  BoardStats(int width, int height, long mines, long threeBV, long openings,
+      long openingCells, long largestOpening, long islands, long islandCells,
+      long largestIsland) {
+    this.width = width;
+    this.height = height;
+    this.mines = mines;
+    this.threeBV = threeBV;
+    this.openings = openings;
+    this.openingCells = openingCells;
+    this.largestOpening = largestOpening;
+    this.islands = islands;
+    this.islandCells = islandCells;
+    this.largestIsland = largestIsland;
+  }
+
+  // returns the 3BV of the board per safe cell, how much clicking each cell is worth
+  double density() {
+    long safe = (long) this.width * this.height - this.mines;
+    if (safe == 0) {
+      return 0;
+    }
+    return (double) this.threeBV / safe;
+  }
+}
+
+
+// finds the connected groups of marked cells of a board given one row at a time, cells
+// touching across edges and corners, holding labels for two rows only
+//
+// a row comes as bits, and is walked as runs of marked cells; each run gets a label in a
+// union-find that also holds the labels of the runs of the row above, which are 0 to
+// count - 1; a run joins the groups of the runs above that it touches, which start no
+// further right than one past its end and end no further left than one before its start,
+// and at the end of the row any group of the row above that no run of this row reached is
+// finished; the groups still open are then labelled 0 to count - 1 again, so the
+// union-find never holds more than two rows of labels
+class ComponentScanner {
+  int width;
+  // the runs of the row above and of this row: first and last column, and label
+  int[] aboveStart;
+  int[] aboveEnd;
+  int[] aboveLabel;
+  int aboveRuns;
+  int[] runStart;
+  int[] runEnd;
+  int[] runLabel;
+  int runs;
+  // how many labels the row above uses
+  int count;
+  // the union-find over the labels, and how many cells each label has, added up at its
+  // root at the end of the row
+  int[] parent;
+  long[] size;
+  // the row each root was last seen in, its new label there, and the sizes of the groups
+  // by their new labels
+  int[] seenIn;
+  int[] relabel;
+  long[] openSize;
+  int rowNumber;
+
+  // the groups finished so far
+  long groups;
+  long cells;
+  long largest;
+
+  ComponentScanner(int width) {
+    this.width = width;
+    int maxRuns = (width + 1) / 2;
+    this.aboveStart = new int[maxRuns];
+    this.aboveEnd = new int[maxRuns];
+    this.aboveLabel = new int[maxRuns];
+    this.runStart = new int[maxRuns];
+    this.runEnd = new int[maxRuns];
+    this.runLabel = new int[maxRuns];
+    this.parent = new int[2 * maxRuns];
+    this.size = new long[2 * maxRuns];
+    this.seenIn = new int[2 * maxRuns];
+    this.relabel = new int[2 * maxRuns];
+    this.openSize = new long[maxRuns];
+    Arrays.fill(this.seenIn, -1);
+  }
+
+  // returns the root of the group of the given label, halving the path to it
+  int find(int label) {
+    while (this.parent[label] != label) {
+      this.parent[label] = this.parent[this.parent[label]];
+      label = this.parent[label];
+    }
+    return label;
+  }
+
+  // Effect: joins the groups of the given labels
+  void join(int label, int other) {
+    int root = this.find(label);
+    int otherRoot = this.find(other);
+    if (otherRoot != root) {
+      this.parent[otherRoot] = root;
+    }
+  }
+
+  // returns the first marked column at or after the given one, or -1 if there is none
+  static int nextSet(long[] bits, int from) {
+    int w = from >>> 6;
+    if (w >= bits.length) {
+      return -1;
+    }
+    long word = bits[w] & (-1L << from);
+    while (word == 0) {
+      w++;
+      if (w == bits.length) {
+        return -1;
+      }
+      word = bits[w];
+    }
+    return (w << 6) + Long.numberOfTrailingZeros(word);
+  }
+
+  // returns the first unmarked column at or after the given one, past the last word if none
+  static int nextClear(long[] bits, int from) {
+    int w = from >>> 6;
+    long word = ~bits[w] & (-1L << from);
+    while (word == 0) {
+      w++;
+      if (w == bits.length) {
+        return w << 6;
+      }
+      word = ~bits[w];
+    }
+    return (w << 6) + Long.numberOfTrailingZeros(word);
+  }
+
+  // Effect: adds the next row, where bit c % 64 of bits[c / 64] is set if the cell at
+  // column c is marked; bits past the last column must be clear
+  void addRow(long[] bits) {
+    int next = this.count;
+    int first = 0;
+    this.runs = 0;
+    int start = nextSet(bits, 0);
+    while (start >= 0) {
+      int end = nextClear(bits, start) - 1;
+      // skip the runs above that end before this run's reach, they cannot touch later runs
+      while (first < this.aboveRuns && this.aboveEnd[first] < start - 1) {
+        first++;
+      }
+      int label = -1;
+      for (int a = first; a < this.aboveRuns && this.aboveStart[a] <= end + 1; a++) {
+        if (label < 0) {
+          label = this.aboveLabel[a];
+        } else {
+          this.join(label, this.aboveLabel[a]);
+        }
+      }
+      if (label < 0) {
+        label = next;
+        this.parent[label] = label;
+        this.size[label] = 0;
+        next++;
+      }
+      this.size[label] += end - start + 1;
+      this.runStart[this.runs] = start;
+      this.runEnd[this.runs] = end;
+      this.runLabel[this.runs] = label;
+      this.runs++;
+      start = end + 2 < this.width ? nextSet(bits, end + 2) : -1;
+    }
+    this.finishRow(next);
+  }
+
+  // Effect: finishes the groups of the row above that this row did not reach, and labels
+  // the groups of this row 0 to count - 1, in the order the row reaches them
+  void finishRow(int labels) {
+    for (int label = 0; label < labels; label++) {
+      int root = this.find(label);
+      if (root != label) {
+        this.size[root] += this.size[label];
+        this.size[label] = 0;
+      }
+    }
+    int stamp = this.rowNumber;
+    int open = 0;
+    for (int r = 0; r < this.runs; r++) {
+      int root = this.find(this.runLabel[r]);
+      if (this.seenIn[root] != stamp) {
+        this.seenIn[root] = stamp;
+        this.relabel[root] = open;
+        this.openSize[open] = this.size[root];
+        open++;
+      }
+      this.runLabel[r] = this.relabel[root];
+    }
+    for (int label = 0; label < this.count; label++) {
+      int root = this.find(label);
+      if (this.seenIn[root] != stamp) {
+        this.seenIn[root] = stamp;
+        this.finish(this.size[root]);
+      }
+    }
+    for (int label = 0; label < open; label++) {
+      this.parent[label] = label;
+      this.size[label] = this.openSize[label];
+    }
+    int[] swap = this.aboveStart;
+    this.aboveStart = this.runStart;
+    this.runStart = swap;
+    swap = this.aboveEnd;
+    this.aboveEnd = this.runEnd;
+    this.runEnd = swap;
+    swap = this.aboveLabel;
+    this.aboveLabel = this.runLabel;
+    this.runLabel = swap;
+    this.aboveRuns = this.runs;
+    this.count = open;
+    this.rowNumber++;
+  }
+
+  // Effect: counts a finished group of the given size
+  void finish(long groupSize) {
+    this.groups++;
+    this.cells += groupSize;
+    this.largest = Math.max(this.largest, groupSize);
+  }
+
+  // Effect: finishes every group still open, after the last row
+  void end() {
+    for (int label = 0; label < this.count; label++) {
+      this.finish(this.size[label]);
+    }
+    this.count = 0;
+    this.aboveRuns = 0;
+  }
+}
+
+
+// computes the stats of a board in one pass over its rows, in order, holding three rows of
+// bits and two of runs, so a board of any size takes memory in proportion to its width
+// cells are Board state bytes, with the values Utils.updateValues and Board.updateValues
+// count, which must be up to date; each row is turned into a plane of empty cells and one
+// of mines, eight cells at a time the way Snapshot gathers its planes, and a row is looked
+// at once the row below it has come, to know whether its numbers touch an empty cell
+class BoardAnalyzer {
+  static final long LOW_FIVE = 0x1F1F1F1F1F1F1F1FL;
+  static final long SEVENS = 0x7F7F7F7F7F7F7F7FL;
+
+  int width;
+  int words;
+  int rows;
+  // the empty cells and the mines of the rows above, at, and below the row looked at
+  long[] emptyAbove;
+  long[] emptyMiddle;
+  long[] emptyBelow;
+  long[] minesAbove;
+  long[] minesMiddle;
+  long[] minesBelow;
+  // the numbers of the row looked at that touch no empty cell
+  long[] isolated;
+  ComponentScanner openings;
+  ComponentScanner islands;
+  long mines;
+
+  BoardAnalyzer(int width) {
+    this.width = width;
+    this.words = (width + 63) >>> 6;
+    this.emptyAbove = new long[this.words];
+    this.emptyMiddle = new long[this.words];
+    this.emptyBelow = new long[this.words];
+    this.minesAbove = new long[this.words];
+    this.minesMiddle = new long[this.words];
+    this.minesBelow = new long[this.words];
+    this.isolated = new long[this.words];
+    this.openings = new ComponentScanner(width);
+    this.islands = new ComponentScanner(width);
+  }
+
+  // returns the stats of the given board
+  static BoardStats of(Board board) {
+    BoardAnalyzer analyzer = new BoardAnalyzer(board.width);
+    for (int r = 0; r < board.height; r++) {
+      analyzer.addRow(board.cells, r * board.width);
+    }
+    return analyzer.finish();
+  }
+
+  // returns the stats of the given board of any size, read one row at a time through IBoard
+  static BoardStats of(IBoard board) {
+    int width = board.columns();
+    BoardAnalyzer analyzer = new BoardAnalyzer(width);
+    byte[] row = new byte[width];
+    for (long r = 0; r < board.rows(); r++) {
+      for (int c = 0; c < width; c++) {
+        long idx = r * width + c;
+        int state = board.cellState(idx);
+        if ((state & Board.MINE) == 0) {
+          state |= board.cellValue(idx);
+        }
+        row[c] = (byte) state;
+      }
+      analyzer.addRow(row, 0);
+    }
+    return analyzer.finish();
+  }
+
+  // Effect: adds the next row, the width cells from the given offset of the given array
+  void addRow(byte[] cells, int offset) {
+    long[] oldest = this.emptyAbove;
+    this.emptyAbove = this.emptyMiddle;
+    this.emptyMiddle = this.emptyBelow;
+    this.emptyBelow = oldest;
+    oldest = this.minesAbove;
+    this.minesAbove = this.minesMiddle;
+    this.minesMiddle = this.minesBelow;
+    this.minesBelow = oldest;
+    this.readPlanes(cells, offset);
+    this.rows++;
+    if (this.rows > 1) {
+      this.lookAtMiddle(this.rows > 2, true);
+    }
+  }
+
+  // Effect: fills the planes of the row below from the width cells at the given offset
+  // a cell is empty if its mine and value bits are all clear: adding 0x7F to those five
+  // bits sets the top bit of the byte exactly when one of them is set
+  void readPlanes(byte[] cells, int offset) {
+    for (int w = 0; w < this.words; w++) {
+      int first = w << 6;
+      int count = Math.min(64, this.width - first);
+      long empty = 0;
+      long mines = 0;
+      int k = 0;
+      for (; k + 8 <= count; k += 8) {
+        long eight = (long) Snapshot.EIGHT_CELLS.get(cells, offset + first + k);
+        long nonEmpty = ((eight & LOW_FIVE) + SEVENS) & ~SEVENS;
+        empty |= Snapshot.gather(~nonEmpty, 7) << k;
+        mines |= Snapshot.gather(eight, 4) << k;
+      }
+      for (; k < count; k++) {
+        int state = cells[offset + first + k];
+        empty |= (long) (((state & (Board.MINE | Board.VALUE_MASK)) - 1) >>> 31) << k;
+        mines |= (long) (state >>> 4 & 1) << k;
+      }
+      this.emptyBelow[w] = empty;
+      this.minesBelow[w] = mines;
+    }
+  }
+
+  // Effect: counts the mines of the middle row, and hands its empty cells and the numbers
+  // that touch no empty cell to their scanners
+  void lookAtMiddle(boolean hasAbove, boolean hasBelow) {
+    for (int w = 0; w < this.words; w++) {
+      this.isolated[w] = this.emptyMiddle[w]
+          | (hasAbove ? this.emptyAbove[w] : 0)
+          | (hasBelow ? this.emptyBelow[w] : 0);
+    }
+    // spread each column holding an empty cell to the columns on either side, then keep the
+    // safe cells that are neither empty nor next to one
+    long carry = 0;
+    for (int w = 0; w < this.words; w++) {
+      long near = this.isolated[w];
+      long after = w + 1 < this.words ? this.isolated[w + 1] : 0;
+      long touching = near | near << 1 | carry >>> 63 | near >>> 1 | after << 63;
+      carry = near;
+      int count = Math.min(64, this.width - (w << 6));
+      long inRow = -1L >>> (64 - count);
+      this.isolated[w] = ~touching & ~this.minesMiddle[w] & inRow;
+      this.mines += Long.bitCount(this.minesMiddle[w]);
+    }
+    this.openings.addRow(this.emptyMiddle);
+    this.islands.addRow(this.isolated);
+  }
+
+  // returns the stats of the rows added, looking at the last row, which has none below it
+  BoardStats finish() {
+    if (this.rows > 0) {
+      long[] oldest = this.emptyAbove;
+      this.emptyAbove = this.emptyMiddle;
+      this.emptyMiddle = this.emptyBelow;
+      this.emptyBelow = oldest;
+      oldest = this.minesAbove;
+      this.minesAbove = this.minesMiddle;
+      this.minesMiddle = this.minesBelow;
+      this.minesBelow = oldest;
+      this.lookAtMiddle(this.rows > 1, false);
+    }
+    this.openings.end();
+    this.islands.end();
+    return new BoardStats(this.width, this.rows, this.mines,
+        this.openings.groups + this.islands.cells, this.openings.groups,
+        this.openings.cells, this.openings.largest, this.islands.groups, this.islands.cells,
+        this.islands.largest);
+  }
+}
+
+
+// times the stats of a random board: java RunBoardStats width height mines seed
+class RunBoardStats {
+  public static void main(String[] args) {
+    int width = Integer.parseInt(args[0]);
+    int height = Integer.parseInt(args[1]);
+    int mines = Integer.parseInt(args[2]);
+    long seed = Long.parseLong(args[3]);
+    Board board = new ParallelBoardBuilder(width, height, mines, seed).build();
+    for (int run = 0; run < 5; run++) {
+      long start = System.nanoTime();
+      BoardStats stats = BoardAnalyzer.of(board);
+      System.out.println((System.nanoTime() - start) / 1000000 + " ms: 3BV " + stats.threeBV
+          + ", " + stats.openings + " openings, " + stats.islands + " islands");
+    }
+  }
+}
+
+
+class ExamplesBoardStats {
+
+  // returns a board with the given mines, by index, and its values counted
+  Board boardWith(int width, int height, int... mines) {
+    Board board = new Board(width, height);
+    for (int m : mines) {
+      board.placeMine(m);
+    }
+    board.updateValues();
+    return board;
+  }
+
+  // returns the stats of the given board worked out the slow way, on a copy: a click on
+  // each empty cell still covered, then on each number still covered, with islands found
+  // by flooding through covered numbers
+  BoardStats slowStats(Board board) {
+    Board copy = new Board(board.width, board.height);
+    System.arraycopy(board.cells, 0, copy.cells, 0, board.size);
+    copy.recount();
+    long openings = 0;
+    long openingCells = 0;
+    long largestOpening = 0;
+    for (int i = 0; i < copy.size; i++) {
+      if (copy.isCovered(i) && !copy.isMine(i) && copy.getValue(i) == 0) {
+        openings++;
+        long before = this.emptyUncovered(copy);
+        copy.uncover(i);
+        long cells = this.emptyUncovered(copy) - before;
+        openingCells += cells;
+        largestOpening = Math.max(largestOpening, cells);
+      }
+    }
+    long islands = 0;
+    long islandCells = 0;
+    long largestIsland = 0;
+    int[] around = new int[8];
+    for (int i = 0; i < copy.size; i++) {
+      if (copy.isCovered(i) && !copy.isMine(i)) {
+        islands++;
+        long cells = 0;
+        IntQueue work = new IntQueue();
+        copy.reveal(i);
+        work.add(i);
+        while (!work.isEmpty()) {
+          cells++;
+          int count = copy.neighbors(work.remove(), around);
+          for (int k = 0; k < count; k++) {
+            int n = around[k];
+            if (copy.isCovered(n) && !copy.isMine(n)) {
+              copy.reveal(n);
+              work.add(n);
+            }
+          }
+        }
+        islandCells += cells;
+        largestIsland = Math.max(largestIsland, cells);
+      }
+    }
+    return new BoardStats(board.width, board.height, board.numMines, openings + islandCells,
+        openings, openingCells, largestOpening, islands, islandCells, largestIsland);
+  }
+
+  // counts the uncovered empty cells of the given board
+  long emptyUncovered(Board board) {
+    long count = 0;
+    for (int i = 0; i < board.size; i++) {
+      if (!board.isCovered(i) && !board.isMine(i) && board.getValue(i) == 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  void testSmallBoards(Tester t) {
+    // 1 * 1 . .
+    // 1 1 1 . .
+    // . . . 1 1
+    // . . . 1 *
+    // the top left 1 touches no empty cell, so it takes a click of its own
+    Board two = boardWith(5, 4, 1, 19);
+    t.checkExpect(BoardAnalyzer.of(two), new BoardStats(5, 4, 2, 2, 1, 10, 10, 1, 1, 1));
+    t.checkExpect(BoardAnalyzer.of(two), slowStats(two));
+
+    // every cell a mine, or none
+    t.checkExpect(BoardAnalyzer.of(boardWith(2, 2, 0, 1, 2, 3)),
+        new BoardStats(2, 2, 4, 0, 0, 0, 0, 0, 0, 0));
+    t.checkExpect(BoardAnalyzer.of(new Board(7, 3)),
+        new BoardStats(7, 3, 0, 1, 1, 21, 21, 0, 0, 0));
+
+    // a checkerboard of mines leaves one island of numbers, joined at their corners
+    Board checkers = boardWith(4, 4, 0, 2, 5, 7, 8, 10, 13, 15);
+    t.checkExpect(BoardAnalyzer.of(checkers), new BoardStats(4, 4, 8, 8, 0, 0, 0, 1, 8, 8));
+  }
+
+  void testShapes(Tester t) {
+    // groups that only meet far below where they start, across corners, and at the edges
+    Board board = boardWith(7, 6, 3, 10, 17, 24, 31);
+    t.checkExpect(BoardAnalyzer.of(board), slowStats(board));
+    Board stripes = boardWith(6, 5, 1, 7, 13, 19, 4, 10, 16, 22);
+    t.checkExpect(BoardAnalyzer.of(stripes), slowStats(stripes));
+    Board row = boardWith(9, 1, 2, 6);
+    t.checkExpect(BoardAnalyzer.of(row), slowStats(row));
+    Board column = boardWith(1, 9, 2, 6);
+    t.checkExpect(BoardAnalyzer.of(column), slowStats(column));
+    t.checkExpect(BoardAnalyzer.of(boardWith(1, 1)), new BoardStats(1, 1, 0, 1, 1, 1, 1, 0, 0,
+        0));
+  }
+
+  void testRandomBoards(Tester t) {
+    int[][] shapes = {{9, 9, 10}, {16, 16, 40}, {30, 16, 99}, {50, 40, 300}, {13, 70, 150},
+        {70, 13, 200}, {40, 40, 500}, {40, 40, 80}};
+    for (int[] shape : shapes) {
+      for (int seed = 0; seed < 10; seed++) {
+        Board board = new Board(shape[0], shape[1]);
+        new ReservoirLayout().placeMines(board, shape[2], new Random(seed), new int[0]);
+        board.updateValues();
+        t.checkExpect(BoardAnalyzer.of(board), slowStats(board));
+      }
+    }
+  }
+
+  void testIBoard(Tester t) {
+    // the same stats from the bytes of a Board, through IBoard, and from an off-heap board
+    Board board = new Board(60, 45);
+    new ReservoirLayout().placeMines(board, 400, new Random(3), new int[0]);
+    board.updateValues();
+    OffHeapBoard offHeap = OffHeapBoard.inMemory(60, 45);
+    for (int i = 0; i < board.size; i++) {
+      if (board.isMine(i)) {
+        offHeap.placeMine(i);
+      }
+    }
+    BoardStats stats = BoardAnalyzer.of(board);
+    t.checkExpect(BoardAnalyzer.of((IBoard) board), stats);
+    t.checkExpect(BoardAnalyzer.of(offHeap), stats);
+    t.checkInexact(stats.density(), (double) stats.threeBV / (2700 - 400), 0.000001);
+  }
+
+  void testLabelsStayNarrow(Tester t) {
+    // a tall board keeps its union-find two rows of runs wide, however many groups it ends
+    Board board = new ParallelBoardBuilder(20, 5000, 20000, 4).build();
+    BoardAnalyzer analyzer = new BoardAnalyzer(20);
+    for (int r = 0; r < board.height; r++) {
+      analyzer.addRow(board.cells, r * 20);
+      t.checkNumRange(analyzer.openings.count, 0, 11);
+    }
+    t.checkExpect(analyzer.finish(), slowStats(board));
+    t.checkExpect(analyzer.openings.parent.length, 20);
+  }
+}
@@ -0,0 +1,488 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import tester.*;
+
+
+// represents a game of minesweeper without a window: moves are given as rows and columns
+// and every move answers with the cells it changed
+// once a game is won or lost, moves change nothing
+class GameEngine implements ICellObserver {
+  // the seed of a game whose layout did not come from a seed
+  static final long NO_SEED = Long.MIN_VALUE;
+
+  Board board;
+  Random rand;
+  boolean firstClickSafe;
+  boolean started;
+  // the seed the layout was made from, so the game can be made again, or NO_SEED
+  long seed;
+  // the game clock, counted in ticks from the first move until the game is over
+  long tick;
+  // records every move made, or null
+  MoveJournal journal;
+  // keeps what recent moves changed so they can be taken back, or null
+  MoveHistory history;
+  // the cells changed by the move being made
+  IntList changes;
+  // the reveals of a batch waiting to be flooded together
+  IntList reveals;
+
+  // default constructor, plays on the given board
+  // when firstClickSafe is set, mines around the first uncovered cell are moved away
+  GameEngine(Board board, Random rand, boolean firstClickSafe) {
+    this.board = board;
+    this.rand = rand;
+    this.firstClickSafe = firstClickSafe;
+    this.changes = new IntList();
+    this.reveals = new IntList();
+    this.seed = NO_SEED;
+    board.addObserver(this);
+  }
+
+  // layout constructor, makes a board with mines from the given generator
+  GameEngine(int numMines, int width, int height, Random rand, MineLayoutGenerator generator,
+      boolean firstClickSafe) {
+    this(new Board(width, height), rand, firstClickSafe);
+    long start = Metrics.start();
+    generator.placeMines(this.board, numMines, rand, new int[0]);
+    this.board.updateValues();
+    Metrics.GENERATE_NANOS.recordSince(start);
+    this.changes.clear();
+  }
+
+  // seeded constructor, lays the mines out the way MineSweeper does from new Random(seed)
+  GameEngine(int numMines, int width, int height, long seed, boolean firstClickSafe) {
+    this(numMines, width, height, new Random(seed), new InsertionLayout(), firstClickSafe);
+    this.seed = seed;
+  }
+
+  // Effect: starts a new game on this engine's board, which must have been set up again,
+  // drawing from the given random from now on
+  void restart(Random rand) {
+    this.rand = rand;
+    this.started = false;
+    this.tick = 0;
+    this.changes.clear();
+    if (this.history != null) {
+      this.history.clear();
+    }
+  }
+
+  // Effect: advances the game clock by one tick, if the game is being played
+  void tick() {
+    if (this.started && !this.board.isOver()) {
+      this.tick++;
+    }
+  }
+
+  // Effect: keeps what the moves from now on change, up to the given number of cells, so
+  // they can be taken back and made again
+  // returns the history
+  MoveHistory enableUndo(int capacity) {
+    this.history = new MoveHistory(this.board, capacity);
+    this.board.history = this.history;
+    return this.history;
+  }
+
+  // Effect: closes the move just made in the history, if there is one
+  void endMove() {
+    if (this.history != null) {
+      this.history.endMove();
+    }
+  }
+
+  // takes back the last move, answering with the cells it changed back
+  // a journal cannot replay a move taken back, so a journaled game cannot undo
+  MoveResult undo() {
+    this.checkUndoable();
+    this.changes.clear();
+    this.history.undo();
+    return this.result();
+  }
+
+  // makes the last move taken back again, answering with the cells it changed
+  MoveResult redo() {
+    this.checkUndoable();
+    this.changes.clear();
+    this.history.redo();
+    return this.result();
+  }
+
+  // throws if this game's moves cannot be taken back
+  void checkUndoable() {
+    if (this.history == null) {
+      throw new IllegalStateException("Undo is not enabled for this game");
+    }
+    if (this.journal != null) {
+      throw new IllegalStateException("Cannot undo a journaled game");
+    }
+  }
+
+  // Effect: records the given move in the journal, if there is one
+  void record(int idx, int action) {
+    if (this.journal != null) {
+      this.journal.record(idx, action, this.tick);
+    }
+  }
+
+  // Effect: remembers the changed cell as part of the move being made
+  public void cellChanged(int idx) {
+    this.changes.add(idx);
+  }
+
+  // returns a snapshot of the state of this game
+  GameStatus status() {
+    return this.board.status();
+  }
+
+  // returns the index of the cell at the given row and column
+  int indexOf(int row, int column) {
+    if (row < 0 || row >= this.board.height || column < 0 || column >= this.board.width) {
+      throw new IllegalArgumentException(
+          "No cell at row " + row + " and column " + column);
+    }
+    return this.board.index(row, column);
+  }
+
+  // uncovers the cell at the given row and column, flooding through empty cells
+  MoveResult reveal(int row, int column) {
+    this.revealAt(this.indexOf(row, column));
+    return this.result();
+  }
+
+  // flags or unflags the cell at the given row and column
+  MoveResult flag(int row, int column) {
+    this.flagAt(this.indexOf(row, column));
+    return this.result();
+  }
+
+  // uncovers every unflagged neighbor of the number at the given row and column,
+  // if as many of its neighbors are flagged as it has mines around it
+  MoveResult chord(int row, int column) {
+    this.chordAt(this.indexOf(row, column));
+    return this.result();
+  }
+
+  // Effect: uncovers the cell at the given index, without making a result
+  // returns how many cells were uncovered
+  int revealAt(int idx) {
+    this.changes.clear();
+    int revealed = this.revealNow(idx);
+    this.endMove();
+    return revealed;
+  }
+
+  // Effect: flags or unflags the cell at the given index, without making a result
+  void flagAt(int idx) {
+    this.changes.clear();
+    this.flagNow(idx);
+    this.endMove();
+  }
+
+  // Effect: chords the cell at the given index, without making a result
+  // returns how many cells were uncovered
+  int chordAt(int idx) {
+    this.changes.clear();
+    int revealed = this.chordNow(idx);
+    this.endMove();
+    return revealed;
+  }
+
+  // Effect: uncovers the cell at the given index, adding to the changes of this move
+  // returns how many cells were uncovered
+  int revealNow(int idx) {
+    if (this.board.isOver()) {
+      return 0;
+    }
+    this.record(idx, MoveJournal.REVEAL);
+    if (this.firstClickSafe && !this.started) {
+      this.board.clearZone(idx, this.rand);
+    }
+    this.started = true;
+    return this.board.uncover(idx);
+  }
+
+  // Effect: flags or unflags the cell at the given index, adding to the changes of this move
+  void flagNow(int idx) {
+    if (!this.board.isOver()) {
+      this.record(idx, MoveJournal.FLAG);
+      this.board.flag(idx);
+    }
+  }
+
+  // Effect: chords the cell at the given index, adding to the changes of this move
+  // returns how many cells were uncovered
+  int chordNow(int idx) {
+    if (this.board.isOver()) {
+      return 0;
+    }
+    this.record(idx, MoveJournal.CHORD);
+    return this.board.chord(idx);
+  }
+
+  // makes every move of the batch as one move, answering with every cell it changed, once
+  // the board and the journal end up as if the moves were made one at a time, but reveals
+  // in a row are flooded together, so openings they share are walked once
+  MoveResult apply(MoveBatch batch) {
+    this.changes.clear();
+    this.reveals.clear();
+    for (int i = 0; i < batch.size() && !this.board.isOver(); i++) {
+      int idx = batch.cells.get(i);
+      int action = batch.actions.get(i);
+      if (action == MoveJournal.REVEAL && this.started && !this.board.isMine(idx)) {
+        this.reveals.add(idx);
+      } else {
+        this.revealTogether();
+        if (action == MoveJournal.REVEAL) {
+          this.revealNow(idx);
+        } else if (action == MoveJournal.FLAG) {
+          this.flagNow(idx);
+        } else {
+          this.chordNow(idx);
+        }
+      }
+    }
+    this.revealTogether();
+    this.endMove();
+    return this.batchResult();
+  }
+
+  // Effect: uncovers the reveals waiting in this batch with one flood, and records the ones
+  // made before the game ended
+  void revealTogether() {
+    if (this.reveals.size() > 0) {
+      this.board.uncoverAll(this.reveals);
+      for (int i = 0; i < this.reveals.size(); i++) {
+        this.record(this.reveals.get(i), MoveJournal.REVEAL);
+      }
+      this.reveals.clear();
+    }
+  }
+
+  // returns the result of the batch just made, each changed cell listed once, in order
+  MoveResult batchResult() {
+    int[] changed = this.changes.toArray();
+    Arrays.sort(changed);
+    int distinct = 0;
+    for (int i = 0; i < changed.length; i++) {
+      if (i == 0 || changed[i] != changed[i - 1]) {
+        changed[distinct++] = changed[i];
+      }
+    }
+    return new MoveResult(Arrays.copyOf(changed, distinct), this.board.isOver(),
+        this.board.minesRevealed > 0);
+  }
+
+  // returns the result of the move just made
+  MoveResult result() {
+    return new MoveResult(this.changes.toArray(), this.board.isOver(),
+        this.board.minesRevealed > 0);
+  }
+}
+
+
+// represents what a move did: the indices of the cells it changed, and whether the game
+// is over now, and lost
+class MoveResult {
+  int[] changed;
+  boolean over;
+  boolean lost;
+
+  MoveResult(int[] changed, boolean over, boolean lost) {
+    this.changed = changed;
+    this.over = over;
+    this.lost = lost;
+  }
+
+  // did the move change anything?
+  boolean changedAnything() {
+    return this.changed.length > 0;
+  }
+}
+
+
+// represents moves to be made together, by cell index, in order
+class MoveBatch {
+  IntList cells;
+  IntList actions;
+
+  MoveBatch() {
+    this.cells = new IntList();
+    this.actions = new IntList();
+  }
+
+  // Effect: adds an uncover of the given cell
+  MoveBatch reveal(int idx) {
+    return this.add(idx, MoveJournal.REVEAL);
+  }
+
+  // Effect: adds a flag or unflag of the given cell
+  MoveBatch flag(int idx) {
+    return this.add(idx, MoveJournal.FLAG);
+  }
+
+  // Effect: adds a chord of the given cell
+  MoveBatch chord(int idx) {
+    return this.add(idx, MoveJournal.CHORD);
+  }
+
+  // Effect: adds the given move
+  // returns this batch, so moves can be added one after another
+  MoveBatch add(int idx, int action) {
+    this.cells.add(idx);
+    this.actions.add(action);
+    return this;
+  }
+
+  // returns how many moves are in this batch
+  int size() {
+    return this.cells.size();
+  }
+
+  // Effect: empties this batch, to be filled again
+  void clear() {
+    this.cells.clear();
+    this.actions.clear();
+  }
+}
+
+
+class ExamplesGameEngine {
+  GameEngine engine;
+
+  // a 5x5 game with the same layout as ExamplesMineSweeper's game1
+  void initEngine() {
+    engine = new GameEngine(5, 5, 5, new Random(1), new InsertionLayout(), false);
+  }
+
+  void testConstructor(Tester t) {
+    initEngine();
+    t.checkExpect(engine.board.countMines(), 5);
+    t.checkExpect(engine.board.getValue(6), 10);
+    t.checkExpect(engine.changes.size(), 0);
+    t.checkExpect(engine.status(), engine.board.status());
+  }
+
+  void testReveal(Tester t) {
+    initEngine();
+    MoveResult one = engine.reveal(0, 0);
+    t.checkExpect(one.changed, new int[] {0});
+    t.checkExpect(one.over, false);
+    MoveResult flood = engine.reveal(4, 4);
+    int[] sorted = Arrays.copyOf(flood.changed, flood.changed.length);
+    Arrays.sort(sorted);
+    t.checkExpect(sorted, new int[] {17, 18, 19, 22, 23, 24});
+    t.checkExpect(engine.reveal(4, 4).changedAnything(), false);
+    MoveResult boom = engine.reveal(1, 1);
+    t.checkExpect(boom.changed, new int[] {6});
+    t.checkExpect(boom.lost, true);
+    t.checkExpect(boom.over, true);
+    t.checkExpect(engine.reveal(2, 2).changedAnything(), false);
+    t.checkExpect(engine.status().isLost(), true);
+  }
+
+  void testFlag(Tester t) {
+    initEngine();
+    t.checkExpect(engine.flag(1, 1).changed, new int[] {6});
+    t.checkExpect(engine.status().flagsPlaced, 1);
+    t.checkExpect(engine.flag(1, 1).changed, new int[] {6});
+    t.checkExpect(engine.status().flagsPlaced, 0);
+    engine.reveal(0, 0);
+    t.checkExpect(engine.flag(0, 0).changedAnything(), false);
+  }
+
+  void testChord(Tester t) {
+    initEngine();
+    engine.reveal(0, 0);
+    // not enough flags yet
+    t.checkExpect(engine.chord(0, 0).changedAnything(), false);
+    engine.flag(1, 1);
+    MoveResult chorded = engine.chord(0, 0);
+    int[] sorted = Arrays.copyOf(chorded.changed, chorded.changed.length);
+    Arrays.sort(sorted);
+    t.checkExpect(sorted, new int[] {1, 5});
+    t.checkExpect(chorded.lost, false);
+    // a wrong flag makes the chord uncover a mine
+    GameEngine wrong = new GameEngine(5, 5, 5, new Random(1), new InsertionLayout(), false);
+    wrong.reveal(0, 0);
+    wrong.flag(0, 1);
+    t.checkExpect(wrong.chord(0, 0).lost, true);
+  }
+
+  void testBadCell(Tester t) {
+    initEngine();
+    t.checkException(new IllegalArgumentException("No cell at row 5 and column 0"),
+        engine, "reveal", 5, 0);
+    t.checkException(new IllegalArgumentException("No cell at row 0 and column -1"),
+        engine, "flag", 0, -1);
+  }
+
+  void testFirstClickSafe(Tester t) {
+    GameEngine safe = new GameEngine(5, 5, 5, new Random(1), new InsertionLayout(), true);
+    MoveResult first = safe.reveal(1, 1);
+    t.checkExpect(first.lost, false);
+    t.checkExpect(safe.board.getValue(6), 0);
+    t.checkExpect(safe.started, true);
+  }
+
+  void testBatch(Tester t) {
+    initEngine();
+    engine.reveal(0, 0);
+    MoveResult both = engine.apply(new MoveBatch().reveal(24).reveal(23).flag(6).flag(6)
+        .flag(6));
+    // one combined change set: the opening at the bottom right and the flag
+    t.checkExpect(both.changed, new int[] {6, 17, 18, 19, 22, 23, 24});
+    t.checkExpect(both.over, false);
+    t.checkExpect(engine.board.isFlagged(6), true);
+    t.checkExpect(engine.apply(new MoveBatch()).changedAnything(), false);
+
+    // moves after a mine is uncovered change nothing
+    MoveResult boom = engine.apply(new MoveBatch().reveal(1).reveal(4).reveal(2));
+    t.checkExpect(boom.lost, true);
+    t.checkExpect(boom.changed, new int[] {1, 4});
+    t.checkExpect(engine.board.isCovered(2), true);
+  }
+
+  void testBatchMatchesMoves(Tester t) {
+    // random batches end the same as the same moves made one at a time
+    Random moves = new Random(3);
+    for (int game = 0; game < 40; game++) {
+      GameEngine one = new GameEngine(30, 16, 16, new Random(game), new ReservoirLayout(),
+          true);
+      GameEngine all = new GameEngine(30, 16, 16, new Random(game), new ReservoirLayout(),
+          true);
+      while (!one.status().isOver()) {
+        MoveBatch batch = new MoveBatch();
+        for (int i = moves.nextInt(8); i >= 0; i--) {
+          batch.add(moves.nextInt(256), moves.nextInt(6) / 4 * (1 + moves.nextInt(2)));
+        }
+        for (int i = 0; i < batch.size(); i++) {
+          Replay.apply(one, batch.cells.get(i), batch.actions.get(i));
+        }
+        all.apply(batch);
+        t.checkExpect(all.board.cells, one.board.cells);
+      }
+      t.checkExpect(all.status(), one.status());
+    }
+  }
+
+  void testManyGames(Tester t) {
+    // plays random games to the end, checking the counters never drift
+    Random moves = new Random(11);
+    for (int game = 0; game < 50; game++) {
+      GameEngine e = new GameEngine(15, 9, 9, new Random(game), new ReservoirLayout(), true);
+      while (!e.status().isOver()) {
+        int idx = moves.nextInt(81);
+        if (moves.nextInt(4) == 0) {
+          e.flagAt(idx);
+        } else {
+          e.revealAt(idx);
+        }
+      }
+      GameStatus live = e.status();
+      e.board.recount();
+      t.checkExpect(live, e.board.status());
+    }
+  }
+}
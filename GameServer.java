@@ -0,0 +1,690 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tester.*;
+
+
+// represents the games a server is hosting, by id
+// games are spread over stripes by id, each a map behind its own lock, so looking games up
+// from many connections at once rarely waits; moves on a game are made holding the lock of
+// its engine, so every game has one writer at a time while different games run in parallel
+class GameRegistry {
+  GameStripe[] stripes;
+  int mask;
+  AtomicInteger nextId;
+
+  // default constructor, four stripes per processor
+  GameRegistry() {
+    this(4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  // makes a registry with at least the given number of stripes, rounded up to a power of two
+  GameRegistry(int stripes) {
+    int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+    if (stripes == 1) {
+      count = 1;
+    }
+    this.stripes = new GameStripe[count];
+    for (int i = 0; i < count; i++) {
+      this.stripes[i] = new GameStripe();
+    }
+    this.mask = count - 1;
+    this.nextId = new AtomicInteger();
+  }
+
+  // returns the stripe holding the game with the given id
+  // ids are handed out in order, so their low bits spread games evenly
+  GameStripe stripe(int id) {
+    return this.stripes[id & this.mask];
+  }
+
+  // Effect: hosts the given game
+  // returns its new id
+  int add(GameEngine engine) {
+    int id = this.nextId.getAndIncrement();
+    GameStripe stripe = this.stripe(id);
+    synchronized (stripe) {
+      stripe.games.put(id, engine);
+    }
+    return id;
+  }
+
+  // returns the game with the given id
+  GameEngine get(int id) {
+    GameStripe stripe = this.stripe(id);
+    GameEngine engine;
+    synchronized (stripe) {
+      engine = stripe.games.get(id);
+    }
+    if (engine == null) {
+      throw new IllegalArgumentException("No game " + id);
+    }
+    return engine;
+  }
+
+  // Effect: stops hosting the game with the given id
+  // returns whether there was such a game
+  boolean remove(int id) {
+    GameStripe stripe = this.stripe(id);
+    synchronized (stripe) {
+      return stripe.games.remove(id) != null;
+    }
+  }
+
+  // returns how many games are hosted
+  int size() {
+    int size = 0;
+    for (GameStripe stripe : this.stripes) {
+      synchronized (stripe) {
+        size += stripe.games.size();
+      }
+    }
+    return size;
+  }
+}
+
+
+// represents one stripe of a registry, guarded by its own lock
+class GameStripe {
+  HashMap<Integer, GameEngine> games = new HashMap<Integer, GameEngine>();
+}
+
+
+// represents a server hosting games for clients on this machine, over a small protocol
+//
+// every request is an op byte then its fields, big-endian:
+//   NEW     short width, short height, int numMines, long seed, boolean firstClickSafe
+//   REVEAL, FLAG, CHORD     int game, short row, short column
+//   STATUS, END     int game
+// every response is OK then the answer, or ERROR then the message as modified UTF-8:
+//   NEW     int game
+//   REVEAL, FLAG, CHORD     byte (OVER | LOST), int count, then per changed cell
+//                           int index and byte state, as the player sees it
+//   STATUS  int width, int height, int numMines, int coveredSafe, int minesRevealed,
+//           int flagsPlaced
+//   END     nothing
+// a player sees whether a covered cell is flagged, never whether it is a mine
+// every connection is served by its own thread and may play any number of games
+class GameServer {
+  static final byte NEW = 1;
+  static final byte REVEAL = 2;
+  static final byte FLAG = 3;
+  static final byte CHORD = 4;
+  static final byte STATUS = 5;
+  static final byte END = 6;
+  static final byte OK = 0;
+  static final byte ERROR = 1;
+  static final int OVER = 1;
+  static final int LOST = 2;
+  static final int MAX_CELLS = 1 << 24;
+
+  GameRegistry games;
+  ServerSocket socket;
+  ExecutorService threads;
+  Set<Socket> connections;
+
+  GameServer(GameRegistry games) {
+    this.games = games;
+    this.connections = ConcurrentHashMap.newKeySet();
+    this.threads = Executors.newCachedThreadPool(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "game-server");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  // Effect: starts taking connections on the given port of the loopback address,
+  // any free port when it is 0
+  // returns the port taken
+  int start(int port) throws IOException {
+    this.socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+    this.threads.execute(new Runnable() {
+      public void run() {
+        GameServer.this.accept();
+      }
+    });
+    return this.socket.getLocalPort();
+  }
+
+  // Effect: takes connections until the server is closed, serving each on its own thread
+  void accept() {
+    while (!this.socket.isClosed()) {
+      try {
+        final Socket connection = this.socket.accept();
+        connection.setTcpNoDelay(true);
+        this.connections.add(connection);
+        this.threads.execute(new Runnable() {
+          public void run() {
+            GameServer.this.serve(connection);
+          }
+        });
+      } catch (IOException e) {
+        // the server socket was closed
+      }
+    }
+  }
+
+  // Effect: answers requests on the given connection until the client hangs up
+  void serve(Socket connection) {
+    try {
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(connection.getInputStream()));
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(connection.getOutputStream()));
+      while (true) {
+        byte op = in.readByte();
+        this.handle(op, in, out);
+        out.flush();
+      }
+    } catch (IOException e) {
+      // the client hung up, or the server was closed
+    } finally {
+      this.connections.remove(connection);
+      try {
+        connection.close();
+      } catch (IOException e) {
+        // already closed
+      }
+    }
+  }
+
+  // Effect: reads the rest of the request with the given op and writes its response
+  void handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+    if (op == NEW) {
+      int width = in.readUnsignedShort();
+      int height = in.readUnsignedShort();
+      int numMines = in.readInt();
+      long seed = in.readLong();
+      boolean firstClickSafe = in.readBoolean();
+      if (width < 1 || height < 1 || (long) width * height > MAX_CELLS || numMines < 0
+          || numMines >= width * height) {
+        this.error(out, "Cannot make a " + width + "x" + height + " game with " + numMines
+            + " mines");
+        return;
+      }
+      int id = this.games.add(new GameEngine(numMines, width, height, seed, firstClickSafe));
+      out.writeByte(OK);
+      out.writeInt(id);
+    } else if (op == REVEAL || op == FLAG || op == CHORD) {
+      int id = in.readInt();
+      int row = in.readShort();
+      int column = in.readShort();
+      try {
+        this.move(this.games.get(id), op, row, column, out);
+      } catch (IllegalArgumentException e) {
+        this.error(out, e.getMessage());
+      }
+    } else if (op == STATUS) {
+      int id = in.readInt();
+      try {
+        GameEngine engine = this.games.get(id);
+        GameStatus status;
+        synchronized (engine) {
+          status = engine.status();
+        }
+        out.writeByte(OK);
+        out.writeInt(status.width);
+        out.writeInt(status.height);
+        out.writeInt(status.numMines);
+        out.writeInt(status.coveredSafe);
+        out.writeInt(status.minesRevealed);
+        out.writeInt(status.flagsPlaced);
+      } catch (IllegalArgumentException e) {
+        this.error(out, e.getMessage());
+      }
+    } else if (op == END) {
+      int id = in.readInt();
+      if (this.games.remove(id)) {
+        out.writeByte(OK);
+      } else {
+        this.error(out, "No game " + id);
+      }
+    } else {
+      // the rest of the request cannot be told apart from the next one
+      this.error(out, "Unknown request " + op);
+      out.flush();
+      throw new EOFException();
+    }
+  }
+
+  // Effect: makes the given move on the given game and writes the cells it changed
+  // the response is written from the engine's changes while still holding its lock
+  void move(GameEngine engine, byte op, int row, int column, DataOutputStream out)
+      throws IOException {
+    synchronized (engine) {
+      int idx = engine.indexOf(row, column);
+      if (op == REVEAL) {
+        engine.revealAt(idx);
+      } else if (op == FLAG) {
+        engine.flagAt(idx);
+      } else {
+        engine.chordAt(idx);
+      }
+      Board board = engine.board;
+      int flags = 0;
+      if (board.isOver()) {
+        flags |= OVER;
+      }
+      if (board.minesRevealed > 0) {
+        flags |= LOST;
+      }
+      out.writeByte(OK);
+      out.writeByte(flags);
+      out.writeInt(engine.changes.size());
+      for (int i = 0; i < engine.changes.size(); i++) {
+        int changed = engine.changes.get(i);
+        out.writeInt(changed);
+        out.writeByte(visible(board.cells[changed]));
+      }
+    }
+  }
+
+  // returns the given packed cell as a player may see it: whether it is covered and
+  // flagged, and once uncovered, its value or whether it is a mine
+  static int visible(int state) {
+    if ((state & Board.COVERED) != 0) {
+      return state & (Board.COVERED | Board.FLAGGED);
+    }
+    return state & (Board.MINE | Board.VALUE_MASK);
+  }
+
+  // Effect: writes an error response with the given message
+  void error(DataOutputStream out, String message) throws IOException {
+    out.writeByte(ERROR);
+    out.writeUTF(message);
+  }
+
+  // Effect: stops taking connections and hangs up on every client
+  void close() {
+    try {
+      this.socket.close();
+      for (Socket connection : this.connections) {
+        connection.close();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.threads.shutdown();
+  }
+}
+
+
+// represents what a move on a server did, as the player sees it
+// states holds the visible state of each changed cell, packed like a Board's
+class RemoteMoveResult extends MoveResult {
+  byte[] states;
+
+  RemoteMoveResult(int[] changed, byte[] states, boolean over, boolean lost) {
+    super(changed, over, lost);
+    this.states = states;
+  }
+}
+
+
+// represents a connection to a game server, made for one thread at a time
+// errors from the server are thrown as IllegalArgumentExceptions with its message
+class GameClient {
+  Socket socket;
+  DataInputStream in;
+  DataOutputStream out;
+
+  // connects to the server on the given port of this machine
+  GameClient(int port) {
+    try {
+      this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+      this.socket.setTcpNoDelay(true);
+      this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+      this.out = new DataOutputStream(
+          new BufferedOutputStream(this.socket.getOutputStream()));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // starts a game laid out the way a GameEngine lays out a seeded game
+  // returns its id
+  int newGame(int width, int height, int numMines, long seed, boolean firstClickSafe) {
+    try {
+      this.out.writeByte(GameServer.NEW);
+      this.out.writeShort(width);
+      this.out.writeShort(height);
+      this.out.writeInt(numMines);
+      this.out.writeLong(seed);
+      this.out.writeBoolean(firstClickSafe);
+      this.answer();
+      return this.in.readInt();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // uncovers the cell at the given row and column of the given game
+  RemoteMoveResult reveal(int game, int row, int column) {
+    return this.move(GameServer.REVEAL, game, row, column);
+  }
+
+  // flags or unflags the cell at the given row and column of the given game
+  RemoteMoveResult flag(int game, int row, int column) {
+    return this.move(GameServer.FLAG, game, row, column);
+  }
+
+  // chords the cell at the given row and column of the given game
+  RemoteMoveResult chord(int game, int row, int column) {
+    return this.move(GameServer.CHORD, game, row, column);
+  }
+
+  // makes the given move and returns what it changed
+  RemoteMoveResult move(byte op, int game, int row, int column) {
+    try {
+      this.out.writeByte(op);
+      this.out.writeInt(game);
+      this.out.writeShort(row);
+      this.out.writeShort(column);
+      this.answer();
+      int flags = this.in.readByte();
+      int count = this.in.readInt();
+      int[] changed = new int[count];
+      byte[] states = new byte[count];
+      for (int i = 0; i < count; i++) {
+        changed[i] = this.in.readInt();
+        states[i] = this.in.readByte();
+      }
+      return new RemoteMoveResult(changed, states, (flags & GameServer.OVER) != 0,
+          (flags & GameServer.LOST) != 0);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // returns the status of the given game
+  GameStatus status(int game) {
+    try {
+      this.out.writeByte(GameServer.STATUS);
+      this.out.writeInt(game);
+      this.answer();
+      return new GameStatus(this.in.readInt(), this.in.readInt(), this.in.readInt(),
+          this.in.readInt(), this.in.readInt(), this.in.readInt());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Effect: ends the given game on the server
+  void endGame(int game) {
+    try {
+      this.out.writeByte(GameServer.END);
+      this.out.writeInt(game);
+      this.answer();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Effect: sends the request and reads the start of its response, throwing the server's
+  // error if it gave one
+  void answer() throws IOException {
+    this.out.flush();
+    if (this.in.readByte() == GameServer.ERROR) {
+      throw new IllegalArgumentException(this.in.readUTF());
+    }
+  }
+
+  // Effect: hangs up
+  void close() {
+    try {
+      this.socket.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
+
+
+// represents one connection of a load test, making random moves on its share of games
+// and timing every request; games that end are replaced with new ones
+class LoadClient implements Runnable {
+  GameClient client;
+  int[] games;
+  int moves;
+  Random rand;
+  long[] nanos;
+  int width;
+  int height;
+  int numMines;
+
+  LoadClient(int port, int games, int moves, long seed, int width, int height, int numMines) {
+    this.client = new GameClient(port);
+    this.games = new int[games];
+    this.moves = moves;
+    this.rand = new Random(seed);
+    this.nanos = new long[moves];
+    this.width = width;
+    this.height = height;
+    this.numMines = numMines;
+    for (int i = 0; i < games; i++) {
+      this.games[i] = this.newGame();
+    }
+  }
+
+  // starts a new game from this client's random
+  int newGame() {
+    return this.client.newGame(this.width, this.height, this.numMines,
+        this.rand.nextLong(), true);
+  }
+
+  // Effect: makes the moves, three reveals to every flag, timing each one
+  public void run() {
+    for (int i = 0; i < this.moves; i++) {
+      int g = this.rand.nextInt(this.games.length);
+      int row = this.rand.nextInt(this.height);
+      int column = this.rand.nextInt(this.width);
+      long start = System.nanoTime();
+      RemoteMoveResult result;
+      if (this.rand.nextInt(4) == 0) {
+        result = this.client.flag(this.games[g], row, column);
+      } else {
+        result = this.client.reveal(this.games[g], row, column);
+      }
+      this.nanos[i] = System.nanoTime() - start;
+      if (result.over) {
+        this.client.endGame(this.games[g]);
+        this.games[g] = this.newGame();
+      }
+    }
+    this.client.close();
+  }
+}
+
+
+// runs a load test against a server in this process, printing the latency of moves:
+// java RunGameServer games connections movesPerConnection
+class RunGameServer {
+  public static void main(String[] args) throws Exception {
+    int games = Integer.parseInt(args[0]);
+    int connections = Integer.parseInt(args[1]);
+    int moves = Integer.parseInt(args[2]);
+    GameServer server = new GameServer(new GameRegistry());
+    int port = server.start(0);
+    LoadClient[] clients = new LoadClient[connections];
+    Thread[] threads = new Thread[connections];
+    for (int i = 0; i < connections; i++) {
+      clients[i] = new LoadClient(port, games / connections, moves, i, 30, 16, 99);
+      threads[i] = new Thread(clients[i]);
+    }
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long[] all = new long[connections * moves];
+    for (int i = 0; i < connections; i++) {
+      System.arraycopy(clients[i].nanos, 0, all, i * moves, moves);
+    }
+    Arrays.sort(all);
+    System.out.println(server.games.size() + " games, " + (long) (all.length / seconds)
+        + " moves per second");
+    System.out.println("p50 " + all[all.length / 2] / 1000 + " us, p99 "
+        + all[(int) (all.length * 0.99)] / 1000 + " us, p99.9 "
+        + all[(int) (all.length * 0.999)] / 1000 + " us, max "
+        + all[all.length - 1] / 1000 + " us");
+    server.close();
+  }
+}
+
+
+class ExamplesGameServer {
+  GameServer server;
+  GameClient client;
+
+  void initServer() {
+    server = new GameServer(new GameRegistry(8));
+    try {
+      client = new GameClient(server.start(0));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  void stopServer() {
+    client.close();
+    server.close();
+  }
+
+  void testRegistry(Tester t) {
+    GameRegistry registry = new GameRegistry(5);
+    t.checkExpect(registry.stripes.length, 8);
+    t.checkExpect(new GameRegistry(1).stripes.length, 1);
+    t.checkExpect(new GameRegistry(16).stripes.length, 16);
+    GameEngine one = new GameEngine(5, 5, 5, 1, false);
+    GameEngine two = new GameEngine(5, 5, 5, 2, false);
+    t.checkExpect(registry.add(one), 0);
+    t.checkExpect(registry.add(two), 1);
+    t.checkExpect(registry.get(1) == two, true);
+    t.checkExpect(registry.stripe(9) == registry.stripe(1), true);
+    t.checkExpect(registry.size(), 2);
+    t.checkExpect(registry.remove(0), true);
+    t.checkExpect(registry.remove(0), false);
+    t.checkExpect(registry.size(), 1);
+    t.checkException(new IllegalArgumentException("No game 0"), registry, "get", 0);
+  }
+
+  void testVisible(Tester t) {
+    t.checkExpect(GameServer.visible(Board.COVERED | Board.MINE), Board.COVERED);
+    t.checkExpect(GameServer.visible(Board.COVERED | Board.FLAGGED | 3),
+        Board.COVERED | Board.FLAGGED);
+    t.checkExpect(GameServer.visible(3), 3);
+    t.checkExpect(GameServer.visible(Board.MINE), Board.MINE);
+  }
+
+  void testLoopback(Tester t) {
+    initServer();
+    // the same layout as ExamplesGameEngine's engine
+    int game = client.newGame(5, 5, 5, 1, false);
+    t.checkExpect(client.reveal(game, 0, 0).states, new byte[] {1});
+    RemoteMoveResult flood = client.reveal(game, 4, 4);
+    int[] sorted = Arrays.copyOf(flood.changed, flood.changed.length);
+    Arrays.sort(sorted);
+    t.checkExpect(sorted, new int[] {17, 18, 19, 22, 23, 24});
+    t.checkExpect(flood.over, false);
+    // a flagged mine shows only as flagged
+    RemoteMoveResult flag = client.flag(game, 1, 1);
+    t.checkExpect(flag.changed, new int[] {6});
+    t.checkExpect(flag.states, new byte[] {Board.COVERED | Board.FLAGGED});
+    t.checkExpect(client.chord(game, 0, 0).changed.length, 2);
+    t.checkExpect(client.status(game), new GameStatus(5, 5, 5, 11, 0, 1));
+    RemoteMoveResult boom = client.reveal(game, 0, 4);
+    t.checkExpect(boom.states, new byte[] {Board.MINE});
+    t.checkExpect(boom.lost, true);
+    t.checkExpect(boom.over, true);
+    t.checkExpect(client.reveal(game, 3, 3).changed.length, 0);
+    client.endGame(game);
+    t.checkExpect(server.games.size(), 0);
+    stopServer();
+  }
+
+  void testErrors(Tester t) {
+    initServer();
+    int game = client.newGame(5, 5, 5, 1, false);
+    t.checkException(new IllegalArgumentException("No cell at row 5 and column 0"),
+        client, "reveal", game, 5, 0);
+    t.checkException(new IllegalArgumentException("No game 99"), client, "flag", 99, 0, 0);
+    t.checkException(new IllegalArgumentException("No game 99"), client, "status", 99);
+    t.checkException(new IllegalArgumentException("No game 99"), client, "endGame", 99);
+    t.checkException(new IllegalArgumentException("Cannot make a 3x3 game with 9 mines"),
+        client, "newGame", 3, 3, 9, 1L, false);
+    // the connection is still good after errors
+    t.checkExpect(client.reveal(game, 0, 0).changed, new int[] {0});
+    stopServer();
+  }
+
+  void testConcurrentGames(Tester t) {
+    initServer();
+    final int port = server.socket.getLocalPort();
+    final int clients = 4;
+    final int games = 25;
+    final GameStatus[][] remote = new GameStatus[clients][games];
+    final GameStatus[][] local = new GameStatus[clients][games];
+    Thread[] threads = new Thread[clients];
+    for (int c = 0; c < clients; c++) {
+      final int which = c;
+      threads[c] = new Thread(new Runnable() {
+        public void run() {
+          GameClient mine = new GameClient(port);
+          Random rand = new Random(which);
+          for (int g = 0; g < games; g++) {
+            long seed = rand.nextLong();
+            int id = mine.newGame(16, 16, 40, seed, true);
+            GameEngine engine = new GameEngine(40, 16, 16, seed, true);
+            for (int m = 0; m < 30; m++) {
+              int row = rand.nextInt(16);
+              int column = rand.nextInt(16);
+              if (rand.nextInt(4) == 0) {
+                mine.flag(id, row, column);
+                engine.flag(row, column);
+              } else {
+                mine.reveal(id, row, column);
+                engine.reveal(row, column);
+              }
+            }
+            remote[which][g] = mine.status(id);
+            local[which][g] = engine.status();
+          }
+          mine.close();
+        }
+      });
+      threads[c].start();
+    }
+    for (Thread thread : threads) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    t.checkExpect(remote, local);
+    t.checkExpect(server.games.size(), clients * games);
+    stopServer();
+  }
+}
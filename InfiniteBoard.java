@@ -0,0 +1,478 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tester.*;
+import javalib.impworld.*;
+import java.awt.Color;
+import javalib.worldimages.*;
+
+
+// represents an endless minesweeper board, made a chunk of 64x64 cells at a time
+//
+// whether a cell is a mine depends only on the seed, its chunk and its place in the chunk,
+// through a hash, so any cell can be asked about without making anything, and a chunk can
+// be thrown away and made again the same way
+// chunks are made when a move or the screen first reaches them; the ones a move changed are
+// kept for good, the others sit in a small least recently used cache, so memory grows with
+// the area explored rather than the size of the world
+// the cells around (0, 0) are never mines, so the game can start there
+class InfiniteBoard {
+  static final int CHUNK_BITS = 6;
+  static final int CHUNK = 1 << CHUNK_BITS;
+  static final int CHUNK_MASK = CHUNK - 1;
+  // below this density, empty cells join up into openings without end
+  static final double MIN_DENSITY = 0.12;
+
+  long seed;
+  double density;
+  // a cell is a mine when the top 53 bits of its hash are below this
+  long threshold;
+  int cacheChunks;
+  HashMap<Long, Chunk> explored;
+  LinkedHashMap<Long, Chunk> cache;
+  long chunksMade;
+
+  long revealed;
+  long flagsPlaced;
+  boolean lost;
+  // pairs of x and y of the empty cells a flood has yet to spread from
+  IntQueue work;
+
+  InfiniteBoard(long seed, double density, int cacheChunks) {
+    if (density < MIN_DENSITY || density > 1) {
+      throw new IllegalArgumentException(
+          "Density must be between " + MIN_DENSITY + " and 1, not " + density);
+    }
+    this.seed = seed;
+    this.density = density;
+    this.threshold = (long) (density * (1L << 53));
+    this.cacheChunks = cacheChunks;
+    this.explored = new HashMap<Long, Chunk>();
+    final int capacity = cacheChunks;
+    this.cache = new LinkedHashMap<Long, Chunk>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Long, Chunk> eldest) {
+        return this.size() > capacity;
+      }
+    };
+    this.work = new IntQueue();
+  }
+
+  // returns the bits of z mixed so that nearby inputs give unrelated outputs
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  // returns the key of the chunk with the given coordinates
+  static long key(int cx, int cy) {
+    return (long) cx << 32 | (cy & 0xFFFFFFFFL);
+  }
+
+  // returns the hash the mines of the given chunk are drawn from
+  long chunkHash(int cx, int cy) {
+    return mix(this.seed + mix(key(cx, cy)));
+  }
+
+  // is the cell at the given coordinates a mine?
+  boolean isMine(int x, int y) {
+    if (x >= -1 && x <= 1 && y >= -1 && y <= 1) {
+      return false;
+    }
+    return this.isMine(this.chunkHash(x >> CHUNK_BITS, y >> CHUNK_BITS),
+        (y & CHUNK_MASK) << CHUNK_BITS | (x & CHUNK_MASK));
+  }
+
+  // is the given cell of the chunk with the given hash a mine?
+  boolean isMine(long chunkHash, int cell) {
+    return mix(chunkHash + (cell + 1) * Simulation.GOLDEN_GAMMA) >>> 11 < this.threshold;
+  }
+
+  // returns the chunk with the given coordinates, making it if it is not kept
+  Chunk chunk(int cx, int cy) {
+    Long k = key(cx, cy);
+    Chunk chunk = this.explored.get(k);
+    if (chunk == null) {
+      chunk = this.cache.get(k);
+      if (chunk == null) {
+        chunk = new Chunk(this, cx, cy);
+        this.chunksMade++;
+        this.cache.put(k, chunk);
+      }
+    }
+    return chunk;
+  }
+
+  // returns the packed state of the cell at the given coordinates, laid out like a Board's
+  int state(int x, int y) {
+    return this.chunk(x >> CHUNK_BITS, y >> CHUNK_BITS).cells[Chunk.index(x, y)];
+  }
+
+  // is the cell at the given coordinates covered?
+  boolean isCovered(int x, int y) {
+    return (this.state(x, y) & Board.COVERED) != 0;
+  }
+
+  // is the cell at the given coordinates flagged?
+  boolean isFlagged(int x, int y) {
+    return (this.state(x, y) & Board.FLAGGED) != 0;
+  }
+
+  // returns the number of mines around the cell at the given coordinates, mines return 10
+  int getValue(int x, int y) {
+    int state = this.state(x, y);
+    if ((state & Board.MINE) != 0) {
+      return 10;
+    }
+    return state & Board.VALUE_MASK;
+  }
+
+  // returns the chunk of the given cell, kept for good since a move is changing it
+  Chunk touch(int x, int y) {
+    Chunk chunk = this.chunk(x >> CHUNK_BITS, y >> CHUNK_BITS);
+    if (!chunk.touched) {
+      chunk.touched = true;
+      Long k = key(chunk.cx, chunk.cy);
+      this.cache.remove(k);
+      this.explored.put(k, chunk);
+    }
+    return chunk;
+  }
+
+  // Effect: flags or unflags the covered cell at the given coordinates
+  void flag(int x, int y) {
+    if (this.lost || !this.isCovered(x, y)) {
+      return;
+    }
+    Chunk chunk = this.touch(x, y);
+    int i = Chunk.index(x, y);
+    chunk.cells[i] ^= Board.FLAGGED;
+    if ((chunk.cells[i] & Board.FLAGGED) != 0) {
+      this.flagsPlaced++;
+    } else {
+      this.flagsPlaced--;
+    }
+  }
+
+  // Effect: uncovers the cell at the given coordinates and floods through empty cells
+  // returns how many cells were uncovered
+  int uncover(int x, int y) {
+    if (this.lost || !this.isCovered(x, y)) {
+      return 0;
+    }
+    this.work.clear();
+    this.open(x, y);
+    int count = 1;
+    while (!this.work.isEmpty()) {
+      int fromX = this.work.remove();
+      int fromY = this.work.remove();
+      for (int dy = -1; dy <= 1; dy++) {
+        for (int dx = -1; dx <= 1; dx++) {
+          int nx = fromX + dx;
+          int ny = fromY + dy;
+          if ((this.state(nx, ny) & (Board.COVERED | Board.MINE)) == Board.COVERED) {
+            this.open(nx, ny);
+            count++;
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  // Effect: uncovers the given covered cell, and queues it to flood from if it is empty
+  void open(int x, int y) {
+    Chunk chunk = this.touch(x, y);
+    int i = Chunk.index(x, y);
+    int state = chunk.cells[i];
+    if ((state & Board.FLAGGED) != 0) {
+      this.flagsPlaced--;
+    }
+    chunk.cells[i] = (byte) (state & ~(Board.COVERED | Board.FLAGGED));
+    if ((state & Board.MINE) != 0) {
+      this.lost = true;
+    } else {
+      this.revealed++;
+      if ((state & Board.VALUE_MASK) == 0) {
+        this.work.add(x);
+        this.work.add(y);
+      }
+    }
+  }
+
+  // returns how many chunks are in memory
+  int chunksKept() {
+    return this.explored.size() + this.cache.size();
+  }
+}
+
+
+// represents one 64x64 chunk of an endless board, packed one byte per cell like a Board
+class Chunk {
+  int cx;
+  int cy;
+  byte[] cells;
+  // has a move changed this chunk, so it must be kept?
+  boolean touched;
+
+  // makes the chunk with the given coordinates, every cell covered, with the mines the
+  // board's hash puts there and their counts, reading one cell past every edge
+  Chunk(InfiniteBoard board, int cx, int cy) {
+    this.cx = cx;
+    this.cy = cy;
+    this.cells = new byte[InfiniteBoard.CHUNK * InfiniteBoard.CHUNK];
+    int side = InfiniteBoard.CHUNK + 2;
+    boolean[] mines = new boolean[side * side];
+    int left = cx << InfiniteBoard.CHUNK_BITS;
+    int top = cy << InfiniteBoard.CHUNK_BITS;
+    long inside = board.chunkHash(cx, cy);
+    for (int r = 0; r < side; r++) {
+      for (int c = 0; c < side; c++) {
+        int x = left + c - 1;
+        int y = top + r - 1;
+        boolean start = x >= -1 && x <= 1 && y >= -1 && y <= 1;
+        if (r == 0 || c == 0 || r == side - 1 || c == side - 1) {
+          mines[r * side + c] = board.isMine(x, y);
+        } else {
+          mines[r * side + c] = !start
+              && board.isMine(inside, (r - 1) << InfiniteBoard.CHUNK_BITS | (c - 1));
+        }
+      }
+    }
+    for (int r = 1; r <= InfiniteBoard.CHUNK; r++) {
+      for (int c = 1; c <= InfiniteBoard.CHUNK; c++) {
+        int state = Board.COVERED;
+        if (mines[r * side + c]) {
+          state |= Board.MINE;
+        } else {
+          for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+              if (mines[(r + dr) * side + c + dc]) {
+                state++;
+              }
+            }
+          }
+        }
+        this.cells[(r - 1) << InfiniteBoard.CHUNK_BITS | (c - 1)] = (byte) state;
+      }
+    }
+  }
+
+  // returns the index within its chunk of the cell at the given coordinates
+  static int index(int x, int y) {
+    return (y & InfiniteBoard.CHUNK_MASK) << InfiniteBoard.CHUNK_BITS
+        | (x & InfiniteBoard.CHUNK_MASK);
+  }
+}
+
+
+// represents a game of minesweeper on an endless board, seen through a window that the
+// arrow keys move around; the game starts with the window on (0, 0)
+class InfiniteMineSweeper extends World {
+  InfiniteBoard board;
+  int columns;
+  int rows;
+  // the coordinates of the cell at the top left of the window
+  int left;
+  int top;
+
+  InfiniteMineSweeper(InfiniteBoard board, int columns, int rows) {
+    this.board = board;
+    this.columns = columns;
+    this.rows = rows;
+    this.left = -columns / 2;
+    this.top = -rows / 2;
+  }
+
+  // draws the cells in the window
+  public WorldScene makeScene() {
+    WorldScene ws = new WorldScene(this.columns * 20, this.rows * 20);
+    for (int r = 0; r < this.rows; r++) {
+      for (int c = 0; c < this.columns; c++) {
+        int state = this.board.state(this.left + c, this.top + r);
+        ws.placeImageXY(CellSprites.SHARED.byState[state & 0x7F], c * 20 + 11, r * 20 + 11);
+      }
+    }
+    return ws;
+  }
+
+  // Effect: left button uncovers the cell clicked, right button flags it
+  public void onMousePressed(Posn pos, String buttonName) {
+    int x = this.left + pos.x / 20;
+    int y = this.top + pos.y / 20;
+    if (buttonName.equals("LeftButton")) {
+      this.board.uncover(x, y);
+    } else if (buttonName.equals("RightButton")) {
+      this.board.flag(x, y);
+    }
+  }
+
+  // Effect: the arrow keys move the window a quarter of its size
+  public void onKeyEvent(String key) {
+    if (key.equals("left")) {
+      this.left -= Math.max(1, this.columns / 4);
+    } else if (key.equals("right")) {
+      this.left += Math.max(1, this.columns / 4);
+    } else if (key.equals("up")) {
+      this.top -= Math.max(1, this.rows / 4);
+    } else if (key.equals("down")) {
+      this.top += Math.max(1, this.rows / 4);
+    }
+  }
+
+  // ends the game when a mine is uncovered
+  public WorldEnd worldEnds() {
+    if (this.board.lost) {
+      WorldScene ws = this.makeScene();
+      ws.placeImageXY(new OverlayImage(
+          new TextImage("You blew up after " + this.board.revealed + " cells", 20,
+              FontStyle.ITALIC, Color.black),
+          new RectangleImage(320, 30, OutlineMode.SOLID, Color.white)),
+          this.columns * 10, this.rows * 10);
+      return new WorldEnd(true, ws);
+    }
+    return new WorldEnd(false, this.makeScene());
+  }
+}
+
+
+class ExamplesInfiniteBoard {
+  InfiniteBoard board;
+
+  void initBoard() {
+    board = new InfiniteBoard(7, 0.2, 16);
+  }
+
+  void testMinesFromHash(Tester t) {
+    initBoard();
+    InfiniteBoard same = new InfiniteBoard(7, 0.2, 16);
+    InfiniteBoard other = new InfiniteBoard(8, 0.2, 16);
+    int mines = 0;
+    int differ = 0;
+    for (int y = -100; y < 100; y++) {
+      for (int x = -100; x < 100; x++) {
+        t.checkExpect(board.isMine(x, y), same.isMine(x, y));
+        if (board.isMine(x, y)) {
+          mines++;
+        }
+        if (board.isMine(x, y) != other.isMine(x, y)) {
+          differ++;
+        }
+      }
+    }
+    t.checkNumRange(mines, 7600, 8400);
+    t.checkExpect(differ > 4000, true);
+    // asking about cells makes no chunks
+    t.checkExpect(board.chunksMade, 0L);
+    t.checkExpect(board.isMine(0, 0), false);
+    t.checkExpect(board.isMine(-1, 1), false);
+  }
+
+  void testValues(Tester t) {
+    initBoard();
+    // across chunk edges, and on both sides of zero
+    for (int y = -70; y < 70; y += 3) {
+      for (int x = -70; x < 70; x++) {
+        int around = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+          for (int dx = -1; dx <= 1; dx++) {
+            if ((dx != 0 || dy != 0) && board.isMine(x + dx, y + dy)) {
+              around++;
+            }
+          }
+        }
+        if (board.isMine(x, y)) {
+          t.checkExpect(board.getValue(x, y), 10);
+        } else {
+          t.checkExpect(board.getValue(x, y), around);
+        }
+      }
+    }
+  }
+
+  void testUncover(Tester t) {
+    initBoard();
+    int opened = board.uncover(0, 0);
+    t.checkExpect(opened > 1, true);
+    t.checkExpect(board.revealed, (long) opened);
+    t.checkExpect(board.uncover(0, 0), 0);
+    t.checkExpect(board.lost, false);
+    // every empty uncovered cell has every neighbor uncovered
+    for (int y = -80; y < 80; y++) {
+      for (int x = -80; x < 80; x++) {
+        if (!board.isCovered(x, y) && board.getValue(x, y) == 0) {
+          for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+              t.checkExpect(board.isCovered(x + dx, y + dy), false);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  void testFlagAndLose(Tester t) {
+    initBoard();
+    int x = 5;
+    while (!board.isMine(x, 5)) {
+      x++;
+    }
+    board.flag(x, 5);
+    t.checkExpect(board.isFlagged(x, 5), true);
+    t.checkExpect(board.flagsPlaced, 1L);
+    board.flag(x, 5);
+    t.checkExpect(board.flagsPlaced, 0L);
+    t.checkExpect(board.uncover(x, 5), 1);
+    t.checkExpect(board.lost, true);
+    t.checkExpect(board.uncover(0, 0), 0);
+    board.flag(x + 1, 5);
+    t.checkExpect(board.flagsPlaced, 0L);
+  }
+
+  void testEviction(Tester t) {
+    initBoard();
+    board.uncover(0, 0);
+    int explored = board.explored.size();
+    // looking at far away cells makes chunks, but only the cache's worth are kept
+    for (int cx = 100; cx < 200; cx++) {
+      board.state(cx * InfiniteBoard.CHUNK, 0);
+    }
+    t.checkExpect(board.cache.size(), 16);
+    t.checkExpect(board.explored.size(), explored);
+    t.checkExpect(board.chunksKept(), explored + 16);
+    // an evicted chunk is made again just the same
+    Chunk again = board.chunk(100, 0);
+    t.checkExpect(again.cells, new Chunk(board, 100, 0).cells);
+    t.checkExpect(board.chunksMade, 101L + explored);
+    // explored chunks are never evicted
+    t.checkExpect(board.isCovered(0, 0), false);
+  }
+
+  void testBadDensity(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("Density must be between 0.12 and 1, not 0.05"),
+        "InfiniteBoard", 1L, 0.05, 16);
+  }
+
+  void testWorld(Tester t) {
+    initBoard();
+    InfiniteMineSweeper world = new InfiniteMineSweeper(board, 10, 8);
+    t.checkExpect(world.left, -5);
+    world.onMousePressed(new Posn(100, 80), "LeftButton");
+    t.checkExpect(board.isCovered(0, 0), false);
+    world.onKeyEvent("right");
+    t.checkExpect(world.left, -3);
+    world.onKeyEvent("down");
+    t.checkExpect(world.top, -2);
+    t.checkExpect(world.worldEnds().worldEnds, false);
+  }
+}
+
+
+class RunInfiniteMineSweeper {
+  void testInfiniteMinesweeper(Tester t) {
+    InfiniteMineSweeper ms = new InfiniteMineSweeper(new InfiniteBoard(1, 0.16, 256), 60, 40);
+    ms.bigBang(1200, 800);
+  }
+}
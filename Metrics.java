@@ -0,0 +1,601 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import tester.*;
+
+
+// represents the counters and histograms the game keeps about its hot paths
+//
+// metrics are off unless the system property minesweeper.metrics is true, or enable is
+// called; while off, every hook costs one read of a static field, volatile so that a switch
+// made over JMX reaches loops that are already running
+// when on, they are published over JMX as minesweeper:type=Metrics, and if the system
+// property minesweeper.metrics.csv names a file, appended to it every
+// minesweeper.metrics.period seconds (10 by default)
+class Metrics {
+  static final String OBJECT_NAME = "minesweeper:type=Metrics";
+  static volatile boolean enabled;
+
+  static final ArrayList<Counter> COUNTERS = new ArrayList<Counter>();
+  static final ArrayList<LatencyHistogram> HISTOGRAMS = new ArrayList<LatencyHistogram>();
+
+  // the time to make a board with its mines and values
+  static final LatencyHistogram GENERATE_NANOS = histogram("generate.nanos");
+  // the time of an uncover, its flood included, and how many cells it uncovered
+  static final LatencyHistogram UNCOVER_NANOS = histogram("uncover.nanos");
+  static final LatencyHistogram UNCOVER_CELLS = histogram("uncover.cells");
+  // the time to draw a frame
+  static final LatencyHistogram MAKE_SCENE_NANOS = histogram("makeScene.nanos");
+  // the time to check whether the game is over
+  static final LatencyHistogram WORLD_ENDS_NANOS = histogram("worldEnds.nanos");
+  static final Counter MINES_UNCOVERED = counter("uncover.mines");
+  static final Counter FLAGS = counter("flag.toggles");
+  static final Counter GAMES_OVER = counter("worldEnds.over");
+
+  static {
+    if (Boolean.getBoolean("minesweeper.metrics")) {
+      enable();
+      String csv = System.getProperty("minesweeper.metrics.csv");
+      if (csv != null) {
+        MetricsDump.every(Paths.get(csv), Long.getLong("minesweeper.metrics.period", 10));
+      }
+    }
+  }
+
+  // returns a new histogram with the given name, kept with the others
+  static LatencyHistogram histogram(String name) {
+    LatencyHistogram histogram = new LatencyHistogram(name);
+    HISTOGRAMS.add(histogram);
+    return histogram;
+  }
+
+  // returns a new counter with the given name, kept with the others
+  static Counter counter(String name) {
+    Counter counter = new Counter(name);
+    COUNTERS.add(counter);
+    return counter;
+  }
+
+  // Effect: turns metrics on and publishes them over JMX
+  static void enable() {
+    enabled = true;
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(new MetricsBean(), name);
+      }
+    } catch (JMException e) {
+      throw new IllegalStateException("Cannot publish metrics", e);
+    }
+  }
+
+  // Effect: turns metrics off, keeping what was recorded
+  static void disable() {
+    enabled = false;
+  }
+
+  // Effect: forgets everything recorded
+  static void reset() {
+    for (Counter counter : COUNTERS) {
+      counter.reset();
+    }
+    for (LatencyHistogram histogram : HISTOGRAMS) {
+      histogram.reset();
+    }
+  }
+
+  // returns the time now, to be given back to recordSince, or 0 when metrics are off
+  static long start() {
+    if (enabled) {
+      return System.nanoTime();
+    }
+    return 0;
+  }
+
+  // Effect: records an uncover that started at the given time and uncovered the given
+  // number of cells, unless metrics were off when it started
+  static void uncovered(long start, int cells, boolean mine) {
+    if (start != 0) {
+      UNCOVER_NANOS.recordSince(start);
+      UNCOVER_CELLS.record(cells);
+      if (mine) {
+        MINES_UNCOVERED.increment();
+      }
+    }
+  }
+}
+
+
+// represents a count of events, cheap to add to from many threads
+class Counter {
+  String name;
+  LongAdder count;
+
+  Counter(String name) {
+    this.name = name;
+    this.count = new LongAdder();
+  }
+
+  // Effect: counts one more event, if metrics are on
+  void increment() {
+    if (Metrics.enabled) {
+      this.count.increment();
+    }
+  }
+
+  // returns how many events were counted
+  long get() {
+    return this.count.sum();
+  }
+
+  // Effect: starts counting again from 0
+  void reset() {
+    this.count.reset();
+  }
+}
+
+
+// represents a histogram of non-negative values, laid out like HdrHistogram's: values below
+// SUB_BUCKETS each have a bucket, and every power of two above is split in SUB_BUCKETS / 2
+// buckets, so a value is known to within 1 part in 32 from 0 to Long.MAX_VALUE
+// recording is a few shifts and atomic adds, never an allocation, from any thread
+class LatencyHistogram {
+  static final int SUB_BITS = 6;
+  static final int SUB_BUCKETS = 1 << SUB_BITS;
+  static final int HALF = SUB_BUCKETS / 2;
+  static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * HALF;
+
+  String name;
+  AtomicLongArray counts;
+  AtomicLong total;
+  AtomicLong sum;
+  AtomicLong max;
+
+  LatencyHistogram(String name) {
+    this.name = name;
+    this.counts = new AtomicLongArray(BUCKETS);
+    this.total = new AtomicLong();
+    this.sum = new AtomicLong();
+    this.max = new AtomicLong();
+  }
+
+  // returns the bucket of the given value
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+    return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+  }
+
+  // returns the largest value that falls in the given bucket
+  static long highestInBucket(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / HALF + 1;
+    long sub = (bucket - SUB_BUCKETS) % HALF + HALF;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  // Effect: records the given value, negative values as 0
+  void record(long value) {
+    value = Math.max(0, value);
+    this.counts.incrementAndGet(bucket(value));
+    this.total.incrementAndGet();
+    this.sum.addAndGet(value);
+    long seen = this.max.get();
+    while (value > seen && !this.max.compareAndSet(seen, value)) {
+      seen = this.max.get();
+    }
+  }
+
+  // Effect: records the nanoseconds since the given start, unless it is 0 because metrics
+  // were off when it was taken
+  void recordSince(long start) {
+    if (start != 0) {
+      this.record(System.nanoTime() - start);
+    }
+  }
+
+  // returns how many values were recorded
+  long count() {
+    return this.total.get();
+  }
+
+  // returns the mean of the values recorded, or 0 if there are none
+  double mean() {
+    long count = this.count();
+    if (count == 0) {
+      return 0;
+    }
+    return (double) this.sum.get() / count;
+  }
+
+  // returns the largest value recorded
+  long max() {
+    return this.max.get();
+  }
+
+  // returns the value the given percent of recorded values are at or below, to within
+  // the precision of its bucket, or 0 if there are none
+  long valueAt(double percent) {
+    long count = this.count();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+    long seen = 0;
+    for (int b = 0; b < BUCKETS; b++) {
+      seen += this.counts.get(b);
+      if (seen >= rank) {
+        return Math.min(highestInBucket(b), this.max());
+      }
+    }
+    return this.max();
+  }
+
+  // Effect: forgets every recorded value
+  void reset() {
+    for (int b = 0; b < BUCKETS; b++) {
+      this.counts.set(b, 0);
+    }
+    this.total.set(0);
+    this.sum.set(0);
+    this.max.set(0);
+  }
+}
+
+
+// represents the metrics as one JMX bean: a read-write Enabled attribute, an attribute per
+// counter, and for each histogram, attributes for its count, mean, max and percentiles,
+// named like uncover.nanos.p99; the reset operation forgets everything recorded
+// a dynamic bean lets the attributes follow the list of metrics without a public interface
+class MetricsBean implements DynamicMBean {
+  static final String[] STATS = {"count", "mean", "p50", "p90", "p99", "p999", "max"};
+  static final double[] PERCENTS = {50, 90, 99, 99.9};
+
+  // returns the value of the attribute with the given name
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    if (attribute.equals("Enabled")) {
+      return Metrics.enabled;
+    }
+    for (Counter counter : Metrics.COUNTERS) {
+      if (attribute.equals(counter.name)) {
+        return counter.get();
+      }
+    }
+    for (LatencyHistogram histogram : Metrics.HISTOGRAMS) {
+      if (attribute.startsWith(histogram.name + ".")) {
+        String stat = attribute.substring(histogram.name.length() + 1);
+        if (stat.equals("count")) {
+          return histogram.count();
+        } else if (stat.equals("mean")) {
+          return histogram.mean();
+        } else if (stat.equals("max")) {
+          return histogram.max();
+        }
+        for (int i = 0; i < PERCENTS.length; i++) {
+          if (stat.equals(STATS[i + 2])) {
+            return histogram.valueAt(PERCENTS[i]);
+          }
+        }
+      }
+    }
+    throw new AttributeNotFoundException("No metric " + attribute);
+  }
+
+  // Effect: turns metrics on or off, the only attribute that can be set
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    if (!attribute.getName().equals("Enabled")) {
+      throw new AttributeNotFoundException("Cannot set " + attribute.getName());
+    }
+    Metrics.enabled = (Boolean) attribute.getValue();
+  }
+
+  // returns the values of the attributes with the given names that exist
+  public AttributeList getAttributes(String[] attributes) {
+    AttributeList list = new AttributeList();
+    for (String attribute : attributes) {
+      try {
+        list.add(new Attribute(attribute, this.getAttribute(attribute)));
+      } catch (AttributeNotFoundException e) {
+        // left out, as JMX expects
+      }
+    }
+    return list;
+  }
+
+  // Effect: sets the given attributes that can be set
+  // returns the ones that were set
+  public AttributeList setAttributes(AttributeList attributes) {
+    AttributeList set = new AttributeList();
+    for (Attribute attribute : attributes.asList()) {
+      try {
+        this.setAttribute(attribute);
+        set.add(attribute);
+      } catch (AttributeNotFoundException e) {
+        // left out, as JMX expects
+      }
+    }
+    return set;
+  }
+
+  // Effect: runs the operation with the given name, only reset exists
+  public Object invoke(String actionName, Object[] params, String[] signature)
+      throws ReflectionException {
+    if (!actionName.equals("reset")) {
+      throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+    Metrics.reset();
+    return null;
+  }
+
+  // describes every attribute and the reset operation
+  public MBeanInfo getMBeanInfo() {
+    ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    attributes.add(new MBeanAttributeInfo("Enabled", "boolean", "Are metrics recorded?",
+        true, true, true));
+    for (Counter counter : Metrics.COUNTERS) {
+      attributes.add(new MBeanAttributeInfo(counter.name, "long", "Events counted", true,
+          false, false));
+    }
+    for (LatencyHistogram histogram : Metrics.HISTOGRAMS) {
+      for (String stat : STATS) {
+        String type = "long";
+        if (stat.equals("mean")) {
+          type = "double";
+        }
+        attributes.add(new MBeanAttributeInfo(histogram.name + "." + stat, type,
+            "The " + stat + " of " + histogram.name, true, false, false));
+      }
+    }
+    MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Forgets everything recorded",
+        new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+    return new MBeanInfo(this.getClass().getName(), "Minesweeper hot path metrics",
+        attributes.toArray(new MBeanAttributeInfo[0]), null,
+        new MBeanOperationInfo[] {reset}, null);
+  }
+}
+
+
+// represents a dump of the metrics as CSV, one row per metric each time it runs:
+//   time,metric,count,mean,p50,p90,p99,p999,max
+// values are totals since the metrics were last reset; counters fill in only the count
+class MetricsDump implements Runnable {
+  static final String HEADER = "time,metric,count,mean,p50,p90,p99,p999,max\n";
+
+  Appendable out;
+
+  MetricsDump(Appendable out) {
+    this.out = out;
+  }
+
+  // returns a dump that appends to the given file every given number of seconds,
+  // on a background thread, starting with a header if the file is new
+  static MetricsDump every(final Path path, long seconds) {
+    final MetricsDump dump = new MetricsDump(new StringBuilder());
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    timer.scheduleAtFixedRate(new Runnable() {
+      public void run() {
+        dump.appendTo(path);
+      }
+    }, seconds, seconds, TimeUnit.SECONDS);
+    return dump;
+  }
+
+  // Effect: dumps the metrics to the end of the given file
+  void appendTo(Path path) {
+    StringBuilder rows = new StringBuilder();
+    if (!Files.exists(path)) {
+      rows.append(HEADER);
+    }
+    this.out = rows;
+    this.run();
+    try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      writer.write(rows.toString());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Effect: appends a row for every metric
+  public void run() {
+    long time = System.currentTimeMillis();
+    try {
+      for (Counter counter : Metrics.COUNTERS) {
+        this.out.append(time + "," + counter.name + "," + counter.get() + ",,,,,,\n");
+      }
+      for (LatencyHistogram h : Metrics.HISTOGRAMS) {
+        this.out.append(time + "," + h.name + "," + h.count() + ","
+            + String.format(Locale.ROOT, "%.1f", h.mean()) + "," + h.valueAt(50) + ","
+            + h.valueAt(90) + "," + h.valueAt(99) + "," + h.valueAt(99.9) + "," + h.max() + "\n");
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
+
+
+class ExamplesMetrics {
+
+  void testBuckets(Tester t) {
+    // small values have their own bucket
+    for (long v = 0; v < LatencyHistogram.SUB_BUCKETS; v++) {
+      t.checkExpect(LatencyHistogram.bucket(v), (int) v);
+      t.checkExpect(LatencyHistogram.highestInBucket((int) v), v);
+    }
+    t.checkExpect(LatencyHistogram.bucket(64), 64);
+    t.checkExpect(LatencyHistogram.bucket(65), 64);
+    t.checkExpect(LatencyHistogram.bucket(66), 65);
+    t.checkExpect(LatencyHistogram.highestInBucket(64), 65L);
+    t.checkExpect(LatencyHistogram.bucket(Long.MAX_VALUE), LatencyHistogram.BUCKETS - 1);
+    t.checkExpect(LatencyHistogram.highestInBucket(LatencyHistogram.BUCKETS - 1),
+        Long.MAX_VALUE);
+    // every value lies in its bucket, whose width is at most 1/32 of the value
+    for (long v = 1; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 + 1) {
+      int b = LatencyHistogram.bucket(v);
+      long high = LatencyHistogram.highestInBucket(b);
+      t.checkExpect(v <= high, true);
+      t.checkExpect(b == 0 || LatencyHistogram.highestInBucket(b - 1) < v, true);
+      t.checkExpect(high - v <= v / 32, true);
+    }
+  }
+
+  void testHistogram(Tester t) {
+    LatencyHistogram h = new LatencyHistogram("test");
+    t.checkExpect(h.valueAt(99), 0L);
+    t.checkInexact(h.mean(), 0.0, 0.001);
+    for (int v = 1; v <= 1000; v++) {
+      h.record(v);
+    }
+    h.record(-5);
+    t.checkExpect(h.count(), 1001L);
+    t.checkExpect(h.max(), 1000L);
+    t.checkInexact(h.mean(), 500.0, 0.01);
+    t.checkNumRange(h.valueAt(50), 500L, 516L);
+    t.checkNumRange(h.valueAt(99), 990L, 1000L);
+    t.checkExpect(h.valueAt(100), 1000L);
+    t.checkExpect(h.valueAt(0), 0L);
+    h.recordSince(0);
+    t.checkExpect(h.count(), 1001L);
+    h.reset();
+    t.checkExpect(h.count(), 0L);
+    t.checkExpect(h.max(), 0L);
+  }
+
+  void testHooks(Tester t) {
+    boolean was = Metrics.enabled;
+    Metrics.disable();
+    Metrics.reset();
+    Board board = new Board(9, 9);
+    board.uncover(0);
+    Metrics.FLAGS.increment();
+    t.checkExpect(Metrics.UNCOVER_NANOS.count(), 0L);
+    t.checkExpect(Metrics.FLAGS.get(), 0L);
+    t.checkExpect(Metrics.start(), 0L);
+
+    Metrics.enable();
+    MineSweeper game = new MineSweeper(10, 9, 9, new Random(1));
+    t.checkExpect(Metrics.GENERATE_NANOS.count(), 1L);
+    int opened = game.board.uncover(80);
+    t.checkExpect(Metrics.UNCOVER_NANOS.count(), 1L);
+    t.checkExpect(Metrics.UNCOVER_CELLS.max(), (long) opened);
+    game.board.flag(0);
+    t.checkExpect(Metrics.FLAGS.get(), 1L);
+    game.makeScene();
+    game.worldEnds();
+    t.checkExpect(Metrics.MAKE_SCENE_NANOS.count() >= 1, true);
+    t.checkExpect(Metrics.WORLD_ENDS_NANOS.count(), 1L);
+    t.checkExpect(Metrics.GAMES_OVER.get(), 0L);
+    Board clear = new Board(9, 9);
+    clear.uncover(40);
+    t.checkExpect(Metrics.UNCOVER_CELLS.max(), 81L);
+    Metrics.reset();
+    Metrics.enabled = was;
+  }
+
+  void testBean(Tester t) {
+    boolean was = Metrics.enabled;
+    Metrics.enable();
+    Metrics.reset();
+    Metrics.FLAGS.increment();
+    Metrics.UNCOVER_CELLS.record(7);
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+      t.checkExpect(server.getAttribute(name, "flag.toggles"), (Object) 1L);
+      t.checkExpect(server.getAttribute(name, "uncover.cells.p99"), (Object) 7L);
+      t.checkExpect(server.getAttribute(name, "uncover.cells.count"), (Object) 1L);
+      t.checkExpect(server.getAttribute(name, "Enabled"), (Object) true);
+      t.checkExpect(server.getMBeanInfo(name).getAttributes().length,
+          1 + Metrics.COUNTERS.size() + 7 * Metrics.HISTOGRAMS.size());
+      server.invoke(name, "reset", new Object[0], new String[0]);
+      t.checkExpect(Metrics.FLAGS.get(), 0L);
+      server.setAttribute(name, new Attribute("Enabled", false));
+      t.checkExpect(Metrics.enabled, false);
+    } catch (JMException e) {
+      throw new IllegalStateException(e);
+    }
+    t.checkException(new AttributeNotFoundException("No metric nope"), new MetricsBean(),
+        "getAttribute", "nope");
+    Metrics.enabled = was;
+  }
+
+  void testDump(Tester t) {
+    boolean was = Metrics.enabled;
+    Metrics.enable();
+    Metrics.reset();
+    Metrics.GAMES_OVER.increment();
+    Metrics.UNCOVER_CELLS.record(3);
+    StringBuilder csv = new StringBuilder();
+    new MetricsDump(csv).run();
+    String[] rows = csv.toString().split("\n");
+    t.checkExpect(rows.length, Metrics.COUNTERS.size() + Metrics.HISTOGRAMS.size());
+    t.checkExpect(rows[2].substring(rows[2].indexOf(',')), ",worldEnds.over,1,,,,,,");
+    t.checkExpect(rows[5].substring(rows[5].indexOf(',')), ",uncover.cells,1,3.0,3,3,3,3,3");
+    // a locale with a decimal comma does not add a column
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(Locale.GERMANY);
+    csv.setLength(0);
+    new MetricsDump(csv).run();
+    Locale.setDefault(locale);
+    rows = csv.toString().split("\n");
+    t.checkExpect(rows[5].substring(rows[5].indexOf(',')), ",uncover.cells,1,3.0,3,3,3,3,3");
+    try {
+      Path path = Files.createTempFile("metrics", ".csv");
+      Files.delete(path);
+      new MetricsDump(null).appendTo(path);
+      new MetricsDump(null).appendTo(path);
+      String[] lines = new String(Files.readAllBytes(path), StandardCharsets.UTF_8)
+          .split("\n");
+      t.checkExpect(lines[0] + "\n", MetricsDump.HEADER);
+      t.checkExpect(lines.length, 1 + 2 * rows.length);
+      Files.delete(path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    Metrics.reset();
+    Metrics.enabled = was;
+  }
+}
@@ -0,0 +1,296 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import tester.*;
+
+
+// represents a way of placing mines on a board
+interface MineLayoutGenerator {
+  // Effect: places the given number of mines on the board using the given random,
+  // never on one of the excluded indices, which must be sorted
+  // values are not updated
+  void placeMines(Board board, int numMines, Random rand, int[] excluded);
+}
+
+
+// represents a layout generator that picks mines among the cells that are not excluded
+// a rank counts only the cells that may hold a mine, in board order
+abstract class ALayoutGenerator implements MineLayoutGenerator {
+
+  // returns how many cells of the board may hold a mine
+  int numCandidates(Board board, int[] excluded) {
+    return board.size - excluded.length;
+  }
+
+  // returns the number of mines that fit on the board
+  int clampMines(Board board, int numMines, int[] excluded) {
+    return Math.max(0, Math.min(numMines, this.numCandidates(board, excluded)));
+  }
+
+  // returns the board index of the candidate with the given rank
+  int toIndex(int rank, int[] excluded) {
+    int idx = rank;
+    for (int e : excluded) {
+      if (e <= idx) {
+        idx++;
+      } else {
+        break;
+      }
+    }
+    return idx;
+  }
+}
+
+
+// places mines the way MineSweeper always has, each mine is inserted at a random position
+// among the cells made so far, so seeded boards keep their old layouts
+// like the old inserts, nothing is ever inserted after the last cell, so it is never a mine
+// instead of shifting a list, the inserts are replayed backwards: the last mine keeps its
+// position, and every earlier mine lands on the position-th slot the later ones left free
+class InsertionLayout extends ALayoutGenerator {
+
+  // Effect: places the mines with one random draw per mine, in O(n + m log n)
+  public void placeMines(Board board, int numMines, Random rand, int[] excluded) {
+    int total = this.numCandidates(board, excluded);
+    int mines = this.clampMines(board, numMines, excluded);
+    int numSafe = total - mines;
+
+    int[] positions = new int[mines];
+    for (int j = 0; j < mines; j++) {
+      if (numSafe + j > 0) {
+        positions[j] = rand.nextInt(numSafe + j);
+      }
+    }
+
+    // a fenwick tree over the slots, every slot starts free
+    int[] tree = new int[total + 1];
+    for (int i = 1; i <= total; i++) {
+      tree[i] = i & -i;
+    }
+    int topBit = Integer.highestOneBit(Math.max(total, 1));
+
+    for (int j = mines - 1; j >= 0; j--) {
+      // finds the slot with exactly positions[j] free slots before it
+      int slot = 0;
+      int remaining = positions[j];
+      for (int step = topBit; step > 0; step >>= 1) {
+        int next = slot + step;
+        if (next <= total && tree[next] <= remaining) {
+          slot = next;
+          remaining -= tree[next];
+        }
+      }
+      for (int i = slot + 1; i <= total; i += i & -i) {
+        tree[i]--;
+      }
+      board.placeMine(this.toIndex(slot, excluded));
+    }
+  }
+}
+
+
+// places mines with a partial fisher-yates shuffle of the candidate ranks
+// only as many swaps as mines are done, and dense boards shuffle out the safe cells instead
+class FisherYatesLayout extends ALayoutGenerator {
+
+  // Effect: places the mines in O(n)
+  public void placeMines(Board board, int numMines, Random rand, int[] excluded) {
+    int total = this.numCandidates(board, excluded);
+    int mines = this.clampMines(board, numMines, excluded);
+    boolean pickSafe = mines > total / 2;
+    int picks = mines;
+    if (pickSafe) {
+      picks = total - mines;
+    }
+
+    int[] ranks = new int[total];
+    for (int i = 0; i < total; i++) {
+      ranks[i] = i;
+    }
+    for (int i = 0; i < picks; i++) {
+      int j = i + rand.nextInt(total - i);
+      int swap = ranks[i];
+      ranks[i] = ranks[j];
+      ranks[j] = swap;
+    }
+
+    int from = 0;
+    int to = picks;
+    if (pickSafe) {
+      from = picks;
+      to = total;
+    }
+    for (int i = from; i < to; i++) {
+      board.placeMine(this.toIndex(ranks[i], excluded));
+    }
+  }
+}
+
+
+// places mines by drawing random cells and redrawing the ones that are already mines
+// the mine bits of the board are the bitset of drawn cells, so nothing else is allocated
+// dense boards fill every candidate and draw the safe cells to clear instead
+class RejectionLayout extends ALayoutGenerator {
+
+  // Effect: places the mines in expected O(n) time, O(m) when the board is sparse
+  public void placeMines(Board board, int numMines, Random rand, int[] excluded) {
+    int total = this.numCandidates(board, excluded);
+    int mines = this.clampMines(board, numMines, excluded);
+
+    if (mines <= total / 2) {
+      int placed = 0;
+      while (placed < mines) {
+        int idx = this.toIndex(rand.nextInt(total), excluded);
+        if (!board.isMine(idx)) {
+          board.placeMine(idx);
+          placed++;
+        }
+      }
+    } else {
+      for (int rank = 0; rank < total; rank++) {
+        board.placeMine(this.toIndex(rank, excluded));
+      }
+      int cleared = 0;
+      while (cleared < total - mines) {
+        int idx = this.toIndex(rand.nextInt(total), excluded);
+        if (board.isMine(idx)) {
+          board.removeMine(idx);
+          cleared++;
+        }
+      }
+    }
+  }
+}
+
+
+// places mines in one pass over the board in order, like sampling from a stream:
+// each candidate becomes a mine with probability (mines left) / (candidates left),
+// which picks exactly the requested number, uniformly, with no extra memory
+class ReservoirLayout extends ALayoutGenerator {
+
+  // Effect: places the mines in O(n) with a single forward scan
+  public void placeMines(Board board, int numMines, Random rand, int[] excluded) {
+    int left = this.numCandidates(board, excluded);
+    int needed = this.clampMines(board, numMines, excluded);
+    int nextExcluded = 0;
+
+    for (int idx = 0; idx < board.size && needed > 0; idx++) {
+      if (nextExcluded < excluded.length && excluded[nextExcluded] == idx) {
+        nextExcluded++;
+      } else {
+        if (rand.nextInt(left) < needed) {
+          board.placeMine(idx);
+          needed--;
+        }
+        left--;
+      }
+    }
+  }
+}
+
+
+class ExamplesMineLayout {
+  int[] none = new int[0];
+
+  // makes a board of the given size with mines from the given generator
+  Board make(MineLayoutGenerator gen, int width, int height, int mines, long seed,
+      int[] excluded) {
+    Board board = new Board(width, height);
+    gen.placeMines(board, mines, new Random(seed), excluded);
+    return board;
+  }
+
+  // returns the indices of the mines on the board
+  int[] mineIndices(Board board) {
+    int[] result = new int[board.countMines()];
+    int next = 0;
+    for (int i = 0; i < board.size; i++) {
+      if (board.isMine(i)) {
+        result[next++] = i;
+      }
+    }
+    return result;
+  }
+
+  // Effect: checks that every generator places the right number of mines,
+  // is reproducible, and stays out of the excluded cells
+  void checkGenerator(Tester t, MineLayoutGenerator gen) {
+    int[] zone = new Board(10, 10).zoneAround(0);
+    for (int mines = 0; mines <= 91; mines += 13) {
+      Board a = make(gen, 10, 10, mines, 42, zone);
+      Board b = make(gen, 10, 10, mines, 42, zone);
+      t.checkExpect(a.countMines(), mines);
+      t.checkExpect(mineIndices(a), mineIndices(b));
+      for (int z : zone) {
+        t.checkExpect(a.isMine(z), false);
+      }
+    }
+    t.checkExpect(make(gen, 10, 10, 500, 1, zone).countMines(), 96);
+    t.checkExpect(make(gen, 10, 10, 500, 1, none).countMines(), 100);
+    t.checkExpect(make(gen, 3, 3, 1, 1, new Board(3, 3).zoneAround(4)).countMines(), 0);
+  }
+
+  void testGenerators(Tester t) {
+    checkGenerator(t, new InsertionLayout());
+    checkGenerator(t, new FisherYatesLayout());
+    checkGenerator(t, new RejectionLayout());
+    checkGenerator(t, new ReservoirLayout());
+  }
+
+  void testInsertionMatchesListInserts(Tester t) {
+    // replays the inserts the old list based initMakeCells did
+    for (long seed = 0; seed < 20; seed++) {
+      Random rand = new Random(seed);
+      int numSafe = 30;
+      boolean[] list = new boolean[40];
+      int made = numSafe;
+      for (int j = 0; j < 10; j++) {
+        int index = rand.nextInt(made);
+        System.arraycopy(list, index, list, index + 1, made - index);
+        list[index] = true;
+        made++;
+      }
+      Board board = make(new InsertionLayout(), 8, 5, 10, seed, none);
+      boolean[] placed = new boolean[40];
+      for (int i = 0; i < 40; i++) {
+        placed[i] = board.isMine(i);
+      }
+      t.checkExpect(placed, list);
+    }
+    t.checkExpect(make(new InsertionLayout(), 4, 4, 15, 9, none).isMine(15), false);
+  }
+
+  void testToIndex(Tester t) {
+    ALayoutGenerator gen = new ReservoirLayout();
+    int[] zone = new int[] {0, 1, 5, 6};
+    t.checkExpect(gen.toIndex(0, zone), 2);
+    t.checkExpect(gen.toIndex(2, zone), 4);
+    t.checkExpect(gen.toIndex(3, zone), 7);
+    t.checkExpect(gen.toIndex(3, none), 3);
+    t.checkExpect(gen.numCandidates(new Board(3, 3), zone), 5);
+    t.checkExpect(gen.clampMines(new Board(3, 3), 7, zone), 5);
+  }
+
+  void testUniformity(Tester t) {
+    // every cell of a 4x4 board should be a mine about a quarter of the time
+    MineLayoutGenerator[] gens = new MineLayoutGenerator[] {new FisherYatesLayout(),
+        new RejectionLayout(), new ReservoirLayout()};
+    for (MineLayoutGenerator gen : gens) {
+      int[] hits = new int[16];
+      Random rand = new Random(5);
+      for (int round = 0; round < 4000; round++) {
+        Board board = new Board(4, 4);
+        gen.placeMines(board, 4, rand, none);
+        for (int i = 0; i < 16; i++) {
+          if (board.isMine(i)) {
+            hits[i]++;
+          }
+        }
+      }
+      int[] sorted = Arrays.copyOf(hits, 16);
+      Arrays.sort(sorted);
+      t.checkNumRange(sorted[0], 850, 1151);
+      t.checkNumRange(sorted[15], 850, 1151);
+    }
+  }
+}
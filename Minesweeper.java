@@ -1,5 +1,9 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import tester.*;
 import javalib.impworld.*;
@@ -8,19 +12,32 @@ import javalib.worldimages.*;
 import java.util.Random;
 
 
-// represents a minesweeper game
+// represents a minesweeper game in a window, the game itself is played by a GameEngine
+// boards bigger than the largest window are played through a scrolling, zooming viewport
 class MineSweeper extends World {
-  ArrayList<Cell> cells;
+  static final int MAX_SCREEN_WIDTH = 1200;
+  static final int MAX_SCREEN_HEIGHT = 800;
+
+  Board board;
+  List<Cell> cells;
   int numMines;
   int width;
   int height;
   int screenWidth;
   int screenHeight;
   Random rand;
+  MineLayoutGenerator generator;
+  GameEngine engine;
+  Viewport viewport;
+  IBoardRenderer renderer;
+  // the mine, covered and flagged planes of the board, kept in step with it
+  BitBoard planes;
+  Posn dragFrom;
 
   // default constructor, the num of mines cannot be more than the total num of cells
   MineSweeper(ArrayList<Cell> cells, int numMines, int width, int height, Random rand) {
-    this.cells = cells;
+    this.board = new Board(cells, width, height);
+    this.cells = new BoardCells(this.board);
     if (numMines > width * height) {
       this.numMines = width * height;
     } else {
@@ -28,96 +45,230 @@ class MineSweeper extends World {
     }
     this.width = width;
     this.height = height;
-    this.screenWidth = width * 20;
-    this.screenHeight = height * 20;
+    this.initView();
     this.rand = rand;
+    this.generator = new InsertionLayout();
+    this.engine = new GameEngine(this.board, rand, false);
   }
 
-  // testing constructor, takes a seeded random object
-  MineSweeper(int numMines, int width, int height, Random rand) {
+  // layout constructor, places the mines with the given generator
+  // when firstClickSafe is set, mines around the first uncovered cell are moved away
+  MineSweeper(int numMines, int width, int height, Random rand, MineLayoutGenerator generator,
+      boolean firstClickSafe) {
     this.rand = rand;
+    this.generator = generator;
     if (numMines > width * height) {
       this.numMines = width * height;
     } else {
       this.numMines = numMines;
     }
 
-    this.cells = initMakeCells(numMines, width, height);
+    this.board = initMakeCells(this.numMines, width, height);
+    this.cells = new BoardCells(this.board);
+    this.engine = new GameEngine(this.board, rand, firstClickSafe);
 
     this.width = width;
     this.height = height;
-    this.screenWidth = width * 20;
-    this.screenHeight = height * 20;
+    this.initView();
+  }
 
+  // testing constructor, takes a seeded random object
+  MineSweeper(int numMines, int width, int height, Random rand) {
+    this(numMines, width, height, rand, new InsertionLayout(), false);
+  }
+
+  // seeded constructor, the same game as the testing constructor given new Random(seed),
+  // but the seed is kept so the game can be saved and made again
+  MineSweeper(int numMines, int width, int height, long seed) {
+    this(numMines, width, height, new Random(seed));
+    this.engine.seed = seed;
+  }
+
+  // snapshot constructor, resumes the game saved in the given snapshot
+  MineSweeper(Snapshot snapshot) {
+    this.board = snapshot.board;
+    this.cells = new BoardCells(this.board);
+    this.numMines = this.board.numMines;
+    this.width = this.board.width;
+    this.height = this.board.height;
+    this.rand = new Random(snapshot.seed);
+    this.generator = new InsertionLayout();
+    this.engine = new GameEngine(this.board, this.rand, false);
+    this.engine.seed = snapshot.seed;
+    this.initView();
+  }
+
+  // board constructor, plays on a board made elsewhere, such as by a ParallelBoardBuilder
+  // the game has no seed, since the layout cannot be made again from the random
+  MineSweeper(Board board, Random rand, boolean firstClickSafe) {
+    this.board = board;
+    this.cells = new BoardCells(this.board);
+    this.numMines = this.board.numMines;
+    this.width = this.board.width;
+    this.height = this.board.height;
+    this.rand = rand;
+    this.generator = new InsertionLayout();
+    this.engine = new GameEngine(this.board, rand, firstClickSafe);
+    this.initView();
   }
 
-  // player constructor
+  // topology constructor, places the mines on a board whose cells touch the way the given
+  // topology says, such as hexagons or a grid that wraps around
+  MineSweeper(ATopology topology, int numMines, Random rand) {
+    this.rand = rand;
+    this.generator = new InsertionLayout();
+    this.numMines = Math.min(numMines, topology.size);
+    this.board = new Board(topology);
+    this.generator.placeMines(this.board, this.numMines, rand, new int[0]);
+    this.board.updateValues();
+    this.cells = new BoardCells(this.board);
+    this.engine = new GameEngine(this.board, rand, false);
+    this.width = topology.width;
+    this.height = topology.height;
+    this.initView();
+  }
+
+  // player constructor, picks a random seed
   MineSweeper(int numMines, int width, int height) {
-    this.rand = new Random();
-    if (numMines > width * height) {
-      this.numMines = width * height;
-    } else {
-      this.numMines = numMines;
-    }
-
-    this.cells = initMakeCells(numMines, width, height);
-
-    this.width = width;
-    this.height = height;
-    this.screenWidth = width * 20;
-    this.screenHeight = height * 20;
+    this(numMines, width, height, new Random().nextLong());
   }
 
 
   Utils u = new Utils();
 
-  // makes a list of cells, adds the given num of mines randomly
-  ArrayList<Cell> initMakeCells(int numMines, int width, int height) {
-    int totalNum = width * height;
-    int numSafe = totalNum - numMines;
-    ArrayList<Cell> cells = new ArrayList<Cell>();
-    for (int i = 0; i < numSafe; i++) {
-      cells.add(new Safe(new ArrayList<Cell>(), true, false));
+  // Effect: sizes the window and picks how the board is drawn: whole, when it fits in the
+  // largest window, otherwise through a viewport that only draws what is on screen
+  // boards that are not grids are drawn whole, cell by cell, where their topology says
+  void initView() {
+    this.planes = BitBoard.watch(this.board);
+    ATopology topology = this.board.topology;
+    if (!topology.isGrid()) {
+      this.screenWidth = topology.screenWidth(20);
+      this.screenHeight = topology.screenHeight(20);
+      this.viewport = new Viewport(this.width, this.height, this.screenWidth, this.screenHeight,
+          false);
+      this.renderer = new TopologyRenderer(this.board);
+      return;
     }
-    for (int j = 0; j < numMines; j++) {
-      int index = this.rand.nextInt(cells.size());
-      cells.add(index, new Mine(new ArrayList<Cell>(), true, false));
+    this.screenWidth = Math.min(this.width * 20, MAX_SCREEN_WIDTH);
+    this.screenHeight = Math.min(this.height * 20, MAX_SCREEN_HEIGHT);
+    boolean fits = this.width * 20 <= MAX_SCREEN_WIDTH && this.height * 20 <= MAX_SCREEN_HEIGHT;
+    this.viewport = new Viewport(this.width, this.height, this.screenWidth, this.screenHeight,
+        !fits);
+    if (fits) {
+      this.renderer = new BoardRenderer(this.board, this.screenWidth, this.screenHeight);
+    } else {
+      this.renderer = new ViewportRenderer(this.board, this.viewport);
     }
+  }
 
-    u.updateNeighbors(cells, width, height);
-    u.updateValues(cells);
-
-    return cells;
+  // makes a board of covered cells, adds the given num of mines randomly
+  Board initMakeCells(int numMines, int width, int height) {
+    long start = Metrics.start();
+    Board board = new Board(width, height);
+    this.generator.placeMines(board, numMines, this.rand, new int[0]);
+    u.updateValues(board);
+    Metrics.GENERATE_NANOS.recordSince(start);
+    return board;
   }
 
 
 
 
-  // draws the cells onto the board
+  // draws the cells onto the board, only the cells that changed since the last frame
+  // are drawn again
   public WorldScene makeScene() {
-    WorldScene ws = new WorldScene(this.screenWidth, this.screenHeight);
-    u.drawCells(ws, this.cells, this.width, this.height);
-    return ws;
+    long start = Metrics.start();
+    WorldScene scene = this.renderer.render();
+    Metrics.MAKE_SCENE_NANOS.recordSince(start);
+    return scene;
   }
 
-  // Effect: when left button is pressed, uncover cells
+  // Effect: when left button is pressed, uncover cells, or chord an uncovered number
   // when right button is pressed, flag the cell clicked
+  // when the middle button is pressed, start dragging the viewport
   public void onMousePressed(Posn pos, String buttonName) {
-    if (buttonName.equals("LeftButton")) {
-      u.uncoverCells(this.cells, pos.x, pos.y, this.width);
+    int idx = this.cellAt(pos);
+    if (buttonName.equals("MiddleButton")) {
+      this.dragFrom = pos;
+    } else if (idx < 0) {
+      return;
+    } else if (buttonName.equals("LeftButton")) {
+      if (this.board.isCovered(idx)) {
+        this.engine.revealAt(idx);
+      } else {
+        this.engine.chordAt(idx);
+      }
     } else if (buttonName.equals("RightButton")) {
-      u.flagCell(this.cells, pos.x, pos.y, this.width);
+      this.engine.flagAt(idx);
+    }
+  }
+
+  // returns the index of the cell under the given screen position, or -1 if there is none
+  int cellAt(Posn pos) {
+    if (this.board.topology.isGrid()) {
+      return this.viewport.cellAt(pos.x, pos.y);
     }
+    return this.board.topology.cellAt(pos.x, pos.y, 20);
   }
 
+  // Effect: when the middle button is let go, scrolls the viewport by how far it was dragged
+  public void onMouseReleased(Posn pos, String buttonName) {
+    if (buttonName.equals("MiddleButton") && this.dragFrom != null) {
+      this.viewport.pan(this.dragFrom.x - pos.x, this.dragFrom.y - pos.y);
+      this.dragFrom = null;
+    }
+  }
+
+  // Effect: advances the game clock
+  public void onTick() {
+    this.engine.tick();
+  }
+
+  // Effect: the arrow keys scroll the viewport, + and - zoom it
+  // when undo is enabled, u takes back the last move and r makes it again
+  public void onKeyEvent(String key) {
+    if (this.engine.history != null && key.equals("u")) {
+      this.engine.undo();
+    } else if (this.engine.history != null && key.equals("r")) {
+      this.engine.redo();
+    } else {
+      this.viewport.onKey(key);
+    }
+  }
 
 
 
+
+  // returns a snapshot of the state of this game
+  GameStatus status() {
+    return this.engine.status();
+  }
+
+  // Effect: records every move from now on in a journal at the given path
+  // returns the journal, which must be closed when the game is done with
+  MoveJournal startJournal(Path path) throws IOException {
+    return MoveJournal.create(path, this.engine);
+  }
+
+  // Effect: writes this game to the given file, to be resumed with the snapshot constructor
+  void save(Path path) throws IOException {
+    Snapshot.write(path, this.board, this.engine.seed);
+  }
+
   // ends the game when a mine is revealed
+  // only the check is timed, not the scene that goes with its answer
   public WorldEnd worldEnds() {
-    if (u.isMineRevealed(cells)) {
+    long start = Metrics.start();
+    boolean lost = u.isMineRevealed(this.planes);
+    boolean won = !lost && u.allSafeRevealed(this.planes);
+    Metrics.WORLD_ENDS_NANOS.recordSince(start);
+    if (lost || won) {
+      Metrics.GAMES_OVER.increment();
+    }
+    if (lost) {
       return new WorldEnd(true, this.showLose());
-    } else if (u.allSafeRevealed(cells)) {
+    } else if (won) {
       return new WorldEnd(true, this.showWin());
     } else {
       return new WorldEnd(false, this.makeScene());
@@ -126,7 +277,7 @@ class MineSweeper extends World {
 
   // displays the mine that was clicked, and says "you blew up"
   WorldScene showLose() {
-    WorldScene ws = this.makeScene();
+    WorldScene ws = this.renderer.freshScene();
     WorldImage image = new OverlayImage(
         new RectangleImage(this.screenWidth, this.screenHeight, OutlineMode.OUTLINE, Color.white),
         new OverlayImage(new TextImage("You blew up", 20, FontStyle.ITALIC, Color.black),
@@ -137,7 +288,7 @@ class MineSweeper extends World {
 
   // tells the player they have won
   WorldScene showWin() {
-    WorldScene ws = this.makeScene();
+    WorldScene ws = this.renderer.freshScene();
     WorldImage image = new OverlayImage(
         new RectangleImage(this.screenWidth, this.screenHeight, OutlineMode.OUTLINE, Color.white),
         new OverlayImage(new TextImage("You win!!!", 20, FontStyle.ITALIC, Color.black),
@@ -151,12 +302,12 @@ class MineSweeper extends World {
 
 // represents a type of cell
 abstract class Cell {
-  ArrayList<Cell> neighbors;
+  List<Cell> neighbors;
   boolean covered;
   boolean flagged;
 
   // default constructor, a cell cannot be flagged if it is not covered
-  Cell(ArrayList<Cell> neighbors, boolean covered, boolean flagged) {
+  Cell(List<Cell> neighbors, boolean covered, boolean flagged) {
     this.neighbors = neighbors;
     this.covered = covered;
     if (covered) {
@@ -169,6 +320,16 @@ abstract class Cell {
   // is this cell a mine?
   abstract boolean isMine();
 
+  // is this cell covered?
+  boolean isCovered() {
+    return this.covered;
+  }
+
+  // is this cell flagged?
+  boolean isFlagged() {
+    return this.flagged;
+  }
+
   // turns draws this cell
   abstract WorldImage drawCell();
 
@@ -189,22 +350,33 @@ abstract class Cell {
 
 
 
-  //uncover this cell and start flood
+  //uncover this cell and start flood, empty cells are expanded from a work list
   public void uncover() {
-    this.uncoverHelp(new ArrayList<Cell>());
-  }
-
-  //uncover this cell and start flood
-  public void uncoverHelp(ArrayList<Cell> seen) {
     if (this.covered) {
-      Utils u = new Utils();
       this.flagged = false;
       this.covered = false;
-      if (!this.isMine() && this.getValue() == 0) {
-        u.map(this.neighbors, new UpdateNeighbors(seen));
+      ArrayDeque<Cell> work = new ArrayDeque<Cell>();
+      work.add(this);
+      while (!work.isEmpty()) {
+        Cell next = work.remove();
+        if (!next.isMine() && next.getValue() == 0) {
+          for (Cell c : next.neighbors) {
+            if (c.isCovered() && !c.isMine()) {
+              c.flagged = false;
+              c.covered = false;
+              work.add(c);
+            }
+          }
+        }
       }
     }
   }
+
+  // Effect: uncovers every covered, unflagged neighbor of this cell, if it is an uncovered
+  // number with as many flagged neighbors as its value; other cells do nothing
+  public void chord() {
+    // only safe cells have numbers to chord
+  }
 }
 
 
@@ -223,7 +395,7 @@ class Safe extends Cell {
   // testing constructor
   Safe(ArrayList<Cell> neighbors, boolean covered, boolean flagged) {
     super(neighbors, covered, flagged);
-    this.value = new Utils().foldl(neighbors, new NumberMines(), 0);
+    this.value = this.minesAround();
   }
 
   // this cell is not a mine
@@ -233,59 +405,50 @@ class Safe extends Cell {
 
   // effect: changes the value of this cell to the num of mines around it
   public void updateValue() {
-    this.value = new Utils().foldl(neighbors, new NumberMines(), 0);
+    this.value = this.minesAround();
   }
 
-  // draws this safe cell
-  public WorldImage drawCell() {
-    WorldImage cellBackground = new RectangleImage(18, 18, OutlineMode.SOLID, Color.gray);
-    WorldImage cover = new RectangleImage(18, 18, OutlineMode.SOLID, Color.lightGray);
-    WorldImage num;
-    WorldImage cell;
-
-    if (this.flagged) {
-      cell = new OverlayImage(new EquilateralTriangleImage(10, OutlineMode.SOLID, Color.orange),
-          cover);
-    } else if (this.covered) {
-      cell = cover;
-    } else if (this.value == 0) {
-      cell = cellBackground;
-    } else if (this.value == 1) {
-      num = new TextImage("1", 12, Color.cyan);
-      cell = new OverlayImage(num, cellBackground);
-    } else if (this.value == 2) {
-      num = new TextImage("2", 12, Color.magenta);
-      cell = new OverlayImage(num, cellBackground);
-    } else if (this.value == 3) {
-      num = new TextImage("3", 12, Color.red);
-      cell = new OverlayImage(num, cellBackground);
-    } else if (this.value == 4) {
-      num = new TextImage("4", 12, Color.yellow);
-      cell = new OverlayImage(num, cellBackground);
-    } else if (this.value == 5) {
-      num = new TextImage("5", 12, Color.green);
-      cell = new OverlayImage(num, cellBackground);
-    } else if (this.value == 6) {
-      num = new TextImage("6", 12, Color.black);
-      cell = new OverlayImage(num, cellBackground);
-    } else if (this.value == 7) {
-      num = new TextImage("7", 12, Color.magenta);
-      cell = new OverlayImage(num, cellBackground);
-    } else if (this.value == 8) {
-      num = new TextImage("8", 12, Color.blue);
-      cell = new OverlayImage(num, cellBackground);
-    } else {
-      num = new TextImage(String.valueOf(this.value), 12, Color.cyan);
-      cell = new OverlayImage(num, cellBackground);
+  // counts the mines among the neighbors of this cell, without boxing a count per neighbor
+  int minesAround() {
+    int count = 0;
+    for (Cell c : this.neighbors) {
+      if (c.isMine()) {
+        count++;
+      }
     }
+    return count;
+  }
 
-    return cell;
+  // draws this safe cell
+  public WorldImage drawCell() {
+    return CellSprites.SHARED.safe(this.flagged, this.covered, this.value);
   }
 
   // returns the value of this safe cell
   int getValue() {
     return this.value;
   }
+
+  // Effect: uncovers every covered, unflagged neighbor, if this is an uncovered number with
+  // as many flagged neighbors as its value
+  public void chord() {
+    if (this.covered || this.value == 0) {
+      return;
+    }
+    int flags = 0;
+    for (Cell c : this.neighbors) {
+      if (c.isFlagged()) {
+        flags++;
+      }
+    }
+    if (flags == this.value) {
+      for (Cell c : this.neighbors) {
+        if (c.isCovered() && !c.isFlagged()) {
+          c.uncover();
+        }
+      }
+    }
+  }
 }
 
 // represents a mine cell
@@ -303,15 +466,7 @@ class Mine extends Cell {
 
   // draws this mine cell
   public WorldImage drawCell() {
-    if (this.flagged) {
-      return new OverlayImage(new EquilateralTriangleImage(10, OutlineMode.SOLID, Color.orange),
-          new RectangleImage(18, 18, OutlineMode.SOLID, Color.lightGray));
-    } else if (this.covered) {
-      return new RectangleImage(18, 18, OutlineMode.SOLID, Color.lightGray);
-    } else {
-      return new OverlayImage(new CircleImage(6, OutlineMode.SOLID, Color.black),
-          new RectangleImage(18, 18, OutlineMode.SOLID, Color.red));
-    }
+    return CellSprites.SHARED.mine(this.flagged, this.covered);
   }
 
   // Effect: does nothing, this does not have a value
@@ -333,29 +488,6 @@ interface IFunc<A, R> {
 }
 
 
-// updates a cell to implement flood fill
-class UpdateNeighbors implements IFunc<Cell, Cell> {
-  ArrayList<Cell> seen;
-
-  UpdateNeighbors(ArrayList<Cell> seen) {
-    this.seen = seen;
-  }
-
-  // returns an updated.
-  // Effect: uncovers the given cell if it is not a mine, recurs if it's value is not 0
-  public Cell apply(Cell cell) {
-    if (!(cell.isMine()) && cell.getValue() > 0) {
-      cell.covered = false;
-    }
-    if (!(cell.isMine())) {
-      seen.add(cell);
-      cell.uncoverHelp(seen);
-    }
-    return cell;
-  }
-}
-
-
 // represents a two-arg function
 interface IFunc2<A1, A2, R> {
   R apply(A1 arg1, A2 arg2);
@@ -377,7 +509,7 @@ class NumberMines implements IFunc2<Cell, Integer, Integer> {
 // Utility class
 class Utils {
   // applies X, Y -> Y from right to left
-  <U, T> U foldl(ArrayList<T> aList, IFunc2<T, U, U> func, U base) {
+  <U, T> U foldl(List<T> aList, IFunc2<T, U, U> func, U base) {
     for (T t : aList) {
       base = func.apply(t, base);
     }
@@ -386,7 +518,7 @@ class Utils {
 
 
   // iterates over a list and applies a function
-  <U, T> ArrayList<U> map(ArrayList<T> aList, IFunc<T, U> func) {
+  <U, T> ArrayList<U> map(List<T> aList, IFunc<T, U> func) {
     ArrayList<U> result = new ArrayList<U>();
     for (T t : aList) {
       result.add(func.apply(t));
@@ -415,6 +547,19 @@ class Utils {
   }
 
 
+  // Effect: uncovers the clicked cell of the board and does flood fill
+  // returns how many cells were uncovered
+  int uncoverCells(Board board, int x, int y) {
+    return board.uncover(board.topology.cellAt(x, y, 20));
+  }
+
+
+  // Effect: adds a flag to the clicked cell of the board
+  void flagCell(Board board, int x, int y) {
+    board.flag(board.topology.cellAt(x, y, 20));
+  }
+
+
   // Effect: updates the values of every cell in the given arraylist<Cell>
   void updateValues(ArrayList<Cell> aList) {
     for (Cell t : aList) {
@@ -423,6 +568,12 @@ class Utils {
   }
 
 
+  // Effect: updates the values of every cell on the given board
+  void updateValues(Board board) {
+    board.updateValues();
+  }
+
+
   // Effect : adds the cells to the world scene
   void drawCells(WorldScene ws, ArrayList<Cell> cells, int width, int height) {
     for (int i = 1; i <= height; i++) {
@@ -435,10 +586,20 @@ class Utils {
   }
 
 
+  // Effect : adds the cells of the board to the world scene, with the shared cell images,
+  // where the board's topology draws them
+  void drawCells(WorldScene ws, Board board) {
+    for (int idx = 0; idx < board.size; idx++) {
+      ws.placeImageXY(CellSprites.SHARED.cell(board, idx), board.topology.centerX(idx, 20),
+          board.topology.centerY(idx, 20));
+    }
+  }
+
+
   // returns true if any of the mines are uncovered
   boolean isMineRevealed(ArrayList<Cell> cells) {
     for (Cell c : cells) {
-      if (c.isMine() && !c.covered) {
+      if (c.isMine() && !c.isCovered()) {
         return true;
       }
     }
@@ -448,73 +609,48 @@ class Utils {
   // returns true  if all of the safe cells are revealed
   boolean allSafeRevealed(ArrayList<Cell> cells) {
     for (Cell c : cells) {
-      if (c.covered && !c.isMine()) {
+      if (c.isCovered() && !c.isMine()) {
         return false;
       }
     }
     return true;
   }
 
-  // Effect : changes each cell's neighbors to be the cells around it
-  void updateNeighbors(ArrayList<Cell> cells, int width, int height) {
-    for (int i = 1; i <= height; i++) {
-      int y = (i - 1) * width;
-      for (int j = 1; j <= width; j++) {
-        ArrayList<Cell> newNeighbors = new ArrayList<Cell>();
-        int currentIndex = (y + j - 1);
-        Cell currentCell = cells.get(currentIndex);
-
-        int topLeft = currentIndex - width - 1;
-        int top = currentIndex - width;
-        int topRight = currentIndex - width + 1;
-        int left = currentIndex - 1;
-        int right = currentIndex + 1;
-        int bottomLeft = currentIndex + width - 1;
-        int bottom = currentIndex + width;
-        int bottomRight = currentIndex + width + 1;
-
-        if (j > 1) {
-          Cell leftCell = cells.get(left);
-          newNeighbors.add(leftCell);
-        }
-
-        if (j < width) {
-          Cell rightCell = cells.get(right);
-          newNeighbors.add(rightCell);
-        }
-
-        if (i < height) {
-          Cell bottomCell = cells.get(bottom);
-          newNeighbors.add(bottomCell);
-        }
-
-        if (i > 1) {
-          Cell topCell = cells.get(top);
-          newNeighbors.add(topCell);
-        }
+  // returns true if any of the mines in the given planes are uncovered, a word at a time
+  boolean isMineRevealed(BitBoard planes) {
+    return planes.isMineRevealed();
+  }
 
-        if (j > 1 && i > 1) {
-          Cell topLeftCell = cells.get(topLeft);
-          newNeighbors.add(topLeftCell);
-        }
+  // returns true if all of the safe cells in the given planes are uncovered, a word at a time
+  boolean allSafeRevealed(BitBoard planes) {
+    return planes.allSafeRevealed();
+  }
 
-        if (j < width && i > 1) {
-          Cell topRightCell = cells.get(topRight);
-          newNeighbors.add(topRightCell);
-        }
+  // returns true if any of the mines on the board are uncovered, read from its counters
+  boolean isMineRevealed(Board board) {
+    return board.minesRevealed > 0;
+  }
 
-        if (j > 1 && i < height) {
-          Cell bottomLeftCell = cells.get(bottomLeft);
-          newNeighbors.add(bottomLeftCell);
-        }
+  // returns true if all of the safe cells on the board are revealed, read from its counters
+  boolean allSafeRevealed(Board board) {
+    return board.coveredSafe == 0;
+  }
 
-        if (j < width && i < height) {
-          Cell bottomRightCell = cells.get(bottomRight);
-          newNeighbors.add(bottomRightCell);
-        }
+  // Effect : changes each cell's neighbors to be the cells around it
+  void updateNeighbors(ArrayList<Cell> cells, int width, int height) {
+    this.updateNeighbors(cells, new GridTopology(width, height));
+  }
 
-        currentCell.neighbors = newNeighbors;
+  // Effect : changes each cell's neighbors to be the cells the given topology says touch it
+  void updateNeighbors(ArrayList<Cell> cells, ATopology topology) {
+    int[] around = new int[topology.maxDegree()];
+    for (int i = 0; i < topology.size; i++) {
+      int count = topology.neighbors(i, around);
+      ArrayList<Cell> newNeighbors = new ArrayList<Cell>(count);
+      for (int k = 0; k < count; k++) {
+        newNeighbors.add(cells.get(around[k]));
       }
+      cells.get(i).neighbors = newNeighbors;
     }
   }
 }
@@ -566,6 +702,63 @@ class ExamplesMineSweeper {
     t.checkExpect(testconstructormine.flagged, false);
   }
 
+  void testLayoutConstructor(Tester t) {
+    MineSweeper fy = new MineSweeper(10, 8, 8, new Random(4), new FisherYatesLayout(), false);
+    MineSweeper again = new MineSweeper(10, 8, 8, new Random(4), new FisherYatesLayout(), false);
+    t.checkExpect(fy.board.countMines(), 10);
+    t.checkExpect(fy.board.cells, again.board.cells);
+    t.checkExpect(new MineSweeper(100, 8, 8, new Random(4), new ReservoirLayout(), false)
+        .board.countMines(), 64);
+  }
+
+  void testFirstClickSafe(Tester t) {
+    for (int seed = 0; seed < 10; seed++) {
+      MineSweeper safeStart = new MineSweeper(20, 8, 8, new Random(seed),
+          new RejectionLayout(), true);
+      safeStart.onMousePressed(new Posn(75, 75), "LeftButton");
+      t.checkExpect(u.isMineRevealed(safeStart.board), false);
+      t.checkExpect(safeStart.board.getValue(safeStart.board.index(3, 3)), 0);
+      t.checkExpect(safeStart.board.countMines(), 20);
+    }
+  }
+
+  void testViewportMode(Tester t) {
+    initExamples();
+    t.checkExpect(game1.renderer instanceof BoardRenderer, true);
+    t.checkExpect(game1.viewport.zoomable, false);
+
+    MineSweeper big = new MineSweeper(0, 200, 100, new Random(1));
+    t.checkExpect(big.screenWidth, 1200);
+    t.checkExpect(big.screenHeight, 800);
+    t.checkExpect(big.renderer instanceof ViewportRenderer, true);
+    big.onKeyEvent("right");
+    big.onKeyEvent("down");
+    t.checkExpect(big.viewport.offsetX, 80);
+    big.onMousePressed(new Posn(10, 10), "RightButton");
+    t.checkExpect(big.board.isFlagged(big.board.index(4, 4)), true);
+    big.onMousePressed(new Posn(100, 100), "MiddleButton");
+    big.onMouseReleased(new Posn(60, 100), "MiddleButton");
+    t.checkExpect(big.viewport.offsetX, 120);
+    big.onMousePressed(new Posn(1199, 799), "LeftButton");
+    t.checkExpect(big.status().coveredSafe, 0);
+    t.checkExpect(big.status().isWon(), true);
+    big.onKeyEvent("-");
+    big.onKeyEvent("-");
+    t.checkExpect(big.viewport.cellSize, 5);
+    t.checkExpect(big.viewport.cellAt(999, 0), 199);
+    t.checkExpect(big.viewport.cellAt(1000, 0), -1);
+  }
+
+  void testChordClick(Tester t) {
+    initExamples();
+    game1.onMousePressed(new Posn(5, 5), "LeftButton");
+    game1.onMousePressed(new Posn(25, 25), "RightButton");
+    game1.onMousePressed(new Posn(5, 5), "LeftButton");
+    t.checkExpect(game1.board.isCovered(1), false);
+    t.checkExpect(game1.board.isCovered(5), false);
+    t.checkExpect(game1.status().isLost(), false);
+  }
+
   void testIsMine(Tester t) {
     initExamples();
     t.checkExpect(mine.isMine(), true);
@@ -666,37 +859,104 @@ class ExamplesMineSweeper {
     t.checkExpect(u.allSafeRevealed(mt), true);
   }
 
+  void testUncoverList(Tester t) {
+    Cell first = new Safe(new ArrayList<Cell>(), true, true);
+    Cell second = new Safe(new ArrayList<Cell>(), true, false);
+    Cell last = new Mine(new ArrayList<Cell>(), true, false);
+    ArrayList<Cell> row = new ArrayList<Cell>(Arrays.asList(first, second, last));
+    u.updateNeighbors(row, 3, 1);
+    u.updateValues(row);
+    first.uncover();
+    t.checkExpect(first.covered, false);
+    t.checkExpect(first.flagged, false);
+    t.checkExpect(second.covered, false);
+    t.checkExpect(last.covered, true);
+  }
+
+  void testChordList(Tester t) {
+    Cell bomb = new Mine(new ArrayList<Cell>(), true, false);
+    Cell one = new Safe(new ArrayList<Cell>(), false, false);
+    Cell empty = new Safe(new ArrayList<Cell>(), true, false);
+    Cell end = new Safe(new ArrayList<Cell>(), true, false);
+    ArrayList<Cell> row = new ArrayList<Cell>(Arrays.asList(bomb, one, empty, end));
+    u.updateNeighbors(row, 4, 1);
+    u.updateValues(row);
+    // not enough flags yet
+    one.chord();
+    t.checkExpect(empty.covered, true);
+    bomb.flag();
+    bomb.chord();
+    empty.chord();
+    t.checkExpect(empty.covered, true);
+    one.chord();
+    t.checkExpect(empty.covered, false);
+    t.checkExpect(end.covered, false);
+    t.checkExpect(bomb.covered, true);
+  }
+
+  void testBoardQueries(Tester t) {
+    initExamples();
+    t.checkExpect(u.isMineRevealed(game1.board), false);
+    t.checkExpect(u.allSafeRevealed(game1.board), false);
+    t.checkExpect(u.isMineRevealed(game1.planes), false);
+    t.checkExpect(u.allSafeRevealed(game1.planes), false);
+    u.flagCell(game1.board, 25, 25);
+    t.checkExpect(game1.board.isFlagged(6), true);
+    t.checkExpect(game1.planes.countFlags(), 1);
+    u.uncoverCells(game1.board, 25, 25);
+    t.checkExpect(game1.board.isCovered(6), false);
+    t.checkExpect(u.isMineRevealed(game1.board), true);
+    t.checkExpect(u.isMineRevealed(game1.planes), true);
+    t.checkExpect(game1.planes.status(), game1.status());
+    t.checkExpect(game1.status().isLost(), true);
+    t.checkExpect(game1.status().flagsPlaced, 0);
+  }
+
+  void testWorldEnds(Tester t) {
+    initExamples();
+    t.checkExpect(game1.worldEnds().worldEnds, false);
+    for (int i = 0; i < 25; i++) {
+      if (!game1.board.isMine(i)) {
+        game1.board.uncover(i);
+      }
+    }
+    t.checkExpect(game1.status().isWon(), true);
+    t.checkExpect(game1.worldEnds(), new WorldEnd(true, game1.showWin()));
+    game1.board.uncover(6);
+    t.checkExpect(game1.worldEnds(), new WorldEnd(true, game1.showLose()));
+  }
+
   void testMouseHandler(Tester t) {
     initExamples();
-    t.checkExpect(game1.cells.get(0).flagged, false);
-    t.checkExpect(game1.cells.get(0).covered, true);
-    t.checkExpect(game1.cells.get(1).covered, true);
-    t.checkExpect(game1.cells.get(6).covered, true);
-    t.checkExpect(game1.cells.get(7).covered, true);
-    t.checkExpect(game1.cells.get(24).covered, true);
-    t.checkExpect(game1.cells.get(23).covered, true);
-    t.checkExpect(game1.cells.get(22).covered, true);
-    t.checkExpect(game1.cells.get(21).covered, true);
+    t.checkExpect(game1.cells.get(0).isFlagged(), false);
+    t.checkExpect(game1.cells.get(0).isCovered(), true);
+    t.checkExpect(game1.cells.get(1).isCovered(), true);
+    t.checkExpect(game1.cells.get(6).isCovered(), true);
+    t.checkExpect(game1.cells.get(7).isCovered(), true);
+    t.checkExpect(game1.cells.get(24).isCovered(), true);
+    t.checkExpect(game1.cells.get(23).isCovered(), true);
+    t.checkExpect(game1.cells.get(22).isCovered(), true);
+    t.checkExpect(game1.cells.get(21).isCovered(), true);
 
     game1.onMousePressed(new Posn(5, 5), "RightButton");
-    t.checkExpect(game1.cells.get(0).flagged, true);
+    t.checkExpect(game1.cells.get(0).isFlagged(), true);
     game1.onMousePressed(new Posn(5, 5), "RightButton");
-    t.checkExpect(game1.cells.get(0).flagged, false);
+    t.checkExpect(game1.cells.get(0).isFlagged(), false);
     game1.onMousePressed(new Posn(5, 5), "RightButton");
     game1.onMousePressed(new Posn(5, 5), "LeftButton");
-    t.checkExpect(game1.cells.get(0).flagged, false);
-    t.checkExpect(game1.cells.get(0).covered, false);
+    t.checkExpect(game1.cells.get(0).isFlagged(), false);
+    t.checkExpect(game1.cells.get(0).isCovered(), false);
     // testing flood fill
-    t.checkExpect(game1.cells.get(1).covered, true);
-    t.checkExpect(game1.cells.get(6).covered, true);
-    t.checkExpect(game1.cells.get(7).covered, true);
+    t.checkExpect(game1.cells.get(1).isCovered(), true);
+    t.checkExpect(game1.cells.get(6).isCovered(), true);
+    t.checkExpect(game1.cells.get(7).isCovered(), true);
 
     //testing flood fill
     game1.onMousePressed(new Posn(95, 95), "LeftButton");
-    t.checkExpect(game1.cells.get(24).covered, false);
-    t.checkExpect(game1.cells.get(23).covered, false);
-    t.checkExpect(game1.cells.get(22).covered, false);
-    t.checkExpect(game1.cells.get(21).covered, true);
+    t.checkExpect(game1.cells.get(24).isCovered(), false);
+    t.checkExpect(game1.cells.get(23).isCovered(), false);
+    t.checkExpect(game1.cells.get(22).isCovered(), false);
+    t.checkExpect(game1.cells.get(21).isCovered(), true);
   }
 
 
@@ -0,0 +1,407 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import tester.*;
+
+
+// represents an append-only record of the moves of a seeded game
+//
+// a journal is a header, then one entry per move, little-endian:
+//   int magic "MSWJ", short version, short flags (FIRST_CLICK_SAFE),
+//   int width, int height, int numMines, long seed,
+//   then per move: varint ticks since the last move, varint (cell index << 2 | action)
+// entries are gathered in a buffer and written to the channel a buffer at a time
+class MoveJournal {
+  static final int MAGIC = 0x4A57534D;
+  static final short VERSION = 1;
+  static final int HEADER_BYTES = 28;
+  static final short FIRST_CLICK_SAFE = 1;
+  static final int REVEAL = 0;
+  static final int FLAG = 1;
+  static final int CHORD = 2;
+  static final int BUFFER_BYTES = 1 << 16;
+
+  WritableByteChannel channel;
+  ByteBuffer buffer;
+  long lastTick;
+  long moves;
+
+  // starts a journal of the given engine's game on the given channel, writing its header
+  MoveJournal(WritableByteChannel channel, GameEngine engine) {
+    if (engine.seed == GameEngine.NO_SEED) {
+      throw new IllegalArgumentException("Cannot journal a game without a seed");
+    }
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    this.lastTick = engine.tick;
+    short flags = 0;
+    if (engine.firstClickSafe) {
+      flags = FIRST_CLICK_SAFE;
+    }
+    this.buffer.putInt(MAGIC);
+    this.buffer.putShort(VERSION);
+    this.buffer.putShort(flags);
+    this.buffer.putInt(engine.board.width);
+    this.buffer.putInt(engine.board.height);
+    this.buffer.putInt(engine.board.numMines);
+    this.buffer.putLong(engine.seed);
+  }
+
+  // returns a journal of the given engine's game in a new file at the given path,
+  // which the engine records its moves into from now on
+  static MoveJournal create(Path path, GameEngine engine) throws IOException {
+    MoveJournal journal = new MoveJournal(FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), engine);
+    engine.journal = journal;
+    return journal;
+  }
+
+  // Effect: adds a move on the given cell at the given tick
+  void record(int idx, int action, long tick) {
+    if (this.buffer.remaining() < 20) {
+      this.flush();
+    }
+    this.putVarint(tick - this.lastTick);
+    this.putVarint((long) idx << 2 | action);
+    this.lastTick = tick;
+    this.moves++;
+  }
+
+  // Effect: writes the given non-negative number seven bits to a byte, low bits first
+  void putVarint(long value) {
+    while ((value & ~0x7FL) != 0) {
+      this.buffer.put((byte) (value & 0x7F | 0x80));
+      value >>>= 7;
+    }
+    this.buffer.put((byte) value);
+  }
+
+  // Effect: writes every buffered entry to the channel
+  void flush() {
+    this.buffer.flip();
+    try {
+      while (this.buffer.hasRemaining()) {
+        this.channel.write(this.buffer);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.buffer.clear();
+  }
+
+  // Effect: writes every buffered entry and closes the channel
+  void close() {
+    this.flush();
+    try {
+      this.channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
+
+
+// represents a journal being read back, one move at a time
+class JournalReader {
+  ReadableByteChannel channel;
+  ByteBuffer buffer;
+  boolean firstClickSafe;
+  int width;
+  int height;
+  int numMines;
+  long seed;
+  // the move just read
+  int idx;
+  int action;
+  long tick;
+
+  // reads the header of the journal on the given channel
+  JournalReader(ReadableByteChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(MoveJournal.BUFFER_BYTES)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    this.buffer.flip();
+    if (!this.fill(MoveJournal.HEADER_BYTES) || this.buffer.getInt() != MoveJournal.MAGIC) {
+      throw new IllegalArgumentException("Not a minesweeper journal");
+    }
+    short version = this.buffer.getShort();
+    if (version != MoveJournal.VERSION) {
+      throw new IllegalArgumentException("Unsupported journal version " + version);
+    }
+    this.firstClickSafe = (this.buffer.getShort() & MoveJournal.FIRST_CLICK_SAFE) != 0;
+    this.width = this.buffer.getInt();
+    this.height = this.buffer.getInt();
+    this.numMines = this.buffer.getInt();
+    this.seed = this.buffer.getLong();
+  }
+
+  // returns a reader of the journal in the given file
+  static JournalReader open(Path path) throws IOException {
+    return new JournalReader(FileChannel.open(path, StandardOpenOption.READ));
+  }
+
+  // Effect: reads more of the channel until at least the given number of bytes are buffered
+  // returns false if the channel ends first
+  boolean fill(int bytes) {
+    if (this.buffer.remaining() >= bytes) {
+      return true;
+    }
+    this.buffer.compact();
+    try {
+      while (this.buffer.position() < bytes) {
+        if (this.channel.read(this.buffer) < 0) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.buffer.flip();
+    return this.buffer.remaining() >= bytes;
+  }
+
+  // Effect: reads the next move into idx, action and tick
+  // returns false if there are no more moves
+  boolean next() {
+    // an entry is at most two ten byte varints; a shorter tail is read as it comes
+    this.fill(20);
+    if (!this.buffer.hasRemaining()) {
+      return false;
+    }
+    this.tick += this.getVarint();
+    long cell = this.getVarint();
+    this.idx = (int) (cell >>> 2);
+    this.action = (int) (cell & 3);
+    return true;
+  }
+
+  // returns the next varint of the buffer
+  long getVarint() {
+    long value = 0;
+    int shift = 0;
+    while (true) {
+      if (!this.buffer.hasRemaining()) {
+        throw new IllegalArgumentException("Journal ends in the middle of a move");
+      }
+      byte b = this.buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+      shift += 7;
+    }
+  }
+
+  // returns a new engine for the game this journal recorded, before any move
+  GameEngine newGame() {
+    return new GameEngine(this.numMines, this.width, this.height, this.seed,
+        this.firstClickSafe);
+  }
+
+  // Effect: closes the channel
+  void close() {
+    try {
+      this.channel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
+
+
+// rebuilds games from their seed and journal, without a window
+class Replay {
+
+  // returns the game the given journal recorded, with every move made again
+  static GameEngine replay(JournalReader reader) {
+    return replay(reader, Long.MAX_VALUE);
+  }
+
+  // returns the game the given journal recorded, after the given number of moves
+  static GameEngine replay(JournalReader reader, long moves) {
+    GameEngine engine = reader.newGame();
+    for (long made = 0; made < moves && reader.next(); made++) {
+      engine.tick = reader.tick;
+      apply(engine, reader.idx, reader.action);
+    }
+    return engine;
+  }
+
+  // returns the game recorded in the given journal file
+  static GameEngine replay(Path path) throws IOException {
+    JournalReader reader = JournalReader.open(path);
+    try {
+      return replay(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  // Effect: makes the given move on the engine
+  static void apply(GameEngine engine, int idx, int action) {
+    if (action == MoveJournal.REVEAL) {
+      engine.revealAt(idx);
+    } else if (action == MoveJournal.FLAG) {
+      engine.flagAt(idx);
+    } else if (action == MoveJournal.CHORD) {
+      engine.chordAt(idx);
+    } else {
+      throw new IllegalArgumentException("Unknown move " + action);
+    }
+  }
+}
+
+
+class ExamplesMoveJournal {
+  ByteArrayOutputStream bytes;
+
+  // returns a seeded engine journaling into bytes
+  GameEngine journaled(int numMines, int width, int height, long seed, boolean safe) {
+    GameEngine engine = new GameEngine(numMines, width, height, seed, safe);
+    this.bytes = new ByteArrayOutputStream();
+    engine.journal = new MoveJournal(Channels.newChannel(this.bytes), engine);
+    return engine;
+  }
+
+  // returns a reader of what was journaled into bytes
+  JournalReader reader() {
+    return new JournalReader(
+        Channels.newChannel(new ByteArrayInputStream(this.bytes.toByteArray())));
+  }
+
+  void testEncoding(Tester t) {
+    GameEngine engine = journaled(5, 5, 5, 1L, false);
+    engine.tick = 3;
+    engine.reveal(0, 0);
+    engine.tick = 200;
+    engine.flag(1, 1);
+    engine.chord(0, 0);
+    engine.journal.flush();
+    byte[] written = this.bytes.toByteArray();
+    // ticks 3, 197 and 0 and cells 0, 6 and 0
+    t.checkExpect(written.length, MoveJournal.HEADER_BYTES + 2 + 3 + 2);
+    t.checkExpect(written[MoveJournal.HEADER_BYTES], (byte) 3);
+    t.checkExpect(written[MoveJournal.HEADER_BYTES + 1], (byte) MoveJournal.REVEAL);
+    t.checkExpect(written[MoveJournal.HEADER_BYTES + 4], (byte) (6 << 2 | MoveJournal.FLAG));
+    t.checkExpect(engine.journal.moves, 3L);
+
+    JournalReader reader = reader();
+    t.checkExpect(reader.seed, 1L);
+    t.checkExpect(reader.width, 5);
+    t.checkExpect(reader.numMines, 5);
+    t.checkExpect(reader.next(), true);
+    t.checkExpect(reader.idx, 0);
+    t.checkExpect(reader.tick, 3L);
+    t.checkExpect(reader.next(), true);
+    t.checkExpect(reader.idx, 6);
+    t.checkExpect(reader.action, MoveJournal.FLAG);
+    t.checkExpect(reader.tick, 200L);
+    t.checkExpect(reader.next(), true);
+    t.checkExpect(reader.action, MoveJournal.CHORD);
+    t.checkExpect(reader.next(), false);
+  }
+
+  void testReplay(Tester t) {
+    GameEngine engine = journaled(5, 5, 5, 1L, false);
+    engine.reveal(0, 0);
+    engine.flag(1, 1);
+    engine.chord(0, 0);
+    engine.reveal(4, 4);
+    engine.journal.flush();
+    GameEngine again = Replay.replay(reader());
+    t.checkExpect(again.board.cells, engine.board.cells);
+    t.checkExpect(again.status(), engine.status());
+    // part way through
+    GameEngine two = Replay.replay(reader(), 2);
+    t.checkExpect(two.board.isFlagged(6), true);
+    t.checkExpect(two.board.isCovered(1), true);
+  }
+
+  void testMovesAfterTheEnd(Tester t) {
+    GameEngine engine = journaled(5, 5, 5, 1L, false);
+    engine.reveal(1, 1);
+    engine.reveal(0, 0);
+    engine.journal.flush();
+    // the losing move is kept, the one after it changed nothing and is not
+    t.checkExpect(engine.journal.moves, 1L);
+    t.checkExpect(Replay.replay(reader()).status().isLost(), true);
+
+    // the one mine is at 9, so 4 is walled off in its corner; once it is uncovered, the
+    // flood from 24 wins, and the reveals batched after it are not moves
+    engine = journaled(1, 5, 5, 1L, false);
+    t.checkExpect(engine.board.isMine(9), true);
+    engine.revealAt(4);
+    MoveResult won = engine.apply(new MoveBatch().reveal(24).reveal(12).flag(9).reveal(13));
+    t.checkExpect(won.over, true);
+    t.checkExpect(won.lost, false);
+    engine.journal.flush();
+    t.checkExpect(engine.journal.moves, 2L);
+    GameEngine again = Replay.replay(reader());
+    t.checkExpect(again.board.cells, engine.board.cells);
+    t.checkExpect(again.status(), engine.status());
+  }
+
+  void testLongGames(Tester t) {
+    // many games played by the solver, with safe first clicks, across several buffers
+    for (long seed = 0; seed < 20; seed++) {
+      GameEngine engine = journaled(99, 30, 16, seed, true);
+      Solver solver = new Solver(engine.board);
+      solver.play(engine, 200, true);
+      for (int i = 0; i < 10000 && !engine.board.isOver(); i++) {
+        engine.flagAt(i % engine.board.size);
+      }
+      engine.journal.close();
+      GameEngine again = Replay.replay(reader());
+      t.checkExpect(again.board.cells, engine.board.cells);
+      t.checkExpect(again.status(), engine.status());
+    }
+  }
+
+  void testBadJournals(Tester t) {
+    t.checkConstructorException(new IllegalArgumentException("Not a minesweeper journal"),
+        "JournalReader", Channels.newChannel(new ByteArrayInputStream(new byte[3])));
+    t.checkConstructorException(
+        new IllegalArgumentException("Cannot journal a game without a seed"),
+        "MoveJournal", Channels.newChannel(new ByteArrayOutputStream()),
+        new GameEngine(new Board(2, 2), null, false));
+
+    GameEngine engine = journaled(5, 5, 5, 1L, false);
+    engine.reveal(0, 0);
+    engine.journal.flush();
+    byte[] written = this.bytes.toByteArray();
+    written[written.length - 1] = (byte) 0x80;
+    JournalReader cut = new JournalReader(
+        Channels.newChannel(new ByteArrayInputStream(written)));
+    t.checkException(new IllegalArgumentException("Journal ends in the middle of a move"),
+        cut, "next");
+  }
+
+  void testFiles(Tester t) {
+    try {
+      Path path = java.nio.file.Files.createTempFile("minesweeper", ".journal");
+      path.toFile().deleteOnExit();
+      MineSweeper game = new MineSweeper(5, 5, 5, 1L);
+      MoveJournal journal = game.startJournal(path);
+      game.onTick();
+      game.onMousePressed(new javalib.worldimages.Posn(90, 90), "LeftButton");
+      game.onTick();
+      game.onMousePressed(new javalib.worldimages.Posn(30, 30), "RightButton");
+      journal.close();
+      GameEngine again = Replay.replay(path);
+      t.checkExpect(again.board.cells, game.board.cells);
+      t.checkExpect(again.tick, 1L);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
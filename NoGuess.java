@@ -0,0 +1,323 @@
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import tester.*;
+
+
+// represents the size and number of mines of a kind of game, the first cell is the middle
+class Difficulty {
+  static final Difficulty BEGINNER = new Difficulty("beginner", 9, 9, 10);
+  static final Difficulty INTERMEDIATE = new Difficulty("intermediate", 16, 16, 40);
+  static final Difficulty EXPERT = new Difficulty("expert", 30, 16, 99);
+
+  String name;
+  int width;
+  int height;
+  int numMines;
+
+  Difficulty(String name, int width, int height, int numMines) {
+    this.name = name;
+    this.width = width;
+    this.height = height;
+    this.numMines = numMines;
+  }
+
+  // returns the index of the cell every game of this difficulty starts from
+  int start() {
+    return (this.height / 2) * this.width + this.width / 2;
+  }
+}
+
+
+// makes layouts that can be solved from a given first cell by deduction alone
+//
+// a layout is played by a Solver that may not guess, on a copy of the board; when the
+// solver gets stuck, one mine next to what it uncovered is moved to a covered cell far from
+// it, and the layout is played again. moving mines away from where the solver is stuck
+// opens that region up, while the rest of the layout stays as it was, so a board is fixed
+// in place rather than thrown away; only a layout with nowhere to move a mine to is made again
+// the first cell and the cells around it never hold a mine, so the game opens with a flood
+class NoGuessGenerator {
+  // how many times a layout is repaired, and how many layouts are tried, before giving up
+  static final int MAX_REPAIRS = 500;
+  static final int MAX_LAYOUTS = 50;
+
+  int width;
+  int height;
+  int numMines;
+  // the board layouts are played on, its engine, and the solver of the last try
+  Board trial;
+  GameEngine engine;
+  Solver solver;
+  MineLayoutGenerator layouts = new ReservoirLayout();
+  // scratch space for repairs
+  int[] around = new int[8];
+  IntList unknownMines = new IntList();
+  IntList knownMines = new IntList();
+  IntList far = new IntList();
+  // the number of repairs made by the last call to generate
+  int repairs;
+
+  NoGuessGenerator(int width, int height, int numMines) {
+    this.width = width;
+    this.height = height;
+    this.numMines = numMines;
+    this.trial = new Board(width, height);
+    this.engine = new GameEngine(this.trial, null, false);
+  }
+
+  // returns a covered board whose every safe cell can be uncovered from first without
+  // guessing, with its values counted
+  Board generate(int first, Random rand) {
+    long start = Metrics.start();
+    Board board = new Board(this.width, this.height);
+    int[] zone = board.zoneAround(first);
+    if (this.numMines > board.size - zone.length) {
+      throw new IllegalArgumentException("No room for " + this.numMines
+          + " mines outside the first cell's zone");
+    }
+    this.repairs = 0;
+    for (int layout = 0; layout < MAX_LAYOUTS; layout++) {
+      board.clear();
+      this.layouts.placeMines(board, this.numMines, rand, zone);
+      board.updateValues();
+      for (int repair = 0; repair <= MAX_REPAIRS; repair++) {
+        if (this.solves(board, first)) {
+          Metrics.GENERATE_NANOS.recordSince(start);
+          return board;
+        }
+        if (!this.repair(board, rand)) {
+          break;
+        }
+        this.repairs++;
+      }
+    }
+    throw new IllegalArgumentException("No layout of " + this.numMines + " mines on "
+        + this.width + "x" + this.height + " could be solved without guessing");
+  }
+
+  // can the given board be won from first without guessing?
+  // Effect: leaves the trial board as far as the solver got
+  boolean solves(Board board, int first) {
+    System.arraycopy(board.cells, 0, this.trial.cells, 0, board.size);
+    this.trial.recount();
+    this.engine.restart(null);
+    this.solver = new Solver(this.trial);
+    SolveResult result = this.solver.play(this.engine, first, false);
+    this.trial.removeObserver(this.solver);
+    return result.won;
+  }
+
+  // Effect: moves one mine next to what the last try uncovered to a random safe cell that is
+  // not, preferring a mine the solver could not tell apart from a safe cell
+  // returns false if there is no mine to move, or nowhere to move it to
+  boolean repair(Board board, Random rand) {
+    this.unknownMines.clear();
+    this.knownMines.clear();
+    this.far.clear();
+    for (int i = 0; i < this.trial.size; i++) {
+      if (!this.trial.isCovered(i)) {
+        continue;
+      }
+      boolean edge = this.nextToUncovered(i);
+      if (edge && board.isMine(i)) {
+        if (this.solver.knowledge[i] == Solver.MINE) {
+          this.knownMines.add(i);
+        } else {
+          this.unknownMines.add(i);
+        }
+      } else if (!edge && !board.isMine(i)) {
+        this.far.add(i);
+      }
+    }
+    IntList from = this.unknownMines;
+    if (from.size() == 0) {
+      from = this.knownMines;
+    }
+    if (from.size() == 0 || this.far.size() == 0) {
+      return false;
+    }
+    board.moveMine(from.get(rand.nextInt(from.size())),
+        this.far.get(rand.nextInt(this.far.size())));
+    return true;
+  }
+
+  // is the given cell of the trial board next to an uncovered cell?
+  boolean nextToUncovered(int idx) {
+    int count = this.trial.neighbors(idx, this.around);
+    for (int i = 0; i < count; i++) {
+      if (!this.trial.isCovered(this.around[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
+
+
+// keeps boards that can be solved without guessing ready for each difficulty, so a game
+// starts without waiting for one to be made
+// each difficulty has a daemon thread that makes boards until its queue is full, then
+// waits for one to be taken; if the queue is ever empty, a board is made on the spot
+class NoGuessPool {
+  int capacity;
+  HashMap<Difficulty, ArrayBlockingQueue<Board>> ready;
+  HashMap<Difficulty, Thread> fillers;
+
+  NoGuessPool(int capacity, Difficulty... difficulties) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A pool must hold at least one board");
+    }
+    this.capacity = capacity;
+    this.ready = new HashMap<Difficulty, ArrayBlockingQueue<Board>>();
+    this.fillers = new HashMap<Difficulty, Thread>();
+    for (Difficulty difficulty : difficulties) {
+      ArrayBlockingQueue<Board> queue = new ArrayBlockingQueue<Board>(capacity);
+      this.ready.put(difficulty, queue);
+      Thread filler = new Thread(new PoolFiller(difficulty, queue),
+          "no-guess-" + difficulty.name);
+      filler.setDaemon(true);
+      filler.start();
+      this.fillers.put(difficulty, filler);
+    }
+  }
+
+  // returns a board of the given difficulty, solvable from its start cell without guessing
+  Board take(Difficulty difficulty) {
+    ArrayBlockingQueue<Board> queue = this.ready.get(difficulty);
+    if (queue == null) {
+      throw new IllegalArgumentException("No boards kept for " + difficulty.name);
+    }
+    Board board = queue.poll();
+    if (board == null) {
+      board = new NoGuessGenerator(difficulty.width, difficulty.height, difficulty.numMines)
+          .generate(difficulty.start(), new Random());
+    }
+    return board;
+  }
+
+  // returns how many boards of the given difficulty are ready
+  int readyCount(Difficulty difficulty) {
+    return this.ready.get(difficulty).size();
+  }
+
+  // returns a new game of the given difficulty, already opened at its start cell
+  MineSweeper newGame(Difficulty difficulty, Random rand) {
+    MineSweeper game = new MineSweeper(this.take(difficulty), rand, false);
+    game.engine.revealAt(difficulty.start());
+    return game;
+  }
+
+  // Effect: stops making boards
+  void close() {
+    for (Thread filler : this.fillers.values()) {
+      filler.interrupt();
+    }
+  }
+}
+
+
+// makes boards of one difficulty for a pool, for as long as its thread is not interrupted
+class PoolFiller implements Runnable {
+  Difficulty difficulty;
+  ArrayBlockingQueue<Board> queue;
+
+  PoolFiller(Difficulty difficulty, ArrayBlockingQueue<Board> queue) {
+    this.difficulty = difficulty;
+    this.queue = queue;
+  }
+
+  // Effect: puts boards in the queue, waiting while it is full
+  public void run() {
+    NoGuessGenerator generator = new NoGuessGenerator(this.difficulty.width,
+        this.difficulty.height, this.difficulty.numMines);
+    Random rand = new Random();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        this.queue.put(generator.generate(this.difficulty.start(), rand));
+      }
+    } catch (InterruptedException e) {
+      // the pool was closed
+    }
+  }
+}
+
+
+class ExamplesNoGuess {
+
+  // checks that the board is covered, counted, clear around first, and solvable from it
+  void checkBoard(Tester t, Board board, int first, int numMines) {
+    t.checkExpect(board.countMines(), numMines);
+    t.checkExpect(board.coveredSafe, board.size - numMines);
+    for (int i = 0; i < board.size; i++) {
+      t.checkExpect(board.isCovered(i), true);
+      if (!board.isMine(i)) {
+        t.checkExpect(board.getValue(i), board.countAdjacentMines(i));
+      }
+    }
+    for (int z : board.zoneAround(first)) {
+      t.checkExpect(board.isMine(z), false);
+    }
+    GameEngine engine = new GameEngine(board, new Random(1), false);
+    SolveResult result = new Solver(board).play(engine, first, false);
+    t.checkExpect(result.won, true);
+    t.checkExpect(result.guesses, 0);
+  }
+
+  void testGenerate(Tester t) {
+    Difficulty[] kinds = {Difficulty.BEGINNER, Difficulty.INTERMEDIATE, Difficulty.EXPERT};
+    for (Difficulty kind : kinds) {
+      NoGuessGenerator generator = new NoGuessGenerator(kind.width, kind.height,
+          kind.numMines);
+      for (int seed = 0; seed < 5; seed++) {
+        checkBoard(t, generator.generate(kind.start(), new Random(seed)), kind.start(),
+            kind.numMines);
+      }
+    }
+    // a corner start, on a board where guesses are common
+    NoGuessGenerator dense = new NoGuessGenerator(12, 12, 30);
+    checkBoard(t, dense.generate(0, new Random(3)), 0, 30);
+  }
+
+  void testRepairs(Tester t) {
+    // expert layouts hardly ever solve as they are, so some must have been repaired
+    NoGuessGenerator generator = new NoGuessGenerator(30, 16, 99);
+    int repairs = 0;
+    for (int seed = 0; seed < 5; seed++) {
+      generator.generate(Difficulty.EXPERT.start(), new Random(seed));
+      repairs += generator.repairs;
+    }
+    t.checkExpect(repairs > 0, true);
+
+    // a coin flip: the 1s cannot tell which corner holds the mine
+    Board coin = new Board(2, 3);
+    coin.placeMine(0);
+    coin.updateValues();
+    NoGuessGenerator fixer = new NoGuessGenerator(2, 3, 1);
+    t.checkExpect(fixer.solves(coin, 5), false);
+    t.checkExpect(fixer.repair(coin, new Random(1)), false);
+  }
+
+  void testTooMany(Tester t) {
+    t.checkException(
+        new IllegalArgumentException("No room for 1 mines outside the first cell's zone"),
+        new NoGuessGenerator(3, 3, 1), "generate", 4, new Random(1));
+    t.checkConstructorException(
+        new IllegalArgumentException("A pool must hold at least one board"),
+        "NoGuessPool", 0, new Difficulty[0]);
+  }
+
+  void testPool(Tester t) {
+    NoGuessPool pool = new NoGuessPool(2, Difficulty.BEGINNER);
+    Board board = pool.take(Difficulty.BEGINNER);
+    checkBoard(t, board, Difficulty.BEGINNER.start(), 10);
+    t.checkNumRange(pool.readyCount(Difficulty.BEGINNER), 0, 3);
+    MineSweeper game = pool.newGame(Difficulty.BEGINNER, new Random(1));
+    t.checkExpect(game.board.isCovered(Difficulty.BEGINNER.start()), false);
+    t.checkExpect(game.status().isLost(), false);
+    t.checkException(new IllegalArgumentException("No boards kept for expert"), pool,
+        "take", Difficulty.EXPERT);
+    pool.close();
+  }
+}
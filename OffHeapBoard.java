@@ -0,0 +1,753 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import tester.*;
+
+
+// represents a board too big for the heap, or for an array: ten billion cells and more
+//
+// each cell is one nibble, two cells to a byte, cell i in the low nibble of byte i / 2 when
+// i is even and in the high one when it is odd; the nibble holds MINE_BIT, OPEN_BIT and
+// FLAG_BIT, and the number of mines around a cell is counted from its neighbors when it is
+// asked for rather than stored, which is what lets a cell fit in four bits
+// a cell is covered while its OPEN_BIT is clear, so a new board is all zeros: a fresh file
+// is mapped without being written, and the file system keeps it sparse until mines land
+// the bytes live in segments of 2^segmentBits bytes, each a direct or mapped buffer, since
+// a buffer holds at most 2^31 bytes; cells are found by long index, row * width + column
+class OffHeapBoard implements IBoard {
+  static final int SEGMENT_BITS = 30;
+  static final int MINE_BIT = 1;
+  static final int OPEN_BIT = 2;
+  static final int FLAG_BIT = 4;
+
+  int width;
+  int height;
+  long size;
+  ByteBuffer[] segments;
+  int segmentBits;
+  long segmentMask;
+  // the file the segments are mapped from, or null if they are in memory
+  FileChannel channel;
+
+  // live counters, as Board keeps them
+  long numMines;
+  long coveredSafe;
+  long minesRevealed;
+  long flagsPlaced;
+
+  // scratch space for flood fill
+  LongQueue work = new LongQueue();
+  long[] around = new long[Board.VALUE_MASK];
+
+  // segments constructor, the given buffers hold the cells, and are all zeros if fresh;
+  // otherwise the counters are read from them
+  OffHeapBoard(int width, int height, ByteBuffer[] segments, int segmentBits,
+      FileChannel channel, boolean fresh) {
+    this.width = width;
+    this.height = height;
+    this.size = (long) width * height;
+    this.segments = segments;
+    this.segmentBits = segmentBits;
+    this.segmentMask = (1L << segmentBits) - 1;
+    this.channel = channel;
+    if (fresh) {
+      this.coveredSafe = this.size;
+    } else {
+      this.recount();
+    }
+  }
+
+  // returns how many bytes a board of the given size takes
+  static long bytesFor(int width, int height) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("A board needs at least one row and one column");
+    }
+    return ((long) width * height + 1) / 2;
+  }
+
+  // returns how many segments of the given size hold the given number of bytes
+  static int segmentCount(long bytes, int segmentBits) {
+    return (int) ((bytes + (1L << segmentBits) - 1) >>> segmentBits);
+  }
+
+  // returns a new board held in direct memory, every cell covered and safe
+  static OffHeapBoard inMemory(int width, int height) {
+    return inMemory(width, height, SEGMENT_BITS);
+  }
+
+  // returns a new board held in direct memory, in segments of 2^segmentBits bytes
+  static OffHeapBoard inMemory(int width, int height, int segmentBits) {
+    long bytes = bytesFor(width, height);
+    ByteBuffer[] segments = new ByteBuffer[segmentCount(bytes, segmentBits)];
+    for (int s = 0; s < segments.length; s++) {
+      segments[s] = ByteBuffer.allocateDirect(
+          (int) Math.min(1L << segmentBits, bytes - ((long) s << segmentBits)));
+    }
+    return new OffHeapBoard(width, height, segments, segmentBits, null, true);
+  }
+
+  // returns the board kept in the given file, made covered and safe if the file is new
+  static OffHeapBoard mapped(int width, int height, Path file) throws IOException {
+    return mapped(width, height, file, SEGMENT_BITS);
+  }
+
+  // returns the board kept in the given file, mapped in segments of 2^segmentBits bytes
+  static OffHeapBoard mapped(int width, int height, Path file, int segmentBits)
+      throws IOException {
+    long bytes = bytesFor(width, height);
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long length = channel.size();
+    if (length != 0 && length != bytes) {
+      channel.close();
+      throw new IllegalArgumentException("The file does not hold a " + width + "x" + height
+          + " board");
+    }
+    ByteBuffer[] segments = new ByteBuffer[segmentCount(bytes, segmentBits)];
+    for (int s = 0; s < segments.length; s++) {
+      long start = (long) s << segmentBits;
+      segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+          Math.min(1L << segmentBits, bytes - start));
+    }
+    return new OffHeapBoard(width, height, segments, segmentBits, channel, length == 0);
+  }
+
+  // Effect: writes the cells back to the file, if there is one, and closes it
+  void close() throws IOException {
+    if (this.channel != null) {
+      for (ByteBuffer segment : this.segments) {
+        ((MappedByteBuffer) segment).force();
+      }
+      this.channel.close();
+    }
+  }
+
+  // returns the nibble of the cell at the given index
+  int nibble(long idx) {
+    long at = idx >>> 1;
+    ByteBuffer segment = this.segments[(int) (at >>> this.segmentBits)];
+    int pair = segment.get((int) (at & this.segmentMask));
+    return pair >>> ((int) (idx & 1) << 2) & 0xF;
+  }
+
+  // Effect: sets the nibble of the cell at the given index, the counters are not updated
+  void setNibble(long idx, int bits) {
+    long at = idx >>> 1;
+    ByteBuffer segment = this.segments[(int) (at >>> this.segmentBits)];
+    int offset = (int) (at & this.segmentMask);
+    int shift = (int) (idx & 1) << 2;
+    segment.put(offset, (byte) ((segment.get(offset) & ~(0xF << shift)) | bits << shift));
+  }
+
+  // Effect: sets the counters from the cells, walking every byte
+  void recount() {
+    this.numMines = 0;
+    this.coveredSafe = 0;
+    this.minesRevealed = 0;
+    this.flagsPlaced = 0;
+    for (ByteBuffer segment : this.segments) {
+      for (int i = 0; i < segment.capacity(); i++) {
+        int pair = segment.get(i);
+        this.countNibble(pair & 0xF);
+        this.countNibble(pair >>> 4 & 0xF);
+      }
+    }
+    // the high nibble of the last byte of an odd board is no cell
+    if ((this.size & 1) != 0) {
+      this.coveredSafe--;
+    }
+  }
+
+  // Effect: adds the given cell's nibble to the counters
+  void countNibble(int bits) {
+    if ((bits & MINE_BIT) != 0) {
+      this.numMines++;
+      if ((bits & OPEN_BIT) != 0) {
+        this.minesRevealed++;
+      }
+    } else if ((bits & OPEN_BIT) == 0) {
+      this.coveredSafe++;
+    }
+    if ((bits & FLAG_BIT) != 0) {
+      this.flagsPlaced++;
+    }
+  }
+
+  // returns the index of the cell at the given row and column
+  long index(int row, int column) {
+    return (long) row * this.width + column;
+  }
+
+  // Effect: turns the cell at the given index into a mine
+  void placeMine(long idx) {
+    int bits = this.nibble(idx);
+    if ((bits & MINE_BIT) == 0) {
+      this.setNibble(idx, bits | MINE_BIT);
+      this.numMines++;
+      if ((bits & OPEN_BIT) == 0) {
+        this.coveredSafe--;
+      } else {
+        this.minesRevealed++;
+      }
+    }
+  }
+
+  // Effect: places the given number of mines on safe cells picked at random
+  // each mine draws cells until it finds a safe one, which takes about one draw while mines
+  // are sparse, as they are on boards of this size
+  void placeMines(long count, SplittableRandom rand) {
+    if (count > this.size - this.numMines) {
+      throw new IllegalArgumentException("No room for " + count + " more mines");
+    }
+    for (long placed = 0; placed < count; placed++) {
+      long idx = rand.nextLong(this.size);
+      while ((this.nibble(idx) & MINE_BIT) != 0) {
+        idx = rand.nextLong(this.size);
+      }
+      this.placeMine(idx);
+    }
+  }
+
+  // Effect: uncovers the cell at the given index and floods through empty cells
+  // returns how many cells were uncovered
+  long uncover(long idx) {
+    return BoardUtils.uncover(this, idx, this.work, this.around);
+  }
+
+  // is the game on this board over, because a mine or the last safe cell was uncovered?
+  boolean isOver() {
+    return this.minesRevealed > 0 || this.coveredSafe == 0;
+  }
+
+  // returns the number of columns of this board
+  public int columns() {
+    return this.width;
+  }
+
+  // returns the number of rows of this board
+  public int rows() {
+    return this.height;
+  }
+
+  // returns the number of cells of this board
+  public long cellCount() {
+    return this.size;
+  }
+
+  // returns the mine, covered and flagged bits of the cell at the given index
+  public int cellState(long idx) {
+    int bits = this.nibble(idx);
+    return ((bits & MINE_BIT) != 0 ? Board.MINE : 0)
+        | ((bits & OPEN_BIT) == 0 ? Board.COVERED : 0)
+        | ((bits & FLAG_BIT) != 0 ? Board.FLAGGED : 0);
+  }
+
+  // Effect: sets the mine, covered and flagged bits of the cell at the given index, the
+  // counters are not updated
+  void setCellState(long idx, int state) {
+    this.setNibble(idx, ((state & Board.MINE) != 0 ? MINE_BIT : 0)
+        | ((state & Board.COVERED) == 0 ? OPEN_BIT : 0)
+        | ((state & Board.FLAGGED) != 0 ? FLAG_BIT : 0));
+  }
+
+  // returns the number of mines around the given cell, counted from its neighbors, mines
+  // return 10
+  public int cellValue(long idx) {
+    if ((this.nibble(idx) & MINE_BIT) != 0) {
+      return 10;
+    }
+    int row = (int) (idx / this.width);
+    int column = (int) (idx % this.width);
+    int count = 0;
+    for (int r = Math.max(0, row - 1); r <= Math.min(this.height - 1, row + 1); r++) {
+      long rowStart = (long) r * this.width;
+      for (int c = Math.max(0, column - 1); c <= Math.min(this.width - 1, column + 1); c++) {
+        count += this.nibble(rowStart + c) & MINE_BIT;
+      }
+    }
+    return count;
+  }
+
+  // Effect: uncovers and unflags the given covered cell, keeping the counters in step
+  public void uncoverCell(long idx) {
+    int bits = this.nibble(idx);
+    if ((bits & FLAG_BIT) != 0) {
+      this.flagsPlaced--;
+    }
+    if ((bits & MINE_BIT) != 0) {
+      this.minesRevealed++;
+    } else {
+      this.coveredSafe--;
+    }
+    this.setNibble(idx, (bits | OPEN_BIT) & ~FLAG_BIT);
+  }
+
+  // Effect: flags or unflags the cell at the given index, uncovered cells are never flagged
+  public void toggleFlag(long idx) {
+    int bits = this.nibble(idx);
+    if ((bits & FLAG_BIT) != 0) {
+      this.setNibble(idx, bits & ~FLAG_BIT);
+      this.flagsPlaced--;
+    } else if ((bits & OPEN_BIT) == 0) {
+      this.setNibble(idx, bits | FLAG_BIT);
+      this.flagsPlaced++;
+    }
+  }
+
+  // Effect: writes the indices of the cells around the given cell into out
+  // returns how many neighbors were written
+  public int cellNeighbors(long idx, long[] out) {
+    int row = (int) (idx / this.width);
+    int column = (int) (idx % this.width);
+    int count = 0;
+    for (int r = Math.max(0, row - 1); r <= Math.min(this.height - 1, row + 1); r++) {
+      long rowStart = (long) r * this.width;
+      for (int c = Math.max(0, column - 1); c <= Math.min(this.width - 1, column + 1); c++) {
+        if (r != row || c != column) {
+          out[count] = rowStart + c;
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  // returns how many mines this board holds
+  public long mineCount() {
+    return this.numMines;
+  }
+
+  // returns how many safe cells are still covered
+  public long coveredSafeCount() {
+    return this.coveredSafe;
+  }
+
+  // returns how many mines have been uncovered
+  public long minesRevealedCount() {
+    return this.minesRevealed;
+  }
+
+  // returns how many cells are flagged
+  public long flagCount() {
+    return this.flagsPlaced;
+  }
+}
+
+
+// algorithms that work on any board, through the long indices of IBoard
+class BoardUtils {
+
+  // counts the mines on the given board, cell by cell
+  static long countMines(IBoard board) {
+    long count = 0;
+    for (long i = 0; i < board.cellCount(); i++) {
+      if ((board.cellState(i) & Board.MINE) != 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // counts the mines around the given cell of the given board, from its neighbors
+  static int countAdjacentMines(IBoard board, long idx, long[] around) {
+    int count = board.cellNeighbors(idx, around);
+    int mines = 0;
+    for (int i = 0; i < count; i++) {
+      if ((board.cellState(around[i]) & Board.MINE) != 0) {
+        mines++;
+      }
+    }
+    return mines;
+  }
+
+  // Effect: uncovers the given cell of the given board and floods through empty cells, as
+  // Board.uncover does, queueing cells in work and listing neighbors in around
+  // returns how many cells were uncovered
+  static long uncover(IBoard board, long idx, LongQueue work, long[] around) {
+    if ((board.cellState(idx) & Board.COVERED) == 0) {
+      return 0;
+    }
+    work.clear();
+    board.uncoverCell(idx);
+    long revealed = 1;
+    if (board.cellValue(idx) == 0) {
+      work.add(idx);
+    }
+    while (!work.isEmpty()) {
+      int count = board.cellNeighbors(work.remove(), around);
+      for (int i = 0; i < count; i++) {
+        long next = around[i];
+        if ((board.cellState(next) & (Board.COVERED | Board.MINE)) == Board.COVERED) {
+          board.uncoverCell(next);
+          revealed++;
+          if (board.cellValue(next) == 0) {
+            work.add(next);
+          }
+        }
+      }
+    }
+    return revealed;
+  }
+}
+
+
+// represents a first in first out queue of longs, backed by a growable ring buffer
+class LongQueue {
+  long[] items;
+  int head;
+  int count;
+
+  LongQueue() {
+    this.items = new long[64];
+  }
+
+  // is this queue empty?
+  boolean isEmpty() {
+    return this.count == 0;
+  }
+
+  // returns how many longs are queued
+  int size() {
+    return this.count;
+  }
+
+  // Effect: adds the given long to the back of this queue
+  void add(long value) {
+    if (this.count == this.items.length) {
+      long[] bigger = new long[this.items.length * 2];
+      int firstPart = this.items.length - this.head;
+      System.arraycopy(this.items, this.head, bigger, 0, firstPart);
+      System.arraycopy(this.items, 0, bigger, firstPart, this.head);
+      this.items = bigger;
+      this.head = 0;
+    }
+    this.items[(this.head + this.count) & (this.items.length - 1)] = value;
+    this.count++;
+  }
+
+  // Effect: removes the long at the front of this queue
+  // returns the removed long
+  long remove() {
+    if (this.count == 0) {
+      throw new IllegalStateException("Cannot remove from an empty queue");
+    }
+    long value = this.items[this.head];
+    this.head = (this.head + 1) & (this.items.length - 1);
+    this.count--;
+    return value;
+  }
+
+  // Effect: empties this queue, keeping its buffer
+  void clear() {
+    this.head = 0;
+    this.count = 0;
+  }
+}
+
+
+class ExamplesOffHeapBoard {
+
+  // returns a new temporary file
+  Path tempFile() {
+    try {
+      Path path = Files.createTempFile("minesweeper", ".board");
+      path.toFile().deleteOnExit();
+      return path;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // returns a board with mines placed and counted the way the game does it
+  Board gameBoard(int width, int height, int numMines, long seed) {
+    Board board = new Board(width, height);
+    new ReservoirLayout().placeMines(board, numMines, new Random(seed), new int[0]);
+    board.updateValues();
+    return board;
+  }
+
+  // returns an off-heap board with the mines of the given board, in tiny segments
+  OffHeapBoard copyMines(Board board) {
+    OffHeapBoard copy = OffHeapBoard.inMemory(board.width, board.height, 3);
+    for (int i = 0; i < board.size; i++) {
+      if (board.isMine(i)) {
+        copy.placeMine(i);
+      }
+    }
+    return copy;
+  }
+
+  // checks that two boards have the same cells and counters
+  void checkSame(Tester t, IBoard a, IBoard b) {
+    t.checkExpect(a.cellCount(), b.cellCount());
+    for (long i = 0; i < a.cellCount(); i++) {
+      t.checkExpect(a.cellState(i), b.cellState(i));
+      t.checkExpect(a.cellValue(i), b.cellValue(i));
+    }
+    t.checkExpect(a.mineCount(), b.mineCount());
+    t.checkExpect(a.coveredSafeCount(), b.coveredSafeCount());
+    t.checkExpect(a.minesRevealedCount(), b.minesRevealedCount());
+    t.checkExpect(a.flagCount(), b.flagCount());
+  }
+
+  void testNibbles(Tester t) {
+    // 35 cells in 18 bytes, in segments of 4 bytes
+    OffHeapBoard board = OffHeapBoard.inMemory(5, 7, 2);
+    t.checkExpect(board.segments.length, 5);
+    t.checkExpect(board.segments[4].capacity(), 2);
+    t.checkExpect(board.coveredSafe, 35L);
+    for (long i = 0; i < 35; i++) {
+      t.checkExpect(board.cellState(i), Board.COVERED);
+    }
+    board.setCellState(7, Board.MINE | Board.FLAGGED | Board.COVERED);
+    board.setCellState(8, 0);
+    board.setCellState(34, Board.MINE);
+    t.checkExpect(board.cellState(6), Board.COVERED);
+    t.checkExpect(board.cellState(7), Board.MINE | Board.FLAGGED | Board.COVERED);
+    t.checkExpect(board.cellState(8), 0);
+    t.checkExpect(board.cellState(9), Board.COVERED);
+    t.checkExpect(board.cellState(34), Board.MINE);
+    // the padding nibble after the last cell is not counted
+    board.recount();
+    t.checkExpect(board.numMines, 2L);
+    t.checkExpect(board.minesRevealed, 1L);
+    t.checkExpect(board.flagsPlaced, 1L);
+    t.checkExpect(board.coveredSafe, 32L);
+    t.checkExpect(board.index(6, 4), 34L);
+    t.checkExpect(board.cellValue(3), 1);
+    t.checkExpect(board.cellValue(29), 1);
+    t.checkExpect(board.cellValue(34), 10);
+  }
+
+  void testSameAsBoard(Tester t) {
+    Board board = gameBoard(40, 30, 150, 4);
+    OffHeapBoard copy = copyMines(board);
+    checkSame(t, board, copy);
+    t.checkExpect(BoardUtils.countMines(copy), 150L);
+    t.checkExpect(BoardUtils.countMines(board), 150L);
+    long[] around = new long[Board.VALUE_MASK];
+    for (int i = 0; i < board.size; i++) {
+      if (!board.isMine(i)) {
+        t.checkExpect(BoardUtils.countAdjacentMines(copy, i, around), board.getValue(i));
+      }
+    }
+
+    // the same moves, through the int paths of Board and the long ones of IBoard
+    Board generic = gameBoard(40, 30, 150, 4);
+    LongQueue work = new LongQueue();
+    for (int i = 0; i < board.size; i += 37) {
+      if (board.isMine(i)) {
+        board.flag(i);
+        generic.toggleFlag(i);
+        copy.toggleFlag(i);
+      } else {
+        int opened = board.uncover(i);
+        t.checkExpect(BoardUtils.uncover(generic, i, work, around), (long) opened);
+        t.checkExpect(copy.uncover(i), (long) opened);
+      }
+    }
+    t.checkExpect(board.coveredSafe < 1000, true);
+    checkSame(t, board, generic);
+    checkSame(t, board, copy);
+    t.checkExpect(copy.uncover(copy.index(0, 0)), 0L);
+  }
+
+  void testLose(Tester t) {
+    Board board = gameBoard(9, 9, 10, 2);
+    OffHeapBoard copy = copyMines(board);
+    int mine = 0;
+    while (!board.isMine(mine)) {
+      mine++;
+    }
+    copy.toggleFlag(mine);
+    t.checkExpect(copy.flagsPlaced, 1L);
+    t.checkExpect(copy.uncover(mine), 1L);
+    t.checkExpect(copy.isOver(), true);
+    t.checkExpect(copy.minesRevealed, 1L);
+    t.checkExpect(copy.flagsPlaced, 0L);
+    copy.toggleFlag(mine);
+    t.checkExpect(copy.flagsPlaced, 0L);
+    t.checkException(new IllegalArgumentException("No room for 72 more mines"), copy,
+        "placeMines", 72L, new SplittableRandom(1));
+    copy.placeMines(71, new SplittableRandom(1));
+    t.checkExpect(copy.numMines, 81L);
+    t.checkExpect(BoardUtils.countMines(copy), 81L);
+    t.checkExpect(copy.coveredSafe, 0L);
+  }
+
+  void testMapped(Tester t) {
+    Path path = this.tempFile();
+    try {
+      Files.delete(path);
+      OffHeapBoard board = OffHeapBoard.mapped(60, 50, path, 6);
+      board.placeMines(300, new SplittableRandom(8));
+      board.uncover(board.index(25, 30));
+      board.toggleFlag(board.index(0, 0));
+      OffHeapBoard same = copyOf(board);
+      board.close();
+      t.checkExpect(Files.size(path), 1500L);
+
+      // opening the file again reads the counters back from the cells
+      OffHeapBoard back = OffHeapBoard.mapped(60, 50, path);
+      checkSame(t, back, same);
+      back.close();
+
+      try {
+        OffHeapBoard.mapped(50, 50, path);
+        t.checkExpect("opened", "refused");
+      } catch (IllegalArgumentException e) {
+        t.checkExpect(e.getMessage(), "The file does not hold a 50x50 board");
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    t.checkException(
+        new IllegalArgumentException("A board needs at least one row and one column"),
+        OffHeapBoard.inMemory(1, 1), "bytesFor", 0, 5);
+  }
+
+  // returns an in-memory copy of the given board
+  OffHeapBoard copyOf(OffHeapBoard board) {
+    OffHeapBoard copy = OffHeapBoard.inMemory(board.width, board.height);
+    for (long i = 0; i < board.size; i++) {
+      copy.setCellState(i, board.cellState(i));
+    }
+    copy.recount();
+    return copy;
+  }
+
+  void testSnapshot(Tester t) {
+    Path streamed = this.tempFile();
+    Path mapped = this.tempFile();
+    Path storage = this.tempFile();
+    try {
+      // a Board streamed through IBoard writes the same file as one written through a map
+      Board board = gameBoard(33, 17, 60, 6);
+      board.uncover(board.index(8, 16));
+      board.flag(board.size - 1);
+      Snapshot.writeStreaming(streamed, board, 12);
+      Snapshot.write(mapped, board, 12);
+      t.checkExpect(Files.readAllBytes(streamed), Files.readAllBytes(mapped));
+
+      // mines moved onto numbers, by hand and to clear a first click, keep no value
+      board = gameBoard(33, 17, 120, 7);
+      int from = 0;
+      while (!board.isMine(from)) {
+        from++;
+      }
+      int to = 0;
+      while (board.isMine(to) || board.getValue(to) == 0) {
+        to++;
+      }
+      board.moveMine(from, to);
+      board.clearZone(board.index(8, 16), new Random(7));
+      board.uncover(board.index(8, 16));
+      Snapshot.writeStreaming(streamed, board, 13);
+      Snapshot.write(mapped, board, 13);
+      t.checkExpect(Files.readAllBytes(streamed), Files.readAllBytes(mapped));
+      t.checkExpect(Snapshot.read(streamed).board.cells, board.cells);
+
+      // an off-heap board saves and loads through the same format
+      OffHeapBoard big = OffHeapBoard.inMemory(301, 203);
+      big.placeMines(4000, new SplittableRandom(6));
+      big.uncover(big.index(150, 100));
+      big.toggleFlag(7);
+      Snapshot.writeStreaming(streamed, big, -3);
+      Snapshot loaded = Snapshot.read(streamed);
+      t.checkExpect(loaded.seed, -3L);
+      checkSame(t, loaded.board, big);
+      Files.delete(storage);
+      OffHeapBoard back = Snapshot.readOffHeap(streamed, storage);
+      checkSame(t, back, big);
+      back.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // returns a fresh board of the given size in segments of 2^segmentBits bytes, where only
+  // the segments holding the cells within a cell of the given rows and columns are there
+  OffHeapBoard sparse(int width, int height, int segmentBits, int firstRow, int lastRow,
+      int firstColumn, int lastColumn) {
+    long bytes = OffHeapBoard.bytesFor(width, height);
+    ByteBuffer[] segments = new ByteBuffer[OffHeapBoard.segmentCount(bytes, segmentBits)];
+    for (int r = Math.max(0, firstRow - 1); r <= Math.min(height - 1, lastRow + 1); r++) {
+      for (int c = Math.max(0, firstColumn - 1); c <= Math.min(width - 1, lastColumn + 1);
+          c++) {
+        int s = (int) ((((long) r * width + c) >>> 1) >>> segmentBits);
+        if (segments[s] == null) {
+          segments[s] = ByteBuffer.allocateDirect(
+              (int) Math.min(1L << segmentBits, bytes - ((long) s << segmentBits)));
+        }
+      }
+    }
+    return new OffHeapBoard(width, height, segments, segmentBits, null, true);
+  }
+
+  void testBeyondIntIndex(Tester t) {
+    // 2.8 billion cells in segments of 4 KB, of which only the few around the cells played
+    // on are there
+    OffHeapBoard board = sparse(70000, 40000, 12, 38000, 38004, 65000, 65004);
+    t.checkExpect(board.size, 2800000000L);
+    t.checkExpect(board.segments.length, 341797);
+    // a ring of mines around a 3x3 pocket, far past the last int index
+    for (int r = 38000; r <= 38004; r++) {
+      for (int c = 65000; c <= 65004; c++) {
+        if (r == 38000 || r == 38004 || c == 65000 || c == 65004) {
+          board.placeMine(board.index(r, c));
+        }
+      }
+    }
+    long center = board.index(38002, 65002);
+    t.checkExpect(center > Integer.MAX_VALUE, true);
+    t.checkExpect(board.cellValue(center), 0);
+    t.checkExpect(board.cellValue(board.index(38001, 65001)), 5);
+    t.checkExpect(board.uncover(center), 9L);
+    t.checkExpect(board.coveredSafe, 2800000000L - 16 - 9);
+    t.checkExpect(board.cellState(board.index(38001, 65002)), 0);
+    t.checkExpect(board.cellState(board.index(38000, 65002)), Board.MINE | Board.COVERED);
+
+    // the last cell, in the last segment, which is only partly full
+    OffHeapBoard corner = sparse(70000, 40000, 12, 39999, 39999, 69999, 69999);
+    corner.toggleFlag(corner.size - 1);
+    t.checkExpect(corner.cellState(corner.size - 1), Board.COVERED | Board.FLAGGED);
+    t.checkExpect(corner.segments[corner.segments.length - 1].capacity(),
+        (int) (1400000000L - (341796L << 12)));
+  }
+}
+
+
+class RunOffHeapBoard {
+  // maps a board of 2.8 billion cells from a new file of 1.4 GB, which stays cheap only
+  // where the file system keeps it sparse, and plays on it past the last int index
+  void testMappedBeyondIntIndex(Tester t) {
+    try {
+      Path path = Files.createTempFile("minesweeper", ".board");
+      Files.delete(path);
+      OffHeapBoard board = OffHeapBoard.mapped(70000, 40000, path);
+      t.checkExpect(board.segments.length, 2);
+      for (int r = 38000; r <= 38004; r++) {
+        for (int c = 65000; c <= 65004; c++) {
+          if (r == 38000 || r == 38004 || c == 65000 || c == 65004) {
+            board.placeMine(board.index(r, c));
+          }
+        }
+      }
+      t.checkExpect(board.uncover(board.index(38002, 65002)), 9L);
+      board.toggleFlag(board.size - 1);
+      t.checkExpect(board.cellState(board.size - 1), Board.COVERED | Board.FLAGGED);
+      board.close();
+      t.checkExpect(Files.size(path), 1400000000L);
+      Files.delete(path);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,261 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tester.*;
+import javalib.worldimages.*;
+
+
+// builds very large boards across a fork-join pool
+//
+// the board is cut into bands of BAND_ROWS rows; each band gets its share of the mines,
+// in proportion to its cells, with the mines left over from rounding going one each to
+// bands picked at random, and places them with its own random stream, split off the seed
+// with Simulation.split as game seeds are, so bands never wait on each other
+// the values are then counted band by band, each reading the mines of the rows just
+// above and below it, which no band changes any more
+// bands do not depend on the pool, so a seed always builds the same board, on any number
+// of threads; within a band every layout is equally likely, while the number of mines in
+// each band is fixed rather than drawn, which a player cannot tell on boards this big
+class ParallelBoardBuilder {
+  static final int BAND_ROWS = 32;
+
+  int width;
+  int height;
+  int numMines;
+  long seed;
+  // the number of mines each band places
+  int[] bandMines;
+
+  ParallelBoardBuilder(int width, int height, int numMines, long seed) {
+    this.width = width;
+    this.height = height;
+    this.numMines = Math.max(0, Math.min(numMines, width * height));
+    this.seed = seed;
+    this.bandMines = this.shareMines();
+  }
+
+  // returns how many bands the board is cut into
+  int numBands() {
+    return (this.height + BAND_ROWS - 1) / BAND_ROWS;
+  }
+
+  // returns the first row of the given band
+  int firstRow(int band) {
+    return band * BAND_ROWS;
+  }
+
+  // returns the row after the last row of the given band
+  int lastRow(int band) {
+    return Math.min(this.height, (band + 1) * BAND_ROWS);
+  }
+
+  // returns the number of mines each band places: its share of the mines rounded down,
+  // and one more for as many bands, picked with the seed, as the rounding left mines over
+  int[] shareMines() {
+    int bands = this.numBands();
+    long size = (long) this.width * this.height;
+    int[] share = new int[bands];
+    int given = 0;
+    for (int b = 0; b < bands; b++) {
+      long cells = (long) (this.lastRow(b) - this.firstRow(b)) * this.width;
+      share[b] = (int) (this.numMines * cells / size);
+      given += share[b];
+    }
+    // a partial shuffle picks the bands that get one more
+    int[] order = new int[bands];
+    for (int b = 0; b < bands; b++) {
+      order[b] = b;
+    }
+    SplittableRandom rand = new SplittableRandom(this.seed);
+    for (int i = 0; i < this.numMines - given; i++) {
+      int j = i + rand.nextInt(bands - i);
+      int picked = order[j];
+      order[j] = order[i];
+      order[i] = picked;
+      share[picked]++;
+    }
+    return share;
+  }
+
+  // returns the random stream the given band places its mines with
+  SplittableRandom bandRandom(int band) {
+    return Simulation.split(this.seed, band + 1);
+  }
+
+  // builds the board on the common pool
+  Board build() {
+    return this.build(ForkJoinPool.commonPool());
+  }
+
+  // builds the board on the given pool: every band's mines, then every band's values
+  Board build(ForkJoinPool pool) {
+    Board board = new Board(this.width, this.height);
+    pool.invoke(new BandTask(this, board, 0, this.numBands(), BandTask.PLACE));
+    board.numMines = this.numMines;
+    board.coveredSafe = board.size - this.numMines;
+    pool.invoke(new BandTask(this, board, 0, this.numBands(), BandTask.COUNT));
+    return board;
+  }
+
+  // Effect: places the given band's mines straight into the cells, picking a random set of
+  // its cells with Floyd's algorithm, so it takes one draw per mine whatever the density
+  // the board's counters are left for the builder to set once every band is done
+  void placeMines(Board board, int band) {
+    SplittableRandom rand = this.bandRandom(band);
+    int start = this.firstRow(band) * this.width;
+    int cells = (this.lastRow(band) - this.firstRow(band)) * this.width;
+    for (int j = cells - this.bandMines[band]; j < cells; j++) {
+      int idx = start + rand.nextInt(j + 1);
+      if ((board.cells[idx] & Board.MINE) != 0) {
+        idx = start + j;
+      }
+      board.cells[idx] |= Board.MINE;
+    }
+  }
+
+  // Effect: counts the values of the given band's cells
+  // reading the rows around the band while the bands there write their values is safe:
+  // only the value bits of those bytes change, never their mine bit
+  void countValues(Board board, int band) {
+    board.updateValues(this.firstRow(band), this.lastRow(band), new int[this.width + 2]);
+  }
+}
+
+
+// represents a range of bands to place the mines of, or count the values of, split in
+// halves until it is one band
+@SuppressWarnings("serial")
+class BandTask extends RecursiveAction {
+  static final int PLACE = 0;
+  static final int COUNT = 1;
+
+  ParallelBoardBuilder builder;
+  Board board;
+  int first;
+  int last;
+  int phase;
+
+  BandTask(ParallelBoardBuilder builder, Board board, int first, int last, int phase) {
+    this.builder = builder;
+    this.board = board;
+    this.first = first;
+    this.last = last;
+    this.phase = phase;
+  }
+
+  // Effect: does the phase for the range, or its two halves in parallel
+  protected void compute() {
+    if (this.last - this.first <= 1) {
+      for (int band = this.first; band < this.last; band++) {
+        if (this.phase == PLACE) {
+          this.builder.placeMines(this.board, band);
+        } else {
+          this.builder.countValues(this.board, band);
+        }
+      }
+      return;
+    }
+    int middle = (this.first + this.last) >>> 1;
+    invokeAll(new BandTask(this.builder, this.board, this.first, middle, this.phase),
+        new BandTask(this.builder, this.board, middle, this.last, this.phase));
+  }
+}
+
+
+// times building a board on pools of more and more threads, up to one per processor:
+// java RunParallelBuild width height mines seed
+class RunParallelBuild {
+  public static void main(String[] args) {
+    int width = Integer.parseInt(args[0]);
+    int height = Integer.parseInt(args[1]);
+    int mines = Integer.parseInt(args[2]);
+    long seed = Long.parseLong(args[3]);
+    ParallelBoardBuilder builder = new ParallelBoardBuilder(width, height, mines, seed);
+    int processors = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= processors; threads *= 2) {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      long best = Long.MAX_VALUE;
+      for (int run = 0; run < 5; run++) {
+        long start = System.nanoTime();
+        builder.build(pool);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      pool.shutdown();
+      System.out.println(threads + " threads: " + best / 1000000 + " ms");
+    }
+  }
+}
+
+
+class ExamplesParallelBoard {
+
+  // checks the board's counters and that every safe cell counts the mines around it
+  void checkBoard(Tester t, Board board, int numMines) {
+    t.checkExpect(board.countMines(), numMines);
+    GameStatus live = board.status();
+    board.recount();
+    t.checkExpect(live, board.status());
+    for (int i = 0; i < board.size; i++) {
+      if (!board.isMine(i)) {
+        t.checkExpect(board.getValue(i), board.countAdjacentMines(i));
+      }
+    }
+  }
+
+  void testShareMines(Tester t) {
+    ParallelBoardBuilder builder = new ParallelBoardBuilder(10, 100, 333, 1);
+    // bands of 32, 32, 32 and 4 rows
+    t.checkExpect(builder.numBands(), 4);
+    t.checkExpect(builder.lastRow(3), 100);
+    int total = 0;
+    for (int b = 0; b < 4; b++) {
+      total += builder.bandMines[b];
+    }
+    t.checkExpect(total, 333);
+    t.checkNumRange(builder.bandMines[0], 106, 108);
+    t.checkNumRange(builder.bandMines[3], 13, 15);
+    // every cell a mine, or none
+    t.checkExpect(new ParallelBoardBuilder(5, 40, 200, 1).bandMines, new int[] {160, 40});
+    t.checkExpect(new ParallelBoardBuilder(5, 40, 0, 1).bandMines, new int[] {0, 0});
+    t.checkExpect(new ParallelBoardBuilder(5, 40, 500, 1).numMines, 200);
+  }
+
+  void testBuild(Tester t) {
+    checkBoard(t, new ParallelBoardBuilder(9, 9, 10, 3).build(), 10);
+    checkBoard(t, new ParallelBoardBuilder(1, 70, 20, 3).build(), 20);
+    checkBoard(t, new ParallelBoardBuilder(70, 1, 20, 3).build(), 20);
+    checkBoard(t, new ParallelBoardBuilder(50, 97, 1000, 3).build(), 1000);
+    checkBoard(t, new ParallelBoardBuilder(8, 64, 512, 3).build(), 512);
+  }
+
+  void testDeterministic(Tester t) {
+    ParallelBoardBuilder builder = new ParallelBoardBuilder(120, 300, 7000, 42);
+    ForkJoinPool one = new ForkJoinPool(1);
+    ForkJoinPool four = new ForkJoinPool(4);
+    Board first = builder.build(one);
+    t.checkExpect(builder.build(four).cells, first.cells);
+    t.checkExpect(new ParallelBoardBuilder(120, 300, 7000, 42).build().cells, first.cells);
+    one.shutdown();
+    four.shutdown();
+    Board other = new ParallelBoardBuilder(120, 300, 7000, 43).build();
+    int differ = 0;
+    for (int i = 0; i < first.size; i++) {
+      if (first.isMine(i) != other.isMine(i)) {
+        differ++;
+      }
+    }
+    t.checkNumRange(differ, 5000, 14000);
+  }
+
+  void testPlay(Tester t) {
+    // a built board plays like any other
+    Board board = new ParallelBoardBuilder(40, 40, 200, 9).build();
+    MineSweeper game = new MineSweeper(board, new Random(9), true);
+    game.onMousePressed(new Posn(410, 410), "LeftButton");
+    t.checkExpect(game.status().isLost(), false);
+    t.checkExpect(game.engine.seed, GameEngine.NO_SEED);
+    checkBoard(t, board, 200);
+  }
+}
@@ -0,0 +1,637 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import tester.*;
+import javalib.impworld.*;
+import javalib.worldimages.*;
+
+
+// represents a bounded first in first out queue between exactly one thread that offers and
+// one thread that polls, without locks
+// tail is only written by the producer and head only by the consumer; each publishes its
+// position with a release write and reads the other's with an acquire read, so an item
+// written before the tail moves is seen by the consumer that sees the tail; each side also
+// keeps the last position it read of the other, and reads it again only when the queue
+// looks full or empty
+class SpscQueue<T> {
+  Object[] items;
+  int mask;
+  AtomicLong head = new AtomicLong();
+  AtomicLong tail = new AtomicLong();
+  // the producer's last look at head, and the consumer's last look at tail
+  long knownHead;
+  long knownTail;
+
+  // makes a queue that holds at least the given number of items, rounded up to a power of 2
+  SpscQueue(int capacity) {
+    if (capacity < 1 || capacity > (1 << 30)) {
+      throw new IllegalArgumentException("A queue must hold between 1 and 2^30 items");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.items = new Object[size];
+    this.mask = size - 1;
+  }
+
+  // Effect: adds the given item to the back of this queue, if there is room; producer only
+  // returns whether it was added
+  boolean offer(T item) {
+    long t = this.tail.get();
+    if (t - this.knownHead == this.items.length) {
+      this.knownHead = this.head.get();
+      if (t - this.knownHead == this.items.length) {
+        return false;
+      }
+    }
+    this.items[(int) t & this.mask] = item;
+    this.tail.lazySet(t + 1);
+    return true;
+  }
+
+  // Effect: removes the item at the front of this queue; consumer only
+  // returns the removed item, or null if the queue is empty
+  @SuppressWarnings("unchecked")
+  T poll() {
+    long h = this.head.get();
+    if (h == this.knownTail) {
+      this.knownTail = this.tail.get();
+      if (h == this.knownTail) {
+        return null;
+      }
+    }
+    int at = (int) h & this.mask;
+    T item = (T) this.items[at];
+    this.items[at] = null;
+    this.head.lazySet(h + 1);
+    return item;
+  }
+
+  // returns how many items are queued, as seen from either thread at some recent moment
+  int size() {
+    return (int) (this.tail.get() - this.head.get());
+  }
+}
+
+
+// represents a move handed to a GameWorker: the cell, one of the actions of MoveJournal, and
+// how many clock ticks had been handed to the worker when the move was made
+class PendingMove {
+  int idx;
+  int action;
+  long ticks;
+
+  PendingMove(int idx, int action, long ticks) {
+    this.idx = idx;
+    this.action = action;
+    this.ticks = ticks;
+  }
+}
+
+
+// represents cells a GameWorker changed, as the state bytes they were left with, and the
+// state of the game after them
+// a batch is never changed after it is published; a move's changes come in order, in as many
+// batches as it takes, and the last batch of a move ends it
+class ChangeBatch {
+  long version;
+  int[] cells;
+  byte[] states;
+  GameStatus status;
+  boolean endsMove;
+
+  ChangeBatch(long version, int[] cells, byte[] states, GameStatus status, boolean endsMove) {
+    this.version = version;
+    this.cells = cells;
+    this.states = states;
+    this.status = status;
+    this.endsMove = endsMove;
+  }
+
+  // returns how many cells this batch changes
+  int size() {
+    return this.cells.length;
+  }
+}
+
+
+// plays a game on a thread of its own: takes moves from one queue and publishes what they
+// changed to another, BATCH_CELLS cells at a time, so whoever draws the game sees a long
+// flood arrive while it is still running, and never touches the board the worker plays on
+// when the batches are not taken fast enough, the worker waits for room rather than drop one
+// clock ticks are only counted, never queued, so a long move that keeps the worker waiting
+// cannot fill the queue of moves with ticks; each move carries the count of ticks before it,
+// and the worker plays those ticks first, so the clock runs as if moves and ticks were queued
+// together
+class GameWorker implements Runnable, ICellObserver {
+  static final int BATCH_CELLS = 4096;
+  static final int QUEUE_BATCHES = 256;
+  static final int QUEUE_MOVES = 64;
+  // how long the worker sleeps between looks at a full queue of batches
+  static final long WAIT_NANOS = 100000;
+
+  GameEngine engine;
+  Board board;
+  SpscQueue<PendingMove> moves;
+  SpscQueue<ChangeBatch> batches;
+  // the ticks handed to the worker, and how many of them the engine has been given
+  AtomicLong ticks;
+  long ticksPlayed;
+  Thread thread;
+  volatile boolean running;
+  // the changes of the batch being gathered
+  int[] cells;
+  byte[] states;
+  int count;
+  long version;
+
+  // plays the given engine's game, which no other thread may touch from now on
+  GameWorker(GameEngine engine) {
+    this.engine = engine;
+    this.board = engine.board;
+    this.moves = new SpscQueue<PendingMove>(QUEUE_MOVES);
+    this.batches = new SpscQueue<ChangeBatch>(QUEUE_BATCHES);
+    this.ticks = new AtomicLong();
+    this.cells = new int[BATCH_CELLS];
+    this.states = new byte[BATCH_CELLS];
+    this.board.addObserver(this);
+  }
+
+  // Effect: starts the worker's thread
+  void start() {
+    this.running = true;
+    this.thread = new Thread(this, "game-worker");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  // Effect: stops the worker's thread, once the move it is making is done
+  void stop() {
+    this.running = false;
+    LockSupport.unpark(this.thread);
+    try {
+      this.thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Effect: hands the given move to the worker, unless its queue is full
+  // returns whether the move was taken
+  boolean submit(PendingMove move) {
+    if (!this.moves.offer(move)) {
+      return false;
+    }
+    LockSupport.unpark(this.thread);
+    return true;
+  }
+
+  // Effect: hands one clock tick to the worker, which always takes it
+  void tick() {
+    this.ticks.incrementAndGet();
+    LockSupport.unpark(this.thread);
+  }
+
+  // Effect: makes moves and plays ticks as they come, sleeping while there are none
+  public void run() {
+    while (this.running) {
+      PendingMove move = this.moves.poll();
+      if (move != null) {
+        this.playTicks(move.ticks);
+        this.play(move);
+      } else {
+        long given = this.ticks.get();
+        if (given == this.ticksPlayed) {
+          LockSupport.park(this);
+        } else {
+          this.playTicks(given);
+        }
+      }
+    }
+  }
+
+  // Effect: advances the engine's clock until it has been given the given number of ticks
+  void playTicks(long upTo) {
+    while (this.ticksPlayed < upTo) {
+      this.engine.tick();
+      this.ticksPlayed++;
+    }
+  }
+
+  // Effect: makes the given move and publishes the rest of what it changed; a left click on
+  // an uncovered number chords it, as it does in MineSweeper
+  void play(PendingMove move) {
+    if (move.action == MoveJournal.FLAG) {
+      this.engine.flagAt(move.idx);
+    } else if (move.action == MoveJournal.CHORD || !this.board.isCovered(move.idx)) {
+      this.engine.chordAt(move.idx);
+    } else {
+      this.engine.revealAt(move.idx);
+    }
+    this.publish(true);
+  }
+
+  // Effect: adds the changed cell to the batch, publishing the batch once it is full
+  public void cellChanged(int idx) {
+    this.cells[this.count] = idx;
+    this.states[this.count] = this.board.cells[idx];
+    this.count++;
+    if (this.count == BATCH_CELLS) {
+      this.publish(false);
+    }
+  }
+
+  // Effect: publishes the changes gathered so far as a batch, waiting for room in the queue
+  void publish(boolean endsMove) {
+    this.version++;
+    ChangeBatch batch = new ChangeBatch(this.version,
+        Arrays.copyOf(this.cells, this.count),
+        Arrays.copyOf(this.states, this.count), this.board.status(), endsMove);
+    this.count = 0;
+    while (!this.batches.offer(batch) && this.running) {
+      LockSupport.parkNanos(WAIT_NANOS);
+    }
+  }
+}
+
+
+// represents a minesweeper game in a window whose moves are made on a GameWorker's thread
+//
+// the window keeps a copy of the board, the view, that only it reads and writes: a click is
+// handed to the worker and returns at once, and each tick applies up to CELLS_PER_FRAME
+// changed cells from the worker's batches to the view, whose renderer redraws their tiles
+// as it does for any board; a reveal of millions of cells opens up over a few frames while
+// the window goes on taking clicks
+// clicks the worker's queue has no room for, while it waits for a long move to be drawn,
+// wait in the window and are handed over again, in order, on the next tick
+// the end of the game is read from the status of the last batch applied, so it is the state
+// the worker sent with the cells drawn so far; the engine MineSweeper keeps for the view is
+// never played
+class AsyncMineSweeper extends MineSweeper {
+  static final int CELLS_PER_FRAME = 1 << 16;
+
+  GameWorker worker;
+  // the clicks not yet taken by the worker, oldest first
+  ArrayDeque<PendingMove> waiting;
+  // the batch being applied, and how many of its cells have been
+  ChangeBatch applying;
+  int applied;
+  // the status after the last batch applied
+  GameStatus shown;
+  // how many clicks were made, and how many of them have been drawn
+  long submitted;
+  long finished;
+
+  // plays a game on the given board, which the worker owns from now on
+  AsyncMineSweeper(Board board, Random rand, boolean firstClickSafe) {
+    super(copyOf(board), rand, false);
+    this.board.removeObserver(this.engine);
+    this.shown = board.status();
+    this.waiting = new ArrayDeque<PendingMove>();
+    this.worker = new GameWorker(new GameEngine(board, rand, firstClickSafe));
+    this.worker.start();
+  }
+
+  // returns a copy of the cells and counters of the given board
+  static Board copyOf(Board board) {
+    Board copy = new Board(board.width, board.height);
+    System.arraycopy(board.cells, 0, copy.cells, 0, board.size);
+    copy.recount();
+    return copy;
+  }
+
+  // Effect: hands the click to the worker: the left button uncovers or chords the cell, the
+  // right button flags it, and the middle button drags the viewport as it does in MineSweeper
+  public void onMousePressed(Posn pos, String buttonName) {
+    int idx = this.cellAt(pos);
+    if (buttonName.equals("MiddleButton")) {
+      this.dragFrom = pos;
+    } else if (idx >= 0 && buttonName.equals("LeftButton")) {
+      this.submit(idx, MoveJournal.REVEAL);
+    } else if (idx >= 0 && buttonName.equals("RightButton")) {
+      this.submit(idx, MoveJournal.FLAG);
+    }
+  }
+
+  // Effect: hands the given move to the worker, or keeps it to hand over on a later tick if
+  // the worker has no room for it or older clicks are still waiting
+  void submit(int idx, int action) {
+    PendingMove move = new PendingMove(idx, action, this.worker.ticks.get());
+    this.submitted++;
+    if (!this.waiting.isEmpty() || !this.worker.submit(move)) {
+      this.waiting.add(move);
+    }
+  }
+
+  // Effect: hands the waiting clicks to the worker, oldest first, until it has no more room
+  void handOver() {
+    while (!this.waiting.isEmpty() && this.worker.submit(this.waiting.peek())) {
+      this.waiting.remove();
+    }
+  }
+
+  // Effect: advances the worker's game clock, hands it the waiting clicks, and applies this
+  // frame's share of its changes
+  public void onTick() {
+    this.worker.tick();
+    this.handOver();
+    this.applyChanges(CELLS_PER_FRAME);
+  }
+
+  // Effect: applies up to the given number of changed cells to the view, in the order the
+  // worker made them
+  // returns how many cells were applied
+  int applyChanges(int budget) {
+    int done = 0;
+    while (done < budget) {
+      if (this.applying == null) {
+        this.applying = this.worker.batches.poll();
+        this.applied = 0;
+        if (this.applying == null) {
+          break;
+        }
+      }
+      int end = Math.min(this.applying.size(), this.applied + budget - done);
+      for (int i = this.applied; i < end; i++) {
+        this.board.setState(this.applying.cells[i], this.applying.states[i]);
+      }
+      done += end - this.applied;
+      this.applied = end;
+      if (this.applied == this.applying.size()) {
+        this.shown = this.applying.status;
+        if (this.applying.endsMove) {
+          this.finished++;
+        }
+        this.applying = null;
+      }
+    }
+    return done;
+  }
+
+  // has every click been made by the worker and drawn?
+  boolean caughtUp() {
+    return this.finished == this.submitted;
+  }
+
+  // returns the state of the game as far as it has been drawn
+  GameStatus status() {
+    return this.shown;
+  }
+
+  // ends the game once the move that won or lost it has been drawn
+  public WorldEnd worldEnds() {
+    if (this.shown.isLost()) {
+      return new WorldEnd(true, this.showLose());
+    } else if (this.shown.isWon()) {
+      return new WorldEnd(true, this.showWin());
+    }
+    return new WorldEnd(false, this.makeScene());
+  }
+
+  // Effect: stops the worker
+  void close() {
+    this.worker.stop();
+  }
+}
+
+
+class ExamplesRenderPipeline {
+
+  // Effect: hands over the waiting clicks and applies the worker's changes until every click
+  // has been drawn
+  void settle(AsyncMineSweeper game) {
+    while (!game.caughtUp()) {
+      game.handOver();
+      if (game.applyChanges(AsyncMineSweeper.CELLS_PER_FRAME) == 0) {
+        Thread.yield();
+      }
+    }
+  }
+
+  // returns a board of the given size with mines laid out from the given seed
+  Board board(int width, int height, int numMines, long seed) {
+    return new GameEngine(numMines, width, height, seed, false).board;
+  }
+
+  void testSpscQueue(Tester t) {
+    t.checkExpect(new SpscQueue<String>(5).items.length, 8);
+    t.checkExpect(new SpscQueue<String>(1).items.length, 1);
+    t.checkConstructorException(
+        new IllegalArgumentException("A queue must hold between 1 and 2^30 items"),
+        "SpscQueue", 0);
+    SpscQueue<Integer> queue = new SpscQueue<Integer>(4);
+    t.checkExpect(queue.poll(), null);
+    // go around the ring a few times
+    for (int round = 0; round < 5; round++) {
+      for (int i = 0; i < 4; i++) {
+        t.checkExpect(queue.offer(round * 10 + i), true);
+      }
+      t.checkExpect(queue.offer(99), false);
+      t.checkExpect(queue.size(), 4);
+      for (int i = 0; i < 4; i++) {
+        t.checkExpect(queue.poll(), round * 10 + i);
+      }
+      t.checkExpect(queue.poll(), null);
+    }
+  }
+
+  void testSpscQueueThreads(Tester t) {
+    final SpscQueue<Integer> queue = new SpscQueue<Integer>(64);
+    final int items = 200000;
+    Thread producer = new Thread(new Runnable() {
+      public void run() {
+        for (int i = 0; i < items; i++) {
+          while (!queue.offer(i)) {
+            Thread.yield();
+          }
+        }
+      }
+    });
+    producer.start();
+    int outOfOrder = 0;
+    for (int i = 0; i < items; i++) {
+      Integer item = queue.poll();
+      while (item == null) {
+        Thread.yield();
+        item = queue.poll();
+      }
+      if (item != i) {
+        outOfOrder++;
+      }
+    }
+    t.checkExpect(outOfOrder, 0);
+    t.checkExpect(queue.poll(), null);
+  }
+
+  void testSameGame(Tester t) {
+    // the moves made through the worker leave the view as the same moves made at once
+    Board reference = board(30, 20, 70, 4);
+    GameEngine direct = new GameEngine(reference, new Random(4), false);
+    AsyncMineSweeper game = new AsyncMineSweeper(board(30, 20, 70, 4), new Random(4), false);
+    int[] clicks = {reference.index(10, 15), reference.index(0, 0), reference.index(19, 29)};
+    for (int idx : clicks) {
+      if (reference.isMine(idx)) {
+        game.onMousePressed(new Posn(idx % 30 * 20 + 10, idx / 30 * 20 + 10), "RightButton");
+        direct.flagAt(idx);
+      } else {
+        game.onMousePressed(new Posn(idx % 30 * 20 + 10, idx / 30 * 20 + 10), "LeftButton");
+        direct.revealAt(idx);
+      }
+    }
+    settle(game);
+    t.checkExpect(game.submitted, 3L);
+    t.checkExpect(game.board.cells, reference.cells);
+    t.checkExpect(game.status(), reference.status());
+    t.checkExpect(game.worldEnds().worldEnds, reference.isOver());
+    game.close();
+    t.checkExpect(game.worker.thread.isAlive(), false);
+  }
+
+  void testLose(Tester t) {
+    Board board = board(9, 9, 10, 2);
+    int mine = 0;
+    while (!board.isMine(mine)) {
+      mine++;
+    }
+    AsyncMineSweeper game = new AsyncMineSweeper(board, new Random(2), false);
+    t.checkExpect(game.worldEnds().worldEnds, false);
+    game.onMousePressed(new Posn(mine % 9 * 20 + 10, mine / 9 * 20 + 10), "LeftButton");
+    settle(game);
+    t.checkExpect(game.status().isLost(), true);
+    t.checkExpect(game.board.isCovered(mine), false);
+    t.checkExpect(game.worldEnds().worldEnds, true);
+    game.close();
+  }
+
+  void testProgressive(Tester t) {
+    // an empty board of 2.25 million cells opens with one click, over many batches
+    AsyncMineSweeper game = new AsyncMineSweeper(new Board(1500, 1500), new Random(1), false);
+    game.onMousePressed(new Posn(600, 400), "LeftButton");
+    while (game.worker.moves.size() > 0) {
+      Thread.yield();
+    }
+    // the worker waits on the flood, more cells than its batches hold, so clicks made now
+    // return at once and are queued for it
+    t.checkExpect(2250000 > GameWorker.QUEUE_BATCHES * GameWorker.BATCH_CELLS, true);
+    for (int i = 0; i < 10; i++) {
+      game.onMousePressed(new Posn(20 * i + 10, 10), "RightButton");
+    }
+    t.checkExpect(game.worker.moves.size(), 10);
+    t.checkExpect(game.waiting.size(), 0);
+    t.checkExpect(game.submitted, 11L);
+    t.checkExpect(game.finished, 0L);
+
+    while (game.worker.batches.size() == 0) {
+      Thread.yield();
+    }
+    t.checkNumRange(game.applyChanges(AsyncMineSweeper.CELLS_PER_FRAME), 1,
+        AsyncMineSweeper.CELLS_PER_FRAME + 1);
+    t.checkExpect(game.status().isOver(), false);
+    t.checkExpect(game.worldEnds().worldEnds, false);
+    settle(game);
+    t.checkExpect(game.board.coveredSafe, 0);
+    t.checkExpect(game.status().isWon(), true);
+    t.checkExpect(game.worker.version > 2250000 / GameWorker.BATCH_CELLS, true);
+    game.close();
+  }
+
+  void testTicks(Tester t) {
+    Board board = board(10, 10, 10, 1);
+    int number = 0;
+    while (board.isMine(number) || board.getValue(number) == 0) {
+      number++;
+    }
+    AsyncMineSweeper game = new AsyncMineSweeper(board, new Random(1), false);
+    // the clock starts with the first move that uncovers a cell, and runs on the worker
+    game.onTick();
+    game.onMousePressed(new Posn(number % 10 * 20 + 10, number / 10 * 20 + 10), "LeftButton");
+    game.onTick();
+    game.onTick();
+    game.onMousePressed(new Posn(number % 10 * 20 + 10, number / 10 * 20 + 10), "RightButton");
+    settle(game);
+    game.close();
+    t.checkExpect(game.worker.engine.tick, 2L);
+    t.checkExpect(game.engine.tick, 0L);
+    t.checkExpect(game.board.isCovered(number), false);
+  }
+
+  void testClicksDuringFlood(Tester t) {
+    // a flood of about 9 million cells, more than the queue of batches holds, so the worker
+    // waits on the window; a mine wall down the first column, and a pocket it cannot reach
+    Board board = new Board(3000, 3000);
+    for (int row = 0; row < 3000; row++) {
+      board.placeMine(board.index(row, 0));
+    }
+    int pocket = board.index(1500, 1500);
+    for (int row = 1499; row <= 1501; row++) {
+      for (int column = 1499; column <= 1501; column++) {
+        if (board.index(row, column) != pocket) {
+          board.placeMine(board.index(row, column));
+        }
+      }
+    }
+    board.updateValues();
+    t.checkExpect(board.coveredSafe - 1 > GameWorker.QUEUE_BATCHES * GameWorker.BATCH_CELLS, true);
+    AsyncMineSweeper game = new AsyncMineSweeper(board, new Random(1), false);
+    game.onMousePressed(new Posn(600, 400), "LeftButton");
+    while (game.worker.moves.size() > 0) {
+      Thread.yield();
+    }
+    for (int i = 0; i < 80; i++) {
+      game.onTick();
+    }
+    // ticks never wait in the queue of moves
+    t.checkExpect(game.worker.moves.size(), 0);
+
+    // the worker is still publishing the flood: the first 64 clicks fill its queue, and
+    // the rest wait in the window
+    for (int row = 0; row < 40; row++) {
+      game.onMousePressed(new Posn(10, row * 20 + 10), "RightButton");
+      game.onMousePressed(new Posn(210, row * 20 + 10), "LeftButton");
+    }
+    t.checkExpect(game.worker.moves.size(), GameWorker.QUEUE_MOVES);
+    t.checkExpect(game.waiting.size(), 80 - GameWorker.QUEUE_MOVES);
+    t.checkExpect(game.submitted, 81L);
+
+    settle(game);
+    game.close();
+    t.checkExpect(game.waiting.size(), 0);
+    t.checkExpect(game.finished, 81L);
+    for (int row = 0; row < 40; row++) {
+      t.checkExpect(game.board.isFlagged(game.board.index(row, 0)), true);
+    }
+    t.checkExpect(game.status().flagsPlaced, 40);
+    t.checkExpect(game.status().coveredSafe, 1);
+    t.checkExpect(game.board.coveredSafe, 1);
+    t.checkExpect(game.worker.engine.tick, 80L);
+  }
+}
+
+
+class RunAsyncMineSweeper {
+  // prints the longest a click takes while the worker floods an empty board of 9 million
+  // cells; a frame at 28 frames a second is about 36 ms
+  void testClickLatency(Tester t) {
+    AsyncMineSweeper game = new AsyncMineSweeper(new Board(3000, 3000), new Random(1), false);
+    game.onMousePressed(new Posn(600, 400), "LeftButton");
+    long worst = 0;
+    for (int i = 0; i < 100; i++) {
+      long start = System.nanoTime();
+      game.onMousePressed(new Posn(20 * (i % 40) + 10, 10), "RightButton");
+      worst = Math.max(worst, System.nanoTime() - start);
+      game.onTick();
+    }
+    game.close();
+    System.out.println("slowest click during a flood: " + worst / 1000 + " us");
+  }
+
+  void testAsyncMinesweeper(Tester t) {
+    Board board = new ParallelBoardBuilder(3000, 3000, 500000, 1).build();
+    AsyncMineSweeper ms = new AsyncMineSweeper(board, new Random(1), true);
+    ms.bigBang(ms.screenWidth, ms.screenHeight, 1.0 / 28);
+  }
+}
@@ -0,0 +1,338 @@
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import tester.*;
+
+
+// represents a way of playing a game to the end
+// a strategy is shared by every thread of a simulation, so it must not keep state between games
+interface IGameStrategy {
+  // plays the game on the given engine until it is over, or the strategy gives up,
+  // drawing any random choices from the given random
+  SolveResult play(GameEngine engine, Random rand);
+}
+
+
+// plays with a solver, uncovering the middle cell first
+class SolverStrategy implements IGameStrategy {
+  boolean allowGuesses;
+
+  SolverStrategy(boolean allowGuesses) {
+    this.allowGuesses = allowGuesses;
+  }
+
+  // plays the game with a new solver, which stops watching the board afterwards
+  public SolveResult play(GameEngine engine, Random rand) {
+    Board board = engine.board;
+    Solver solver = new Solver(board);
+    SolveResult result = solver.play(engine, board.index(board.height / 2, board.width / 2),
+        this.allowGuesses);
+    board.removeObserver(solver);
+    return result;
+  }
+}
+
+
+// plays by uncovering random covered cells, every move a guess
+class RandomStrategy implements IGameStrategy {
+
+  // plays the game by clicking random cells until it is over
+  public SolveResult play(GameEngine engine, Random rand) {
+    Board board = engine.board;
+    int moves = 0;
+    while (!board.isOver()) {
+      int idx = rand.nextInt(board.size);
+      if (board.isCovered(idx)) {
+        engine.revealAt(idx);
+        moves++;
+      }
+    }
+    return new SolveResult(board.status().isWon(), moves, moves);
+  }
+}
+
+
+// represents the totals of many simulated games
+// every total is a sum, so the totals do not depend on the order games were played in
+class SimulationStats {
+  long games;
+  long wins;
+  long winsWithoutGuessing;
+  long guesses;
+  long moves;
+
+  // Effect: adds one game to these totals
+  void add(SolveResult result) {
+    this.games++;
+    this.guesses += result.guesses;
+    this.moves += result.moves;
+    if (result.won) {
+      this.wins++;
+      if (result.guesses == 0) {
+        this.winsWithoutGuessing++;
+      }
+    }
+  }
+
+  // Effect: adds the given totals to these
+  void merge(SimulationStats other) {
+    this.games += other.games;
+    this.wins += other.wins;
+    this.winsWithoutGuessing += other.winsWithoutGuessing;
+    this.guesses += other.guesses;
+    this.moves += other.moves;
+  }
+
+  // returns the share of games that were won
+  double winRate() {
+    if (this.games == 0) {
+      return 0;
+    }
+    return (double) this.wins / this.games;
+  }
+
+  // returns the average number of guesses a game needed
+  double guessesPerGame() {
+    if (this.games == 0) {
+      return 0;
+    }
+    return (double) this.guesses / this.games;
+  }
+
+  public String toString() {
+    return "games " + this.games + ", won " + this.wins + " (" + this.winsWithoutGuessing
+        + " without guessing), " + this.guesses + " guesses, " + this.moves + " moves";
+  }
+}
+
+
+// represents a batch of seeded games played without a window across a fork-join pool
+// game i is laid out from the i-th seed of a SplittableRandom stream started at the given
+// seed, so the same seed always gives the same totals, whatever the number of threads
+// with InsertionLayout and no safe first click, game i is the board that
+// new MineSweeper(numMines, width, height, new Random(gameSeed(i))) would show
+class Simulation {
+  // the step SplittableRandom takes between seeds, so any seed of the stream can be reached
+  // without drawing the ones before it
+  static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  // games played by one task before it stops splitting
+  static final int BATCH = 64;
+
+  int width;
+  int height;
+  int numMines;
+  long seed;
+  IGameStrategy strategy;
+  MineLayoutGenerator generator;
+  boolean firstClickSafe;
+  // every thread plays on its own board, made once and cleared between games
+  ThreadLocal<SimulationWorker> workers;
+
+  // default constructor, lays boards out the way MineSweeper does
+  Simulation(int width, int height, int numMines, long seed, IGameStrategy strategy) {
+    this(width, height, numMines, seed, strategy, new InsertionLayout(), false);
+  }
+
+  // layout constructor
+  Simulation(int width, int height, int numMines, long seed, IGameStrategy strategy,
+      MineLayoutGenerator generator, boolean firstClickSafe) {
+    this.width = width;
+    this.height = height;
+    this.numMines = numMines;
+    this.seed = seed;
+    this.strategy = strategy;
+    this.generator = generator;
+    this.firstClickSafe = firstClickSafe;
+    this.workers = new ThreadLocal<SimulationWorker>() {
+      protected SimulationWorker initialValue() {
+        return new SimulationWorker(Simulation.this);
+      }
+    };
+  }
+
+  // returns the seed of the given game
+  long gameSeed(long game) {
+    return split(this.seed, game).nextLong();
+  }
+
+  // returns the given stream of those split off the given seed, each GOLDEN_GAMMA apart,
+  // made without drawing from the ones before it
+  static SplittableRandom split(long seed, long stream) {
+    return new SplittableRandom(seed + stream * GOLDEN_GAMMA);
+  }
+
+  // plays the given number of games on the common pool
+  SimulationStats run(long games) {
+    return this.run(games, ForkJoinPool.commonPool());
+  }
+
+  // plays the given number of games on the given pool
+  SimulationStats run(long games, ForkJoinPool pool) {
+    return pool.invoke(new SimulationTask(this, 0, games));
+  }
+
+  // plays the games from first up to but not including last on this thread
+  SimulationStats playRange(long first, long last) {
+    SimulationWorker worker = this.workers.get();
+    SimulationStats stats = new SimulationStats();
+    for (long game = first; game < last; game++) {
+      stats.add(worker.play(this.gameSeed(game)));
+    }
+    return stats;
+  }
+}
+
+
+// represents the board and engine one thread plays all of its games on
+class SimulationWorker {
+  Simulation simulation;
+  Board board;
+  GameEngine engine;
+  int[] noExclusions = new int[0];
+
+  SimulationWorker(Simulation simulation) {
+    this.simulation = simulation;
+    this.board = new Board(simulation.width, simulation.height);
+    this.engine = new GameEngine(this.board, null, simulation.firstClickSafe);
+  }
+
+  // plays one game laid out from the given seed
+  SolveResult play(long gameSeed) {
+    Random rand = new Random(gameSeed);
+    long start = Metrics.start();
+    this.board.clear();
+    this.simulation.generator.placeMines(this.board, this.simulation.numMines, rand,
+        this.noExclusions);
+    this.board.updateValues();
+    Metrics.GENERATE_NANOS.recordSince(start);
+    this.engine.restart(rand);
+    return this.simulation.strategy.play(this.engine, rand);
+  }
+}
+
+
+// represents a range of games to play, split in halves until it is small enough
+@SuppressWarnings("serial")
+class SimulationTask extends RecursiveTask<SimulationStats> {
+  Simulation simulation;
+  long first;
+  long last;
+
+  SimulationTask(Simulation simulation, long first, long last) {
+    this.simulation = simulation;
+    this.first = first;
+    this.last = last;
+  }
+
+  // plays the range, or its two halves in parallel
+  protected SimulationStats compute() {
+    if (this.last - this.first <= Simulation.BATCH) {
+      return this.simulation.playRange(this.first, this.last);
+    }
+    long middle = (this.first + this.last) >>> 1;
+    SimulationTask right = new SimulationTask(this.simulation, middle, this.last);
+    right.fork();
+    SimulationStats stats = new SimulationTask(this.simulation, this.first, middle).compute();
+    stats.merge(right.join());
+    return stats;
+  }
+}
+
+
+// runs a simulation from the command line:
+// java RunSimulation width height mines games seed
+class RunSimulation {
+  public static void main(String[] args) {
+    int width = Integer.parseInt(args[0]);
+    int height = Integer.parseInt(args[1]);
+    int mines = Integer.parseInt(args[2]);
+    long games = Long.parseLong(args[3]);
+    long seed = Long.parseLong(args[4]);
+    Simulation simulation = new Simulation(width, height, mines, seed,
+        new SolverStrategy(true), new ReservoirLayout(), true);
+    long start = System.nanoTime();
+    SimulationStats stats = simulation.run(games);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(stats);
+    System.out.println("win rate " + stats.winRate() + ", " + stats.guessesPerGame()
+        + " guesses per game, " + (long) (games / seconds) + " games per second");
+  }
+}
+
+
+class ExamplesSimulation {
+  Simulation beginner = new Simulation(9, 9, 10, 7, new SolverStrategy(true),
+      new ReservoirLayout(), true);
+
+  void testGameSeed(Tester t) {
+    // the seeds are the stream SplittableRandom draws from the same seed
+    SplittableRandom stream = new SplittableRandom(7);
+    for (long game = 0; game < 5; game++) {
+      t.checkExpect(beginner.gameSeed(game), stream.nextLong());
+    }
+  }
+
+  void testSameBoardAsMineSweeper(Tester t) {
+    Simulation sim = new Simulation(8, 6, 9, 3, new RandomStrategy());
+    SimulationWorker worker = new SimulationWorker(sim);
+    // without a safe first click, playing never moves a mine
+    worker.play(sim.gameSeed(4));
+    MineSweeper world = new MineSweeper(9, 8, 6, new Random(sim.gameSeed(4)));
+    for (int i = 0; i < 48; i++) {
+      t.checkExpect(worker.board.isMine(i), world.board.isMine(i));
+      t.checkExpect(worker.board.getValue(i), world.board.getValue(i));
+    }
+  }
+
+  void testStats(Tester t) {
+    SimulationStats stats = new SimulationStats();
+    t.checkExpect(stats.winRate(), 0.0);
+    stats.add(new SolveResult(true, 0, 10));
+    stats.add(new SolveResult(true, 2, 12));
+    stats.add(new SolveResult(false, 1, 3));
+    t.checkExpect(stats.games, 3L);
+    t.checkExpect(stats.wins, 2L);
+    t.checkExpect(stats.winsWithoutGuessing, 1L);
+    t.checkExpect(stats.moves, 25L);
+    t.checkInexact(stats.guessesPerGame(), 1.0, 0.001);
+    SimulationStats more = new SimulationStats();
+    more.add(new SolveResult(true, 0, 1));
+    stats.merge(more);
+    t.checkExpect(stats.games, 4L);
+    t.checkInexact(stats.winRate(), 0.75, 0.001);
+  }
+
+  void testDeterministic(Tester t) {
+    // the totals are the same on one thread, on four, and played in order
+    SimulationStats one = beginner.run(500, new ForkJoinPool(1));
+    SimulationStats four = beginner.run(500, new ForkJoinPool(4));
+    SimulationStats serial = beginner.playRange(0, 500);
+    t.checkExpect(one, four);
+    t.checkExpect(one, serial);
+    t.checkExpect(one.games, 500L);
+    t.checkNumRange(one.winRate(), 0.85, 1.0);
+  }
+
+  void testStrategies(Tester t) {
+    Simulation random = new Simulation(9, 9, 10, 7, new RandomStrategy(),
+        new ReservoirLayout(), true);
+    SimulationStats clicks = random.run(200);
+    SimulationStats solved = beginner.run(200);
+    // random clicking hardly ever wins
+    t.checkExpect(clicks.wins < solved.wins, true);
+    t.checkExpect(clicks.guesses, clicks.moves);
+  }
+
+  void testWorkerReuse(Tester t) {
+    SimulationWorker worker = beginner.workers.get();
+    t.checkExpect(beginner.workers.get() == worker, true);
+    worker.play(beginner.gameSeed(0));
+    // the solver of the last game no longer watches the board
+    t.checkExpect(worker.board.observers.length, 1);
+    SolveResult again = worker.play(beginner.gameSeed(0));
+    SolveResult fresh = new SimulationWorker(beginner).play(beginner.gameSeed(0));
+    t.checkExpect(again, fresh);
+  }
+}
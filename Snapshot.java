@@ -0,0 +1,524 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import tester.*;
+import javalib.worldimages.*;
+
+
+// represents a saved board, and the seed its layout was made from
+//
+// a snapshot file is a header followed by bit planes, all little-endian:
+//   int magic "MSWP", short version, short header size,
+//   int width, int height, int numMines or -1, int flags, long seed, long words per plane,
+//   then the mine, covered and flagged planes, one bit per cell, cell i at bit i % 64 of
+//   long i / 64, then if flags has HAS_VALUES, the values, one nibble per cell, low first
+// files are read and written through a memory map, and the planes are turned into the bytes
+// of a Board, and back, eight cells at a time; boards too big for a Board are streamed
+// through IBoard instead, by writeStreaming and readOffHeap
+class Snapshot {
+  static final int MAGIC = 0x5057534D;
+  static final short VERSION = 1;
+  static final short HEADER_BYTES = 40;
+  static final int HAS_VALUES = 1;
+
+  Board board;
+  long seed;
+
+  Snapshot(Board board, long seed) {
+    this.board = board;
+    this.seed = seed;
+  }
+
+  // returns how many longs a plane of the given number of cells takes
+  static long planeWords(long cells) {
+    return (cells + 63) / 64;
+  }
+
+  // returns how many bytes the snapshot of a board of the given number of cells takes
+  static long fileBytes(long cells) {
+    return HEADER_BYTES + planeWords(cells) * 8 * 3 + (cells + 1) / 2;
+  }
+
+  // Effect: writes the given board and seed to the given file, replacing it
+  static void write(Path path, Board board, long seed) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    try {
+      MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+          fileBytes(board.size));
+      out.order(ByteOrder.LITTLE_ENDIAN);
+      int words = (int) planeWords(board.size);
+      out.putInt(MAGIC);
+      out.putShort(VERSION);
+      out.putShort(HEADER_BYTES);
+      out.putInt(board.width);
+      out.putInt(board.height);
+      out.putInt(board.numMines);
+      out.putInt(HAS_VALUES);
+      out.putLong(seed);
+      out.putLong(words);
+      encode(board, out, words);
+      out.force();
+    } finally {
+      channel.close();
+    }
+  }
+
+  // returns the snapshot saved in the given file
+  static Snapshot read(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long length = channel.size();
+      if (length < HEADER_BYTES) {
+        throw new IllegalArgumentException("Not a minesweeper snapshot");
+      }
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+      SnapshotHeader header = new SnapshotHeader(in, length);
+      if (header.cells > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException("Snapshot is damaged or truncated");
+      }
+
+      Board board = new Board(header.width, header.height);
+      in.position(header.headerBytes);
+      decode(in, board, (int) header.words);
+      return new Snapshot(board, header.seed);
+    } finally {
+      channel.close();
+    }
+  }
+
+  // Effect: writes the given board of any size and seed to the given file, replacing it,
+  // in the same format as write
+  // the board is read cell by cell through IBoard, a plane at a time, and written through a
+  // small buffer, so neither the board nor the file has to fit in memory or in one map;
+  // numMines is written as -1 if it does not fit in an int, which read never looks at
+  static void writeStreaming(Path path, IBoard board, long seed) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    try {
+      long cells = board.cellCount();
+      long words = planeWords(cells);
+      ByteBuffer out = ByteBuffer.allocate(STREAM_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      out.putInt(MAGIC);
+      out.putShort(VERSION);
+      out.putShort(HEADER_BYTES);
+      out.putInt(board.columns());
+      out.putInt(board.rows());
+      out.putInt(board.mineCount() > Integer.MAX_VALUE ? -1 : (int) board.mineCount());
+      out.putInt(HAS_VALUES);
+      out.putLong(seed);
+      out.putLong(words);
+      int[] planeBits = {Board.MINE, Board.COVERED, Board.FLAGGED};
+      for (int bit : planeBits) {
+        for (long w = 0; w < words; w++) {
+          long first = w << 6;
+          int count = (int) Math.min(64, cells - first);
+          long plane = 0;
+          for (int j = 0; j < count; j++) {
+            if ((board.cellState(first + j) & bit) != 0) {
+              plane |= 1L << j;
+            }
+          }
+          drainIfFull(channel, out, 8);
+          out.putLong(plane);
+        }
+      }
+      for (long i = 0; i < cells; i += 2) {
+        drainIfFull(channel, out, 1);
+        out.put((byte) (safeValue(board, i) | (i + 1 < cells ? safeValue(board, i + 1) : 0)
+            << 4));
+      }
+      drainIfFull(channel, out, STREAM_BYTES);
+      channel.force(false);
+    } finally {
+      channel.close();
+    }
+  }
+
+  // returns the snapshot in the given file as a board kept in the given storage file, for
+  // snapshots of any size
+  // the planes are read through small buffers and the values, which an off-heap board
+  // counts when asked, are skipped
+  static OffHeapBoard readOffHeap(Path path, Path storage) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      long length = channel.size();
+      if (length < HEADER_BYTES) {
+        throw new IllegalArgumentException("Not a minesweeper snapshot");
+      }
+      SnapshotHeader header = new SnapshotHeader(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES), length);
+      OffHeapBoard board = OffHeapBoard.mapped(header.width, header.height, storage);
+      ByteBuffer[] planes = new ByteBuffer[3];
+      for (int p = 0; p < 3; p++) {
+        planes[p] = ByteBuffer.allocate(STREAM_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        planes[p].flip();
+      }
+      long[] bits = new long[3];
+      for (long w = 0; w < header.words; w++) {
+        for (int p = 0; p < 3; p++) {
+          if (!planes[p].hasRemaining()) {
+            planes[p].clear();
+            long at = header.headerBytes + (p * header.words + w) * 8;
+            planes[p].limit((int) Math.min(STREAM_BYTES, (header.words - w) * 8));
+            while (planes[p].hasRemaining()) {
+              channel.read(planes[p], at + planes[p].position());
+            }
+            planes[p].flip();
+          }
+          bits[p] = planes[p].getLong();
+        }
+        long first = w << 6;
+        int count = (int) Math.min(64, header.cells - first);
+        long flagged = bits[2] & bits[1];
+        for (int j = 0; j < count; j++) {
+          board.setCellState(first + j, (int) (bits[0] >>> j & 1) << 4
+              | (int) (bits[1] >>> j & 1) << 5
+              | (int) (flagged >>> j & 1) << 6);
+        }
+      }
+      board.recount();
+      return board;
+    } finally {
+      channel.close();
+    }
+  }
+
+  // how many bytes are streamed through a buffer at a time
+  static final int STREAM_BYTES = 1 << 16;
+
+  // returns the value a snapshot keeps for the given cell, 0 for a mine
+  static int safeValue(IBoard board, long idx) {
+    return (board.cellState(idx) & Board.MINE) != 0 ? 0 : board.cellValue(idx);
+  }
+
+  // Effect: writes out what the given buffer holds if it has less than the given room left
+  static void drainIfFull(FileChannel channel, ByteBuffer out, int room) throws IOException {
+    if (out.remaining() < room) {
+      out.flip();
+      while (out.hasRemaining()) {
+        channel.write(out);
+      }
+      out.clear();
+    }
+  }
+
+  // how many words of cells are encoded or decoded between bulk copies of their values
+  static final int CHUNK_WORDS = 2048;
+  // reads and writes eight cells of a byte array as one long
+  static final VarHandle EIGHT_CELLS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  // the low bit of each byte of eight cells, and the multiplier that gathers those eight
+  // bits into the top byte of a long without any two of them colliding
+  static final long LOW_BITS = 0x0101010101010101L;
+  static final long GATHER = 0x0102040810204080L;
+  // SPREAD[b]: the eight bits of b, bit k moved to the low bit of byte k
+  static final long[] SPREAD = new long[256];
+  // NIBBLES[b]: the two nibbles of b, low one in byte 0 and high one in byte 1
+  static final long[] NIBBLES = new long[256];
+
+  static {
+    for (int b = 0; b < 256; b++) {
+      for (int k = 0; k < 8; k++) {
+        if ((b >>> k & 1) != 0) {
+          SPREAD[b] |= 1L << (k * 8);
+        }
+      }
+      NIBBLES[b] = (b & 0xF) | (long) (b >>> 4) << 8;
+    }
+  }
+
+  // returns the eight bits at the given bit of each byte of eight cells, as one byte
+  static long gather(long eightCells, int bit) {
+    return ((eightCells >>> bit) & LOW_BITS) * GATHER >>> 56;
+  }
+
+  // Effect: writes the planes and values of the board from the position of the given buffer
+  static void encode(Board board, ByteBuffer out, int words) {
+    LongBuffer planes = out.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    int valuesAt = out.position() + words * 24;
+    byte[] cells = board.cells;
+    byte[] values = new byte[CHUNK_WORDS * 32];
+    for (int w = 0; w < words; w++) {
+      int first = w << 6;
+      int count = Math.min(64, board.size - first);
+      int v = (w % CHUNK_WORDS) * 32;
+      long mines = 0;
+      long covered = 0;
+      long flagged = 0;
+      if (count == 64) {
+        for (int k = 0; k < 8; k++) {
+          long eight = (long) EIGHT_CELLS.get(cells, first + (k << 3));
+          mines |= gather(eight, 4) << (k << 3);
+          covered |= gather(eight, 5) << (k << 3);
+          flagged |= gather(eight, 6) << (k << 3);
+          // byte 2i of pairs holds cell 2i in its low nibble and cell 2i + 1 in its high one
+          long nibbles = eight & 0x0F0F0F0F0F0F0F0FL;
+          long pairs = nibbles | nibbles >>> 4;
+          int at = v + (k << 2);
+          values[at] = (byte) pairs;
+          values[at + 1] = (byte) (pairs >>> 16);
+          values[at + 2] = (byte) (pairs >>> 32);
+          values[at + 3] = (byte) (pairs >>> 48);
+        }
+      } else {
+        for (int j = 0; j < count; j++) {
+          int state = cells[first + j];
+          mines |= (long) (state >>> 4 & 1) << j;
+          covered |= (long) (state >>> 5 & 1) << j;
+          flagged |= (long) (state >>> 6 & 1) << j;
+          int value = state & Board.VALUE_MASK;
+          if ((j & 1) == 0) {
+            values[v + (j >>> 1)] = (byte) value;
+          } else {
+            values[v + (j >>> 1)] |= (byte) (value << 4);
+          }
+        }
+      }
+      planes.put(w, mines);
+      planes.put(words + w, covered);
+      planes.put(2 * words + w, flagged);
+
+      if (w % CHUNK_WORDS == CHUNK_WORDS - 1 || w == words - 1) {
+        int chunkStart = w - w % CHUNK_WORDS;
+        int bytes = (Math.min(board.size, first + 64) - (chunkStart << 6) + 1) / 2;
+        out.put(valuesAt + chunkStart * 32, values, 0, bytes);
+      }
+    }
+  }
+
+  // Effect: fills in the cells and counters of the board from the planes and values that
+  // start at the position of the given buffer
+  static void decode(ByteBuffer in, Board board, int words) {
+    LongBuffer planes = in.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    int valuesAt = in.position() + words * 24;
+    int valueBytes = (board.size + 1) / 2;
+    byte[] cells = board.cells;
+    byte[] values = new byte[CHUNK_WORDS * 32];
+    int numMines = 0;
+    int coveredSafe = 0;
+    int minesRevealed = 0;
+    int flagsPlaced = 0;
+    for (int w = 0; w < words; w++) {
+      if (w % CHUNK_WORDS == 0) {
+        in.get(valuesAt + w * 32, values, 0, Math.min(values.length, valueBytes - w * 32));
+      }
+      long mines = planes.get(w);
+      long covered = planes.get(words + w);
+      long flagged = planes.get(2 * words + w);
+      int first = w << 6;
+      int count = Math.min(64, board.size - first);
+      long inBoard = -1L >>> (64 - count);
+      mines &= inBoard;
+      covered &= inBoard;
+      flagged &= inBoard & covered;
+      numMines += Long.bitCount(mines);
+      minesRevealed += Long.bitCount(mines & ~covered);
+      coveredSafe += Long.bitCount(covered & ~mines);
+      flagsPlaced += Long.bitCount(flagged);
+
+      int v = (w % CHUNK_WORDS) * 32;
+      if (count == 64) {
+        for (int k = 0; k < 8; k++) {
+          int shift = k << 3;
+          int at = v + (k << 2);
+          long eight = NIBBLES[values[at] & 0xFF]
+              | NIBBLES[values[at + 1] & 0xFF] << 16
+              | NIBBLES[values[at + 2] & 0xFF] << 32
+              | NIBBLES[values[at + 3] & 0xFF] << 48
+              | SPREAD[(int) (mines >>> shift) & 0xFF] << 4
+              | SPREAD[(int) (covered >>> shift) & 0xFF] << 5
+              | SPREAD[(int) (flagged >>> shift) & 0xFF] << 6;
+          EIGHT_CELLS.set(cells, first + shift, eight);
+        }
+      } else {
+        for (int j = 0; j < count; j++) {
+          int value = values[v + (j >>> 1)] >> ((j & 1) << 2) & Board.VALUE_MASK;
+          cells[first + j] = (byte) (value
+              | (int) (mines >>> j & 1) << 4
+              | (int) (covered >>> j & 1) << 5
+              | (int) (flagged >>> j & 1) << 6);
+        }
+      }
+    }
+    board.numMines = numMines;
+    board.coveredSafe = coveredSafe;
+    board.minesRevealed = minesRevealed;
+    board.flagsPlaced = flagsPlaced;
+  }
+}
+
+
+class ExamplesSnapshot {
+
+  // returns a new temporary file
+  Path tempFile() {
+    try {
+      Path path = Files.createTempFile("minesweeper", ".snap");
+      path.toFile().deleteOnExit();
+      return path;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // returns the snapshot read back from writing the given board and seed
+  Snapshot roundTrip(Board board, long seed) {
+    Path path = this.tempFile();
+    try {
+      Snapshot.write(path, board, seed);
+      return Snapshot.read(path);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  void testRoundTrip(Tester t) {
+    GameEngine engine = new GameEngine(5, 5, 5, 1L, false);
+    engine.reveal(0, 0);
+    engine.reveal(4, 4);
+    engine.flag(1, 1);
+    engine.flag(3, 0);
+    Snapshot back = roundTrip(engine.board, engine.seed);
+    t.checkExpect(back.seed, 1L);
+    t.checkExpect(back.board.cells, engine.board.cells);
+    t.checkExpect(back.board.status(), engine.board.status());
+
+    // every width leaves a different part of the last word unused
+    for (int width = 1; width <= 9; width++) {
+      Board board = new GameEngine(width * 3, width, 11, 5L, false).board;
+      board.uncover(0);
+      board.flag(board.size - 1);
+      Snapshot copy = roundTrip(board, -7);
+      t.checkExpect(copy.board.cells, board.cells);
+      t.checkExpect(copy.board.status(), board.status());
+      t.checkExpect(copy.seed, -7L);
+    }
+  }
+
+  void testLargeBoard(Tester t) {
+    Board board = new Board(2000, 2000);
+    new ReservoirLayout().placeMines(board, 600000, new Random(3), new int[0]);
+    board.updateValues();
+    board.uncover(board.index(1000, 1000));
+    Snapshot back = roundTrip(board, 3);
+    t.checkExpect(back.board.status(), board.status());
+    t.checkExpect(java.util.Arrays.equals(back.board.cells, board.cells), true);
+  }
+
+  void testFileSize(Tester t) {
+    Path path = this.tempFile();
+    try {
+      Snapshot.write(path, new Board(100, 100), 0);
+      t.checkExpect(Files.size(path), 40L + 157 * 24 + 5000);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    t.checkExpect(Snapshot.fileBytes(9), 40L + 24 + 5);
+    t.checkExpect(Snapshot.planeWords(64), 1L);
+    t.checkExpect(Snapshot.planeWords(65), 2L);
+  }
+
+  void testBadFiles(Tester t) {
+    Path path = this.tempFile();
+    try {
+      Files.write(path, new byte[] {1, 2, 3});
+      t.checkException(new IllegalArgumentException("Not a minesweeper snapshot"),
+          new SnapshotReader(), "read", path);
+      Files.write(path, new byte[64]);
+      t.checkException(new IllegalArgumentException("Not a minesweeper snapshot"),
+          new SnapshotReader(), "read", path);
+
+      Snapshot.write(path, new Board(10, 10), 0);
+      byte[] bytes = Files.readAllBytes(path);
+      Files.write(path, java.util.Arrays.copyOf(bytes, bytes.length - 1));
+      t.checkException(new IllegalArgumentException("Snapshot is damaged or truncated"),
+          new SnapshotReader(), "read", path);
+      bytes[4] = 2;
+      Files.write(path, bytes);
+      t.checkException(new IllegalArgumentException("Unsupported snapshot version 2"),
+          new SnapshotReader(), "read", path);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  void testResume(Tester t) {
+    MineSweeper game = new MineSweeper(5, 5, 5, 1L);
+    MineSweeper same = new MineSweeper(5, 5, 5, new Random(1));
+    t.checkExpect(game.board.cells, same.board.cells);
+    t.checkExpect(game.engine.seed, 1L);
+    t.checkExpect(same.engine.seed, GameEngine.NO_SEED);
+
+    game.onMousePressed(new Posn(90, 90), "LeftButton");
+    game.onMousePressed(new Posn(30, 30), "RightButton");
+    Path path = this.tempFile();
+    try {
+      game.save(path);
+      MineSweeper resumed = new MineSweeper(Snapshot.read(path));
+      t.checkExpect(resumed.board.cells, game.board.cells);
+      t.checkExpect(resumed.status(), game.status());
+      t.checkExpect(resumed.engine.seed, 1L);
+      t.checkExpect(resumed.cells.get(6).isFlagged(), true);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
+
+
+// represents the header of a snapshot file, checked as it is read
+class SnapshotHeader {
+  int width;
+  int height;
+  long seed;
+  long words;
+  long cells;
+  short headerBytes;
+
+  // reads the header at the start of the given buffer, from a file of the given length
+  SnapshotHeader(ByteBuffer in, long length) {
+    in.order(ByteOrder.LITTLE_ENDIAN);
+    if (in.getInt() != Snapshot.MAGIC) {
+      throw new IllegalArgumentException("Not a minesweeper snapshot");
+    }
+    short version = in.getShort();
+    if (version != Snapshot.VERSION) {
+      throw new IllegalArgumentException("Unsupported snapshot version " + version);
+    }
+    this.headerBytes = in.getShort();
+    this.width = in.getInt();
+    this.height = in.getInt();
+    in.getInt();
+    int flags = in.getInt();
+    this.seed = in.getLong();
+    this.words = in.getLong();
+    this.cells = (long) this.width * this.height;
+    if (this.width < 0 || this.height < 0 || this.words != Snapshot.planeWords(this.cells)
+        || (flags & Snapshot.HAS_VALUES) == 0
+        || length < Snapshot.fileBytes(this.cells) - Snapshot.HEADER_BYTES + this.headerBytes) {
+      throw new IllegalArgumentException("Snapshot is damaged or truncated");
+    }
+  }
+}
+
+
+// reads snapshots for the tester, which checks exceptions thrown by methods of an object
+class SnapshotReader {
+
+  // returns the snapshot saved in the given file
+  Snapshot read(Path path) throws IOException {
+    return Snapshot.read(path);
+  }
+}
@@ -0,0 +1,861 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import tester.*;
+
+
+// represents a player that works out where the mines are from what is uncovered
+// it only reads covered cells and the values of uncovered cells, never the hidden mines
+//
+// deductions are made from a queue of uncovered numbers whose surroundings changed: when a
+// cell is uncovered or its fate becomes known, only the numbers around it are looked at
+// again. each number is tried on its own (all its unknown neighbors are safe, or all are
+// mines), then against every number up to two cells away (the neighbors one has and the
+// other does not must hold the difference of their mines)
+// when that runs dry, every group of unknown cells tied together by numbers is enumerated
+// exactly, weighted by the ways the rest of the mines fit in the cells no number touches,
+// which gives the chance of a mine under every covered cell
+class Solver implements ICellObserver {
+  static final byte UNKNOWN = 0;
+  static final byte SAFE = 1;
+  static final byte MINE = 2;
+  // groups bigger than this, or that take more steps than this to enumerate, are estimated
+  static final int MAX_GROUP = 40;
+  static final long MAX_STEPS = 1L << 21;
+
+  Board board;
+  byte[] knowledge;
+  long[] queued;
+  IntQueue pending;
+  IntQueue safeCells;
+  int knownMines;
+  // the chance of a mine under the cell the last guess picked
+  double lastChance;
+
+  // scratch space, so that deductions do not allocate, with room for every neighbor
+  int[] around;
+  int[] unknownA;
+  int[] unknownB;
+  int[] onlyA;
+  int[] onlyB;
+
+  Solver(Board board) {
+    this.board = board;
+    int degree = board.topology.maxDegree();
+    this.around = new int[degree];
+    this.unknownA = new int[degree];
+    this.unknownB = new int[degree];
+    this.onlyA = new int[degree];
+    this.onlyB = new int[degree];
+    this.knowledge = new byte[board.size];
+    this.queued = new long[(board.size + 63) / 64];
+    this.pending = new IntQueue();
+    this.safeCells = new IntQueue();
+    board.addObserver(this);
+    for (int i = 0; i < board.size; i++) {
+      if (!board.isCovered(i)) {
+        this.enqueue(i);
+      }
+    }
+  }
+
+  // Effect: when a cell is uncovered, looks again at it and the numbers around it
+  public void cellChanged(int idx) {
+    if (!this.board.isCovered(idx)) {
+      this.touch(idx);
+    }
+  }
+
+  // Effect: queues the numbers around the given cell, and the cell itself, to be looked at
+  void touch(int idx) {
+    if (!this.board.isCovered(idx)) {
+      this.enqueue(idx);
+    }
+    int count = this.board.neighbors(idx, this.around);
+    for (int i = 0; i < count; i++) {
+      if (!this.board.isCovered(this.around[i])) {
+        this.enqueue(this.around[i]);
+      }
+    }
+  }
+
+  // Effect: queues the given uncovered cell, once
+  void enqueue(int idx) {
+    long bit = 1L << idx;
+    if ((this.queued[idx >>> 6] & bit) == 0) {
+      this.queued[idx >>> 6] |= bit;
+      this.pending.add(idx);
+    }
+  }
+
+  // is the given cell covered with nothing known about it?
+  boolean isUnknown(int idx) {
+    return this.board.isCovered(idx) && this.knowledge[idx] == UNKNOWN;
+  }
+
+  // Effect: writes the unknown neighbors of the given cell into out
+  // returns how many there are
+  int unknownAround(int idx, int[] out) {
+    int count = this.board.neighbors(idx, this.around);
+    int unknown = 0;
+    for (int i = 0; i < count; i++) {
+      if (this.isUnknown(this.around[i])) {
+        out[unknown++] = this.around[i];
+      }
+    }
+    return unknown;
+  }
+
+  // returns how many mines around the given uncovered cell are not known yet
+  int minesLeftAround(int idx) {
+    int count = this.board.neighbors(idx, this.around);
+    int left = this.board.getValue(idx);
+    for (int i = 0; i < count; i++) {
+      if (this.knowledge[this.around[i]] == MINE) {
+        left--;
+      }
+    }
+    return left;
+  }
+
+  // Effect: records that the given cell is safe
+  void markSafe(int idx) {
+    if (this.knowledge[idx] == UNKNOWN) {
+      this.knowledge[idx] = SAFE;
+      this.safeCells.add(idx);
+      this.touch(idx);
+    }
+  }
+
+  // Effect: records that the given cell is a mine
+  void markMine(int idx) {
+    if (this.knowledge[idx] == UNKNOWN) {
+      this.knowledge[idx] = MINE;
+      this.knownMines++;
+      this.touch(idx);
+    }
+  }
+
+  // Effect: makes every deduction the queued numbers allow
+  void propagate() {
+    while (!this.pending.isEmpty()) {
+      int a = this.pending.remove();
+      this.queued[a >>> 6] &= ~(1L << a);
+      if (this.board.isCovered(a) || this.board.isMine(a)) {
+        continue;
+      }
+      int unknown = this.unknownAround(a, this.unknownA);
+      if (unknown == 0) {
+        continue;
+      }
+      int left = this.minesLeftAround(a);
+      if (left == 0) {
+        for (int i = 0; i < unknown; i++) {
+          this.markSafe(this.unknownA[i]);
+        }
+      } else if (left == unknown) {
+        for (int i = 0; i < unknown; i++) {
+          this.markMine(this.unknownA[i]);
+        }
+      } else {
+        this.comparePairs(a, unknown, left);
+      }
+    }
+  }
+
+  // Effect: compares the given number with every number up to two cells away, and records
+  // what the cells only one of them touches must be
+  // distance is by row and column, so on a topology that wraps or stacks some pairs are
+  // never compared; that only means fewer deductions, never a wrong one
+  void comparePairs(int a, int unknown, int left) {
+    int row = a / this.board.width;
+    int column = a - row * this.board.width;
+    for (int r = Math.max(0, row - 2); r <= Math.min(this.board.height - 1, row + 2); r++) {
+      for (int c = Math.max(0, column - 2); c <= Math.min(this.board.width - 1, column + 2);
+          c++) {
+        int b = r * this.board.width + c;
+        if (b != a && !this.board.isCovered(b) && !this.board.isMine(b)
+            && this.comparePair(a, unknown, left, b)) {
+          return;
+        }
+      }
+    }
+  }
+
+  // Effect: compares the numbers a and b, recording what can be deduced
+  // returns whether anything was deduced
+  boolean comparePair(int a, int unknownCountA, int leftA, int b) {
+    int unknownCountB = this.unknownAround(b, this.unknownB);
+    if (unknownCountB == 0) {
+      return false;
+    }
+    int leftB = this.minesLeftAround(b);
+    int countOnlyA = this.difference(this.unknownA, unknownCountA, this.unknownB,
+        unknownCountB, this.onlyA);
+    int countOnlyB = this.difference(this.unknownB, unknownCountB, this.unknownA,
+        unknownCountA, this.onlyB);
+    if (countOnlyA == unknownCountA) {
+      // nothing shared, so nothing to learn
+      return false;
+    }
+
+    // the mines only b touches, less the mines only a touches, is leftB - leftA
+    if (countOnlyB > 0 && leftB - leftA == countOnlyB) {
+      this.markAll(this.onlyB, countOnlyB, MINE);
+      this.markAll(this.onlyA, countOnlyA, SAFE);
+      return true;
+    } else if (countOnlyA > 0 && leftA - leftB == countOnlyA) {
+      this.markAll(this.onlyA, countOnlyA, MINE);
+      this.markAll(this.onlyB, countOnlyB, SAFE);
+      return true;
+    } else if (countOnlyA == 0 && countOnlyB > 0 && leftA == leftB) {
+      this.markAll(this.onlyB, countOnlyB, SAFE);
+      return true;
+    } else if (countOnlyB == 0 && countOnlyA > 0 && leftA == leftB) {
+      this.markAll(this.onlyA, countOnlyA, SAFE);
+      return true;
+    }
+    return false;
+  }
+
+  // Effect: writes the cells of first that are not in second into out
+  // returns how many there are
+  int difference(int[] first, int firstCount, int[] second, int secondCount, int[] out) {
+    int count = 0;
+    for (int i = 0; i < firstCount; i++) {
+      boolean shared = false;
+      for (int j = 0; j < secondCount && !shared; j++) {
+        shared = first[i] == second[j];
+      }
+      if (!shared) {
+        out[count++] = first[i];
+      }
+    }
+    return count;
+  }
+
+  // Effect: records the given cells as safe or mines
+  void markAll(int[] cells, int count, byte fate) {
+    for (int i = 0; i < count; i++) {
+      if (fate == SAFE) {
+        this.markSafe(cells[i]);
+      } else {
+        this.markMine(cells[i]);
+      }
+    }
+  }
+
+  // returns a covered cell known to be safe, or -1 if there is none
+  int nextSafe() {
+    while (!this.safeCells.isEmpty()) {
+      int idx = this.safeCells.remove();
+      if (this.board.isCovered(idx)) {
+        return idx;
+      }
+    }
+    return -1;
+  }
+
+  // returns the covered cell least likely to be a mine, after recording every cell the
+  // enumeration proves safe or a mine; a proven safe cell is returned when there is one
+  // Effect: sets lastChance to the chance of a mine under the returned cell
+  // returns -1 if no covered cell is unknown
+  int guess() {
+    Chances chances = new ChanceCounter(this).count();
+    for (int i = 0; i < chances.cells.length; i++) {
+      if (chances.mineChance[i] <= 0) {
+        this.markSafe(chances.cells[i]);
+      } else if (chances.mineChance[i] >= 1) {
+        this.markMine(chances.cells[i]);
+      }
+    }
+    int safe = this.nextSafe();
+    if (safe >= 0) {
+      this.lastChance = 0;
+      return safe;
+    }
+
+    int best = -1;
+    double bestChance = 2;
+    for (int i = 0; i < chances.cells.length; i++) {
+      if (this.isUnknown(chances.cells[i]) && chances.mineChance[i] < bestChance) {
+        best = chances.cells[i];
+        bestChance = chances.mineChance[i];
+      }
+    }
+    if (chances.interiorCell >= 0 && chances.interiorChance < bestChance) {
+      best = chances.interiorCell;
+      bestChance = chances.interiorChance;
+    }
+    this.lastChance = bestChance;
+    return best;
+  }
+
+  // plays the engine's game from the given first cell until it is over, uncovering the
+  // cells it can prove safe and, if allowed, guessing the least likely mine when stuck
+  // stops when it is stuck and may not guess
+  SolveResult play(GameEngine engine, int first, boolean allowGuesses) {
+    int guesses = 0;
+    int moves = 1;
+    engine.revealAt(first);
+    while (!this.board.isOver()) {
+      this.propagate();
+      int next = this.nextSafe();
+      if (next < 0) {
+        next = this.guess();
+        if (next < 0) {
+          break;
+        }
+        if (this.lastChance > 0) {
+          if (!allowGuesses) {
+            break;
+          }
+          guesses++;
+        }
+      }
+      engine.revealAt(next);
+      moves++;
+    }
+    return new SolveResult(this.board.status().isWon(), guesses, moves);
+  }
+}
+
+
+// represents the chance of a mine under each covered cell next to a number, and under the
+// covered cells no number touches, one of which is named as interiorCell (-1 if none)
+class Chances {
+  int[] cells;
+  double[] mineChance;
+  int interiorCell;
+  double interiorChance;
+
+  Chances(int[] cells, double[] mineChance, int interiorCell, double interiorChance) {
+    this.cells = cells;
+    this.mineChance = mineChance;
+    this.interiorCell = interiorCell;
+    this.interiorChance = interiorChance;
+  }
+}
+
+
+// counts, for the unknown cells a solver sees, how many layouts put a mine under each one
+class ChanceCounter {
+  Solver solver;
+  Board board;
+
+  // the group of every frontier cell, -1 for cells in no group
+  int[] groupOf;
+  // the cells and numbers of the group being built
+  IntList groupCells;
+  IntList groupNumbers;
+  int[] localId;
+  // where each frontier cell sits in the list of chances
+  int[] positionOf;
+  long steps;
+
+  ChanceCounter(Solver solver) {
+    this.solver = solver;
+    this.board = solver.board;
+  }
+
+  // returns the chances of a mine under every unknown cell
+  Chances count() {
+    int[] around = new int[this.board.topology.maxDegree()];
+    this.groupOf = new int[this.board.size];
+    this.localId = new int[this.board.size];
+    this.positionOf = new int[this.board.size];
+    Arrays.fill(this.groupOf, -1);
+
+    // finds the frontier, and the cells no number touches
+    IntList frontier = new IntList();
+    int interior = 0;
+    int interiorCell = -1;
+    for (int i = 0; i < this.board.size; i++) {
+      if (this.solver.isUnknown(i)) {
+        boolean touched = false;
+        int count = this.board.neighbors(i, around);
+        for (int j = 0; j < count && !touched; j++) {
+          touched = !this.board.isCovered(around[j]);
+        }
+        if (touched) {
+          this.positionOf[i] = frontier.size();
+          frontier.add(i);
+        } else {
+          interior++;
+          if (interiorCell < 0) {
+            interiorCell = i;
+          }
+        }
+      }
+    }
+
+    // splits the frontier into groups and enumerates each of them
+    ArrayList<GroupCount> groups = new ArrayList<GroupCount>();
+    boolean exact = true;
+    for (int i = 0; i < frontier.size(); i++) {
+      if (this.groupOf[frontier.get(i)] < 0) {
+        GroupCount group = this.enumerate(this.collectGroup(frontier.get(i), groups.size()));
+        groups.add(group);
+        exact = exact && group.exact;
+      }
+    }
+
+    int minesLeft = this.board.numMines - this.solver.knownMines;
+    int[] cells = frontier.toArray();
+    double[] chance = new double[cells.length];
+    double interiorChance;
+    if (exact) {
+      interiorChance = this.exactChances(groups, interior, minesLeft, chance);
+    } else {
+      interiorChance = this.estimateChances(groups, interior, minesLeft, chance);
+    }
+    return new Chances(cells, chance, interiorCell, interiorChance);
+  }
+
+  // Effect: gathers the cells and numbers tied to the given frontier cell into a new group
+  // returns the group
+  GroupCount collectGroup(int start, int id) {
+    int[] around = new int[this.board.topology.maxDegree()];
+    int[] unknown = new int[this.board.topology.maxDegree()];
+    this.groupCells = new IntList();
+    this.groupNumbers = new IntList();
+    HashSet<Integer> numbers = new HashSet<Integer>();
+    this.groupOf[start] = id;
+    this.groupCells.add(start);
+    for (int next = 0; next < this.groupCells.size(); next++) {
+      int count = this.board.neighbors(this.groupCells.get(next), around);
+      for (int i = 0; i < count; i++) {
+        int number = around[i];
+        if (!this.board.isCovered(number) && numbers.add(number)) {
+          this.groupNumbers.add(number);
+          int unknownCount = this.solver.unknownAround(number, unknown);
+          for (int j = 0; j < unknownCount; j++) {
+            if (this.groupOf[unknown[j]] < 0) {
+              this.groupOf[unknown[j]] = id;
+              this.groupCells.add(unknown[j]);
+            }
+          }
+        }
+      }
+    }
+    GroupCount group = new GroupCount(this.groupCells.toArray(), this.groupNumbers.toArray());
+    group.frontierPosition = new int[group.cells.length];
+    for (int i = 0; i < group.cells.length; i++) {
+      group.frontierPosition[i] = this.positionOf[group.cells[i]];
+    }
+    return group;
+  }
+
+  // returns the given group with its layouts counted by how many mines they hold
+  GroupCount enumerate(GroupCount group) {
+    int size = group.cells.length;
+    if (size > Solver.MAX_GROUP) {
+      group.exact = false;
+      this.estimateGroup(group);
+      return group;
+    }
+    for (int i = 0; i < size; i++) {
+      this.localId[group.cells[i]] = i;
+    }
+
+    // what each number needs, and which numbers each cell touches
+    int[] unknown = new int[this.board.topology.maxDegree()];
+    int numbers = group.numbers.length;
+    int[] needed = new int[numbers];
+    int[] open = new int[numbers];
+    int[][] numbersOf = new int[size][];
+    int[] numbersOfCount = new int[size];
+    for (int i = 0; i < size; i++) {
+      numbersOf[i] = new int[unknown.length];
+    }
+    for (int n = 0; n < numbers; n++) {
+      needed[n] = this.solver.minesLeftAround(group.numbers[n]);
+      int unknownCount = this.solver.unknownAround(group.numbers[n], unknown);
+      open[n] = unknownCount;
+      for (int j = 0; j < unknownCount; j++) {
+        int cell = this.localId[unknown[j]];
+        numbersOf[cell][numbersOfCount[cell]++] = n;
+      }
+    }
+
+    group.layouts = new double[size + 1];
+    group.minesUnder = new double[size + 1][size];
+    this.steps = 0;
+    boolean finished = this.search(group, 0, 0, new boolean[size], needed, open, new int[numbers],
+        numbersOf, numbersOfCount);
+    if (!finished) {
+      group.exact = false;
+      this.estimateGroup(group);
+    }
+    return group;
+  }
+
+  // Effect: tries both fates for the cell at the given position of the group and every cell
+  // after it, counting each layout that satisfies every number
+  // returns false if it ran out of steps
+  boolean search(GroupCount group, int position, int mines, boolean[] isMine, int[] needed,
+      int[] open, int[] placed, int[][] numbersOf, int[] numbersOfCount) {
+    this.steps++;
+    if (this.steps > Solver.MAX_STEPS) {
+      return false;
+    }
+    if (position == group.cells.length) {
+      group.layouts[mines]++;
+      for (int i = 0; i < group.cells.length; i++) {
+        if (isMine[i]) {
+          group.minesUnder[mines][i]++;
+        }
+      }
+      return true;
+    }
+
+    int[] touching = numbersOf[position];
+    int touchingCount = numbersOfCount[position];
+    for (int i = 0; i < touchingCount; i++) {
+      open[touching[i]]--;
+    }
+
+    // safe: every number must still be able to get its mines
+    boolean fits = true;
+    for (int i = 0; i < touchingCount && fits; i++) {
+      int n = touching[i];
+      fits = placed[n] + open[n] >= needed[n];
+    }
+    boolean finished = true;
+    if (fits) {
+      finished = this.search(group, position + 1, mines, isMine, needed, open, placed,
+          numbersOf, numbersOfCount);
+    }
+
+    // mine: no number may get more than it needs
+    fits = true;
+    for (int i = 0; i < touchingCount; i++) {
+      placed[touching[i]]++;
+      fits = fits && placed[touching[i]] <= needed[touching[i]];
+    }
+    if (fits && finished) {
+      isMine[position] = true;
+      finished = this.search(group, position + 1, mines + 1, isMine, needed, open, placed,
+          numbersOf, numbersOfCount);
+      isMine[position] = false;
+    }
+    for (int i = 0; i < touchingCount; i++) {
+      placed[touching[i]]--;
+      open[touching[i]]++;
+    }
+    return finished;
+  }
+
+  // Effect: estimates the chance of each cell of the group from the numbers around it alone
+  void estimateGroup(GroupCount group) {
+    int[] unknown = new int[this.board.topology.maxDegree()];
+    group.estimate = new double[group.cells.length];
+    for (int i = 0; i < group.cells.length; i++) {
+      this.localId[group.cells[i]] = i;
+    }
+    for (int number : group.numbers) {
+      int unknownCount = this.solver.unknownAround(number, unknown);
+      double share = (double) this.solver.minesLeftAround(number) / unknownCount;
+      for (int j = 0; j < unknownCount; j++) {
+        int cell = this.localId[unknown[j]];
+        group.estimate[cell] = Math.max(group.estimate[cell], share);
+      }
+    }
+  }
+
+  // Effect: fills in the exact chance of every frontier cell
+  // returns the chance of a mine under a cell no number touches
+  double exactChances(ArrayList<GroupCount> groups, int interior, int minesLeft,
+      double[] chance) {
+    int frontierSize = 0;
+    for (GroupCount group : groups) {
+      frontierSize += group.cells.length;
+    }
+
+    // weight[x]: how many ways, relative to each other, the mines not on the frontier fit in
+    // the interior when the frontier holds x of them, i.e. choose(interior, minesLeft - x)
+    double[] weight = new double[frontierSize + 1];
+    double[] logWeight = new double[frontierSize + 1];
+    double maxLog = Double.NEGATIVE_INFINITY;
+    for (int x = 0; x <= frontierSize; x++) {
+      logWeight[x] = this.logChoose(interior, minesLeft - x);
+      maxLog = Math.max(maxLog, logWeight[x]);
+    }
+    for (int x = 0; x <= frontierSize; x++) {
+      weight[x] = Math.exp(logWeight[x] - maxLog);
+    }
+
+    // the layouts of all groups but one, by mine count
+    double total = 0;
+    double interiorMines = 0;
+    double[] all = this.convolveAllBut(groups, -1);
+    for (int x = 0; x < all.length; x++) {
+      total += all[x] * weight[x];
+      interiorMines += all[x] * weight[x] * (minesLeft - x);
+    }
+    if (total <= 0) {
+      return this.estimateChances(groups, interior, minesLeft, chance);
+    }
+
+    for (int g = 0; g < groups.size(); g++) {
+      GroupCount group = groups.get(g);
+      double[] others = this.convolveAllBut(groups, g);
+      for (int k = 0; k < group.layouts.length; k++) {
+        double ways = 0;
+        for (int x = 0; x < others.length && k + x < weight.length; x++) {
+          ways += others[x] * weight[k + x];
+        }
+        for (int i = 0; i < group.cells.length; i++) {
+          chance[group.frontierPosition[i]] += group.minesUnder[k][i] * ways;
+        }
+      }
+    }
+    for (int i = 0; i < chance.length; i++) {
+      chance[i] /= total;
+    }
+    if (interior == 0) {
+      return 1;
+    }
+    return interiorMines / total / interior;
+  }
+
+  // returns the number of layouts of every group but the given one, by mine count
+  double[] convolveAllBut(ArrayList<GroupCount> groups, int skip) {
+    double[] result = new double[] {1};
+    for (int g = 0; g < groups.size(); g++) {
+      if (g != skip) {
+        double[] layouts = groups.get(g).layouts;
+        double[] next = new double[result.length + layouts.length - 1];
+        for (int a = 0; a < result.length; a++) {
+          for (int b = 0; b < layouts.length; b++) {
+            next[a + b] += result[a] * layouts[b];
+          }
+        }
+        result = next;
+      }
+    }
+    return result;
+  }
+
+  // Effect: fills in an estimated chance of every frontier cell
+  // returns the estimated chance of a mine under a cell no number touches
+  double estimateChances(ArrayList<GroupCount> groups, int interior, int minesLeft,
+      double[] chance) {
+    double expected = 0;
+    for (GroupCount group : groups) {
+      if (group.estimate == null) {
+        this.estimateGroup(group);
+      }
+      for (int i = 0; i < group.cells.length; i++) {
+        chance[group.frontierPosition[i]] = group.estimate[i];
+        expected += group.estimate[i];
+      }
+    }
+    if (interior == 0) {
+      return 1;
+    }
+    return Math.max(0, Math.min(1, (minesLeft - expected) / interior));
+  }
+
+  // returns the log of n choose k, negative infinity when k is out of range
+  double logChoose(int n, int k) {
+    if (k < 0 || k > n) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    k = Math.min(k, n - k);
+    double result = 0;
+    for (int i = 0; i < k; i++) {
+      result += Math.log(n - i) - Math.log(i + 1);
+    }
+    return result;
+  }
+}
+
+
+// represents a group of frontier cells tied together by numbers, and for each number of
+// mines, how many layouts of the group hold that many, and how many put a mine under each cell
+class GroupCount {
+  int[] cells;
+  int[] numbers;
+  int[] frontierPosition;
+  boolean exact;
+  double[] layouts;
+  double[][] minesUnder;
+  double[] estimate;
+
+  GroupCount(int[] cells, int[] numbers) {
+    this.cells = cells;
+    this.numbers = numbers;
+    this.exact = true;
+  }
+}
+
+
+// represents how a solver's game went: whether it was won, how many times the solver had to
+// guess, and how many cells it uncovered
+class SolveResult {
+  boolean won;
+  int guesses;
+  int moves;
+
+  SolveResult(boolean won, int guesses, int moves) {
+    this.won = won;
+    this.guesses = guesses;
+    this.moves = moves;
+  }
+}
+
+
+class ExamplesSolver {
+
+  // a 3x2 board with mines over both ends of an uncovered 1-2-1 row
+  Board oneTwoOne() {
+    Board board = new Board(3, 2);
+    board.placeMine(0);
+    board.placeMine(2);
+    board.updateValues();
+    board.uncover(3);
+    board.uncover(4);
+    board.uncover(5);
+    return board;
+  }
+
+  void testSingleRules(Tester t) {
+    Board board = new Board(3, 3);
+    board.placeMine(0);
+    board.updateValues();
+    board.uncover(1);
+    board.uncover(3);
+    board.uncover(4);
+    Solver solver = new Solver(board);
+    solver.propagate();
+    t.checkExpect(solver.knowledge[0], Solver.MINE);
+    t.checkExpect(solver.knownMines, 1);
+    // everything else around the 1s must be safe
+    t.checkExpect(solver.knowledge[2], Solver.SAFE);
+    t.checkExpect(solver.knowledge[8], Solver.SAFE);
+    t.checkExpect(solver.nextSafe() >= 0, true);
+  }
+
+  void testPairRules(Tester t) {
+    // no number alone decides anything here, only the 1 and the 2 together do
+    Board board = this.oneTwoOne();
+    Solver solver = new Solver(board);
+    solver.propagate();
+    t.checkExpect(solver.knowledge[0], Solver.MINE);
+    t.checkExpect(solver.knowledge[1], Solver.SAFE);
+    t.checkExpect(solver.knowledge[2], Solver.MINE);
+    t.checkExpect(solver.nextSafe(), 1);
+    t.checkExpect(solver.nextSafe(), -1);
+  }
+
+  void testIncremental(Tester t) {
+    Board board = new Board(3, 2);
+    board.placeMine(0);
+    board.placeMine(2);
+    board.updateValues();
+    Solver solver = new Solver(board);
+    t.checkExpect(solver.pending.size(), 0);
+    board.uncover(3);
+    t.checkExpect(solver.pending.size(), 1);
+    board.uncover(4);
+    // 4, and 3 which is already queued
+    t.checkExpect(solver.pending.size(), 2);
+    solver.propagate();
+    t.checkExpect(solver.pending.size(), 0);
+    t.checkExpect(solver.knowledge[1], Solver.UNKNOWN);
+    board.uncover(5);
+    t.checkExpect(solver.pending.size(), 2);
+    solver.propagate();
+    t.checkExpect(solver.knowledge[1], Solver.SAFE);
+  }
+
+  void testChances(Tester t) {
+    // a true fifty-fifty
+    Board board = new Board(2, 2);
+    board.placeMine(0);
+    board.updateValues();
+    board.uncover(2);
+    board.uncover(3);
+    Chances chances = new ChanceCounter(new Solver(board)).count();
+    t.checkExpect(chances.cells, new int[] {0, 1});
+    t.checkInexact(chances.mineChance[0], 0.5, 0.001);
+    t.checkInexact(chances.mineChance[1], 0.5, 0.001);
+    t.checkExpect(chances.interiorCell, -1);
+
+    // the only mine is next to the 1, so the cells no number touches are safe
+    Board row = new Board(5, 1);
+    row.placeMine(0);
+    row.updateValues();
+    row.uncover(1);
+    Solver solver = new Solver(row);
+    Chances rowChances = new ChanceCounter(solver).count();
+    t.checkExpect(rowChances.cells, new int[] {0, 2});
+    t.checkInexact(rowChances.mineChance[0], 0.5, 0.001);
+    t.checkExpect(rowChances.interiorCell, 3);
+    t.checkInexact(rowChances.interiorChance, 0.0, 0.001);
+    t.checkExpect(solver.guess(), 3);
+    t.checkInexact(solver.lastChance, 0.0, 0.001);
+  }
+
+  void testEnumerationProves(Tester t) {
+    // enumeration finds what the rules prove too
+    Board board = this.oneTwoOne();
+    Solver solver = new Solver(board);
+    t.checkExpect(solver.guess(), 1);
+    t.checkExpect(solver.lastChance, 0.0);
+    t.checkExpect(solver.knowledge[0], Solver.MINE);
+    t.checkExpect(solver.knownMines, 2);
+  }
+
+  void testLogChoose(Tester t) {
+    ChanceCounter counter = new ChanceCounter(new Solver(new Board(1, 1)));
+    t.checkInexact(Math.exp(counter.logChoose(5, 2)), 10.0, 0.001);
+    t.checkInexact(Math.exp(counter.logChoose(40, 0)), 1.0, 0.001);
+    t.checkExpect(counter.logChoose(3, 4) == Double.NEGATIVE_INFINITY, true);
+    t.checkExpect(counter.logChoose(3, -1) == Double.NEGATIVE_INFINITY, true);
+  }
+
+  void testPlay(Tester t) {
+    // deductions are never wrong, so only a guess can lose
+    int wins = 0;
+    for (int game = 0; game < 60; game++) {
+      GameEngine engine = new GameEngine(10, 9, 9, new Random(game), new ReservoirLayout(),
+          true);
+      Solver solver = new Solver(engine.board);
+      SolveResult result = solver.play(engine, 40, true);
+      if (result.won) {
+        wins++;
+      } else {
+        t.checkExpect(result.guesses > 0, true);
+      }
+      for (int i = 0; i < engine.board.size; i++) {
+        if (solver.knowledge[i] != Solver.UNKNOWN) {
+          t.checkExpect(engine.board.isMine(i), solver.knowledge[i] == Solver.MINE);
+        }
+      }
+    }
+    t.checkNumRange(wins, 50, 61);
+  }
+
+  void testPlayWithoutGuessing(Tester t) {
+    Board board = this.oneTwoOne();
+    GameEngine engine = new GameEngine(board, new Random(1), false);
+    SolveResult result = new Solver(board).play(engine, 3, false);
+    t.checkExpect(result.won, true);
+    t.checkExpect(result.guesses, 0);
+    t.checkExpect(result.moves, 2);
+
+    Board coin = new Board(2, 2);
+    coin.placeMine(0);
+    coin.updateValues();
+    coin.uncover(3);
+    SolveResult stuck = new Solver(coin).play(new GameEngine(coin, new Random(1), false), 2,
+        false);
+    t.checkExpect(stuck.won, false);
+    t.checkExpect(stuck.guesses, 0);
+    t.checkExpect(coin.isOver(), false);
+  }
+}
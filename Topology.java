@@ -0,0 +1,674 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import tester.*;
+import javalib.impworld.*;
+import javalib.worldimages.*;
+
+
+// represents how the cells of a board touch each other, and where each cell is drawn
+// cells are numbered row by row, height rows of width cells, whatever their shape; a
+// topology says which of them are neighbors and where on the screen each one goes
+// a cell may have at most VALUE_MASK neighbors, so its count of mines fits in its state
+abstract class ATopology {
+  int width;
+  int height;
+  int size;
+
+  ATopology(int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.size = width * height;
+  }
+
+  // Effect: writes the indices of the cells around the given cell into out
+  // returns how many neighbors were written, at most maxDegree
+  abstract int neighbors(int idx, int[] out);
+
+  // returns the most neighbors any cell has
+  abstract int maxDegree();
+
+  // counts the cells around the given cell whose state has the given bit set
+  abstract int countAround(byte[] cells, int idx, int bit);
+
+  // is this the plain grid, whose values can be counted with rolling box sums?
+  boolean isGrid() {
+    return false;
+  }
+
+  // returns the row of the given cell
+  int rowOf(int idx) {
+    return idx / this.width;
+  }
+
+  // returns the column of the given cell
+  int columnOf(int idx) {
+    return idx - (idx / this.width) * this.width;
+  }
+
+  // returns how wide the board is drawn, with cells of the given size
+  int screenWidth(int cellSize) {
+    return this.width * cellSize;
+  }
+
+  // returns how tall the board is drawn, with cells of the given size
+  int screenHeight(int cellSize) {
+    return this.height * cellSize;
+  }
+
+  // returns the x coordinate the given cell is drawn at, lined up with Utils.drawCells
+  int centerX(int idx, int cellSize) {
+    return this.columnOf(idx) * cellSize + cellSize / 2 + 1;
+  }
+
+  // returns the y coordinate the given cell is drawn at
+  int centerY(int idx, int cellSize) {
+    return this.rowOf(idx) * cellSize + cellSize / 2 + 1;
+  }
+
+  // returns the index of the cell drawn under the given screen position,
+  // or -1 if there is no cell there
+  int cellAt(int x, int y, int cellSize) {
+    if (x < 0 || y < 0) {
+      return -1;
+    }
+    return this.cellAt(y / cellSize, x / cellSize);
+  }
+
+  // returns the index of the cell at the given row and column, or -1 if there is none
+  int cellAt(int row, int column) {
+    if (row < 0 || row >= this.height || column < 0 || column >= this.width) {
+      return -1;
+    }
+    return row * this.width + column;
+  }
+}
+
+
+// represents the square grid every board has always had: each cell touches the up to eight
+// cells around it, worked out from its row and column, so it costs no memory at all
+class GridTopology extends ATopology {
+
+  GridTopology(int width, int height) {
+    super(width, height);
+  }
+
+  // is this the plain grid? it is
+  boolean isGrid() {
+    return true;
+  }
+
+  // returns the most neighbors any cell has
+  int maxDegree() {
+    return 8;
+  }
+
+  // Effect: writes the indices of the cells around the given cell into out, sides first,
+  // in the order Utils.updateNeighbors has always used
+  // returns how many neighbors were written, at most 8
+  int neighbors(int idx, int[] out) {
+    int row = idx / this.width;
+    int column = idx - row * this.width;
+    boolean left = column > 0;
+    boolean right = column < this.width - 1;
+    boolean up = row > 0;
+    boolean down = row < this.height - 1;
+    int count = 0;
+
+    if (left) {
+      out[count++] = idx - 1;
+    }
+    if (right) {
+      out[count++] = idx + 1;
+    }
+    if (down) {
+      out[count++] = idx + this.width;
+    }
+    if (up) {
+      out[count++] = idx - this.width;
+    }
+    if (left && up) {
+      out[count++] = idx - this.width - 1;
+    }
+    if (right && up) {
+      out[count++] = idx - this.width + 1;
+    }
+    if (left && down) {
+      out[count++] = idx + this.width - 1;
+    }
+    if (right && down) {
+      out[count++] = idx + this.width + 1;
+    }
+    return count;
+  }
+
+  // counts the cells in the 3x3 box around the given cell, but not the cell itself, whose
+  // state has the given bit set
+  int countAround(byte[] cells, int idx, int bit) {
+    int row = idx / this.width;
+    int column = idx - row * this.width;
+    int count = 0;
+    for (int r = Math.max(0, row - 1); r <= Math.min(this.height - 1, row + 1); r++) {
+      for (int c = Math.max(0, column - 1); c <= Math.min(this.width - 1, column + 1); c++) {
+        int n = r * this.width + c;
+        if (n != idx && (cells[n] & bit) != 0) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+}
+
+
+// represents a topology whose neighbors are worked out once and kept in two flat arrays,
+// the way sparse matrices keep their rows: offsets[i] is where the row of cell i starts in
+// targets, which holds how many neighbors the cell has, then each neighbor as a distance
+// from the cell; cells whose neighbors lie the same distances away share one row
+// on regular boards only the edges need rows of their own, so targets stays tiny and the
+// neighbor data costs one int per cell; a lookup reads that int and a row that is always
+// in cache, where a row per cell would stream every neighbor of every cell through memory
+abstract class ACsrTopology extends ATopology {
+  int[] offsets;
+  int[] targets;
+  int degree;
+
+  ACsrTopology(int width, int height) {
+    super(width, height);
+  }
+
+  // Effect: writes the cells the given cell touches into out, which has room for limit;
+  // the same cell may be written twice, and so may the given cell, they are dropped
+  // returns how many cells were written
+  abstract int connect(int idx, int[] out);
+
+  // Effect: works out the neighbors of every cell, connecting at most limit cells each
+  // subclasses call this once their own fields are set
+  void link(int limit) {
+    int[] found = new int[limit];
+    this.offsets = new int[this.size];
+    IntList rows = new IntList();
+    HashMap<String, Integer> rowAt = new HashMap<String, Integer>();
+    int last = -1;
+    for (int i = 0; i < this.size; i++) {
+      int count = this.distinct(i, found);
+      for (int k = 0; k < count; k++) {
+        found[k] -= i;
+      }
+      // a cell most often has the same row as the cell before it
+      if (last < 0 || !this.sameRow(rows, last, found, count)) {
+        String key = Arrays.toString(Arrays.copyOf(found, count));
+        Integer at = rowAt.get(key);
+        if (at == null) {
+          at = rows.size();
+          rowAt.put(key, at);
+          rows.add(count);
+          for (int k = 0; k < count; k++) {
+            rows.add(found[k]);
+          }
+        }
+        last = at;
+      }
+      this.offsets[i] = last;
+      this.degree = Math.max(this.degree, count);
+    }
+    this.targets = rows.toArray();
+    if (this.degree > Board.VALUE_MASK) {
+      throw new IllegalArgumentException("A cell cannot have more than " + Board.VALUE_MASK
+          + " neighbors");
+    }
+  }
+
+  // does the row at the given offset hold the given distances?
+  boolean sameRow(IntList rows, int at, int[] found, int count) {
+    if (rows.get(at) != count) {
+      return false;
+    }
+    for (int k = 0; k < count; k++) {
+      if (rows.get(at + 1 + k) != found[k]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Effect: writes the cells the given cell touches into out, each once and never itself
+  // returns how many cells were written
+  int distinct(int idx, int[] out) {
+    int count = this.connect(idx, out);
+    int kept = 0;
+    for (int i = 0; i < count; i++) {
+      boolean seen = out[i] == idx;
+      for (int j = 0; j < kept && !seen; j++) {
+        seen = out[j] == out[i];
+      }
+      if (!seen) {
+        out[kept++] = out[i];
+      }
+    }
+    return kept;
+  }
+
+  // returns the most neighbors any cell has
+  int maxDegree() {
+    return this.degree;
+  }
+
+  // Effect: writes the neighbors of the given cell into out
+  // returns how many neighbors were written
+  int neighbors(int idx, int[] out) {
+    int at = this.offsets[idx];
+    int count = this.targets[at];
+    for (int k = 0; k < count; k++) {
+      out[k] = idx + this.targets[at + 1 + k];
+    }
+    return count;
+  }
+
+  // counts the neighbors of the given cell whose state has the given bit set
+  // each neighbor adds the bit or nothing, so the sum is the count times the bit
+  int countAround(byte[] cells, int idx, int bit) {
+    int at = this.offsets[idx];
+    int end = at + 1 + this.targets[at];
+    int count = 0;
+    for (int k = at + 1; k < end; k++) {
+      count += cells[idx + this.targets[k]] & bit;
+    }
+    return count / bit;
+  }
+}
+
+
+// represents a grid of hexagons, laid out as rows of bricks: every odd row is pushed half a
+// cell to the right, so each cell touches the two beside it and two above and two below it
+class HexTopology extends ACsrTopology {
+
+  HexTopology(int width, int height) {
+    super(width, height);
+    this.link(6);
+  }
+
+  // Effect: writes the up to six cells around the given cell into out
+  // returns how many cells were written
+  int connect(int idx, int[] out) {
+    int row = this.rowOf(idx);
+    int column = this.columnOf(idx);
+    // the row above and below overlap this cell from half a cell to the left, on even rows,
+    // or to the right, on odd ones
+    int shift = row % 2 == 0 ? -1 : 0;
+    int[] rows = {row, row, row - 1, row - 1, row + 1, row + 1};
+    int[] columns = {column - 1, column + 1, column + shift, column + shift + 1,
+        column + shift, column + shift + 1};
+    int count = 0;
+    for (int k = 0; k < 6; k++) {
+      int n = this.cellAt(rows[k], columns[k]);
+      if (n >= 0) {
+        out[count++] = n;
+      }
+    }
+    return count;
+  }
+
+  // returns how wide the board is drawn: the odd rows stick out by half a cell
+  int screenWidth(int cellSize) {
+    return this.width * cellSize + cellSize / 2;
+  }
+
+  // returns the x coordinate the given cell is drawn at, half a cell over on odd rows
+  int centerX(int idx, int cellSize) {
+    return super.centerX(idx, cellSize) + (this.rowOf(idx) % 2) * (cellSize / 2);
+  }
+
+  // returns the index of the cell drawn under the given screen position,
+  // or -1 if there is no cell there
+  int cellAt(int x, int y, int cellSize) {
+    if (y < 0) {
+      return -1;
+    }
+    int row = y / cellSize;
+    int shifted = x - (row % 2) * (cellSize / 2);
+    if (shifted < 0) {
+      return -1;
+    }
+    return this.cellAt(row, shifted / cellSize);
+  }
+}
+
+
+// represents a grid whose edges wrap around: the cells of the top row touch those of the
+// bottom row, and the first column touches the last, so every cell has eight neighbors
+// on boards fewer than three cells across or down, a cell touches the same cell twice
+// around the wrap, and it is counted once
+class TorusTopology extends ACsrTopology {
+
+  TorusTopology(int width, int height) {
+    super(width, height);
+    this.link(8);
+  }
+
+  // Effect: writes the eight cells around the given cell, wrapping at the edges, into out
+  // returns how many cells were written
+  int connect(int idx, int[] out) {
+    int row = this.rowOf(idx);
+    int column = this.columnOf(idx);
+    int count = 0;
+    for (int dr = -1; dr <= 1; dr++) {
+      for (int dc = -1; dc <= 1; dc++) {
+        if (dr != 0 || dc != 0) {
+          int r = (row + dr + this.height) % this.height;
+          int c = (column + dc + this.width) % this.width;
+          out[count++] = r * this.width + c;
+        }
+      }
+    }
+    return count;
+  }
+}
+
+
+// represents a stack of square grids, each of rows rows, one on top of the other: a cell
+// touches the eight cells around it in its own layer, and the cell right above and right
+// below it in the layers next to it
+// the layers are numbered one after the other, so the board is layers * rows rows tall,
+// and they are drawn down the screen with an empty row between each
+// a cell touches at most ten cells, which keeps its count of mines in its four value bits;
+// the full 26 cells of a cube would not fit
+class LayeredTopology extends ACsrTopology {
+  int rows;
+  int layers;
+
+  LayeredTopology(int width, int rows, int layers) {
+    super(width, rows * layers);
+    this.rows = rows;
+    this.layers = layers;
+    this.link(11);
+  }
+
+  // returns the layer of the given cell
+  int layerOf(int idx) {
+    return this.rowOf(idx) / this.rows;
+  }
+
+  // Effect: writes the 3x3 box around the given cell in its layer, the cell itself too, then
+  // the cells right above and below it, into out
+  // returns how many cells were written
+  int connect(int idx, int[] out) {
+    int row = this.rowOf(idx);
+    int column = this.columnOf(idx);
+    int layerTop = row - row % this.rows;
+    int count = 0;
+    for (int r = Math.max(layerTop, row - 1); r <= Math.min(layerTop + this.rows - 1, row + 1);
+        r++) {
+      for (int c = Math.max(0, column - 1); c <= Math.min(this.width - 1, column + 1); c++) {
+        out[count++] = r * this.width + c;
+      }
+    }
+    // one row of every layer, rows apart, is the same spot
+    if (row - this.rows >= 0) {
+      out[count++] = idx - this.rows * this.width;
+    }
+    if (row + this.rows < this.height) {
+      out[count++] = idx + this.rows * this.width;
+    }
+    return count;
+  }
+
+  // returns how tall the board is drawn, with an empty row between layers
+  int screenHeight(int cellSize) {
+    return (this.height + this.layers - 1) * cellSize;
+  }
+
+  // returns the y coordinate the given cell is drawn at, below the gaps over its layer
+  int centerY(int idx, int cellSize) {
+    return super.centerY(idx, cellSize) + this.layerOf(idx) * cellSize;
+  }
+
+  // returns the index of the cell drawn under the given screen position,
+  // or -1 if there is no cell there, such as in a gap between layers
+  int cellAt(int x, int y, int cellSize) {
+    if (x < 0 || y < 0) {
+      return -1;
+    }
+    int slot = y / cellSize;
+    int layer = slot / (this.rows + 1);
+    if (slot % (this.rows + 1) == this.rows) {
+      return -1;
+    }
+    return this.cellAt(slot - layer, x / cellSize);
+  }
+}
+
+
+// draws a board of any topology cell by cell, at the places its topology gives
+// cells that change are queued, and a frame places only their images over the last scene
+// once the scene has piled up as many patches as the board has cells it is drawn again
+class TopologyRenderer implements IBoardRenderer, ICellObserver {
+  Board board;
+  CellSprites sprites;
+  WorldScene scene;
+  IntList changed;
+  int patches;
+
+  TopologyRenderer(Board board) {
+    this.board = board;
+    this.sprites = CellSprites.SHARED;
+    this.changed = new IntList();
+    board.addObserver(this);
+  }
+
+  // Effect: queues the changed cell to be drawn again
+  public void cellChanged(int idx) {
+    this.changed.add(idx);
+  }
+
+  // returns the scene for this frame, reusing the last one when nothing has changed
+  public WorldScene render() {
+    if (this.scene == null || this.patches + this.changed.size() > this.board.size) {
+      this.scene = this.freshScene();
+      this.patches = 0;
+    } else {
+      for (int i = 0; i < this.changed.size(); i++) {
+        this.placeCell(this.scene, this.changed.get(i));
+      }
+      this.patches += this.changed.size();
+    }
+    this.changed.clear();
+    return this.scene;
+  }
+
+  // returns a new scene with every cell placed on it
+  public WorldScene freshScene() {
+    ATopology topology = this.board.topology;
+    WorldScene ws = new WorldScene(topology.screenWidth(20), topology.screenHeight(20));
+    for (int idx = 0; idx < this.board.size; idx++) {
+      this.placeCell(ws, idx);
+    }
+    return ws;
+  }
+
+  // Effect: places the image of the given cell on the scene, where its topology puts it
+  void placeCell(WorldScene ws, int idx) {
+    ws.placeImageXY(this.sprites.cell(this.board, idx), this.board.topology.centerX(idx, 20),
+        this.board.topology.centerY(idx, 20));
+  }
+}
+
+
+class ExamplesTopology {
+
+  // checks that every cell's neighbors are distinct, not itself, and touch it back
+  void checkSymmetric(Tester t, ATopology topology) {
+    int[] out = new int[topology.maxDegree()];
+    int[] back = new int[topology.maxDegree()];
+    for (int i = 0; i < topology.size; i++) {
+      int count = topology.neighbors(i, out);
+      for (int k = 0; k < count; k++) {
+        t.checkExpect(out[k] == i, false);
+        for (int j = 0; j < k; j++) {
+          t.checkExpect(out[j] == out[k], false);
+        }
+        int backCount = topology.neighbors(out[k], back);
+        boolean found = false;
+        for (int j = 0; j < backCount; j++) {
+          found = found || back[j] == i;
+        }
+        t.checkExpect(found, true);
+      }
+    }
+  }
+
+  // returns the sorted neighbors of the given cell
+  int[] sortedNeighbors(ATopology topology, int idx) {
+    int[] out = new int[topology.maxDegree()];
+    int count = topology.neighbors(idx, out);
+    int[] sorted = Arrays.copyOf(out, count);
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  void testGrid(Tester t) {
+    ATopology grid = new GridTopology(3, 3);
+    int[] out = new int[8];
+    t.checkExpect(grid.neighbors(0, out), 3);
+    t.checkExpect(grid.neighbors(4, out), 8);
+    t.checkExpect(grid.isGrid(), true);
+    t.checkExpect(grid.cellAt(45, 25, 20), 5);
+    t.checkExpect(grid.cellAt(65, 25, 20), -1);
+    t.checkExpect(grid.centerX(5, 20), 51);
+    checkSymmetric(t, grid);
+  }
+
+  void testHex(Tester t) {
+    ATopology hex = new HexTopology(4, 4);
+    t.checkExpect(hex.maxDegree(), 6);
+    t.checkExpect(hex.isGrid(), false);
+    // row 1 is pushed right, so cell 5 touches 1 and 2 above it and 9 and 10 below
+    t.checkExpect(sortedNeighbors(hex, 5), new int[] {1, 2, 4, 6, 9, 10});
+    // row 2 is not, so cell 9 touches 4 and 5 above it
+    t.checkExpect(sortedNeighbors(hex, 9), new int[] {4, 5, 8, 10, 12, 13});
+    t.checkExpect(sortedNeighbors(hex, 0), new int[] {1, 4});
+    t.checkExpect(sortedNeighbors(hex, 7), new int[] {3, 6, 11});
+    checkSymmetric(t, hex);
+    checkSymmetric(t, new HexTopology(7, 5));
+    // one offset per cell, and a row for each kind of edge and for each kind of middle row
+    HexTopology big = new HexTopology(300, 200);
+    t.checkExpect(big.offsets.length, 60000);
+    t.checkNumRange(big.targets.length, 10, 120);
+    // odd rows are drawn half a cell over
+    t.checkExpect(hex.centerX(4, 20), 21);
+    t.checkExpect(hex.cellAt(21, 25, 20), 4);
+    t.checkExpect(hex.cellAt(5, 25, 20), -1);
+    t.checkExpect(hex.screenWidth(20), 90);
+  }
+
+  void testTorus(Tester t) {
+    ATopology torus = new TorusTopology(4, 3);
+    t.checkExpect(sortedNeighbors(torus, 0), new int[] {1, 3, 4, 5, 7, 8, 9, 11});
+    checkSymmetric(t, torus);
+    // too narrow to wrap into new cells
+    ATopology thin = new TorusTopology(2, 2);
+    t.checkExpect(sortedNeighbors(thin, 0), new int[] {1, 2, 3});
+    t.checkExpect(sortedNeighbors(new TorusTopology(1, 1), 0), new int[0]);
+    checkSymmetric(t, thin);
+  }
+
+  void testLayers(Tester t) {
+    // two layers of 3x3
+    LayeredTopology layers = new LayeredTopology(3, 3, 2);
+    t.checkExpect(layers.height, 6);
+    t.checkExpect(layers.maxDegree(), 9);
+    // the middle of the top layer touches its layer and the middle of the one below
+    t.checkExpect(sortedNeighbors(layers, 4), new int[] {0, 1, 2, 3, 5, 6, 7, 8, 13});
+    // the bottom row of the top layer does not touch the top row of the next layer
+    t.checkExpect(sortedNeighbors(layers, 6), new int[] {3, 4, 7, 15});
+    checkSymmetric(t, layers);
+    t.checkExpect(new LayeredTopology(4, 4, 3).maxDegree(), 10);
+    // drawn with a gap row between layers
+    t.checkExpect(layers.screenHeight(20), 140);
+    t.checkExpect(layers.centerY(9, 20), 91);
+    t.checkExpect(layers.cellAt(5, 65, 20), -1);
+    t.checkExpect(layers.cellAt(5, 85, 20), 9);
+  }
+
+  void testBoard(Tester t) {
+    // values, floods and zones all follow the topology
+    Board torus = new Board(new TorusTopology(5, 5));
+    torus.placeMine(0);
+    torus.updateValues();
+    t.checkExpect(torus.getValue(24), 1);
+    t.checkExpect(torus.getValue(12), 0);
+    t.checkExpect(torus.zoneAround(0), new int[] {0, 1, 4, 5, 6, 9, 20, 21, 24});
+    // every empty cell is joined around the wrap, so one click opens all but the mine
+    t.checkExpect(torus.uncover(12), 24);
+    t.checkExpect(torus.isCovered(24), false);
+    t.checkExpect(torus.status().isWon(), true);
+
+    Board hex = new Board(new HexTopology(6, 6));
+    new ReservoirLayout().placeMines(hex, 8, new Random(4), new int[0]);
+    hex.updateValues();
+    for (int i = 0; i < hex.size; i++) {
+      if (!hex.isMine(i)) {
+        t.checkExpect(hex.getValue(i), hex.countAdjacentMines(i));
+        t.checkNumRange(hex.getValue(i), 0, 7);
+      }
+    }
+    // moving a mine keeps every value right
+    int from = 0;
+    while (!hex.isMine(from)) {
+      from++;
+    }
+    int to = 0;
+    while (hex.isMine(to)) {
+      to++;
+    }
+    hex.moveMine(from, to);
+    for (int i = 0; i < hex.size; i++) {
+      if (!hex.isMine(i)) {
+        t.checkExpect(hex.getValue(i), hex.countAdjacentMines(i));
+      }
+    }
+  }
+
+  void testFloodMatchesNeighbors(Tester t) {
+    // a flood uncovers exactly the cells reachable through empty cells, and their borders
+    ATopology[] topologies = {new HexTopology(20, 15), new TorusTopology(20, 15),
+        new LayeredTopology(10, 10, 3)};
+    for (ATopology topology : topologies) {
+      Board board = new Board(topology);
+      new ReservoirLayout().placeMines(board, 25, new Random(8), new int[0]);
+      board.updateValues();
+      int start = 0;
+      while (board.isMine(start) || board.getValue(start) != 0) {
+        start++;
+      }
+      board.uncover(start);
+      int[] out = new int[topology.maxDegree()];
+      for (int i = 0; i < board.size; i++) {
+        if (!board.isCovered(i) && board.getValue(i) == 0) {
+          int count = topology.neighbors(i, out);
+          for (int k = 0; k < count; k++) {
+            t.checkExpect(board.isCovered(out[k]), false);
+          }
+        }
+      }
+      t.checkExpect(board.status().isLost(), false);
+    }
+  }
+
+  void testWorld(Tester t) {
+    MineSweeper hex = new MineSweeper(new HexTopology(8, 6), 0, new Random(2));
+    t.checkExpect(hex.screenWidth, 170);
+    t.checkExpect(hex.screenHeight, 120);
+    // a click on the right half of the first cell of row 1
+    hex.onMousePressed(new Posn(25, 25), "LeftButton");
+    t.checkExpect(hex.status().isWon(), true);
+    t.checkExpect(hex.makeScene() != null, true);
+
+    MineSweeper layers = new MineSweeper(new LayeredTopology(4, 2, 2), 4, new Random(2));
+    layers.onMousePressed(new Posn(5, 45), "RightButton");
+    t.checkExpect(layers.board.flagsPlaced, 0);
+    layers.onMousePressed(new Posn(5, 65), "RightButton");
+    t.checkExpect(layers.board.isFlagged(8), true);
+  }
+}
@@ -0,0 +1,615 @@
+import java.util.Arrays;
+import java.util.Random;
+
+import tester.*;
+import javalib.worldimages.*;
+
+
+// represents the moves made on a board, as what each one changed, so they can be taken back
+// and made again
+//
+// the board tells the history the state of every cell just before it is uncovered, flagged
+// or unflagged; only the covered and flagged bits can change, so a cell of a move is one int,
+// its index shifted over those two bits. a move is the entries from its start up to the
+// start of the next, and every entry is kept in a ring of capacity ints
+// taking a move back swaps each of its cells' bits with the ones kept, last cell first, and
+// making it again swaps them back in order, so both cost as much as the move did
+// once the ring is full the oldest moves are forgotten; a move too big for the ring at all
+// forgets every move, since there is nothing before it to go back to
+// mines moved by a safe first click stay moved when the click is taken back
+class MoveHistory {
+  Board board;
+  int capacity;
+  int[] entries;
+  // where each move starts, counted from the first entry ever kept
+  long[] starts;
+  // the moves kept are firstMove up to lastMove; those before current are made
+  long firstMove;
+  long current;
+  long lastMove;
+  // where the entries end, and where the move being recorded starts
+  long end;
+  long pending;
+  boolean recording;
+  boolean overflowed;
+
+  MoveHistory(Board board, int capacity) {
+    if (board.size > (Integer.MAX_VALUE >> 2)) {
+      throw new IllegalArgumentException("Cannot keep the moves of a board of "
+          + board.size + " cells");
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A history must hold at least one cell");
+    }
+    this.board = board;
+    this.capacity = capacity;
+    this.entries = new int[capacity];
+    this.starts = new long[capacity];
+  }
+
+  // returns the position in the ring of the given entry, or the given move's start
+  int slot(long position) {
+    return (int) (position % this.capacity);
+  }
+
+  // returns where the given move starts
+  long startOf(long move) {
+    return this.starts[this.slot(move)];
+  }
+
+  // returns where the given move ends
+  long endOf(long move) {
+    if (move + 1 < this.lastMove) {
+      return this.startOf(move + 1);
+    }
+    return this.end;
+  }
+
+  // Effect: remembers the state the given cell had before the move being made changed it
+  // the first cell of a move forgets the moves that were taken back, they cannot be made again
+  void saw(int idx, int state) {
+    if (!this.recording) {
+      this.recording = true;
+      if (this.current < this.lastMove) {
+        this.end = this.startOf(this.current);
+        this.lastMove = this.current;
+      }
+      this.pending = this.end;
+    }
+    if (this.overflowed) {
+      return;
+    }
+    if (this.end - this.pending == this.capacity) {
+      this.overflowed = true;
+      return;
+    }
+    if (this.firstMove < this.lastMove
+        && this.end - this.startOf(this.firstMove) == this.capacity) {
+      this.firstMove++;
+    }
+    this.entries[this.slot(this.end)] = idx << 2 | ((state >> 5) & 3);
+    this.end++;
+  }
+
+  // Effect: closes the move being made, which can be taken back from now on
+  void endMove() {
+    if (!this.recording) {
+      return;
+    }
+    this.recording = false;
+    if (this.overflowed) {
+      this.overflowed = false;
+      this.clear();
+      return;
+    }
+    this.starts[this.slot(this.lastMove)] = this.pending;
+    this.lastMove++;
+    this.current = this.lastMove;
+  }
+
+  // Effect: forgets every move
+  void clear() {
+    this.firstMove = 0;
+    this.current = 0;
+    this.lastMove = 0;
+    this.end = 0;
+    this.pending = 0;
+  }
+
+  // can a move be taken back?
+  boolean canUndo() {
+    return this.current > this.firstMove;
+  }
+
+  // can a move that was taken back be made again?
+  boolean canRedo() {
+    return this.current < this.lastMove;
+  }
+
+  // Effect: takes back the last move made
+  // returns whether there was one
+  boolean undo() {
+    if (!this.canUndo()) {
+      return false;
+    }
+    this.current--;
+    for (long k = this.endOf(this.current) - 1; k >= this.startOf(this.current); k--) {
+      this.swap(k);
+    }
+    return true;
+  }
+
+  // Effect: makes the last move taken back again
+  // returns whether there was one
+  boolean redo() {
+    if (!this.canRedo()) {
+      return false;
+    }
+    long last = this.endOf(this.current);
+    for (long k = this.startOf(this.current); k < last; k++) {
+      this.swap(k);
+    }
+    this.current++;
+    return true;
+  }
+
+  // Effect: puts the kept bits of the given entry back on its cell, keeping the cell's bits
+  // in their place
+  void swap(long position) {
+    int slot = this.slot(position);
+    int entry = this.entries[slot];
+    int idx = entry >>> 2;
+    int now = this.board.cells[idx];
+    this.board.restore(idx, (entry & 3) << 5);
+    this.entries[slot] = idx << 2 | ((now >> 5) & 3);
+  }
+}
+
+
+// represents the states of the cells of a board, in chunks that forks share until one of
+// them writes to a chunk, which it then copies first
+//
+// a fork is O(1): it takes the parent's table of chunks, marked as shared, and both of them
+// get a new owner mark, so neither owns a chunk any more; the first write after a fork copies
+// the table, and the first write to a chunk copies the chunk, so a line of play costs as
+// much as the chunks it touches, not the board
+// a board is copied into chunks once, to make the first CowBoard; forks from there never copy
+// the board again, so a solver can look ahead down many branches from one position
+// it is an IBoard, so it floods through BoardUtils.uncover, as OffHeapBoard does
+class CowBoard implements IBoard {
+  static final int CHUNK_BITS = 12;
+  static final int CHUNK = 1 << CHUNK_BITS;
+
+  ATopology topology;
+  int size;
+  byte[][] chunks;
+  // the fork that may write to each chunk in place
+  Object[] owners;
+  Object owner;
+  boolean tableShared;
+
+  int numMines;
+  int coveredSafe;
+  int minesRevealed;
+  int flagsPlaced;
+
+  // scratch space for flood fill
+  long[] around = new long[Board.VALUE_MASK];
+  int[] near;
+  LongQueue work = new LongQueue();
+
+  // copies the state of the given board into chunks
+  CowBoard(Board board) {
+    this.topology = board.topology;
+    this.size = board.size;
+    int count = (board.size + CHUNK - 1) >> CHUNK_BITS;
+    this.chunks = new byte[count][];
+    this.owners = new Object[count];
+    this.owner = new Object();
+    for (int c = 0; c < count; c++) {
+      int from = c << CHUNK_BITS;
+      this.chunks[c] = Arrays.copyOfRange(board.cells, from, Math.min(board.size, from + CHUNK));
+      this.owners[c] = this.owner;
+    }
+    this.numMines = board.numMines;
+    this.coveredSafe = board.coveredSafe;
+    this.minesRevealed = board.minesRevealed;
+    this.flagsPlaced = board.flagsPlaced;
+    this.near = new int[this.topology.maxDegree()];
+  }
+
+  // fork constructor, shares every chunk of the given board
+  CowBoard(CowBoard parent) {
+    this.topology = parent.topology;
+    this.size = parent.size;
+    this.chunks = parent.chunks;
+    this.owners = parent.owners;
+    this.owner = new Object();
+    this.tableShared = true;
+    this.numMines = parent.numMines;
+    this.coveredSafe = parent.coveredSafe;
+    this.minesRevealed = parent.minesRevealed;
+    this.flagsPlaced = parent.flagsPlaced;
+    this.near = new int[this.topology.maxDegree()];
+  }
+
+  // returns a board in the same state as this one, which changes apart from it
+  // Effect: this board no longer owns its chunks, so it copies them before writing too
+  CowBoard fork() {
+    CowBoard child = new CowBoard(this);
+    this.owner = new Object();
+    this.tableShared = true;
+    return child;
+  }
+
+  // returns the state of the given cell
+  int state(int idx) {
+    return this.chunks[idx >>> CHUNK_BITS][idx & (CHUNK - 1)];
+  }
+
+  // Effect: sets the state of the given cell, copying its chunk first if it is shared
+  void setState(int idx, int state) {
+    int c = idx >>> CHUNK_BITS;
+    if (this.tableShared) {
+      this.chunks = this.chunks.clone();
+      this.owners = this.owners.clone();
+      this.tableShared = false;
+    }
+    if (this.owners[c] != this.owner) {
+      this.chunks[c] = this.chunks[c].clone();
+      this.owners[c] = this.owner;
+    }
+    this.chunks[c][idx & (CHUNK - 1)] = (byte) state;
+  }
+
+  // is the given cell a mine?
+  boolean isMine(int idx) {
+    return (this.state(idx) & Board.MINE) != 0;
+  }
+
+  // is the given cell covered?
+  boolean isCovered(int idx) {
+    return (this.state(idx) & Board.COVERED) != 0;
+  }
+
+  // is the given cell flagged?
+  boolean isFlagged(int idx) {
+    return (this.state(idx) & Board.FLAGGED) != 0;
+  }
+
+  // returns the number of mines around the given cell, mines return 10 like Board.getValue
+  int getValue(int idx) {
+    if (this.isMine(idx)) {
+      return 10;
+    }
+    return this.state(idx) & Board.VALUE_MASK;
+  }
+
+  // is the game on this board over?
+  boolean isOver() {
+    return this.minesRevealed > 0 || this.coveredSafe == 0;
+  }
+
+  // returns a snapshot of the counters of this board
+  GameStatus status() {
+    return new GameStatus(this.topology.width, this.topology.height, this.numMines,
+        this.coveredSafe, this.minesRevealed, this.flagsPlaced);
+  }
+
+  // Effect: flags or unflags the given cell, uncovered cells are never flagged
+  void flag(int idx) {
+    int state = this.state(idx);
+    if ((state & Board.COVERED) == 0) {
+      return;
+    }
+    if ((state & Board.FLAGGED) == 0) {
+      this.flagsPlaced++;
+    } else {
+      this.flagsPlaced--;
+    }
+    this.setState(idx, state ^ Board.FLAGGED);
+  }
+
+  // Effect: uncovers the given cell and floods through empty cells, like Board.uncover
+  // returns how many cells were uncovered
+  int uncover(int idx) {
+    return (int) BoardUtils.uncover(this, idx, this.work, this.around);
+  }
+
+  // returns the number of columns of this board
+  public int columns() {
+    return this.topology.width;
+  }
+
+  // returns the number of rows of this board
+  public int rows() {
+    return this.topology.height;
+  }
+
+  // returns the number of cells of this board
+  public long cellCount() {
+    return this.size;
+  }
+
+  // returns the mine, covered and flagged bits of the cell at the given index
+  public int cellState(long idx) {
+    return this.state((int) idx) & (Board.MINE | Board.COVERED | Board.FLAGGED);
+  }
+
+  // returns the number of mines around the given cell, mines return 10
+  public int cellValue(long idx) {
+    return this.getValue((int) idx);
+  }
+
+  // Effect: uncovers and unflags the given covered cell, keeping the counters in step
+  public void uncoverCell(long idx) {
+    int state = this.state((int) idx);
+    if ((state & Board.FLAGGED) != 0) {
+      this.flagsPlaced--;
+    }
+    if ((state & Board.MINE) != 0) {
+      this.minesRevealed++;
+    } else {
+      this.coveredSafe--;
+    }
+    this.setState((int) idx, state & ~(Board.COVERED | Board.FLAGGED));
+  }
+
+  // Effect: flags or unflags the cell at the given index
+  public void toggleFlag(long idx) {
+    this.flag((int) idx);
+  }
+
+  // Effect: writes the indices of the cells around the given cell into out
+  // returns how many neighbors were written
+  public int cellNeighbors(long idx, long[] out) {
+    int count = this.topology.neighbors((int) idx, this.near);
+    for (int i = 0; i < count; i++) {
+      out[i] = this.near[i];
+    }
+    return count;
+  }
+
+  // returns how many mines this board holds
+  public long mineCount() {
+    return this.numMines;
+  }
+
+  // returns how many safe cells are still covered
+  public long coveredSafeCount() {
+    return this.coveredSafe;
+  }
+
+  // returns how many mines have been uncovered
+  public long minesRevealedCount() {
+    return this.minesRevealed;
+  }
+
+  // returns how many cells are flagged
+  public long flagCount() {
+    return this.flagsPlaced;
+  }
+}
+
+
+class ExamplesUndo {
+
+  // returns a copy of the states of the cells of the given board
+  byte[] cellsOf(Board board) {
+    return Arrays.copyOf(board.cells, board.size);
+  }
+
+  // a 10x10 board with a few mines, and an engine that can take moves back
+  GameEngine engine(int capacity) {
+    GameEngine engine = new GameEngine(12, 10, 10, new Random(5), new ReservoirLayout(),
+        false);
+    engine.enableUndo(capacity);
+    return engine;
+  }
+
+  // returns the first cell with the given value that is not a mine
+  int cellWithValue(Board board, int value) {
+    for (int i = 0; i < board.size; i++) {
+      if (!board.isMine(i) && board.getValue(i) == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  void testUndoRedo(Tester t) {
+    GameEngine engine = this.engine(1000);
+    Board board = engine.board;
+    byte[] start = cellsOf(board);
+    GameStatus startStatus = board.status();
+    int empty = cellWithValue(board, 0);
+    int number = cellWithValue(board, 1);
+    int opened = engine.revealAt(empty);
+    byte[] afterReveal = cellsOf(board);
+    engine.flagAt(number);
+    byte[] afterFlag = cellsOf(board);
+    t.checkExpect(engine.history.canRedo(), false);
+
+    MoveResult undone = engine.undo();
+    t.checkExpect(undone.changed, new int[] {number});
+    t.checkExpect(cellsOf(board), afterReveal);
+    MoveResult undoneReveal = engine.undo();
+    t.checkExpect(undoneReveal.changed.length, opened);
+    t.checkExpect(cellsOf(board), start);
+    t.checkExpect(board.status(), startStatus);
+    t.checkExpect(engine.history.canUndo(), false);
+    t.checkExpect(engine.undo().changedAnything(), false);
+
+    engine.redo();
+    t.checkExpect(cellsOf(board), afterReveal);
+    engine.redo();
+    t.checkExpect(cellsOf(board), afterFlag);
+    t.checkExpect(engine.redo().changedAnything(), false);
+    board.recount();
+    t.checkExpect(engine.status(), board.status());
+  }
+
+  void testNewMoveDropsRedo(Tester t) {
+    GameEngine engine = this.engine(1000);
+    Board board = engine.board;
+    int number = cellWithValue(board, 1);
+    engine.flagAt(number);
+    engine.undo();
+    t.checkExpect(engine.history.canRedo(), true);
+    engine.flagAt(number + 1);
+    t.checkExpect(engine.history.canRedo(), false);
+    t.checkExpect(board.isFlagged(number), false);
+    engine.undo();
+    t.checkExpect(board.flagsPlaced, 0);
+    t.checkExpect(engine.history.canUndo(), false);
+  }
+
+  void testLosingMoveTakenBack(Tester t) {
+    GameEngine engine = this.engine(1000);
+    Board board = engine.board;
+    int mine = 0;
+    while (!board.isMine(mine)) {
+      mine++;
+    }
+    engine.flagAt(mine);
+    engine.revealAt(mine);
+    t.checkExpect(engine.status().isLost(), true);
+    t.checkExpect(board.flagsPlaced, 0);
+    engine.undo();
+    t.checkExpect(engine.status().isLost(), false);
+    t.checkExpect(board.isCovered(mine), true);
+    t.checkExpect(board.isFlagged(mine), true);
+    t.checkExpect(board.flagsPlaced, 1);
+    // the game goes on after the loss is taken back
+    engine.flagAt(mine);
+    t.checkExpect(board.flagsPlaced, 0);
+  }
+
+  void testBatch(Tester t) {
+    // a batch is one move, even when it changes a cell twice
+    GameEngine engine = this.engine(1000);
+    Board board = engine.board;
+    byte[] start = cellsOf(board);
+    int number = cellWithValue(board, 1);
+    engine.revealAt(cellWithValue(board, 2));
+    byte[] before = cellsOf(board);
+    engine.apply(new MoveBatch().flag(number).reveal(number));
+    byte[] after = cellsOf(board);
+    t.checkExpect(board.isCovered(number), false);
+    engine.undo();
+    t.checkExpect(cellsOf(board), before);
+    engine.redo();
+    t.checkExpect(cellsOf(board), after);
+    engine.undo();
+    engine.undo();
+    t.checkExpect(cellsOf(board), start);
+  }
+
+  void testBoundedRing(Tester t) {
+    // room for five cells: flags of one cell each, the oldest forgotten first
+    GameEngine engine = this.engine(5);
+    Board board = engine.board;
+    for (int i = 0; i < 8; i++) {
+      engine.flagAt(i);
+    }
+    int undone = 0;
+    while (engine.history.canUndo()) {
+      engine.undo();
+      undone++;
+    }
+    t.checkExpect(undone, 5);
+    t.checkExpect(board.flagsPlaced, 3);
+    t.checkExpect(board.isFlagged(2), true);
+    t.checkExpect(board.isFlagged(3), false);
+
+    // a move bigger than the whole ring cannot be taken back, nor can anything before it
+    GameEngine small = this.engine(5);
+    small.flagAt(cellWithValue(small.board, 1));
+    // the opening down the left side
+    int opened = small.revealAt(20);
+    t.checkExpect(opened > 5, true);
+    t.checkExpect(small.history.canUndo(), false);
+    small.flagAt(cellWithValue(small.board, 2));
+    t.checkExpect(small.history.canUndo(), true);
+  }
+
+  void testHistoryErrors(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("A history must hold at least one cell"),
+        "MoveHistory", new Board(2, 2), 0);
+    GameEngine plain = new GameEngine(new Board(2, 2), new Random(1), false);
+    t.checkException(new IllegalStateException("Undo is not enabled for this game"), plain,
+        "undo");
+  }
+
+  void testPractice(Tester t) {
+    // the world takes moves back from the keyboard once undo is enabled
+    MineSweeper game = new MineSweeper(10, 9, 9, new Random(3));
+    game.onKeyEvent("u");
+    game.engine.enableUndo(100);
+    game.onMousePressed(new Posn(5, 5), "RightButton");
+    t.checkExpect(game.board.isFlagged(0), true);
+    game.onKeyEvent("u");
+    t.checkExpect(game.board.isFlagged(0), false);
+    game.onKeyEvent("r");
+    t.checkExpect(game.board.isFlagged(0), true);
+  }
+
+  void testFork(Tester t) {
+    Board board = new Board(100, 100);
+    new ReservoirLayout().placeMines(board, 1500, new Random(2), new int[0]);
+    board.updateValues();
+    CowBoard root = new CowBoard(board);
+    t.checkExpect(root.chunks.length, 3);
+    CowBoard left = root.fork();
+    CowBoard right = root.fork();
+    // forks share the chunks until they write
+    t.checkExpect(left.chunks == root.chunks, true);
+
+    int empty = cellWithValue(board, 0);
+    int opened = left.uncover(empty);
+    int mine = 0;
+    while (!board.isMine(mine)) {
+      mine++;
+    }
+    Board played = new Board(100, 100);
+    System.arraycopy(board.cells, 0, played.cells, 0, board.size);
+    played.recount();
+    t.checkExpect(opened, played.uncover(empty));
+    for (int i = 0; i < board.size; i++) {
+      t.checkExpect(left.state(i), (int) played.cells[i]);
+    }
+    t.checkExpect(left.status(), played.status());
+
+    // the other forks did not change
+    t.checkExpect(root.isCovered(empty), true);
+    t.checkExpect(right.isCovered(empty), true);
+    t.checkExpect(right.status(), board.status());
+    // only the chunks the flood reached were copied
+    for (int c = 0; c < left.chunks.length; c++) {
+      boolean reached = false;
+      for (int i = c * CowBoard.CHUNK; i < Math.min(board.size, (c + 1) * CowBoard.CHUNK); i++) {
+        reached = reached || !played.isCovered(i);
+      }
+      t.checkExpect(left.chunks[c] != right.chunks[c], reached);
+    }
+
+    // a fork of a fork, and writes to the parent after forking
+    CowBoard deeper = left.fork();
+    deeper.flag(mine);
+    t.checkExpect(deeper.isFlagged(mine), true);
+    t.checkExpect(left.isFlagged(mine), false);
+    left.uncover(mine);
+    t.checkExpect(left.status().isLost(), true);
+    t.checkExpect(deeper.isCovered(mine), true);
+    t.checkExpect(root.flagsPlaced + right.flagsPlaced + left.flagsPlaced, 0);
+
+    // through IBoard, a fork reads like the board it was made from
+    t.checkExpect(BoardUtils.countMines(right), (long) board.numMines);
+    t.checkExpect(right.cellState(mine), board.cellState(mine));
+    t.checkExpect(right.cellValue(empty), 0);
+    t.checkExpect(right.uncover(mine), 1);
+    t.checkExpect(right.uncover(mine), 0);
+    t.checkExpect(right.minesRevealedCount(), 1L);
+  }
+}
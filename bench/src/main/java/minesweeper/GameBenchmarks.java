@@ -0,0 +1,306 @@
+package minesweeper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javalib.impworld.*;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+// benchmarks the game on boards from beginner size up to 4000x4000, at the mine densities
+// of the beginner, intermediate and expert games; every board gets a fresh jvm
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx6g")
+public class GameBenchmarks {
+
+  // represents the board a benchmark runs on, its size is up to the subclass
+  public abstract static class ABoardParams {
+    @Param({"0.12", "0.16", "0.21"})
+    public String density;
+
+    @Param({"1"})
+    public long seed;
+
+    // returns the size of the board, as widthxheight
+    abstract String size();
+
+    // returns the width of the board
+    int width() {
+      return Integer.parseInt(this.size().split("x")[0]);
+    }
+
+    // returns the height of the board
+    int height() {
+      return Integer.parseInt(this.size().split("x")[1]);
+    }
+
+    // returns the number of mines the density asks for
+    int numMines() {
+      return (int) Math.round((long) this.width() * this.height()
+          * Double.parseDouble(this.density));
+    }
+
+    // returns a new game on this board
+    MineSweeper world() {
+      return new MineSweeper(this.numMines(), this.width(), this.height(),
+          new Random(this.seed));
+    }
+
+    // returns a board laid out the way MineSweeper lays out its boards
+    Board board() {
+      Board board = new Board(this.width(), this.height());
+      new InsertionLayout().placeMines(board, this.numMines(), new Random(this.seed),
+          new int[0]);
+      board.updateValues();
+      return board;
+    }
+
+    // returns the cells of a board as a list of unlinked cells
+    ArrayList<Cell> cellList() {
+      Board board = this.board();
+      ArrayList<Cell> cells = new ArrayList<Cell>(board.size);
+      for (int i = 0; i < board.size; i++) {
+        if (board.isMine(i)) {
+          cells.add(new Mine(new ArrayList<Cell>(), true, false));
+        } else {
+          cells.add(new Safe(new ArrayList<Cell>(), true, false, 0));
+        }
+      }
+      return cells;
+    }
+  }
+
+  // represents a board from beginner size up to 4000x4000
+  @State(Scope.Benchmark)
+  public static class BoardParams extends ABoardParams {
+    @Param({"9x9", "16x16", "30x16", "100x100", "1000x1000", "4000x4000"})
+    public String size;
+
+    // returns the size of the board
+    String size() {
+      return this.size;
+    }
+  }
+
+  // represents the board of a benchmark that holds an object for every cell, so the
+  // biggest board is left out
+  @State(Scope.Benchmark)
+  public static class ListParams extends ABoardParams {
+    @Param({"9x9", "16x16", "30x16", "100x100", "1000x1000"})
+    public String size;
+
+    // returns the size of the board
+    String size() {
+      return this.size;
+    }
+  }
+
+  // represents a list of linked cells
+  @State(Scope.Benchmark)
+  public static class CellList {
+    ArrayList<Cell> cells;
+    int width;
+    int height;
+    Utils u = new Utils();
+
+    // Effect: builds the list of cells of the board, linked to their neighbors
+    @Setup(Level.Trial)
+    public void setup(ListParams params) {
+      this.cells = params.cellList();
+      this.width = params.width();
+      this.height = params.height();
+      this.u.updateNeighbors(this.cells, this.width, this.height);
+    }
+  }
+
+  // represents a board with its values counted
+  @State(Scope.Benchmark)
+  public static class CountedBoard {
+    Board board;
+    Utils u = new Utils();
+
+    // Effect: lays out the board
+    @Setup(Level.Trial)
+    public void setup(BoardParams params) {
+      this.board = params.board();
+    }
+  }
+
+  // represents a covered board and the empty cell nearest its middle, covered again before
+  // every uncover; the reset is not timed, but on the smallest boards its overhead is
+  // about the size of the uncover itself
+  @State(Scope.Benchmark)
+  public static class CoveredBoard {
+    Board board;
+    byte[] covered;
+    Cell start;
+
+    // Effect: lays out the board and finds the cell to start from
+    @Setup(Level.Trial)
+    public void setup(BoardParams params) {
+      this.board = params.board();
+      this.covered = this.board.cells.clone();
+      this.start = new BoardCells(this.board).get(emptyNearMiddle(this.board));
+    }
+
+    // Effect: covers every cell of the board again
+    @Setup(Level.Invocation)
+    public void cover() {
+      System.arraycopy(this.covered, 0, this.board.cells, 0, this.covered.length);
+      this.board.recount();
+    }
+  }
+
+  // represents a partly played board that is drawn cell by cell
+  @State(Scope.Benchmark)
+  public static class DrawnBoard {
+    Board board;
+    Utils u = new Utils();
+
+    // Effect: lays out the board and uncovers the opening in its middle
+    @Setup(Level.Trial)
+    public void setup(ListParams params) {
+      this.board = params.board();
+      uncoverMiddle(this.board);
+    }
+  }
+
+  // represents a partly played game
+  @State(Scope.Benchmark)
+  public static class PlayedGame {
+    MineSweeper world;
+    Random rand;
+
+    // Effect: starts the game, uncovers the opening in its middle and draws it once
+    @Setup(Level.Trial)
+    public void setup(BoardParams params) {
+      this.world = params.world();
+      this.rand = new Random(params.seed);
+      uncoverMiddle(this.world.board);
+      this.world.makeScene();
+    }
+  }
+
+  // represents a partly played board saved to a file
+  @State(Scope.Benchmark)
+  public static class SavedBoard {
+    Path path;
+
+    // Effect: saves the board to a new temporary file
+    @Setup(Level.Trial)
+    public void setup(BoardParams params) throws IOException {
+      this.path = Files.createTempFile("bench", ".snap");
+      Board board = params.board();
+      uncoverMiddle(board);
+      Snapshot.write(this.path, board, params.seed);
+    }
+
+    // Effect: deletes the file
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      Files.deleteIfExists(this.path);
+    }
+  }
+
+  // benchmarks MineSweeper.initMakeCells, a whole new board with its mines and values
+  @Benchmark
+  public void initMakeCells(PlayedGame game, BoardParams params, Blackhole hole) {
+    hole.consume(game.world.initMakeCells(params.numMines(), params.width(),
+        params.height()));
+  }
+
+  // benchmarks Utils.updateNeighbors, linking a list of cells to their neighbors
+  @Benchmark
+  public void updateNeighbors(CellList list, Blackhole hole) {
+    list.u.updateNeighbors(list.cells, list.width, list.height);
+    hole.consume(list.cells);
+  }
+
+  // benchmarks Utils.updateValues over a list of linked cells
+  @Benchmark
+  public void updateValuesList(CellList list, Blackhole hole) {
+    list.u.updateValues(list.cells);
+    hole.consume(list.cells);
+  }
+
+  // benchmarks Utils.updateValues over a board
+  @Benchmark
+  public void updateValues(CountedBoard counted, Blackhole hole) {
+    counted.u.updateValues(counted.board);
+    hole.consume(counted.board);
+  }
+
+  // benchmarks Cell.uncover on the empty cell nearest the middle of the board, which floods
+  // through the opening around it
+  @Benchmark
+  public int uncover(CoveredBoard covered) {
+    covered.start.uncover();
+    return covered.board.coveredSafe;
+  }
+
+  // benchmarks Utils.drawCells, placing every cell of the board on a new scene
+  @Benchmark
+  public WorldScene drawCells(DrawnBoard drawn) {
+    WorldScene scene = new WorldScene(drawn.board.width * 20, drawn.board.height * 20);
+    drawn.u.drawCells(scene, drawn.board);
+    return scene;
+  }
+
+  // benchmarks MineSweeper.makeScene after one cell was flagged, a typical frame
+  @Benchmark
+  public WorldScene makeScene(PlayedGame game) {
+    game.world.board.flag(game.rand.nextInt(game.world.board.size));
+    return game.world.makeScene();
+  }
+
+  // benchmarks MineSweeper.worldEnds on a game still being played
+  @Benchmark
+  public void worldEnds(PlayedGame game, Blackhole hole) {
+    hole.consume(game.world.worldEnds().worldEnds);
+  }
+
+  // benchmarks Snapshot.read, loading a saved board from a memory mapped file
+  @Benchmark
+  public void snapshotRead(SavedBoard saved, Blackhole hole) throws IOException {
+    hole.consume(Snapshot.read(saved.path));
+  }
+
+  // returns the empty safe cell nearest the middle of the board, or the middle cell
+  static int emptyNearMiddle(Board board) {
+    int middle = board.index(board.height / 2, board.width / 2);
+    for (int distance = 0; distance < board.size; distance++) {
+      for (int idx : new int[] {middle - distance, middle + distance}) {
+        if (board.inBounds(idx) && !board.isMine(idx) && board.getValue(idx) == 0) {
+          return idx;
+        }
+      }
+    }
+    return middle;
+  }
+
+  // Effect: uncovers the opening nearest the middle, so that boards are partly played
+  static void uncoverMiddle(Board board) {
+    board.uncover(emptyNearMiddle(board));
+  }
+}